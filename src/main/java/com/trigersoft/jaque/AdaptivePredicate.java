@@ -0,0 +1,515 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Evaluates a {@link ExpressionType#LogicalAnd} or a
+ * {@link ExpressionType#LogicalOr} chain, adapting the order of the operands
+ * to their observed selectivity and cost. One of {@link #SAMPLE_RATE}
+ * evaluations, chosen at random by each thread, is measured, and every
+ * {@link #REORDER_SAMPLES} samples the operands are sorted by their expected
+ * cost of deciding the result, i.e. the evaluation time divided by the
+ * probability to short-circuit the chain.
+ * <p>
+ * Only the operands known to be free of side effects and not to throw are
+ * moved. The others - null and type checks, which may guard the operands
+ * following them, integral divisions, casts, unboxing and calls of arbitrary
+ * methods - stay in place and the operands are never moved across them. A
+ * member is accessed without throwing only on an instance known not to be
+ * {@code null}: a constant, a result of a constructor or a method known to
+ * return non-null, or an expression checked for {@code null} or dereferenced
+ * by an operand evaluated before, e.g. by the null check of
+ * {@code p.getName() != null && p.getName().length() > 3}. The methods known
+ * not to throw are a few methods of {@link String}, the boxed types,
+ * {@link Math} and {@link Objects}, and the getters, i.e. the methods named
+ * {@code get*} or {@code is*} without parameters, which are assumed to follow
+ * the accessor convention.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class AdaptivePredicate implements Function<Object[], Object> {
+
+	/**
+	 * One of that many evaluations is measured.
+	 */
+	static final int SAMPLE_RATE = 16;
+	/**
+	 * The number of samples between the reorderings.
+	 */
+	static final int REORDER_SAMPLES = 1 << 10;
+
+	// the methods not throwing on a non-null instance, whatever the arguments
+	private static final Set<Method> PureMethods = new HashSet<Method>();
+
+	static {
+		pure(String.class, "equals", Object.class);
+		pure(String.class, "equalsIgnoreCase", String.class);
+		pure(String.class, "length");
+		pure(String.class, "isEmpty");
+		pure(String.class, "trim");
+		pure(String.class, "toLowerCase");
+		pure(String.class, "toUpperCase");
+		pure(String.class, "hashCode");
+		pure(String.class, "toString");
+
+		pure(Boolean.class, "booleanValue");
+		pure(Character.class, "charValue");
+		pure(Boolean.class, "compare", Boolean.TYPE, Boolean.TYPE);
+		pure(Character.class, "compare", Character.TYPE, Character.TYPE);
+		for (Class<?> type : Arrays.<Class<?>> asList(Byte.class, Short.class,
+				Integer.class, Long.class, Float.class, Double.class)) {
+			for (String name : Arrays.asList("byteValue", "shortValue",
+					"intValue", "longValue", "floatValue", "doubleValue"))
+				pure(type, name);
+		}
+		pure(Integer.class, "compare", Integer.TYPE, Integer.TYPE);
+		pure(Long.class, "compare", Long.TYPE, Long.TYPE);
+		pure(Double.class, "compare", Double.TYPE, Double.TYPE);
+		pure(Double.class, "isNaN", Double.TYPE);
+		for (Class<?> type : Arrays.<Class<?>> asList(Boolean.class,
+				Character.class, Byte.class, Short.class, Integer.class,
+				Long.class, Float.class, Double.class)) {
+			pure(type, "equals", Object.class);
+			pure(type, "hashCode");
+		}
+
+		for (Class<?> type : Arrays.<Class<?>> asList(Integer.TYPE, Long.TYPE,
+				Float.TYPE, Double.TYPE)) {
+			pure(Math.class, "abs", type);
+			pure(Math.class, "min", type, type);
+			pure(Math.class, "max", type, type);
+		}
+
+		pure(Objects.class, "equals", Object.class, Object.class);
+		pure(Objects.class, "isNull", Object.class);
+		pure(Objects.class, "nonNull", Object.class);
+		pure(Objects.class, "hashCode", Object.class);
+	}
+
+	private final boolean _and;
+	private final Function<Object[], ?>[] _operands;
+	private final boolean[] _pinned;
+	private volatile int[] _order;
+
+	// guarded by this
+	private final long[] _evaluations;
+	private final long[] _shortCircuits;
+	private final long[] _nanos;
+	private int _samples;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private AdaptivePredicate(boolean and, List<Expression> operands,
+			List<Class<?>> paramTypes, boolean[] pinned) {
+		_and = and;
+		_pinned = pinned;
+		int count = operands.size();
+		_operands = new Function[count];
+		for (int i = 0; i < count; i++)
+			_operands[i] = Expression.lambda(Boolean.TYPE, operands.get(i),
+					paramTypes).compile();
+
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++)
+			order[i] = i;
+		_order = order;
+
+		_evaluations = new long[count];
+		_shortCircuits = new long[count];
+		_nanos = new long[count];
+	}
+
+	/**
+	 * Compiles the predicate, evaluating the top level
+	 * {@link ExpressionType#LogicalAnd} or {@link ExpressionType#LogicalOr}
+	 * chain adaptively, if it has operands which may be reordered.
+	 *
+	 * @param predicate
+	 *            the predicate.
+	 * @return the compiled predicate.
+	 */
+	static Function<Object[], ?> compile(LambdaExpression<?> predicate) {
+		Expression body = predicate.getBody();
+		int type = body.getExpressionType();
+		if (type != ExpressionType.LogicalAnd && type != ExpressionType.LogicalOr)
+			return predicate.compile();
+
+		List<Expression> operands = new ArrayList<Expression>();
+		flatten(body, type, operands);
+		boolean and = type == ExpressionType.LogicalAnd;
+		boolean[] pinned = new boolean[operands.size()];
+		boolean movable = false;
+		// known to be non-null by the operands evaluated before the run
+		Set<Expression> nonNull = new HashSet<Expression>();
+		int run = 0;
+		for (int i = 0; i < pinned.length; i++) {
+			pinned[i] = !isMovable(operands.get(i), nonNull);
+			// two adjacent movable operands may swap
+			if (i > 0 && !pinned[i] && !pinned[i - 1])
+				movable = true;
+
+			if (pinned[i]) {
+				// the run and the pinned operand are evaluated before the
+				// following operands
+				for (; run <= i; run++)
+					addNonNull(operands.get(run), and, nonNull);
+			}
+		}
+
+		if (!movable)
+			return predicate.compile();
+
+		return new AdaptivePredicate(and, operands, predicate.getParamTypes(), pinned);
+	}
+
+	private static void flatten(Expression e, int type, List<Expression> operands) {
+		if (e.getExpressionType() != type) {
+			operands.add(e);
+			return;
+		}
+
+		BinaryExpression b = (BinaryExpression) e;
+		flatten(b.getFirst(), type, operands);
+		flatten(b.getSecond(), type, operands);
+	}
+
+	private static boolean isNull(Expression e) {
+		return e.getExpressionType() == ExpressionType.Constant
+				&& ((ConstantExpression) e).getValue() == null;
+	}
+
+	private static void pure(Class<?> type, String name, Class<?>... parameterTypes) {
+		try {
+			PureMethods.add(type.getMethod(name, parameterTypes));
+		} catch (NoSuchMethodException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static Expression stripConvert(Expression e) {
+		while (e.getExpressionType() == ExpressionType.Convert
+				&& !e.getResultType().isPrimitive())
+			e = ((UnaryExpression) e).getFirst();
+		return e;
+	}
+
+	/**
+	 * Checks whether the expression is known not to evaluate to {@code null}.
+	 */
+	static boolean isNonNull(Expression e, Set<Expression> nonNull) {
+		e = stripConvert(e);
+		if (e.getResultType().isPrimitive() || nonNull.contains(e))
+			return true;
+
+		switch (e.getExpressionType()) {
+		case ExpressionType.Constant:
+			return ((ConstantExpression) e).getValue() != null;
+		case ExpressionType.This:
+		case ExpressionType.New:
+			return true;
+		case ExpressionType.MethodAccess:
+			// the known methods return non-null references
+			return PureMethods.contains(((MemberExpression) e).getMember());
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Collects the expressions known to be non-null once the operand is
+	 * evaluated without short-circuiting the chain: the expressions checked
+	 * for {@code null} and the ones dereferenced on each evaluation.
+	 */
+	private static void addNonNull(Expression operand, boolean and,
+			Set<Expression> nonNull) {
+		Expression checked = nullChecked(operand, !and);
+		if (checked != null)
+			nonNull.add(stripConvert(checked));
+		addDereferenced(operand, nonNull);
+	}
+
+	/**
+	 * Gets the expression compared with {@code null}, if the operand is such
+	 * a comparison, evaluating to {@code isNull} when it is.
+	 */
+	private static Expression nullChecked(Expression e, boolean isNull) {
+		switch (e.getExpressionType()) {
+		case ExpressionType.LogicalNot:
+			return nullChecked(((UnaryExpression) e).getFirst(), !isNull);
+		case ExpressionType.IsNull:
+			return isNull ? ((UnaryExpression) e).getFirst() : null;
+		case ExpressionType.Equal:
+		case ExpressionType.NotEqual:
+			if ((e.getExpressionType() == ExpressionType.Equal) != isNull)
+				return null;
+			BinaryExpression b = (BinaryExpression) e;
+			if (isNull(b.getSecond()))
+				return b.getFirst();
+			if (isNull(b.getFirst()))
+				return b.getSecond();
+			return null;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Collects the instances dereferenced on each evaluation of the
+	 * expression, i.e. not in a conditionally evaluated part.
+	 */
+	private static void addDereferenced(Expression e, Set<Expression> nonNull) {
+		if (e instanceof BinaryExpression) {
+			BinaryExpression b = (BinaryExpression) e;
+			switch (e.getExpressionType()) {
+			case ExpressionType.LogicalAnd:
+			case ExpressionType.LogicalOr:
+				addDereferenced(b.getFirst(), nonNull);
+				return;
+			case ExpressionType.Conditional:
+				addDereferenced(b.getOperator(), nonNull);
+				return;
+			case ExpressionType.ArrayIndex:
+				nonNull.add(stripConvert(b.getFirst()));
+				break;
+			}
+			addDereferenced(b.getFirst(), nonNull);
+			addDereferenced(b.getSecond(), nonNull);
+		} else if (e instanceof UnaryExpression) {
+			Expression first = ((UnaryExpression) e).getFirst();
+			// array length and unboxing
+			if (e.getExpressionType() == ExpressionType.ArrayLength
+					|| (e.getExpressionType() == ExpressionType.Convert
+							&& e.getResultType().isPrimitive() && !first
+							.getResultType().isPrimitive()))
+				nonNull.add(stripConvert(first));
+			addDereferenced(first, nonNull);
+		} else if (e instanceof MemberExpression) {
+			MemberExpression m = (MemberExpression) e;
+			Expression instance = m.getInstance();
+			if (instance != null) {
+				nonNull.add(stripConvert(instance));
+				addDereferenced(instance, nonNull);
+			}
+			for (Expression arg : m.getArguments())
+				addDereferenced(arg, nonNull);
+		}
+	}
+
+	/**
+	 * Checks whether the expression may be evaluated in any order relatively to
+	 * other expressions.
+	 */
+	static boolean isMovable(Expression e) {
+		return isMovable(e, new HashSet<Expression>());
+	}
+
+	/**
+	 * Checks whether the expression may be evaluated in any order relatively to
+	 * other expressions, given the expressions known to be non-null.
+	 */
+	static boolean isMovable(Expression e, Set<Expression> nonNull) {
+		boolean[] movable = { true };
+		e.accept(new SimpleExpressionVisitor() {
+			@Override
+			public Expression visit(BinaryExpression e) {
+				switch (e.getExpressionType()) {
+				case ExpressionType.Equal:
+				case ExpressionType.NotEqual:
+					// a null check guards what follows
+					if (isNull(e.getFirst()) || isNull(e.getSecond()))
+						movable[0] = false;
+					break;
+				case ExpressionType.Divide:
+				case ExpressionType.Modulo:
+					Class<?> type = e.getResultType();
+					if (type != Float.TYPE && type != Double.TYPE)
+						movable[0] = false;
+					break;
+				case ExpressionType.ArrayIndex:
+				case ExpressionType.InstanceOf:
+					movable[0] = false;
+					break;
+				}
+				return movable[0] ? super.visit(e) : e;
+			}
+
+			@Override
+			public Expression visit(UnaryExpression e) {
+				switch (e.getExpressionType()) {
+				case ExpressionType.IsNull:
+					movable[0] = false;
+					break;
+				case ExpressionType.Convert:
+					Class<?> from = e.getFirst().getResultType();
+					Class<?> to = e.getResultType();
+					// unboxing null throws, downcasting may throw as well
+					if (from.isPrimitive() || to.isAssignableFrom(from))
+						break;
+					if (!to.isPrimitive() || !isNonNull(e.getFirst(), nonNull))
+						movable[0] = false;
+					break;
+				}
+				return movable[0] ? super.visit(e) : e;
+			}
+
+			@Override
+			public Expression visit(MemberExpression e) {
+				Expression instance = e.getInstance();
+				if (!isPure(e.getMember())
+						|| (instance != null && !isNonNull(instance, nonNull)))
+					movable[0] = false;
+				return movable[0] ? super.visit(e) : e;
+			}
+
+			@Override
+			public Expression visit(LambdaInvocationExpression e) {
+				movable[0] = false;
+				return e;
+			}
+		});
+		return movable[0];
+	}
+
+	private static boolean isPure(Member member) {
+		if (member instanceof Field)
+			return true;
+		if (!(member instanceof Method))
+			return false;
+
+		Method m = (Method) member;
+		if (PureMethods.contains(m))
+			return true;
+
+		String name = m.getName();
+		return !Modifier.isStatic(m.getModifiers())
+				&& m.getParameterCount() == 0 && m.getReturnType() != Void.TYPE
+				&& (name.startsWith("get") || name.startsWith("is"));
+	}
+
+	@Override
+	public Object apply(Object[] args) {
+		int[] order = _order;
+		if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) != 0) {
+			for (int i : order)
+				if ((Boolean) _operands[i].apply(args) != _and)
+					return !_and;
+			return _and;
+		}
+
+		long[] nanos = new long[order.length];
+		int last = order.length;
+		boolean result = _and;
+		for (int j = 0; j < order.length; j++) {
+			int i = order[j];
+			long start = System.nanoTime();
+			boolean r = (Boolean) _operands[i].apply(args);
+			nanos[i] = System.nanoTime() - start;
+			if (r != _and) {
+				last = j;
+				result = !_and;
+				break;
+			}
+		}
+
+		record(order, nanos, last);
+		return result;
+	}
+
+	private synchronized void record(int[] order, long[] nanos, int last) {
+		for (int j = 0; j < order.length && j <= last; j++) {
+			int i = order[j];
+			_evaluations[i]++;
+			_nanos[i] += nanos[i];
+			if (j == last)
+				_shortCircuits[i]++;
+		}
+
+		if (++_samples < REORDER_SAMPLES)
+			return;
+
+		_samples = 0;
+		reorder();
+		// decay, so that the order follows the data changes
+		for (int i = 0; i < _evaluations.length; i++) {
+			_evaluations[i] >>= 1;
+			_shortCircuits[i] >>= 1;
+			_nanos[i] >>= 1;
+		}
+	}
+
+	private void reorder() {
+		int count = _operands.length;
+		double[] rank = new double[count];
+		for (int i = 0; i < count; i++) {
+			long evaluations = Math.max(_evaluations[i], 1);
+			double cost = (double) _nanos[i] / evaluations;
+			// the operands never short-circuiting go last
+			double p = (_shortCircuits[i] + 0.5) / (evaluations + 1);
+			rank[i] = cost / p;
+		}
+
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++)
+			order[i] = i;
+
+		// the pinned operands split the chain into independently sorted runs
+		for (int from = 0; from < count;) {
+			if (_pinned[from]) {
+				from++;
+				continue;
+			}
+			int to = from + 1;
+			while (to < count && !_pinned[to])
+				to++;
+			Arrays.sort(order, from, to,
+					Comparator.<Integer> comparingDouble(i -> rank[i]));
+			from = to;
+		}
+
+		int[] newOrder = new int[count];
+		for (int i = 0; i < count; i++)
+			newOrder[i] = order[i];
+		_order = newOrder;
+	}
+
+	/**
+	 * Gets the current evaluation order of the chain operands.
+	 *
+	 * @return the operand indexes.
+	 */
+	int[] getOrder() {
+		return _order.clone();
+	}
+}
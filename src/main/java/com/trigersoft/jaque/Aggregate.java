@@ -0,0 +1,691 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Describes an aggregate function computed over the elements of each group,
+ * see {@link GroupedQueryable#aggregate(Aggregate...)}. The accumulator is
+ * chosen by the static result type of the value lambda: the primitive
+ * integral values are accumulated as {@code long} and the primitive floating
+ * point values as {@code double}, without boxing. The boxed values are
+ * accumulated the same, skipping the {@code null}s, except for
+ * {@link BigInteger} and {@link BigDecimal}, which are accumulated exactly.
+ * The other {@link Number}s are accumulated as {@code double}.
+ *
+ * @param <E>
+ *            the type of the elements.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public final class Aggregate<E> {
+
+	private static final int COUNT = 0;
+	private static final int SUM = 1;
+	private static final int MIN = 2;
+	private static final int MAX = 3;
+	private static final int AVERAGE = 4;
+
+	private final int _kind;
+	private final LambdaExpression<?> _value;
+
+	private Aggregate(int kind, LambdaExpression<?> value) {
+		_kind = kind;
+		_value = value;
+	}
+
+	/**
+	 * Counts the elements.
+	 *
+	 * @param <E>
+	 *            the type of the elements.
+	 * @return the aggregate producing a {@link Long}.
+	 */
+	public static <E> Aggregate<E> count() {
+		return new Aggregate<E>(COUNT, null);
+	}
+
+	/**
+	 * Sums the values.
+	 *
+	 * @param <E>
+	 *            the type of the elements.
+	 * @param value
+	 *            a lambda to extract the value from an element.
+	 * @return the aggregate producing a {@link Long} for the integral values,
+	 *         a {@link BigInteger} or a {@link BigDecimal} for these values
+	 *         and a {@link Double} otherwise.
+	 */
+	public static <E> Aggregate<E> sum(Function<? super E, ? extends Number> value) {
+		return new Aggregate<E>(SUM, LambdaExpression.parse(value));
+	}
+
+	/**
+	 * Finds the minimal value.
+	 *
+	 * @param <E>
+	 *            the type of the elements.
+	 * @param value
+	 *            a lambda to extract the value from an element.
+	 * @return the aggregate producing a {@link Long} for the {@code long}
+	 *         values, an {@link Integer} for the narrower integral values, a
+	 *         {@link BigInteger} or a {@link BigDecimal} for these values and
+	 *         a {@link Double} otherwise.
+	 */
+	public static <E> Aggregate<E> min(Function<? super E, ? extends Number> value) {
+		return new Aggregate<E>(MIN, LambdaExpression.parse(value));
+	}
+
+	/**
+	 * Finds the maximal value.
+	 *
+	 * @param <E>
+	 *            the type of the elements.
+	 * @param value
+	 *            a lambda to extract the value from an element.
+	 * @return the aggregate producing a {@link Long} for the {@code long}
+	 *         values, an {@link Integer} for the narrower integral values, a
+	 *         {@link BigInteger} or a {@link BigDecimal} for these values and
+	 *         a {@link Double} otherwise.
+	 */
+	public static <E> Aggregate<E> max(Function<? super E, ? extends Number> value) {
+		return new Aggregate<E>(MAX, LambdaExpression.parse(value));
+	}
+
+	/**
+	 * Averages the values.
+	 *
+	 * @param <E>
+	 *            the type of the elements.
+	 * @param value
+	 *            a lambda to extract the value from an element.
+	 * @return the aggregate producing a {@link BigDecimal} for the
+	 *         {@link BigInteger} and {@link BigDecimal} values, and a
+	 *         {@link Double} otherwise.
+	 */
+	public static <E> Aggregate<E> average(
+			Function<? super E, ? extends Number> value) {
+		return new Aggregate<E>(AVERAGE, LambdaExpression.parse(value));
+	}
+
+	/**
+	 * Gets the value lambda.
+	 *
+	 * @return the value lambda, or {@code null} for {@link #count()}.
+	 */
+	LambdaExpression<?> getValue() {
+		return _value;
+	}
+
+	/**
+	 * Creates the factory of the accumulators computing this aggregate.
+	 *
+	 * @return the factory of the accumulators.
+	 */
+	Supplier<Accumulator> compile() {
+		if (_kind == COUNT)
+			return Count::new;
+
+		Class<?> type = PrimitiveGetters.getResultType(_value);
+		if (!type.isPrimitive())
+			return compile(type);
+
+		Class<?> boxed = IndexPlanner.box(type);
+		boolean integral = boxed == Integer.class || boxed == Long.class
+				|| boxed == Short.class || boxed == Byte.class
+				|| boxed == Character.class;
+		if (integral) {
+			ToLongFunction<Object> value = PrimitiveGetters.toLong(_value);
+			boolean narrow = boxed != Long.class;
+			switch (_kind) {
+			case SUM:
+				return () -> new LongSum(value);
+			case MIN:
+				return () -> new LongExtreme(value, false, narrow);
+			case MAX:
+				return () -> new LongExtreme(value, true, narrow);
+			default:
+				return () -> new LongAverage(value);
+			}
+		}
+
+		ToDoubleFunction<Object> value = PrimitiveGetters.toDouble(_value);
+		switch (_kind) {
+		case SUM:
+			return () -> new DoubleSum(value);
+		case MIN:
+			return () -> new DoubleExtreme(value, false);
+		case MAX:
+			return () -> new DoubleExtreme(value, true);
+		default:
+			return () -> new DoubleAverage(value);
+		}
+	}
+
+	/**
+	 * Creates the factory of the accumulators of the boxed values, skipping
+	 * the {@code null}s.
+	 */
+	private Supplier<Accumulator> compile(Class<?> type) {
+		Numeric numeric;
+		if (type == Integer.class || type == Long.class
+				|| type == Short.class || type == Byte.class)
+			numeric = Numeric.LONG;
+		else if (type == BigInteger.class)
+			numeric = Numeric.BIG_INTEGER;
+		else if (type == BigDecimal.class)
+			numeric = Numeric.BIG_DECIMAL;
+		else
+			numeric = Numeric.DOUBLE;
+
+		Function<Object[], ?> f = QueryPipeline.compile(_value);
+		Function<Object, Number> value = e -> (Number) QueryPipeline.invoke(
+				f, e);
+		boolean narrow = numeric == Numeric.LONG && type != Long.class;
+		switch (_kind) {
+		case SUM:
+			return () -> new NumberSum(value, numeric);
+		case MIN:
+			return () -> new NumberExtreme(value, numeric, false, narrow);
+		case MAX:
+			return () -> new NumberExtreme(value, numeric, true, narrow);
+		default:
+			return () -> new NumberAverage(value, numeric);
+		}
+	}
+
+	@Override
+	public String toString() {
+		String name;
+		switch (_kind) {
+		case COUNT:
+			return "count()";
+		case SUM:
+			name = "sum";
+			break;
+		case MIN:
+			name = "min";
+			break;
+		case MAX:
+			name = "max";
+			break;
+		default:
+			name = "average";
+			break;
+		}
+		return name + "(" + _value + ")";
+	}
+
+	/**
+	 * Accumulates the elements of a group. The accumulators of the parts of a
+	 * group can be merged.
+	 */
+	static abstract class Accumulator {
+		abstract void add(Object e);
+
+		/**
+		 * Merges the accumulator of the elements following the elements of
+		 * this one.
+		 *
+		 * @param other
+		 *            the accumulator of the same aggregate.
+		 */
+		abstract void merge(Accumulator other);
+
+		abstract Object get();
+	}
+
+	private static final class Count extends Accumulator {
+		private long _count;
+
+		@Override
+		void add(Object e) {
+			_count++;
+		}
+
+		@Override
+		void merge(Accumulator other) {
+			_count += ((Count) other)._count;
+		}
+
+		@Override
+		Object get() {
+			return _count;
+		}
+	}
+
+	private static final class LongSum extends Accumulator {
+		private final ToLongFunction<Object> _value;
+		private long _sum;
+
+		LongSum(ToLongFunction<Object> value) {
+			_value = value;
+		}
+
+		@Override
+		void add(Object e) {
+			_sum += _value.applyAsLong(e);
+		}
+
+		@Override
+		void merge(Accumulator other) {
+			_sum += ((LongSum) other)._sum;
+		}
+
+		@Override
+		Object get() {
+			return _sum;
+		}
+	}
+
+	private static final class LongExtreme extends Accumulator {
+		private final ToLongFunction<Object> _value;
+		private final boolean _max;
+		private final boolean _narrow;
+		private long _extreme;
+		private boolean _empty = true;
+
+		LongExtreme(ToLongFunction<Object> value, boolean max, boolean narrow) {
+			_value = value;
+			_max = max;
+			_narrow = narrow;
+		}
+
+		private void add(long v) {
+			if (_empty || (_max ? v > _extreme : v < _extreme))
+				_extreme = v;
+			_empty = false;
+		}
+
+		@Override
+		void add(Object e) {
+			add(_value.applyAsLong(e));
+		}
+
+		@Override
+		void merge(Accumulator other) {
+			LongExtreme o = (LongExtreme) other;
+			if (!o._empty)
+				add(o._extreme);
+		}
+
+		@Override
+		Object get() {
+			if (_empty)
+				return null;
+			return _narrow ? (Object) (int) _extreme : (Object) _extreme;
+		}
+	}
+
+	private static final class LongAverage extends Accumulator {
+		private final ToLongFunction<Object> _value;
+		private long _sum;
+		private long _count;
+
+		LongAverage(ToLongFunction<Object> value) {
+			_value = value;
+		}
+
+		@Override
+		void add(Object e) {
+			_sum += _value.applyAsLong(e);
+			_count++;
+		}
+
+		@Override
+		void merge(Accumulator other) {
+			LongAverage o = (LongAverage) other;
+			_sum += o._sum;
+			_count += o._count;
+		}
+
+		@Override
+		Object get() {
+			return _count == 0 ? null : (double) _sum / _count;
+		}
+	}
+
+	private static final class DoubleSum extends Accumulator {
+		private final ToDoubleFunction<Object> _value;
+		private double _sum;
+
+		DoubleSum(ToDoubleFunction<Object> value) {
+			_value = value;
+		}
+
+		@Override
+		void add(Object e) {
+			_sum += _value.applyAsDouble(e);
+		}
+
+		@Override
+		void merge(Accumulator other) {
+			_sum += ((DoubleSum) other)._sum;
+		}
+
+		@Override
+		Object get() {
+			return _sum;
+		}
+	}
+
+	private static final class DoubleExtreme extends Accumulator {
+		private final ToDoubleFunction<Object> _value;
+		private final boolean _max;
+		private double _extreme;
+		private boolean _empty = true;
+
+		DoubleExtreme(ToDoubleFunction<Object> value, boolean max) {
+			_value = value;
+			_max = max;
+		}
+
+		private void add(double v) {
+			_extreme = _empty ? v : _max ? Math.max(_extreme, v) : Math.min(
+					_extreme, v);
+			_empty = false;
+		}
+
+		@Override
+		void add(Object e) {
+			add(_value.applyAsDouble(e));
+		}
+
+		@Override
+		void merge(Accumulator other) {
+			DoubleExtreme o = (DoubleExtreme) other;
+			if (!o._empty)
+				add(o._extreme);
+		}
+
+		@Override
+		Object get() {
+			return _empty ? null : (Object) _extreme;
+		}
+	}
+
+	private static final class DoubleAverage extends Accumulator {
+		private final ToDoubleFunction<Object> _value;
+		private double _sum;
+		private long _count;
+
+		DoubleAverage(ToDoubleFunction<Object> value) {
+			_value = value;
+		}
+
+		@Override
+		void add(Object e) {
+			_sum += _value.applyAsDouble(e);
+			_count++;
+		}
+
+		@Override
+		void merge(Accumulator other) {
+			DoubleAverage o = (DoubleAverage) other;
+			_sum += o._sum;
+			_count += o._count;
+		}
+
+		@Override
+		Object get() {
+			return _count == 0 ? null : _sum / _count;
+		}
+	}
+
+	/**
+	 * The arithmetic of the boxed values.
+	 */
+	private enum Numeric {
+		LONG {
+			@Override
+			Number zero() {
+				return 0L;
+			}
+
+			@Override
+			Number valueOf(Number n) {
+				return n.longValue();
+			}
+
+			@Override
+			Number add(Number a, Number b) {
+				return a.longValue() + b.longValue();
+			}
+
+			@Override
+			Number extreme(Number a, Number b, boolean max) {
+				return max ? Math.max(a.longValue(), b.longValue()) : Math
+						.min(a.longValue(), b.longValue());
+			}
+
+			@Override
+			Object average(Number sum, long count) {
+				return (double) sum.longValue() / count;
+			}
+		},
+		DOUBLE {
+			@Override
+			Number zero() {
+				return 0d;
+			}
+
+			@Override
+			Number valueOf(Number n) {
+				return n.doubleValue();
+			}
+
+			@Override
+			Number add(Number a, Number b) {
+				return a.doubleValue() + b.doubleValue();
+			}
+
+			@Override
+			Number extreme(Number a, Number b, boolean max) {
+				return max ? Math.max(a.doubleValue(), b.doubleValue()) : Math
+						.min(a.doubleValue(), b.doubleValue());
+			}
+
+			@Override
+			Object average(Number sum, long count) {
+				return sum.doubleValue() / count;
+			}
+		},
+		BIG_INTEGER {
+			@Override
+			Number zero() {
+				return BigInteger.ZERO;
+			}
+
+			@Override
+			Number valueOf(Number n) {
+				return n;
+			}
+
+			@Override
+			Number add(Number a, Number b) {
+				return ((BigInteger) a).add((BigInteger) b);
+			}
+
+			@Override
+			Number extreme(Number a, Number b, boolean max) {
+				return max ? ((BigInteger) a).max((BigInteger) b)
+						: ((BigInteger) a).min((BigInteger) b);
+			}
+
+			@Override
+			Object average(Number sum, long count) {
+				return new BigDecimal((BigInteger) sum).divide(
+						BigDecimal.valueOf(count), MathContext.DECIMAL128);
+			}
+		},
+		BIG_DECIMAL {
+			@Override
+			Number zero() {
+				return BigDecimal.ZERO;
+			}
+
+			@Override
+			Number valueOf(Number n) {
+				return n;
+			}
+
+			@Override
+			Number add(Number a, Number b) {
+				return ((BigDecimal) a).add((BigDecimal) b);
+			}
+
+			@Override
+			Number extreme(Number a, Number b, boolean max) {
+				return max ? ((BigDecimal) a).max((BigDecimal) b)
+						: ((BigDecimal) a).min((BigDecimal) b);
+			}
+
+			@Override
+			Object average(Number sum, long count) {
+				return ((BigDecimal) sum).divide(BigDecimal.valueOf(count),
+						MathContext.DECIMAL128);
+			}
+		};
+
+		/**
+		 * Converts a value to the accumulated type.
+		 */
+		abstract Number valueOf(Number n);
+
+		abstract Number add(Number a, Number b);
+
+		abstract Number extreme(Number a, Number b, boolean max);
+
+		abstract Object average(Number sum, long count);
+
+		abstract Number zero();
+	}
+
+	private static final class NumberSum extends Accumulator {
+		private final Function<Object, Number> _value;
+		private final Numeric _numeric;
+		private Number _sum;
+
+		NumberSum(Function<Object, Number> value, Numeric numeric) {
+			_value = value;
+			_numeric = numeric;
+			_sum = numeric.zero();
+		}
+
+		@Override
+		void add(Object e) {
+			Number v = _value.apply(e);
+			if (v != null)
+				_sum = _numeric.add(_sum, _numeric.valueOf(v));
+		}
+
+		@Override
+		void merge(Accumulator other) {
+			_sum = _numeric.add(_sum, ((NumberSum) other)._sum);
+		}
+
+		@Override
+		Object get() {
+			return _sum;
+		}
+	}
+
+	private static final class NumberExtreme extends Accumulator {
+		private final Function<Object, Number> _value;
+		private final Numeric _numeric;
+		private final boolean _max;
+		private final boolean _narrow;
+		private Number _extreme;
+
+		NumberExtreme(Function<Object, Number> value, Numeric numeric,
+				boolean max, boolean narrow) {
+			_value = value;
+			_numeric = numeric;
+			_max = max;
+			_narrow = narrow;
+		}
+
+		private void add(Number v) {
+			_extreme = _extreme == null ? v : _numeric.extreme(_extreme, v,
+					_max);
+		}
+
+		@Override
+		void add(Object e) {
+			Number v = _value.apply(e);
+			if (v != null)
+				add(_numeric.valueOf(v));
+		}
+
+		@Override
+		void merge(Accumulator other) {
+			NumberExtreme o = (NumberExtreme) other;
+			if (o._extreme != null)
+				add(o._extreme);
+		}
+
+		@Override
+		Object get() {
+			return _narrow && _extreme != null ? (Object) _extreme.intValue()
+					: _extreme;
+		}
+	}
+
+	private static final class NumberAverage extends Accumulator {
+		private final Function<Object, Number> _value;
+		private final Numeric _numeric;
+		private Number _sum;
+		private long _count;
+
+		NumberAverage(Function<Object, Number> value, Numeric numeric) {
+			_value = value;
+			_numeric = numeric;
+			_sum = numeric.zero();
+		}
+
+		@Override
+		void add(Object e) {
+			Number v = _value.apply(e);
+			if (v != null) {
+				_sum = _numeric.add(_sum, _numeric.valueOf(v));
+				_count++;
+			}
+		}
+
+		@Override
+		void merge(Accumulator other) {
+			NumberAverage o = (NumberAverage) other;
+			_sum = _numeric.add(_sum, o._sum);
+			_count += o._count;
+		}
+
+		@Override
+		Object get() {
+			return _count == 0 ? null : _numeric.average(_sum, _count);
+		}
+	}
+}
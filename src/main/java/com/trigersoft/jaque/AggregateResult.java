@@ -0,0 +1,52 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+/**
+ * Represents the aggregates computed over a group of elements that have a
+ * common key, see {@link GroupedQueryable#aggregate(Aggregate...)}.
+ *
+ * @param <K>
+ *            the type of the key.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public interface AggregateResult<K> {
+	/**
+	 * Gets the key of the group.
+	 *
+	 * @return the key of the group.
+	 */
+	K getKey();
+
+	/**
+	 * Gets the number of the aggregates.
+	 *
+	 * @return the number of the aggregates.
+	 */
+	int size();
+
+	/**
+	 * Gets the value of an aggregate.
+	 *
+	 * @param index
+	 *            the index of the aggregate, in the order they were specified.
+	 * @return the aggregate value.
+	 */
+	Object get(int index);
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Computes the {@link Aggregate}s of groups. The elements are either grouped
+ * by a key and accumulated as they are read, without creating the groups, or
+ * read from the {@link Grouping}s of the source.
+ * <p>
+ * When grouping by a key a large enough collection, the collection is
+ * accumulated in parallel chunks, which partial results are merged in order.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class Aggregation implements Iterable<Object> {
+
+	private final Iterable<?> _source;
+	private final LambdaExpression<?> _key;
+	private final Aggregate<?>[] _aggregates;
+	private final ForkJoinPool _pool;
+
+	/**
+	 * Creates the aggregation.
+	 *
+	 * @param source
+	 *            the elements, or the {@link Grouping}s if the key is
+	 *            {@code null}.
+	 * @param key
+	 *            the key selector, or {@code null}.
+	 * @param aggregates
+	 *            the aggregates.
+	 * @param pool
+	 *            the pool to execute on in parallel, or {@code null}.
+	 */
+	Aggregation(Iterable<?> source, LambdaExpression<?> key,
+			Aggregate<?>[] aggregates, ForkJoinPool pool) {
+		_source = source;
+		_key = key;
+		_aggregates = aggregates;
+		_pool = pool;
+	}
+
+	@Override
+	public Iterator<Object> iterator() {
+		List<Supplier<Aggregate.Accumulator>> factories = new ArrayList<Supplier<Aggregate.Accumulator>>(
+				_aggregates.length);
+		for (Aggregate<?> a : _aggregates)
+			factories.add(a.compile());
+
+		QueryStageEvent event = QueryPipeline.beginStage("aggregate", _source);
+		if (_key == null) {
+			List<Object> rows = new ArrayList<Object>();
+			for (Object g : _source) {
+				Row row = new Row(((Grouping<?, ?>) g).getKey(), factories);
+				for (Object e : (Grouping<?, ?>) g)
+					row.add(e);
+				rows.add(row);
+			}
+			QueryPipeline.endStage(event, rows.size());
+			return rows.iterator();
+		}
+
+		Function<Object[], ?> key = QueryPipeline.compile(_key);
+		Map<Object, Row> rows;
+		if (isParallel()) {
+			rows = ParallelExecution.reduce((Collection<?>) _source, _pool,
+					LinkedHashMap<Object, Row>::new,
+					(map, e) -> add(map, key, factories, e), Aggregation::merge);
+		} else {
+			rows = new LinkedHashMap<Object, Row>();
+			for (Object e : _source)
+				add(rows, key, factories, e);
+		}
+		QueryPipeline.endStage(event, rows.size());
+
+		return new ArrayList<Object>(rows.values()).iterator();
+	}
+
+	private boolean isParallel() {
+		if (_pool == null || !(_source instanceof Collection<?>))
+			return false;
+
+		long cost = ParallelExecution.countNodes(_key.getBody());
+		for (Aggregate<?> a : _aggregates)
+			cost += a.getValue() != null ? ParallelExecution.countNodes(a
+					.getValue().getBody()) : 1;
+		return ParallelExecution.isParallel(
+				((Collection<?>) _source).size(), cost, _pool.getParallelism());
+	}
+
+	private static void add(Map<Object, Row> rows, Function<Object[], ?> key,
+			List<Supplier<Aggregate.Accumulator>> factories, Object e) {
+		Object k = QueryPipeline.invoke(key, e);
+		Row row = rows.get(k);
+		if (row == null) {
+			row = new Row(k, factories);
+			rows.put(k, row);
+		}
+		row.add(e);
+	}
+
+	private static Map<Object, Row> merge(Map<Object, Row> first,
+			Map<Object, Row> second) {
+		for (Map.Entry<Object, Row> entry : second.entrySet()) {
+			Row row = first.get(entry.getKey());
+			if (row == null)
+				first.put(entry.getKey(), entry.getValue());
+			else
+				row.merge(entry.getValue());
+		}
+		return first;
+	}
+
+	private static final class Row implements AggregateResult<Object> {
+		private final Object _key;
+		private final Aggregate.Accumulator[] _accumulators;
+
+		Row(Object key, List<Supplier<Aggregate.Accumulator>> factories) {
+			_key = key;
+			_accumulators = new Aggregate.Accumulator[factories.size()];
+			for (int i = 0; i < _accumulators.length; i++)
+				_accumulators[i] = factories.get(i).get();
+		}
+
+		void add(Object e) {
+			for (Aggregate.Accumulator a : _accumulators)
+				a.add(e);
+		}
+
+		void merge(Row other) {
+			for (int i = 0; i < _accumulators.length; i++)
+				_accumulators[i].merge(other._accumulators[i]);
+		}
+
+		@Override
+		public Object getKey() {
+			return _key;
+		}
+
+		@Override
+		public int size() {
+			return _accumulators.length;
+		}
+
+		@Override
+		public Object get(int index) {
+			return _accumulators[index].get();
+		}
+
+		@Override
+		public String toString() {
+			Object[] values = new Object[_accumulators.length];
+			for (int i = 0; i < values.length; i++)
+				values[i] = get(i);
+			return _key + "=" + Arrays.toString(values);
+		}
+	}
+}
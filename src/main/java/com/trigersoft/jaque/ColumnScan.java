@@ -0,0 +1,294 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Compiles the predicates over a {@link ColumnarCollection} into column scans.
+ * The predicate is split into conjuncts; the conjuncts comparing the stored
+ * members with values not depending on the query element, and any
+ * {@code &&}, {@code ||} and {@code !} combinations of them, are evaluated by
+ * scanning the columns into selection bitmaps. The rest of the conjuncts form
+ * the residual predicate, which is evaluated on the selected elements.
+ * <p>
+ * The column scans cannot throw and have no side effects, hence are safe to
+ * evaluate before the residual predicate.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class ColumnScan {
+
+	private ColumnScan() {
+	}
+
+	/**
+	 * Produces the selection bitmap words of the scan, a new array on each
+	 * call.
+	 */
+	private interface Scan {
+		long[] select(int size);
+	}
+
+	/**
+	 * Plans the predicate.
+	 *
+	 * @param source
+	 *            the collection to query.
+	 * @param predicate
+	 *            the predicate.
+	 * @return the plan, or {@code null} if no column can be scanned.
+	 */
+	static IndexPlanner.Plan plan(ColumnarCollection<?> source,
+			LambdaExpression<?> predicate) {
+		Expression body = ExpressionReducer.reduce(predicate.getBody());
+
+		List<Expression> conjuncts = new ArrayList<Expression>();
+		IndexPlanner.split(body, conjuncts);
+
+		List<Scan> scans = new ArrayList<Scan>();
+		Expression residual = null;
+		for (Expression c : conjuncts) {
+			Scan scan = match(source, c);
+			if (scan != null)
+				scans.add(scan);
+			else
+				residual = residual == null ? c : Expression.logicalAnd(
+						residual, c);
+		}
+
+		if (scans.isEmpty())
+			return null;
+
+		Scan all = and(scans);
+		return new IndexPlanner.Plan(source.rows(() -> BitSet.valueOf(all
+				.select(source.size()))), residual == null ? null
+				: Expression.lambda(Boolean.TYPE, residual,
+						predicate.getParamTypes()));
+	}
+
+	private static long[] words(int size) {
+		return new long[(size + 63) >>> 6];
+	}
+
+	private static Scan and(List<Scan> scans) {
+		if (scans.size() == 1)
+			return scans.get(0);
+		return size -> {
+			long[] words = scans.get(0).select(size);
+			for (int i = 1; i < scans.size(); i++) {
+				long[] other = scans.get(i).select(size);
+				for (int w = 0; w < words.length; w++)
+					words[w] &= other[w];
+			}
+			return words;
+		};
+	}
+
+	private static Scan or(Scan first, Scan second) {
+		return size -> {
+			long[] words = first.select(size);
+			long[] other = second.select(size);
+			for (int w = 0; w < words.length; w++)
+				words[w] |= other[w];
+			return words;
+		};
+	}
+
+	private static Scan not(Scan scan) {
+		return size -> {
+			long[] words = scan.select(size);
+			for (int w = 0; w < words.length; w++)
+				words[w] = ~words[w];
+			// clear the bits past the last row
+			if ((size & 63) != 0)
+				words[words.length - 1] &= (1L << size) - 1;
+			return words;
+		};
+	}
+
+	/**
+	 * Matches an expression answerable by the column scans exactly.
+	 *
+	 * @return the scan, or {@code null} if the expression is not answerable.
+	 */
+	private static Scan match(ColumnarCollection<?> source, Expression e) {
+		switch (e.getExpressionType()) {
+		case ExpressionType.LogicalAnd: {
+			List<Expression> conjuncts = new ArrayList<Expression>();
+			IndexPlanner.split(e, conjuncts);
+			List<Scan> scans = new ArrayList<Scan>(conjuncts.size());
+			for (Expression c : conjuncts) {
+				Scan scan = match(source, c);
+				if (scan == null)
+					return null;
+				scans.add(scan);
+			}
+			return and(scans);
+		}
+		case ExpressionType.LogicalOr: {
+			BinaryExpression b = (BinaryExpression) e;
+			Scan first = match(source, b.getFirst());
+			if (first == null)
+				return null;
+			Scan second = match(source, b.getSecond());
+			return second != null ? or(first, second) : null;
+		}
+		case ExpressionType.LogicalNot: {
+			Scan scan = match(source, ((UnaryExpression) e).getFirst());
+			return scan != null ? not(scan) : null;
+		}
+		case ExpressionType.Equal:
+		case ExpressionType.NotEqual:
+		case ExpressionType.GreaterThan:
+		case ExpressionType.GreaterThanOrEqual:
+		case ExpressionType.LessThan:
+		case ExpressionType.LessThanOrEqual: {
+			BinaryExpression b = (BinaryExpression) e;
+			Scan scan = compare(source, e.getExpressionType(), b.getFirst(),
+					b.getSecond());
+			return scan != null ? scan : compare(source,
+					IndexPlanner.flip(e.getExpressionType()), b.getSecond(),
+					b.getFirst());
+		}
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Creates the scan of the rows, whose column compares to the value.
+	 */
+	private static Scan compare(ColumnarCollection<?> source,
+			int expressionType, Expression member, Expression value) {
+		Class<?> type = member.getResultType();
+		ColumnarCollection.Column column = getColumn(source, member);
+		if (column == null || !IndexPlanner.isParameterFree(value))
+			return null;
+
+		Object v = QueryableExpressionVisitor.evaluate(value);
+		if (v instanceof Character)
+			v = (int) (Character) v;
+		if (!(v instanceof Number))
+			return null;
+
+		if (expressionType == ExpressionType.NotEqual) {
+			Scan equal = compare(column, ExpressionType.Equal, type,
+					(Number) v);
+			return equal != null ? not(equal) : null;
+		}
+
+		return compare(column, expressionType, type, (Number) v);
+	}
+
+	private static Scan compare(ColumnarCollection.Column column,
+			int expressionType, Class<?> type, Number value) {
+		if (!(column instanceof ColumnarCollection.IntegralColumn)
+				|| type == Double.TYPE) {
+			double d = value.doubleValue();
+			return size -> {
+				long[] words = words(size);
+				column.select(expressionType, d, words);
+				return words;
+			};
+		}
+
+		if (value instanceof Double || value instanceof Float)
+			return null;
+
+		long v = value.longValue();
+		long from;
+		long to;
+		switch (expressionType) {
+		case ExpressionType.Equal:
+			from = to = v;
+			break;
+		case ExpressionType.GreaterThan:
+			if (v == Long.MAX_VALUE)
+				return size -> words(size);
+			from = v + 1;
+			to = Long.MAX_VALUE;
+			break;
+		case ExpressionType.GreaterThanOrEqual:
+			from = v;
+			to = Long.MAX_VALUE;
+			break;
+		case ExpressionType.LessThan:
+			if (v == Long.MIN_VALUE)
+				return size -> words(size);
+			from = Long.MIN_VALUE;
+			to = v - 1;
+			break;
+		case ExpressionType.LessThanOrEqual:
+			from = Long.MIN_VALUE;
+			to = v;
+			break;
+		default:
+			return null;
+		}
+
+		ColumnarCollection.IntegralColumn integral = (ColumnarCollection.IntegralColumn) column;
+		return size -> {
+			long[] words = words(size);
+			integral.selectRange(from, to, words);
+			return words;
+		};
+	}
+
+	/**
+	 * Gets the column stored getter invocation on the query element, which
+	 * may be converted to {@code long} or {@code double}.
+	 */
+	private static ColumnarCollection.Column getColumn(
+			ColumnarCollection<?> source, Expression e) {
+		Class<?> type = e.getResultType();
+		if (type != Integer.TYPE && type != Long.TYPE && type != Double.TYPE)
+			return null;
+
+		if (e.getExpressionType() == ExpressionType.Convert)
+			e = ((UnaryExpression) e).getFirst();
+
+		if (!(e instanceof MemberExpression))
+			return null;
+
+		MemberExpression m = (MemberExpression) e;
+		Expression instance = m.getInstance();
+		if (instance == null
+				|| instance.getExpressionType() != ExpressionType.Parameter
+				|| ((ParameterExpression) instance).getIndex() != 0
+				|| !m.getArguments().isEmpty())
+			return null;
+
+		ColumnarCollection.Column column = source.getColumn(m.getMember());
+		if (column == null)
+			return null;
+
+		// widening the column type only
+		Class<?> stored = column.getType();
+		if (stored == type || type == Double.TYPE
+				|| (stored == Integer.TYPE && type == Long.TYPE))
+			return column;
+		return null;
+	}
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * A collection storing the primitive members of its elements in columns. The
+ * columns are declared by getter method references, e.g.
+ * {@code addIntColumn(Customer::getAge)}, and the predicates of the queries
+ * over this collection comparing the stored members are evaluated as loops over
+ * the column arrays, producing selection bitmaps:
+ *
+ * <pre>
+ * ColumnarCollection&lt;Customer&gt; customers = new ColumnarCollection&lt;Customer&gt;()
+ * 		.addIntColumn(Customer::getAge).addDoubleColumn(Customer::getScore);
+ * ...
+ * Queryable&lt;Customer&gt; q = new IterableQueryable&lt;Customer&gt;(Customer.class,
+ * 		customers).where(c -&gt; c.getAge() &gt; 30 &amp;&amp; c.getScore() &lt; 0.5);
+ * </pre>
+ *
+ * The rest of the predicate is evaluated on the selected elements. The stored
+ * members must not change while the element is in the collection. Elements
+ * cannot be removed individually.
+ *
+ * @param <E>
+ *            the type of the elements.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public class ColumnarCollection<E> extends AbstractCollection<E> {
+
+	private final ArrayList<E> _rows = new ArrayList<E>();
+	private final List<Column> _columns = new ArrayList<Column>();
+	private int _modCount;
+
+	public ColumnarCollection() {
+	}
+
+	public ColumnarCollection(Collection<? extends E> c) {
+		addAll(c);
+	}
+
+	/**
+	 * Adds an {@code int[]} column.
+	 *
+	 * @param getter
+	 *            the getter method reference, e.g. {@code Customer::getAge}.
+	 * @return this collection.
+	 */
+	@SuppressWarnings("unchecked")
+	public ColumnarCollection<E> addIntColumn(ToIntFunction<? super E> getter) {
+		ToIntFunction<Object> g = (ToIntFunction<Object>) getter;
+		return addColumn(new IntColumn(getMember(getter, Integer.TYPE), g));
+	}
+
+	/**
+	 * Adds a {@code long[]} column.
+	 *
+	 * @param getter
+	 *            the getter method reference, e.g. {@code Customer::getId}.
+	 * @return this collection.
+	 */
+	@SuppressWarnings("unchecked")
+	public ColumnarCollection<E> addLongColumn(ToLongFunction<? super E> getter) {
+		ToLongFunction<Object> g = (ToLongFunction<Object>) getter;
+		return addColumn(new LongColumn(getMember(getter, Long.TYPE), g));
+	}
+
+	/**
+	 * Adds a {@code double[]} column.
+	 *
+	 * @param getter
+	 *            the getter method reference, e.g. {@code Customer::getScore}.
+	 * @return this collection.
+	 */
+	@SuppressWarnings("unchecked")
+	public ColumnarCollection<E> addDoubleColumn(
+			ToDoubleFunction<? super E> getter) {
+		ToDoubleFunction<Object> g = (ToDoubleFunction<Object>) getter;
+		return addColumn(new DoubleColumn(getMember(getter, Double.TYPE), g));
+	}
+
+	private ColumnarCollection<E> addColumn(Column column) {
+		for (int i = 0; i < _rows.size(); i++)
+			column.add(_rows.get(i), i);
+		_columns.add(column);
+		return this;
+	}
+
+	private static Member getMember(Object getter, Class<?> type) {
+		Member member = IndexedCollection.getMember(getter);
+		if (!(member instanceof Method)
+				|| ((Method) member).getReturnType() != type)
+			throw new IllegalArgumentException("Not a " + type + " getter: "
+					+ member);
+		return member;
+	}
+
+	/**
+	 * Gets the column storing the member.
+	 *
+	 * @param member
+	 *            the member.
+	 * @return the column, or {@code null} if there is none.
+	 */
+	Column getColumn(Member member) {
+		for (Column column : _columns)
+			if (column.getMember().equals(member))
+				return column;
+		return null;
+	}
+
+	/**
+	 * Creates an {@link Iterable} over the rows set in the bitmap produced by
+	 * the column scans.
+	 *
+	 * @param rows
+	 *            computes the rows bitmap on each iteration.
+	 * @return the {@link Iterable} over the rows.
+	 */
+	Iterable<E> rows(Supplier<BitSet> rows) {
+		return () -> new RowIterator(rows.get());
+	}
+
+	@Override
+	public boolean add(E e) {
+		int row = _rows.size();
+		_rows.add(e);
+		for (Column column : _columns)
+			column.add(e, row);
+		_modCount++;
+		return true;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		BitSet all = new BitSet();
+		all.set(0, _rows.size());
+		return new RowIterator(all);
+	}
+
+	@Override
+	public int size() {
+		return _rows.size();
+	}
+
+	@Override
+	public void clear() {
+		_rows.clear();
+		for (Column column : _columns)
+			column.clear();
+		_modCount++;
+	}
+
+	private final class RowIterator implements Iterator<E> {
+		private final BitSet _rowSet;
+		private int _next;
+		private final int _expectedModCount = _modCount;
+
+		RowIterator(BitSet rows) {
+			_rowSet = rows;
+			_next = rows.nextSetBit(0);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return _next >= 0;
+		}
+
+		@Override
+		public E next() {
+			if (_expectedModCount != _modCount)
+				throw new ConcurrentModificationException();
+			if (_next < 0)
+				throw new NoSuchElementException();
+			E e = _rows.get(_next);
+			_next = _rowSet.nextSetBit(_next + 1);
+			return e;
+		}
+	}
+
+	/**
+	 * A column of primitive values. The scans set the bits of the matching rows
+	 * in a bitmap of {@code long} words, as in {@link BitSet#valueOf(long[])}.
+	 */
+	static abstract class Column {
+		private final Member _member;
+		int _size;
+
+		Column(Member member) {
+			_member = member;
+		}
+
+		final Member getMember() {
+			return _member;
+		}
+
+		/**
+		 * Gets the type of the stored values.
+		 *
+		 * @return {@code int}, {@code long} or {@code double}.
+		 */
+		abstract Class<?> getType();
+
+		abstract void add(Object e, int row);
+
+		final void clear() {
+			_size = 0;
+		}
+
+		/**
+		 * Selects the rows, whose value converted to {@code double} compares to
+		 * the value as specified.
+		 *
+		 * @param expressionType
+		 *            {@link ExpressionType#Equal},
+		 *            {@link ExpressionType#GreaterThan},
+		 *            {@link ExpressionType#GreaterThanOrEqual},
+		 *            {@link ExpressionType#LessThan} or
+		 *            {@link ExpressionType#LessThanOrEqual}.
+		 * @param value
+		 *            the value to compare to.
+		 * @param words
+		 *            the bitmap to set the bits in.
+		 */
+		abstract void select(int expressionType, double value, long[] words);
+	}
+
+	/**
+	 * A column of {@code int} or {@code long} values, which are compared as
+	 * {@code long} exactly.
+	 */
+	static abstract class IntegralColumn extends Column {
+
+		IntegralColumn(Member member) {
+			super(member);
+		}
+
+		/**
+		 * Selects the rows, whose value is in the range.
+		 *
+		 * @param from
+		 *            the inclusive lower bound.
+		 * @param to
+		 *            the inclusive upper bound.
+		 * @param words
+		 *            the bitmap to set the bits in.
+		 */
+		abstract void selectRange(long from, long to, long[] words);
+	}
+
+	private static final class IntColumn extends IntegralColumn {
+		private final ToIntFunction<Object> _getter;
+		private int[] _values = new int[16];
+
+		IntColumn(Member member, ToIntFunction<Object> getter) {
+			super(member);
+			_getter = getter;
+		}
+
+		@Override
+		Class<?> getType() {
+			return Integer.TYPE;
+		}
+
+		@Override
+		void add(Object e, int row) {
+			if (row == _values.length)
+				_values = Arrays.copyOf(_values, row << 1);
+			_values[row] = _getter.applyAsInt(e);
+			_size = row + 1;
+		}
+
+		@Override
+		void selectRange(long from, long to, long[] words) {
+			int[] values = _values;
+			for (int i = 0; i < _size; i++) {
+				long v = values[i];
+				words[i >>> 6] |= (v >= from & v <= to ? 1L : 0L) << i;
+			}
+		}
+
+		@Override
+		void select(int expressionType, double value, long[] words) {
+			int[] values = _values;
+			switch (expressionType) {
+			case ExpressionType.Equal:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] == value ? 1L : 0L) << i;
+				break;
+			case ExpressionType.GreaterThan:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] > value ? 1L : 0L) << i;
+				break;
+			case ExpressionType.GreaterThanOrEqual:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] >= value ? 1L : 0L) << i;
+				break;
+			case ExpressionType.LessThan:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] < value ? 1L : 0L) << i;
+				break;
+			case ExpressionType.LessThanOrEqual:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] <= value ? 1L : 0L) << i;
+				break;
+			default:
+				throw new IllegalArgumentException(Integer
+						.toString(expressionType));
+			}
+		}
+	}
+
+	private static final class LongColumn extends IntegralColumn {
+		private final ToLongFunction<Object> _getter;
+		private long[] _values = new long[16];
+
+		LongColumn(Member member, ToLongFunction<Object> getter) {
+			super(member);
+			_getter = getter;
+		}
+
+		@Override
+		Class<?> getType() {
+			return Long.TYPE;
+		}
+
+		@Override
+		void add(Object e, int row) {
+			if (row == _values.length)
+				_values = Arrays.copyOf(_values, row << 1);
+			_values[row] = _getter.applyAsLong(e);
+			_size = row + 1;
+		}
+
+		@Override
+		void selectRange(long from, long to, long[] words) {
+			long[] values = _values;
+			for (int i = 0; i < _size; i++) {
+				long v = values[i];
+				words[i >>> 6] |= (v >= from & v <= to ? 1L : 0L) << i;
+			}
+		}
+
+		@Override
+		void select(int expressionType, double value, long[] words) {
+			long[] values = _values;
+			switch (expressionType) {
+			case ExpressionType.Equal:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] == value ? 1L : 0L) << i;
+				break;
+			case ExpressionType.GreaterThan:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] > value ? 1L : 0L) << i;
+				break;
+			case ExpressionType.GreaterThanOrEqual:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] >= value ? 1L : 0L) << i;
+				break;
+			case ExpressionType.LessThan:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] < value ? 1L : 0L) << i;
+				break;
+			case ExpressionType.LessThanOrEqual:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] <= value ? 1L : 0L) << i;
+				break;
+			default:
+				throw new IllegalArgumentException(Integer
+						.toString(expressionType));
+			}
+		}
+	}
+
+	private static final class DoubleColumn extends Column {
+		private final ToDoubleFunction<Object> _getter;
+		private double[] _values = new double[16];
+
+		DoubleColumn(Member member, ToDoubleFunction<Object> getter) {
+			super(member);
+			_getter = getter;
+		}
+
+		@Override
+		Class<?> getType() {
+			return Double.TYPE;
+		}
+
+		@Override
+		void add(Object e, int row) {
+			if (row == _values.length)
+				_values = Arrays.copyOf(_values, row << 1);
+			_values[row] = _getter.applyAsDouble(e);
+			_size = row + 1;
+		}
+
+		@Override
+		void select(int expressionType, double value, long[] words) {
+			double[] values = _values;
+			switch (expressionType) {
+			case ExpressionType.Equal:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] == value ? 1L : 0L) << i;
+				break;
+			case ExpressionType.GreaterThan:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] > value ? 1L : 0L) << i;
+				break;
+			case ExpressionType.GreaterThanOrEqual:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] >= value ? 1L : 0L) << i;
+				break;
+			case ExpressionType.LessThan:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] < value ? 1L : 0L) << i;
+				break;
+			case ExpressionType.LessThanOrEqual:
+				for (int i = 0; i < _size; i++)
+					words[i >>> 6] |= (values[i] <= value ? 1L : 0L) << i;
+				break;
+			default:
+				throw new IllegalArgumentException(Integer
+						.toString(expressionType));
+			}
+		}
+	}
+}
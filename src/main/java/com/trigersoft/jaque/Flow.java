@@ -0,0 +1,109 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+/**
+ * The interfaces of asynchronous streams with backpressure, having the same
+ * methods and contracts as {@code java.util.concurrent.Flow} of Java 9, which
+ * is not available on Java 8 targeted by this library. A Java 9 publisher is
+ * adapted by delegating each method to it.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public final class Flow {
+
+	private Flow() {
+	}
+
+	/**
+	 * A producer of items received by the subscribers in the order they are
+	 * requested.
+	 *
+	 * @param <T>
+	 *            the type of the items.
+	 */
+	@FunctionalInterface
+	public interface Publisher<T> {
+		/**
+		 * Adds the subscriber, which receives
+		 * {@link Subscriber#onSubscribe(Subscription)} first.
+		 *
+		 * @param subscriber
+		 *            the subscriber.
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A receiver of items. The methods are invoked sequentially for each
+	 * subscription.
+	 *
+	 * @param <T>
+	 *            the type of the items.
+	 */
+	public interface Subscriber<T> {
+		/**
+		 * Invoked before any other method for the subscription.
+		 *
+		 * @param subscription
+		 *            the subscription to request the items with.
+		 */
+		void onSubscribe(Subscription subscription);
+
+		/**
+		 * Receives the next requested item.
+		 *
+		 * @param item
+		 *            the item.
+		 */
+		void onNext(T item);
+
+		/**
+		 * Invoked when the publisher fails. No other method is invoked
+		 * afterwards.
+		 *
+		 * @param throwable
+		 *            the failure.
+		 */
+		void onError(Throwable throwable);
+
+		/**
+		 * Invoked when all the items are received. No other method is invoked
+		 * afterwards.
+		 */
+		void onComplete();
+	}
+
+	/**
+	 * Links a publisher to a subscriber.
+	 */
+	public interface Subscription {
+		/**
+		 * Adds the number of items to the unfulfilled demand.
+		 *
+		 * @param n
+		 *            the number of items, positive.
+		 */
+		void request(long n);
+
+		/**
+		 * Stops receiving the items, eventually.
+		 */
+		void cancel();
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.trigersoft.jaque;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * A query of groups, which elements may be aggregated without creating the
+ * groups. Wraps a {@link Queryable} of groups created by a
+ * {@link QueryableFactory}.
+ *
+ * @param <K>
+ *            the type of the key.
+ * @param <S>
+ *            the type of the grouped elements.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public final class GroupedQueryable<K, S> extends
+		QueryableWrapper<Grouping<K, S>> {
+
+	/**
+	 * Wraps a query of groups.
+	 *
+	 * @param groups
+	 *            the query of groups, created by
+	 *            {@link Queryable#groupBy(java.util.function.Function)}.
+	 */
+	public GroupedQueryable(Queryable<Grouping<K, S>> groups) {
+		super(groups);
+	}
+
+	/**
+	 * Computes the aggregates over the elements of each group. The elements
+	 * are accumulated as they are read, the groups are not created:
+	 *
+	 * <pre>
+	 * customers.groupBy(Customer::getCity).aggregate(Aggregate.count(),
+	 * 		Aggregate.average(Customer::getAge));
+	 * </pre>
+	 *
+	 * @param aggregates
+	 *            the aggregates to compute.
+	 * @return a query of the aggregate results, in the order the keys are
+	 *         first encountered.
+	 */
+	@SafeVarargs
+	@SuppressWarnings({ "unchecked", "rawtypes", "varargs" })
+	public final Queryable<AggregateResult<K>> aggregate(
+			Aggregate<? super S>... aggregates) {
+		if (aggregates.length == 0)
+			throw new IllegalArgumentException("aggregates");
+		return getFactory().createQueryable(
+				(Class<AggregateResult<K>>) (Class) AggregateResult.class,
+				Operation.Aggregate.apply(getExpression(), Expression.constant(
+						aggregates.clone(), Aggregate[].class)));
+	}
+}
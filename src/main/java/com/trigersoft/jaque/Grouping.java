@@ -15,5 +15,23 @@
  *
  */
 
-package com.trigersoft.jaque.expression;
+package com.trigersoft.jaque;
 
+/**
+ * Represents a collection of elements that have a common key.
+ *
+ * @param <K>
+ *            the type of the key.
+ * @param <E>
+ *            the type of the elements.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public interface Grouping<K, E> extends Iterable<E> {
+	/**
+	 * Gets the key of this group.
+	 *
+	 * @return the key of this group.
+	 */
+	K getKey();
+}
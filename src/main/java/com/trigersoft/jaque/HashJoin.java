@@ -0,0 +1,314 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Executes an equi-join by building a hash table over one side and probing it
+ * with the other. The table is built over the inner side, unless both sides
+ * are collections and the outer one is smaller. Either way, the results are
+ * returned in the order of the outer elements, then of the inner elements.
+ * <p>
+ * When both keys are getters of the same integral type, the table is keyed by
+ * {@code long} values, read with {@link PrimitiveGetters}, and no key is
+ * boxed.
+ * The elements with {@code null} keys do not match anything.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class HashJoin implements Iterable<Object> {
+
+	private final Iterable<?> _outer;
+	private final Iterable<?> _inner;
+	private final Function<Object[], ?> _resultSelector;
+	private final Function<Object, Object> _outerKey;
+	private final Function<Object, Object> _innerKey;
+	private final ToLongFunction<Object> _outerLongKey;
+	private final ToLongFunction<Object> _innerLongKey;
+
+	HashJoin(Iterable<?> outer, Iterable<?> inner,
+			LambdaExpression<?> outerKey, LambdaExpression<?> innerKey,
+			LambdaExpression<?> resultSelector) {
+		_outer = outer;
+		_inner = inner;
+		_resultSelector = QueryPipeline.compile(resultSelector);
+
+		ToLongFunction<Object> outerLongKey = null;
+		ToLongFunction<Object> innerLongKey = null;
+		Class<?> type = getIntegralKeyType(outerKey);
+		if (type != null && type == getIntegralKeyType(innerKey)) {
+			outerLongKey = PrimitiveGetters.getLongGetter(outerKey);
+			innerLongKey = PrimitiveGetters.getLongGetter(innerKey);
+		}
+
+		if (outerLongKey != null && innerLongKey != null) {
+			_outerLongKey = outerLongKey;
+			_innerLongKey = innerLongKey;
+			_outerKey = null;
+			_innerKey = null;
+		} else {
+			_outerLongKey = null;
+			_innerLongKey = null;
+			Function<Object[], ?> ok = QueryPipeline.compile(outerKey);
+			Function<Object[], ?> ik = QueryPipeline.compile(innerKey);
+			_outerKey = e -> QueryPipeline.invoke(ok, e);
+			_innerKey = e -> QueryPipeline.invoke(ik, e);
+		}
+	}
+
+	/**
+	 * Indicates whether the keys are compared as primitive values.
+	 *
+	 * @return {@code true} if the hash table is keyed by {@code long} values.
+	 */
+	boolean isPrimitive() {
+		return _outerLongKey != null;
+	}
+
+	private static Class<?> getIntegralKeyType(LambdaExpression<?> key) {
+		MemberExpression m = PrimitiveGetters.getGetter(key);
+		if (m == null)
+			return null;
+		Class<?> type = m.getResultType();
+		return type == Integer.TYPE || type == Long.TYPE
+				|| type == Short.TYPE || type == Byte.TYPE
+				|| type == Character.TYPE ? type : null;
+	}
+
+	@Override
+	public Iterator<Object> iterator() {
+		if (_outer instanceof Collection<?> && _inner instanceof Collection<?>
+				&& ((Collection<?>) _outer).size() < ((Collection<?>) _inner)
+						.size())
+			return buildOuter();
+
+		return buildInner();
+	}
+
+	private Object result(Object outer, Object inner) {
+		return _resultSelector.apply(new Object[] { outer, inner });
+	}
+
+	private Table build(Iterable<?> side, boolean outer) {
+		QueryStageEvent event = QueryPipeline.beginStage("join", side);
+		List<Object> rows = side instanceof Collection<?> ? new ArrayList<Object>(
+				((Collection<?>) side).size()) : new ArrayList<Object>();
+		for (Object e : side)
+			rows.add(e);
+
+		Table table = isPrimitive() ? new LongTable(rows,
+				outer ? _outerLongKey : _innerLongKey) : new ObjectTable(rows,
+				outer ? _outerKey : _innerKey);
+		QueryPipeline.endStage(event, rows.size());
+		return table;
+	}
+
+	private int probe(Table table, Object e, boolean outer) {
+		if (isPrimitive())
+			return ((LongTable) table).first((outer ? _outerLongKey
+					: _innerLongKey).applyAsLong(e));
+		return ((ObjectTable) table).first((outer ? _outerKey : _innerKey)
+				.apply(e));
+	}
+
+	/**
+	 * Builds the table over the inner side and streams the outer side.
+	 */
+	private Iterator<Object> buildInner() {
+		return new Iterator<Object>() {
+			private Table _table;
+			private Iterator<?> _probe;
+			private Object _current;
+			private int _match = -1;
+
+			private boolean advance() {
+				if (_table == null) {
+					_table = build(_inner, false);
+					_probe = _outer.iterator();
+				}
+
+				while (_match < 0) {
+					if (!_probe.hasNext())
+						return false;
+					_current = _probe.next();
+					_match = probe(_table, _current, true);
+				}
+				return true;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return advance();
+			}
+
+			@Override
+			public Object next() {
+				if (!advance())
+					throw new NoSuchElementException();
+				Object inner = _table._rows.get(_match);
+				_match = _table._next[_match];
+				return result(_current, inner);
+			}
+		};
+	}
+
+	/**
+	 * Builds the table over the smaller outer side, collects the matches of
+	 * the inner elements and sorts them by the outer row.
+	 */
+	private Iterator<Object> buildOuter() {
+		Table table = build(_outer, true);
+		int[] outerRows = new int[16];
+		Object[] inners = new Object[16];
+		int count = 0;
+		for (Object e : _inner) {
+			for (int row = probe(table, e, false); row >= 0; row = table._next[row]) {
+				if (count == outerRows.length) {
+					outerRows = Arrays.copyOf(outerRows, count << 1);
+					inners = Arrays.copyOf(inners, count << 1);
+				}
+				outerRows[count] = row;
+				inners[count++] = e;
+			}
+		}
+
+		// stable counting sort by the outer row
+		int[] offsets = new int[table._rows.size() + 1];
+		for (int i = 0; i < count; i++)
+			offsets[outerRows[i] + 1]++;
+		for (int i = 1; i < offsets.length; i++)
+			offsets[i] += offsets[i - 1];
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++)
+			order[offsets[outerRows[i]]++] = i;
+
+		int total = count;
+		int[] rows = outerRows;
+		Object[] matches = inners;
+		return new Iterator<Object>() {
+			private int _i;
+
+			@Override
+			public boolean hasNext() {
+				return _i < total;
+			}
+
+			@Override
+			public Object next() {
+				if (_i >= total)
+					throw new NoSuchElementException();
+				int m = order[_i++];
+				return result(table._rows.get(rows[m]), matches[m]);
+			}
+		};
+	}
+
+	/**
+	 * A hash table over the rows of one side. The rows sharing a key are
+	 * chained in their original order through {@link #_next}.
+	 */
+	private static abstract class Table {
+		final List<Object> _rows;
+		final int[] _next;
+
+		Table(List<Object> rows) {
+			_rows = rows;
+			_next = new int[rows.size()];
+		}
+	}
+
+	private static final class ObjectTable extends Table {
+		private final HashMap<Object, Integer> _heads = new HashMap<Object, Integer>();
+
+		ObjectTable(List<Object> rows, Function<Object, Object> key) {
+			super(rows);
+			// insert in reverse to chain the rows in the original order
+			for (int i = rows.size() - 1; i >= 0; i--) {
+				Object k = key.apply(rows.get(i));
+				if (k == null) {
+					_next[i] = -1;
+					continue;
+				}
+				Integer head = _heads.put(k, i);
+				_next[i] = head != null ? head : -1;
+			}
+		}
+
+		int first(Object key) {
+			if (key == null)
+				return -1;
+			Integer head = _heads.get(key);
+			return head != null ? head : -1;
+		}
+	}
+
+	/**
+	 * An open addressing table keyed by {@code long} values.
+	 */
+	private static final class LongTable extends Table {
+		private final long[] _keys;
+		private final int[] _heads;
+		private final int _mask;
+
+		LongTable(List<Object> rows, ToLongFunction<Object> key) {
+			super(rows);
+			int capacity = Integer.highestOneBit(Math.max(rows.size(), 1) * 2 + 1);
+			_keys = new long[capacity];
+			_heads = new int[capacity];
+			Arrays.fill(_heads, -1);
+			_mask = capacity - 1;
+
+			for (int i = rows.size() - 1; i >= 0; i--) {
+				long k = key.applyAsLong(rows.get(i));
+				int slot = slot(k);
+				_next[i] = _heads[slot];
+				_keys[slot] = k;
+				_heads[slot] = i;
+			}
+		}
+
+		private int slot(long key) {
+			int slot = hash(key) & _mask;
+			while (_heads[slot] >= 0 && _keys[slot] != key)
+				slot = (slot + 1) & _mask;
+			return slot;
+		}
+
+		private static int hash(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+
+		int first(long key) {
+			return _heads[slot(key)];
+		}
+	}
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Plans a predicate over an {@link IndexedCollection}. The predicate body is
+ * split into its {@link ExpressionType#LogicalAnd} conjuncts; the conjuncts
+ * comparing an indexed member of the element with a value not depending on the
+ * element are answered with index lookups, whose results are intersected (or
+ * united for {@link ExpressionType#LogicalOr} of answerable parts). The rest of
+ * the conjuncts form the residual predicate, which is evaluated on the rows
+ * found.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class IndexPlanner {
+
+	/**
+	 * Returned by {@link #coerce(Object, Class)} when the value cannot be
+	 * represented by the key type, hence there is no equal key.
+	 */
+	static final Object NO_MATCH = new Object();
+
+	/**
+	 * Orders the index keys, comparing numbers of different types by their
+	 * values.
+	 */
+	@SuppressWarnings("unchecked")
+	static final Comparator<Object> KeyComparator = (a, b) -> {
+		Number x = toNumber(a);
+		Number y = toNumber(b);
+		if (x != null && y != null && x.getClass() != y.getClass())
+			return isIntegral(x) && isIntegral(y) ? Long.compare(x.longValue(),
+					y.longValue()) : Double.compare(x.doubleValue(),
+					y.doubleValue());
+
+		return ((Comparable<Object>) a).compareTo(b);
+	};
+
+	private IndexPlanner() {
+	}
+
+	/**
+	 * The result of planning.
+	 */
+	static final class Plan {
+		private final Iterable<?> _rows;
+		private final LambdaExpression<?> _residual;
+
+		Plan(Iterable<?> rows, LambdaExpression<?> residual) {
+			_rows = rows;
+			_residual = residual;
+		}
+
+		/**
+		 * Gets the rows found by the index lookups.
+		 *
+		 * @return the rows found by the index lookups.
+		 */
+		Iterable<?> getRows() {
+			return _rows;
+		}
+
+		/**
+		 * Gets the predicate to be evaluated on the rows found.
+		 *
+		 * @return the residual predicate, or {@code null} if the lookups
+		 *         answer the predicate completely.
+		 */
+		LambdaExpression<?> getResidual() {
+			return _residual;
+		}
+	}
+
+	/**
+	 * Produces the rows bitmap of a lookup, a new instance on each call.
+	 */
+	private interface Lookup {
+		BitSet rows();
+	}
+
+	/**
+	 * Plans the predicate.
+	 *
+	 * @param source
+	 *            the collection to query.
+	 * @param predicate
+	 *            the predicate.
+	 * @return the plan, or {@code null} if no index can be used.
+	 */
+	static Plan plan(IndexedCollection<?> source, LambdaExpression<?> predicate) {
+		Expression body = ExpressionReducer.reduce(predicate.getBody());
+
+		List<Expression> conjuncts = new ArrayList<Expression>();
+		split(body, conjuncts);
+
+		List<Lookup> lookups = new ArrayList<Lookup>();
+		Expression residual = null;
+		for (Expression c : conjuncts) {
+			Lookup lookup = match(source, c);
+			if (lookup != null)
+				lookups.add(lookup);
+			else
+				residual = residual == null ? c : Expression.logicalAnd(
+						residual, c);
+		}
+
+		if (lookups.isEmpty())
+			return null;
+
+		Lookup all = intersect(lookups);
+		return new Plan(source.rows(all::rows), residual == null ? null
+				: Expression.lambda(Boolean.TYPE, residual,
+						predicate.getParamTypes()));
+	}
+
+	static void split(Expression e, List<Expression> conjuncts) {
+		if (e.getExpressionType() == ExpressionType.LogicalAnd) {
+			BinaryExpression b = (BinaryExpression) e;
+			split(b.getFirst(), conjuncts);
+			split(b.getSecond(), conjuncts);
+		} else
+			conjuncts.add(e);
+	}
+
+	private static Lookup intersect(List<Lookup> lookups) {
+		if (lookups.size() == 1)
+			return lookups.get(0);
+		return () -> {
+			BitSet rows = lookups.get(0).rows();
+			for (int i = 1; i < lookups.size() && !rows.isEmpty(); i++)
+				rows.and(lookups.get(i).rows());
+			return rows;
+		};
+	}
+
+	/**
+	 * Matches an expression answerable by the indexes exactly.
+	 *
+	 * @return the lookup, or {@code null} if the expression is not
+	 *         answerable.
+	 */
+	private static Lookup match(IndexedCollection<?> source, Expression e) {
+		switch (e.getExpressionType()) {
+		case ExpressionType.LogicalAnd: {
+			List<Expression> conjuncts = new ArrayList<Expression>();
+			split(e, conjuncts);
+			List<Lookup> lookups = new ArrayList<Lookup>(conjuncts.size());
+			for (Expression c : conjuncts) {
+				Lookup lookup = match(source, c);
+				if (lookup == null)
+					return null;
+				lookups.add(lookup);
+			}
+			return intersect(lookups);
+		}
+		case ExpressionType.LogicalOr: {
+			BinaryExpression b = (BinaryExpression) e;
+			Lookup first = match(source, b.getFirst());
+			if (first == null)
+				return null;
+			Lookup second = match(source, b.getSecond());
+			if (second == null)
+				return null;
+			return () -> {
+				BitSet rows = first.rows();
+				rows.or(second.rows());
+				return rows;
+			};
+		}
+		case ExpressionType.Equal:
+		case ExpressionType.GreaterThan:
+		case ExpressionType.GreaterThanOrEqual:
+		case ExpressionType.LessThan:
+		case ExpressionType.LessThanOrEqual: {
+			BinaryExpression b = (BinaryExpression) e;
+			Lookup lookup = lookup(source, e.getExpressionType(),
+					b.getFirst(), b.getSecond());
+			return lookup != null ? lookup : lookup(source,
+					flip(e.getExpressionType()), b.getSecond(), b.getFirst());
+		}
+		case ExpressionType.IsNull:
+			return lookup(source, ExpressionType.Equal,
+					((UnaryExpression) e).getFirst(),
+					Expression.constant(null, Object.class));
+		case ExpressionType.LogicalNot: {
+			Expression operand = ((UnaryExpression) e).getFirst();
+			return isBoolean(operand) ? lookup(source, ExpressionType.Equal,
+					operand, Expression.constant(Boolean.FALSE)) : null;
+		}
+		case ExpressionType.MethodAccess: {
+			MemberExpression m = (MemberExpression) e;
+			if (isEquals(m)) {
+				// value.equals(member) is the same as Objects.equals for a
+				// non-null value
+				Lookup lookup = lookup(source, ExpressionType.Equal,
+						m.getArguments().get(0), m.getInstance(), false);
+				return lookup != null ? lookup : lookup(source,
+						ExpressionType.Equal, m.getInstance(), m.getArguments()
+								.get(0), false);
+			}
+
+			return isBoolean(e) ? lookup(source, ExpressionType.Equal, e,
+					Expression.constant(Boolean.TRUE)) : null;
+		}
+		default:
+			return null;
+		}
+	}
+
+	static boolean isEquals(MemberExpression m) {
+		return m.getMember().getName().equals("equals")
+				&& m.getParameterTypes().size() == 1
+				&& m.getParameterTypes().get(0) == Object.class
+				&& m.getInstance() != null;
+	}
+
+	private static boolean isBoolean(Expression e) {
+		return box(e.getResultType()) == Boolean.class;
+	}
+
+	private static Lookup lookup(IndexedCollection<?> source,
+			int expressionType, Expression member, Expression value) {
+		return lookup(source, expressionType, member, value, true);
+	}
+
+	/**
+	 * Creates the lookup of the rows, whose member compares to the value.
+	 *
+	 * @param nullable
+	 *            whether a {@code null} value compares as any other. If not,
+	 *            the comparison is left to the residual predicate.
+	 */
+	private static Lookup lookup(IndexedCollection<?> source,
+			int expressionType, Expression member, Expression value,
+			boolean nullable) {
+		MemberExpression m = getIndexedMember(member);
+		if (m == null || !isParameterFree(value))
+			return null;
+
+		IndexedCollection.Index index = source.getIndex(m.getMember(),
+				expressionType);
+		if (index == null)
+			return null;
+
+		Object v = QueryableExpressionVisitor.evaluate(value);
+		if (v == null && !nullable)
+			return null;
+		// equals() tells NaN equal to itself and -0.0 from 0.0, unlike the
+		// keys
+		if (!nullable && isFloatingPoint(box(m.getResultType())))
+			return null;
+
+		Object key = normalize(v);
+		if (key == NO_MATCH)
+			return BitSet::new;
+
+		return () -> (BitSet) index.lookup(expressionType, key).clone();
+	}
+
+	/**
+	 * Gets the getter invocation on the query element, which may be converted
+	 * without loss to compare with the value.
+	 */
+	static MemberExpression getIndexedMember(Expression e) {
+		while (e.getExpressionType() == ExpressionType.Convert) {
+			Expression operand = ((UnaryExpression) e).getFirst();
+			if (!isLossless(operand.getResultType(), e.getResultType()))
+				return null;
+			e = operand;
+		}
+
+		if (!(e instanceof MemberExpression))
+			return null;
+
+		MemberExpression m = (MemberExpression) e;
+		Expression instance = m.getInstance();
+		if (instance == null
+				|| instance.getExpressionType() != ExpressionType.Parameter
+				|| ((ParameterExpression) instance).getIndex() != 0
+				|| !m.getArguments().isEmpty())
+			return null;
+
+		return m;
+	}
+
+	private static boolean isLossless(Class<?> from, Class<?> to) {
+		if (!to.isPrimitive())
+			return to.isAssignableFrom(box(from));
+		if (!from.isPrimitive())
+			return box(to) == from;
+
+		if (from == to)
+			return true;
+
+		int fromRank = rank(from);
+		if (to == Double.TYPE)
+			return from == Float.TYPE || (fromRank >= 0 && fromRank <= 2);
+		if (to == Float.TYPE)
+			return fromRank >= 0 && fromRank <= 1;
+
+		int toRank = rank(to);
+		if (fromRank < 0 || toRank < 0)
+			return false;
+		if (from == Character.TYPE || to == Character.TYPE)
+			return from == Character.TYPE && toRank >= 2;
+		return fromRank < toRank;
+	}
+
+	private static int rank(Class<?> integralType) {
+		if (integralType == Byte.TYPE)
+			return 0;
+		if (integralType == Short.TYPE || integralType == Character.TYPE)
+			return 1;
+		if (integralType == Integer.TYPE)
+			return 2;
+		if (integralType == Long.TYPE)
+			return 3;
+		return -1;
+	}
+
+	static boolean isParameterFree(Expression e) {
+		boolean[] found = new boolean[1];
+		e.accept(new SimpleExpressionVisitor() {
+			@Override
+			public Expression visit(ParameterExpression p) {
+				found[0] = true;
+				return p;
+			}
+		});
+		return !found[0];
+	}
+
+	static int flip(int expressionType) {
+		switch (expressionType) {
+		case ExpressionType.GreaterThan:
+			return ExpressionType.LessThan;
+		case ExpressionType.GreaterThanOrEqual:
+			return ExpressionType.LessThanOrEqual;
+		case ExpressionType.LessThan:
+			return ExpressionType.GreaterThan;
+		case ExpressionType.LessThanOrEqual:
+			return ExpressionType.GreaterThanOrEqual;
+		default:
+			return expressionType;
+		}
+	}
+
+	/**
+	 * Normalizes a key or a value to compare to the keys the way the primitive
+	 * comparisons do: -0.0 equals 0.0, and NaN compares to nothing, hence is
+	 * not indexed. Only {@code !=} matches NaN, which is left to the residual
+	 * predicate.
+	 *
+	 * @param key
+	 *            the key or the value.
+	 * @return the normalized key, or {@link #NO_MATCH} for NaN.
+	 */
+	static Object normalize(Object key) {
+		if (key instanceof Double) {
+			double d = (Double) key;
+			if (d != d)
+				return NO_MATCH;
+			return d == 0d ? (Object) 0d : key;
+		}
+		if (key instanceof Float) {
+			float f = (Float) key;
+			if (f != f)
+				return NO_MATCH;
+			return f == 0f ? (Object) 0f : key;
+		}
+		return key;
+	}
+
+	/**
+	 * Converts the value to the key type for hash lookups.
+	 *
+	 * @param value
+	 *            the value.
+	 * @param keyType
+	 *            the key type.
+	 * @return the converted value, or {@link #NO_MATCH} if no key of the key
+	 *         type equals the value.
+	 */
+	static Object coerce(Object value, Class<?> keyType) {
+		keyType = box(keyType);
+		Number n = toNumber(value);
+		if (n == null || keyType.isInstance(value))
+			return value;
+
+		Object key;
+		if (keyType == Integer.class)
+			key = n.intValue();
+		else if (keyType == Long.class)
+			key = n.longValue();
+		else if (keyType == Double.class)
+			key = n.doubleValue();
+		else if (keyType == Float.class)
+			key = n.floatValue();
+		else if (keyType == Short.class)
+			key = n.shortValue();
+		else if (keyType == Byte.class)
+			key = n.byteValue();
+		else if (keyType == Character.class)
+			key = (char) n.intValue();
+		else
+			return value;
+
+		return KeyComparator.compare(key, value) == 0 ? key : NO_MATCH;
+	}
+
+	private static Number toNumber(Object o) {
+		if (o instanceof Number)
+			return (Number) o;
+		if (o instanceof Character)
+			return (int) (Character) o;
+		return null;
+	}
+
+	private static boolean isFloatingPoint(Class<?> type) {
+		return type == Double.class || type == Float.class;
+	}
+
+	private static boolean isIntegral(Number n) {
+		return n instanceof Integer || n instanceof Long || n instanceof Short
+				|| n instanceof Byte;
+	}
+
+	static Class<?> box(Class<?> type) {
+		if (!type.isPrimitive())
+			return type;
+		if (type == Integer.TYPE)
+			return Integer.class;
+		if (type == Long.TYPE)
+			return Long.class;
+		if (type == Double.TYPE)
+			return Double.class;
+		if (type == Boolean.TYPE)
+			return Boolean.class;
+		if (type == Float.TYPE)
+			return Float.class;
+		if (type == Character.TYPE)
+			return Character.class;
+		if (type == Byte.TYPE)
+			return Byte.class;
+		if (type == Short.TYPE)
+			return Short.class;
+		return Void.class;
+	}
+}
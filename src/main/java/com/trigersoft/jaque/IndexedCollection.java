@@ -0,0 +1,456 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * A collection maintaining secondary indexes over its elements. The indexes
+ * are declared by getter method references, e.g.
+ * {@code addHashIndex(Customer::getCity)}, and are used by the queries over
+ * this collection to answer the predicates comparing the indexed members with
+ * lookups instead of a full scan:
+ *
+ * <pre>
+ * IndexedCollection&lt;Customer&gt; customers = new IndexedCollection&lt;Customer&gt;()
+ * 		.addHashIndex(Customer::getCity).addSortedIndex(Customer::getAge);
+ * ...
+ * Queryable&lt;Customer&gt; q = new IterableQueryable&lt;Customer&gt;(Customer.class,
+ * 		customers).where(c -&gt; c.getCity() == &quot;Paris&quot; &amp;&amp; c.getAge() &gt; 30);
+ * </pre>
+ *
+ * A hash index answers equality comparisons, a sorted index answers equality
+ * and range comparisons. The indexed members must not change while the element
+ * is in the collection.
+ *
+ * @param <E>
+ *            the type of the elements.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public class IndexedCollection<E> extends AbstractCollection<E> {
+
+	private final ArrayList<E> _rows = new ArrayList<E>();
+	private final BitSet _live = new BitSet();
+	private final List<Index> _indexes = new ArrayList<Index>();
+	private int _size;
+	private int _modCount;
+
+	public IndexedCollection() {
+	}
+
+	public IndexedCollection(Collection<? extends E> c) {
+		addAll(c);
+	}
+
+	/**
+	 * Adds a hash index answering equality comparisons of the getter result.
+	 *
+	 * @param getter
+	 *            the getter method reference, e.g. {@code Customer::getCity}.
+	 * @return this collection.
+	 */
+	public IndexedCollection<E> addHashIndex(Function<? super E, ?> getter) {
+		return addIndex(new HashIndex(getMember(getter), getter));
+	}
+
+	/**
+	 * Adds a sorted index answering equality and range comparisons of the
+	 * getter result.
+	 *
+	 * @param getter
+	 *            the getter method reference, e.g. {@code Customer::getAge}.
+	 * @return this collection.
+	 */
+	public IndexedCollection<E> addSortedIndex(
+			Function<? super E, ? extends Comparable<?>> getter) {
+		return addIndex(new SortedIndex(getMember(getter), getter));
+	}
+
+	private IndexedCollection<E> addIndex(Index index) {
+		for (int i = _live.nextSetBit(0); i >= 0; i = _live.nextSetBit(i + 1))
+			index.add(_rows.get(i), i);
+		_indexes.add(index);
+		return this;
+	}
+
+	/**
+	 * Gets the member read by a getter method reference.
+	 *
+	 * @param getter
+	 *            the getter method reference.
+	 * @return the member.
+	 */
+	static Member getMember(Object getter) {
+		Expression body = LambdaExpression.parse(getter).getBody();
+		while (body.getExpressionType() == ExpressionType.Convert)
+			body = ((UnaryExpression) body).getFirst();
+
+		if (body instanceof MemberExpression) {
+			MemberExpression e = (MemberExpression) body;
+			if (e.getInstance() instanceof ParameterExpression
+					&& e.getArguments().isEmpty())
+				return e.getMember();
+		}
+
+		throw new IllegalArgumentException("Not a getter: " + body);
+	}
+
+	/**
+	 * Gets the index over the member, which is able to answer the comparison.
+	 *
+	 * @param member
+	 *            the indexed member.
+	 * @param expressionType
+	 *            the comparison {@link ExpressionType}.
+	 * @return the index, or {@code null} if there is none.
+	 */
+	Index getIndex(Member member, int expressionType) {
+		Index found = null;
+		for (Index index : _indexes) {
+			if (!index.getMember().equals(member)
+					|| !index.supports(expressionType))
+				continue;
+			// prefer hash lookups
+			if (found == null || index instanceof HashIndex)
+				found = index;
+		}
+		return found;
+	}
+
+	/**
+	 * Creates an {@link Iterable} over the rows set in the bitmap produced by
+	 * the index lookups.
+	 *
+	 * @param rows
+	 *            computes the rows bitmap on each iteration.
+	 * @return the {@link Iterable} over the rows.
+	 */
+	Iterable<E> rows(Supplier<BitSet> rows) {
+		return () -> new RowIterator(rows.get());
+	}
+
+	@Override
+	public boolean add(E e) {
+		compact();
+		int row = _rows.size();
+		_rows.add(e);
+		_live.set(row);
+		for (Index index : _indexes)
+			index.add(e, row);
+		_size++;
+		_modCount++;
+		return true;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new RowIterator(_live);
+	}
+
+	@Override
+	public int size() {
+		return _size;
+	}
+
+	@Override
+	public void clear() {
+		_rows.clear();
+		_live.clear();
+		for (Index index : _indexes)
+			index.clear();
+		_size = 0;
+		_modCount++;
+	}
+
+	private void removeRow(int row) {
+		E e = _rows.get(row);
+		for (Index index : _indexes)
+			index.remove(e, row);
+		_rows.set(row, null);
+		_live.clear(row);
+		_size--;
+		_modCount++;
+	}
+
+	/**
+	 * Removes the dead rows once they outnumber the live ones. The row numbers
+	 * change, hence the indexes are rebuilt.
+	 */
+	private void compact() {
+		if (_rows.size() - _size <= _size)
+			return;
+
+		ArrayList<E> live = new ArrayList<E>(_size);
+		for (int i = _live.nextSetBit(0); i >= 0; i = _live.nextSetBit(i + 1))
+			live.add(_rows.get(i));
+
+		_rows.clear();
+		_rows.addAll(live);
+		_live.clear();
+		_live.set(0, _size);
+		for (Index index : _indexes) {
+			index.clear();
+			for (int i = 0; i < _size; i++)
+				index.add(_rows.get(i), i);
+		}
+	}
+
+	private final class RowIterator implements Iterator<E> {
+		private final BitSet _rowSet;
+		private int _next;
+		private int _last = -1;
+		private int _expectedModCount = _modCount;
+
+		RowIterator(BitSet rows) {
+			_rowSet = rows;
+			_next = next(0);
+		}
+
+		private int next(int from) {
+			int i = _rowSet.nextSetBit(from);
+			// the lookup rows are live, unless removed since
+			while (i >= 0 && !_live.get(i))
+				i = _rowSet.nextSetBit(i + 1);
+			return i;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return _next >= 0;
+		}
+
+		@Override
+		public E next() {
+			if (_expectedModCount != _modCount)
+				throw new ConcurrentModificationException();
+			if (_next < 0)
+				throw new NoSuchElementException();
+			_last = _next;
+			_next = next(_next + 1);
+			return _rows.get(_last);
+		}
+
+		@Override
+		public void remove() {
+			if (_last < 0)
+				throw new IllegalStateException();
+			if (_expectedModCount != _modCount)
+				throw new ConcurrentModificationException();
+			removeRow(_last);
+			_last = -1;
+			_expectedModCount = _modCount;
+		}
+	}
+
+	/**
+	 * A secondary index mapping the getter results to the rows bitmaps.
+	 */
+	static abstract class Index {
+		private final Member _member;
+		private final Function<Object, ?> _getter;
+
+		@SuppressWarnings("unchecked")
+		Index(Member member, Function<?, ?> getter) {
+			_member = member;
+			_getter = (Function<Object, ?>) getter;
+		}
+
+		final Member getMember() {
+			return _member;
+		}
+
+		final Class<?> getKeyType() {
+			return _member instanceof Method ? ((Method) _member)
+					.getReturnType() : Object.class;
+		}
+
+		final void add(Object e, int row) {
+			Object key = IndexPlanner.normalize(_getter.apply(e));
+			if (key != IndexPlanner.NO_MATCH)
+				add(key, row, true);
+		}
+
+		final void remove(Object e, int row) {
+			Object key = IndexPlanner.normalize(_getter.apply(e));
+			if (key != IndexPlanner.NO_MATCH)
+				add(key, row, false);
+		}
+
+		/**
+		 * Sets or clears the row in the bitmap of the key, which is
+		 * {@link IndexPlanner#normalize(Object) normalized}.
+		 */
+		abstract void add(Object key, int row, boolean set);
+
+		abstract void clear();
+
+		abstract boolean supports(int expressionType);
+
+		/**
+		 * Gets the rows, whose key compares to the value as specified.
+		 *
+		 * @param expressionType
+		 *            the comparison {@link ExpressionType}.
+		 * @param value
+		 *            the value to compare to.
+		 * @return the rows bitmap, which must not be modified.
+		 */
+		abstract BitSet lookup(int expressionType, Object value);
+
+		static void add(Map<Object, BitSet> map, Object key, int row,
+				boolean set) {
+			BitSet rows = map.get(key);
+			if (set) {
+				if (rows == null) {
+					rows = new BitSet();
+					map.put(key, rows);
+				}
+				rows.set(row);
+			} else if (rows != null) {
+				rows.clear(row);
+				if (rows.isEmpty())
+					map.remove(key);
+			}
+		}
+	}
+
+	private static final BitSet EMPTY = new BitSet();
+
+	private static final class HashIndex extends Index {
+		private final HashMap<Object, BitSet> _map = new HashMap<Object, BitSet>();
+
+		HashIndex(Member member, Function<?, ?> getter) {
+			super(member, getter);
+		}
+
+		@Override
+		void add(Object key, int row, boolean set) {
+			add(_map, key, row, set);
+		}
+
+		@Override
+		void clear() {
+			_map.clear();
+		}
+
+		@Override
+		boolean supports(int expressionType) {
+			return expressionType == ExpressionType.Equal;
+		}
+
+		@Override
+		BitSet lookup(int expressionType, Object value) {
+			Object key = IndexPlanner.coerce(value, getKeyType());
+			if (key == IndexPlanner.NO_MATCH)
+				return EMPTY;
+			BitSet rows = _map.get(key);
+			return rows != null ? rows : EMPTY;
+		}
+	}
+
+	private static final class SortedIndex extends Index {
+		private final TreeMap<Object, BitSet> _map = new TreeMap<Object, BitSet>(
+				IndexPlanner.KeyComparator);
+		private final BitSet _nulls = new BitSet();
+
+		SortedIndex(Member member, Function<?, ?> getter) {
+			super(member, getter);
+		}
+
+		@Override
+		void add(Object key, int row, boolean set) {
+			if (key == null)
+				_nulls.set(row, set);
+			else
+				add(_map, key, row, set);
+		}
+
+		@Override
+		void clear() {
+			_map.clear();
+			_nulls.clear();
+		}
+
+		@Override
+		boolean supports(int expressionType) {
+			switch (expressionType) {
+			case ExpressionType.Equal:
+			case ExpressionType.GreaterThan:
+			case ExpressionType.GreaterThanOrEqual:
+			case ExpressionType.LessThan:
+			case ExpressionType.LessThanOrEqual:
+				return true;
+			default:
+				return false;
+			}
+		}
+
+		@Override
+		BitSet lookup(int expressionType, Object value) {
+			if (value == null) {
+				// null is not ordered
+				return expressionType == ExpressionType.Equal ? _nulls : EMPTY;
+			}
+
+			NavigableMap<Object, BitSet> range;
+			switch (expressionType) {
+			case ExpressionType.Equal:
+				BitSet rows = _map.get(value);
+				return rows != null ? rows : EMPTY;
+			case ExpressionType.GreaterThan:
+				range = _map.tailMap(value, false);
+				break;
+			case ExpressionType.GreaterThanOrEqual:
+				range = _map.tailMap(value, true);
+				break;
+			case ExpressionType.LessThan:
+				range = _map.headMap(value, false);
+				break;
+			case ExpressionType.LessThanOrEqual:
+				range = _map.headMap(value, true);
+				break;
+			default:
+				throw new IllegalArgumentException(
+						ExpressionType.toString(expressionType));
+			}
+
+			BitSet rows = new BitSet();
+			for (BitSet r : range.values())
+				rows.or(r);
+			return rows;
+		}
+	}
+}
@@ -15,10 +15,20 @@
  *
  */
 
-package com.trigersoft.jaque.expression;
-/*
-import jaque.Queryable;
+package com.trigersoft.jaque;
+
+import com.trigersoft.jaque.expression.*;
 
+/**
+ * A {@link Queryable} over an in-memory {@link Iterable} source. The query is
+ * executed lazily, as a pull pipeline which fuses adjacent streaming operators
+ * into a single pass.
+ *
+ * @param <E>
+ *            the type of the query elements.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
 public final class IterableQueryable<E> extends SimpleQueryable<E> {
 	public IterableQueryable(Class<E> elementType, Iterable<E> source) {
 		this(elementType, Expression.constant(source));
@@ -28,28 +38,15 @@ public final class IterableQueryable<E> extends SimpleQueryable<E> {
 		super(elementType, e);
 	}
 
+	@Override
 	@SuppressWarnings("unchecked")
 	public Iterable<E> iterable() {
-		return (Iterable<E>) execute();
-	}
-
-	@SuppressWarnings("unchecked")
-	public E single() {
-		return (E) execute();
-	}
-
-	private Object execute() {
-		try {
-			return getExpression().apply(Interpreter.Instance).invoke(null);
-		} catch (RuntimeException t) {
-			throw t;
-		} catch (Throwable t) {
-			throw new RuntimeException(t);
-		}
+		return (Iterable<E>) getExpression().accept(
+				QueryableExpressionVisitor.Instance).iterable();
 	}
 
+	@Override
 	public <T> Queryable<T> createQueryable(Class<T> type, Expression e) {
 		return new IterableQueryable<T>(type, e);
 	}
 }
-*/
\ No newline at end of file
@@ -16,3 +16,145 @@
  */
 
 package com.trigersoft.jaque;
+
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Describes the query operators. Each operator is bound to the {@link Query}
+ * method of the same name, which invocation represents the operator in a query
+ * expression tree.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public enum Operation {
+	/**
+	 * Filters the elements based on a predicate.
+	 */
+	Where(true),
+	/**
+	 * Projects each element into a new form.
+	 */
+	Select(true),
+	/**
+	 * Sorts the elements in ascending order according to a key.
+	 */
+	OrderBy(false),
+	/**
+	 * Sorts the elements in descending order according to a key.
+	 */
+	OrderByDescending(false),
+	/**
+	 * Performs a subsequent ordering of the elements in ascending order.
+	 */
+	ThenBy(false),
+	/**
+	 * Performs a subsequent ordering of the elements in descending order.
+	 */
+	ThenByDescending(false),
+	/**
+	 * Groups the elements according to a key.
+	 */
+	GroupBy(false),
+	/**
+	 * Returns a specified number of elements from the start of the sequence.
+	 */
+	Take(true),
+	/**
+	 * Returns distinct elements.
+	 */
+	Distinct(true),
+	/**
+	 * Correlates the elements of two sequences based on matching keys.
+	 */
+	Join(false),
+	/**
+	 * Computes aggregates over the elements of each group.
+	 */
+	Aggregate(false),
+	/**
+	 * Allows executing the operators which follow in parallel.
+	 */
+	Parallel(true);
+
+	private static final HashMap<Method, Operation> _operations;
+
+	static {
+		HashMap<Method, Operation> operations = new HashMap<Method, Operation>();
+		for (Method m : Query.class.getMethods()) {
+			if (m.getDeclaringClass() != Query.class)
+				continue;
+			for (Operation op : values())
+				if (op.getMethodName().equals(m.getName())) {
+					op._method = m;
+					operations.put(m, op);
+				}
+		}
+
+		_operations = operations;
+	}
+
+	private final boolean _streaming;
+	private Method _method;
+
+	private Operation(boolean streaming) {
+		_streaming = streaming;
+	}
+
+	/**
+	 * Indicates whether the operator processes each element independently of
+	 * the elements following it. Adjacent streaming operators are executed in
+	 * a single pass.
+	 *
+	 * @return {@code true} if the operator is streaming, {@code false} if it
+	 *         must see all the source elements before producing a result.
+	 */
+	public boolean isStreaming() {
+		return _streaming;
+	}
+
+	/**
+	 * Gets the {@link Query} method representing this operator.
+	 *
+	 * @return the {@link Query} method representing this operator.
+	 */
+	public Method getMethod() {
+		return _method;
+	}
+
+	private String getMethodName() {
+		String name = name();
+		return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+	}
+
+	/**
+	 * Creates an expression applying this operator to a source.
+	 *
+	 * @param source
+	 *            An {@link Expression} representing the source sequence.
+	 * @param arguments
+	 *            The operator arguments.
+	 * @return An {@link Expression} representing the operator invocation.
+	 */
+	public Expression apply(Expression source, Expression... arguments) {
+		Expression[] args = new Expression[arguments.length + 1];
+		args[0] = source;
+		System.arraycopy(arguments, 0, args, 1, arguments.length);
+		return Expression.invoke(null, _method, args);
+	}
+
+	/**
+	 * Gets the operator represented by the specified member.
+	 *
+	 * @param member
+	 *            the member to test.
+	 * @return the operator represented by the member, or {@code null} if the
+	 *         member is not a {@link Query} operator method.
+	 */
+	public static Operation of(Member member) {
+		return _operations.get(member);
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.function.Function;
+
+/**
+ * A query of sorted elements, which may be further sorted by subsequent keys.
+ *
+ * @param <S>
+ *            the type of the query elements.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public interface OrderedQueryable<S> extends Queryable<S> {
+	/**
+	 * Performs a subsequent ordering of the elements, which have equal
+	 * preceding keys, in ascending order according to a key.
+	 *
+	 * @param <K>
+	 *            the type of the key.
+	 * @param keySelector
+	 *            a lambda to extract a key from an element.
+	 * @return a query which elements are sorted according to the keys.
+	 */
+	<K extends Comparable<? super K>> OrderedQueryable<S> thenBy(
+			Function<? super S, K> keySelector);
+
+	/**
+	 * Performs a subsequent ordering of the elements, which have equal
+	 * preceding keys, in descending order according to a key.
+	 *
+	 * @param <K>
+	 *            the type of the key.
+	 * @param keySelector
+	 *            a lambda to extract a key from an element.
+	 * @return a query which elements are sorted according to the keys.
+	 */
+	<K extends Comparable<? super K>> OrderedQueryable<S> thenByDescending(
+			Function<? super S, K> keySelector);
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+import com.trigersoft.jaque.QueryPipeline.Stage;
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Executes the stateless stages of a pipeline in parallel. The source is split
+ * with its {@link Spliterator} into chunks evaluated on a {@link ForkJoinPool},
+ * and the chunk results are concatenated in the source order.
+ * <p>
+ * The cost model estimates the work as the number of expression nodes
+ * evaluated, i.e. the source size times the stage lambdas node count. Only
+ * sources of a known size, which are worth at least {@link #MIN_COST} node
+ * evaluations per pool thread, are executed in parallel. The chunks are
+ * evaluated on the first pull, so a pipeline short-circuiting after the
+ * stateless stages, e.g. by {@code take}, is executed sequentially.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class ParallelExecution {
+
+	/**
+	 * The minimal number of node evaluations per thread, which justifies
+	 * splitting the work.
+	 */
+	static final long MIN_COST = 1 << 14;
+
+	private ParallelExecution() {
+	}
+
+	/**
+	 * Decides whether to execute the stages in parallel.
+	 *
+	 * @param source
+	 *            the source.
+	 * @param stages
+	 *            the stateless stages.
+	 * @param pool
+	 *            the pool to execute on.
+	 * @return {@code true} if a parallel execution is profitable.
+	 */
+	static boolean isParallel(Iterable<?> source, Stage[] stages,
+			ForkJoinPool pool) {
+		if (!(source instanceof Collection<?>))
+			return false;
+
+		return isParallel(((Collection<?>) source).size(), cost(stages),
+				pool.getParallelism());
+	}
+
+	static boolean isParallel(long size, long cost, int parallelism) {
+		return parallelism > 1 && size > 1 && size * cost >= MIN_COST * 2;
+	}
+
+	private static long cost(Stage[] stages) {
+		long cost = 0;
+		for (Stage stage : stages)
+			cost += stage.getCost();
+		return cost;
+	}
+
+	/**
+	 * Counts the expression nodes, estimating the evaluation cost.
+	 *
+	 * @param e
+	 *            the expression.
+	 * @return the number of nodes.
+	 */
+	static int countNodes(Expression e) {
+		int[] count = new int[1];
+		e.accept(new SimpleExpressionVisitor() {
+			@Override
+			public Expression visit(BinaryExpression e) {
+				count[0]++;
+				return super.visit(e);
+			}
+
+			@Override
+			public Expression visit(ConstantExpression e) {
+				count[0]++;
+				return e;
+			}
+
+			@Override
+			public Expression visit(MemberExpression e) {
+				count[0]++;
+				return super.visit(e);
+			}
+
+			@Override
+			public Expression visit(ParameterExpression e) {
+				count[0]++;
+				return e;
+			}
+
+			@Override
+			public Expression visit(ThisExpression e) {
+				count[0]++;
+				return e;
+			}
+
+			@Override
+			public Expression visit(UnaryExpression e) {
+				count[0]++;
+				return super.visit(e);
+			}
+
+			@Override
+			public Expression visit(LambdaInvocationExpression e) {
+				count[0]++;
+				return super.visit(e);
+			}
+		});
+		return count[0];
+	}
+
+	/**
+	 * Executes the stages in parallel on the first pull.
+	 */
+	static final class ParallelIterable implements Iterable<Object> {
+		private final Collection<?> _source;
+		private final Stage[] _stages;
+		private final ForkJoinPool _pool;
+
+		ParallelIterable(Iterable<?> source, Stage[] stages, ForkJoinPool pool) {
+			_source = (Collection<?>) source;
+			_stages = stages;
+			_pool = pool;
+		}
+
+		@Override
+		public Iterator<Object> iterator() {
+			return new Iterator<Object>() {
+				private Iterator<Object> _result;
+
+				private Iterator<Object> result() {
+					if (_result == null)
+						_result = reduce(_source, _pool,
+								ArrayList<Object>::new, this::accumulate,
+								(first, second) -> {
+									first.addAll(second);
+									return first;
+								}).iterator();
+					return _result;
+				}
+
+				private void accumulate(List<Object> result, Object e) {
+					for (Stage stage : _stages) {
+						e = stage.apply(e);
+						if (e == QueryPipeline.SKIP)
+							return;
+					}
+					result.add(e);
+				}
+
+				@Override
+				public boolean hasNext() {
+					return result().hasNext();
+				}
+
+				@Override
+				public Object next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					return result().next();
+				}
+			};
+		}
+	}
+
+	/**
+	 * Reduces the source elements in parallel. The source is split into
+	 * chunks, each one is accumulated into a new container, and the containers
+	 * are combined in the source order.
+	 *
+	 * @param source
+	 *            the source.
+	 * @param pool
+	 *            the pool to execute on.
+	 * @param identity
+	 *            creates an empty container.
+	 * @param accumulator
+	 *            adds an element to a container.
+	 * @param combiner
+	 *            combines a container with the container of the elements
+	 *            following it.
+	 * @return the combined container.
+	 */
+	static <A> A reduce(Collection<?> source, ForkJoinPool pool,
+			Supplier<A> identity, BiConsumer<A, Object> accumulator,
+			BinaryOperator<A> combiner) {
+		// split into 4 chunks per thread for load balancing
+		long chunk = Math.max(source.size() / (pool.getParallelism() * 4L), 1);
+		return pool.invoke(new ReduceTask<A>(source.spliterator(), chunk,
+				identity, accumulator, combiner));
+	}
+
+	@SuppressWarnings("serial")
+	private static final class ReduceTask<A> extends RecursiveTask<A> {
+		private final Spliterator<?> _spliterator;
+		private final long _chunk;
+		private final Supplier<A> _identity;
+		private final BiConsumer<A, Object> _accumulator;
+		private final BinaryOperator<A> _combiner;
+
+		ReduceTask(Spliterator<?> spliterator, long chunk, Supplier<A> identity,
+				BiConsumer<A, Object> accumulator, BinaryOperator<A> combiner) {
+			_spliterator = spliterator;
+			_chunk = chunk;
+			_identity = identity;
+			_accumulator = accumulator;
+			_combiner = combiner;
+		}
+
+		@Override
+		protected A compute() {
+			Spliterator<?> prefix;
+			if (_spliterator.estimateSize() > _chunk
+					&& (prefix = _spliterator.trySplit()) != null) {
+				ReduceTask<A> first = new ReduceTask<A>(prefix, _chunk,
+						_identity, _accumulator, _combiner);
+				first.fork();
+				A second = new ReduceTask<A>(_spliterator, _chunk, _identity,
+						_accumulator, _combiner).compute();
+				return _combiner.apply(first.join(), second);
+			}
+
+			A result = _identity.get();
+			_spliterator.forEachRemaining(e -> _accumulator.accept(result, e));
+			return result;
+		}
+	}
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Matches events against many registered predicates, evaluating only the
+ * predicates which may match:
+ *
+ * <pre>
+ * PredicateMatcher&lt;Trade&gt; matcher = new PredicateMatcher&lt;Trade&gt;();
+ * int id = matcher.add(t -&gt; &quot;ACME&quot;.equals(t.getSymbol()) &amp;&amp; t.getPrice() &gt; 100);
+ * ...
+ * BitSet matched = matcher.match(trade);
+ * </pre>
+ *
+ * Each predicate is split into its {@link ExpressionType#LogicalAnd}
+ * conjuncts. One conjunct comparing a member of the event with a value not
+ * depending on the event, preferably by equality, is indexed per member: on
+ * each event the member is read once and the predicates, whose indexed
+ * comparison may hold, are looked up. The predicates without such a conjunct
+ * are evaluated on every event.
+ * <p>
+ * Like in a Rete network, the equal conjuncts of different predicates are a
+ * single node, compiled once and evaluated at most once per event. The
+ * conjuncts differing only by the compared values share the compiled code.
+ * The nodes are reference counted, so removing a predicate drops the nodes
+ * not shared with the others.
+ * </p>
+ * <p>
+ * The registered predicates must not be added or removed concurrently with the
+ * other operations; matching is safe to run concurrently.
+ * </p>
+ *
+ * @param <E>
+ *            the type of the events.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public final class PredicateMatcher<E> {
+
+	private static final byte UNKNOWN = 0;
+	private static final byte TRUE = 1;
+	private static final byte FALSE = 2;
+
+	private final List<Subscription> _subscriptions = new ArrayList<Subscription>();
+	// by the node id, null for the free ids
+	private final List<Node> _nodes = new ArrayList<Node>();
+	private final BitSet _freeNodeIds = new BitSet();
+	private final Map<LambdaExpression<?>, Node> _nodesByConjunct = new HashMap<LambdaExpression<?>, Node>();
+	private final Map<Member, MemberIndex> _indexes = new LinkedHashMap<Member, MemberIndex>();
+	private final Set<Subscription> _unindexed = new LinkedHashSet<Subscription>();
+	private int _size;
+
+	/**
+	 * Registers a predicate.
+	 *
+	 * @param predicate
+	 *            the predicate lambda.
+	 * @return the predicate id, reported by {@link #match(Object)}.
+	 */
+	public int add(Predicate<? super E> predicate) {
+		return add(LambdaExpression.parse(predicate));
+	}
+
+	/**
+	 * Registers a parsed predicate.
+	 *
+	 * @param predicate
+	 *            the predicate lambda, having a single parameter.
+	 * @return the predicate id, reported by {@link #match(Object)}.
+	 */
+	public int add(LambdaExpression<?> predicate) {
+		if (predicate.getParamTypes().size() != 1)
+			throw new IllegalArgumentException(predicate.toString());
+
+		List<Expression> conjuncts = new ArrayList<Expression>();
+		IndexPlanner.split(ExpressionReducer.reduce(predicate.getBody()),
+				conjuncts);
+
+		Node[] nodes = new Node[conjuncts.size()];
+		for (int i = 0; i < nodes.length; i++)
+			nodes[i] = node(Expression.lambda(Boolean.TYPE, conjuncts.get(i),
+					predicate.getParamTypes()));
+
+		Subscription s = new Subscription(_subscriptions.size(), nodes);
+		_subscriptions.add(s);
+		_size++;
+
+		Atom atom = null;
+		for (Expression c : conjuncts) {
+			Atom a = Atom.of(c);
+			if (a != null
+					&& (atom == null || (a._type == ExpressionType.Equal && atom._type != ExpressionType.Equal)))
+				atom = a;
+		}
+
+		if (atom == null)
+			_unindexed.add(s);
+		else if (atom._value != IndexPlanner.NO_MATCH) {
+			MemberIndex index = _indexes.get(atom._member.getMember());
+			if (index == null) {
+				index = new MemberIndex(Expression.lambda(
+						atom._member.getResultType(), atom._member,
+						predicate.getParamTypes()));
+				_indexes.put(atom._member.getMember(), index);
+			}
+			index.add(atom._type, atom._value, s);
+			s._index = index;
+			s._atom = atom;
+		}
+		// else the indexed conjunct never holds, neither does the predicate
+
+		return s._id;
+	}
+
+	private Node node(LambdaExpression<?> conjunct) {
+		Node node = _nodesByConjunct.get(conjunct);
+		if (node == null) {
+			int id = _freeNodeIds.nextSetBit(0);
+			if (id < 0)
+				id = _nodes.size();
+			node = new Node(id, conjunct, QueryPipeline.compile(conjunct));
+			if (id == _nodes.size())
+				_nodes.add(node);
+			else {
+				_nodes.set(id, node);
+				_freeNodeIds.clear(id);
+			}
+			_nodesByConjunct.put(conjunct, node);
+		}
+		node._references++;
+		return node;
+	}
+
+	/**
+	 * Drops a node no predicate references, recycling its id. The trailing
+	 * free ids are trimmed, as {@link #match(Object)} memoizes the results
+	 * by the node ids.
+	 */
+	private void release(Node node) {
+		if (--node._references > 0)
+			return;
+
+		_nodesByConjunct.remove(node._key);
+		_nodes.set(node._id, null);
+		_freeNodeIds.set(node._id);
+		for (int last = _nodes.size() - 1; last >= 0
+				&& _nodes.get(last) == null; last--) {
+			_nodes.remove(last);
+			_freeNodeIds.clear(last);
+		}
+	}
+
+	/**
+	 * Unregisters a predicate.
+	 *
+	 * @param id
+	 *            the predicate id.
+	 * @return {@code true} if the predicate was registered.
+	 */
+	public boolean remove(int id) {
+		if (id < 0 || id >= _subscriptions.size())
+			return false;
+		Subscription s = _subscriptions.get(id);
+		if (s == null)
+			return false;
+
+		_subscriptions.set(id, null);
+		_size--;
+		if (s._index != null) {
+			s._index.remove(s._atom._type, s._atom._value, s);
+			if (s._index._count == 0)
+				_indexes.remove(s._atom._member.getMember());
+		} else
+			_unindexed.remove(s);
+		for (Node node : s._nodes)
+			release(node);
+		return true;
+	}
+
+	/**
+	 * Gets the number of the registered predicates.
+	 *
+	 * @return the number of the registered predicates.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Gets the number of the node ids, i.e. the size of the memo allocated by
+	 * {@link #match(Object)}.
+	 */
+	int getNodeCount() {
+		return _nodes.size();
+	}
+
+	/**
+	 * Finds the predicates, which hold for the event.
+	 *
+	 * @param event
+	 *            the event, not {@code null}.
+	 * @return the ids of the matching predicates.
+	 */
+	public BitSet match(E event) {
+		if (event == null)
+			throw new NullPointerException("event");
+		Object[] args = { event };
+		byte[] memo = new byte[_nodes.size()];
+		BitSet matched = new BitSet();
+
+		for (MemberIndex index : _indexes.values()) {
+			Object value = normalize(index._reader.apply(args));
+			index.candidates(value, s -> evaluate(s, args, memo, matched));
+		}
+		for (Subscription s : _unindexed)
+			evaluate(s, args, memo, matched);
+
+		return matched;
+	}
+
+	private static void evaluate(Subscription s, Object[] args, byte[] memo,
+			BitSet matched) {
+		for (Node node : s._nodes) {
+			byte result = memo[node._id];
+			if (result == UNKNOWN) {
+				result = (Boolean) node._conjunct.apply(args) ? TRUE : FALSE;
+				memo[node._id] = result;
+			}
+			if (result == FALSE)
+				return;
+		}
+		matched.set(s._id);
+	}
+
+	// orders -0.0 and 0.0 as equal, as the numeric comparisons do
+	private static Object normalize(Object value) {
+		if (value instanceof Double && (Double) value == 0)
+			return 0d;
+		if (value instanceof Float && (Float) value == 0)
+			return 0f;
+		return value;
+	}
+
+	private static final class Subscription {
+		final int _id;
+		final Node[] _nodes;
+		MemberIndex _index;
+		Atom _atom;
+
+		Subscription(int id, Node[] nodes) {
+			_id = id;
+			_nodes = nodes;
+		}
+	}
+
+	/**
+	 * A conjunct shared by the predicates.
+	 */
+	private static final class Node {
+		final int _id;
+		final LambdaExpression<?> _key;
+		final Function<Object[], ?> _conjunct;
+		// the number of the predicates' conjuncts
+		int _references;
+
+		Node(int id, LambdaExpression<?> key, Function<Object[], ?> conjunct) {
+			_id = id;
+			_key = key;
+			_conjunct = conjunct;
+		}
+	}
+
+	/**
+	 * A conjunct comparing a member of the event with a value.
+	 */
+	private static final class Atom {
+		final MemberExpression _member;
+		final int _type;
+		final Object _value;
+
+		private Atom(MemberExpression member, int type, Object value) {
+			_member = member;
+			_type = type;
+			_value = value;
+		}
+
+		static Atom of(Expression e) {
+			if (!AdaptivePredicate.isMovable(e))
+				return null;
+
+			Atom atom;
+			switch (e.getExpressionType()) {
+			case ExpressionType.Equal:
+			case ExpressionType.GreaterThan:
+			case ExpressionType.GreaterThanOrEqual:
+			case ExpressionType.LessThan:
+			case ExpressionType.LessThanOrEqual:
+				BinaryExpression b = (BinaryExpression) e;
+				atom = of(e.getExpressionType(), b.getFirst(),
+						b.getSecond());
+				return atom != null ? atom : of(
+						IndexPlanner.flip(e.getExpressionType()),
+						b.getSecond(), b.getFirst());
+			case ExpressionType.IsNull:
+				return of(ExpressionType.Equal,
+						((UnaryExpression) e).getFirst(),
+						Expression.constant(null, Object.class));
+			case ExpressionType.MethodAccess:
+				MemberExpression m = (MemberExpression) e;
+				if (!IndexPlanner.isEquals(m))
+					return null;
+				// the member equals a non-null value, as Objects.equals
+				Expression arg = m.getArguments().get(0);
+				atom = of(ExpressionType.Equal, arg, m.getInstance());
+				if (atom == null)
+					atom = of(ExpressionType.Equal, m.getInstance(), arg);
+				return atom != null && atom._value != null ? atom : null;
+			default:
+				return null;
+			}
+		}
+
+		private static Atom of(int type, Expression member, Expression value) {
+			MemberExpression m = IndexPlanner.getIndexedMember(member);
+			if (m == null || !IndexPlanner.isParameterFree(value))
+				return null;
+
+			Object v = QueryableExpressionVisitor.evaluate(value);
+			if (v == null) {
+				// null is not ordered
+				if (type != ExpressionType.Equal)
+					return null;
+			} else if (type == ExpressionType.Equal)
+				v = IndexPlanner.coerce(v, m.getResultType());
+			return new Atom(m, type, normalize(v));
+		}
+	}
+
+	/**
+	 * Indexes the predicates by the value compared with a member of the event.
+	 */
+	private static final class MemberIndex {
+		final Function<Object[], ?> _reader;
+		private final HashMap<Object, List<Subscription>> _equal = new HashMap<Object, List<Subscription>>();
+		// by the expression type
+		private final Map<Integer, TreeMap<Object, List<Subscription>>> _ranges = new HashMap<Integer, TreeMap<Object, List<Subscription>>>();
+		int _count;
+
+		MemberIndex(LambdaExpression<?> reader) {
+			_reader = QueryPipeline.compile(reader);
+		}
+
+		private Map<Object, List<Subscription>> map(int type, boolean create) {
+			if (type == ExpressionType.Equal)
+				return _equal;
+			TreeMap<Object, List<Subscription>> map = _ranges.get(type);
+			if (map == null && create) {
+				map = new TreeMap<Object, List<Subscription>>(
+						IndexPlanner.KeyComparator);
+				_ranges.put(type, map);
+			}
+			return map;
+		}
+
+		void add(int type, Object value, Subscription s) {
+			Map<Object, List<Subscription>> map = map(type, true);
+			List<Subscription> list = map.get(value);
+			if (list == null) {
+				list = new ArrayList<Subscription>(1);
+				map.put(value, list);
+			}
+			list.add(s);
+			_count++;
+		}
+
+		void remove(int type, Object value, Subscription s) {
+			Map<Object, List<Subscription>> map = map(type, false);
+			List<Subscription> list = map.get(value);
+			list.remove(s);
+			if (list.isEmpty()) {
+				map.remove(value);
+				if (map.isEmpty() && type != ExpressionType.Equal)
+					_ranges.remove(type);
+			}
+			_count--;
+		}
+
+		/**
+		 * Passes the predicates, whose indexed comparison with the member
+		 * value may hold.
+		 */
+		void candidates(Object value, Consumer<Subscription> action) {
+			forEach(_equal.get(value), action);
+			if (value == null)
+				return;
+
+			for (Map.Entry<Integer, TreeMap<Object, List<Subscription>>> entry : _ranges
+					.entrySet()) {
+				// member > v holds for v < value, and so on
+				TreeMap<Object, List<Subscription>> map = entry.getValue();
+				NavigableMap<Object, List<Subscription>> range;
+				switch (entry.getKey()) {
+				case ExpressionType.GreaterThan:
+					range = map.headMap(value, false);
+					break;
+				case ExpressionType.GreaterThanOrEqual:
+					range = map.headMap(value, true);
+					break;
+				case ExpressionType.LessThan:
+					range = map.tailMap(value, false);
+					break;
+				default:
+					range = map.tailMap(value, true);
+					break;
+				}
+				for (List<Subscription> list : range.values())
+					forEach(list, action);
+			}
+		}
+
+		private static void forEach(Collection<Subscription> list,
+				Consumer<Subscription> action) {
+			if (list != null)
+				for (Subscription s : list)
+					action.accept(s);
+		}
+	}
+}
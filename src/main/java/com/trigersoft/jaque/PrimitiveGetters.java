@@ -0,0 +1,211 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Reads the primitive values of single parameter lambdas without boxing. A
+ * lambda, which is a public getter of its parameter, is read with a
+ * {@link MethodHandle}; any other lambda is compiled and its result unboxed.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class PrimitiveGetters {
+
+	private PrimitiveGetters() {
+	}
+
+	/**
+	 * Gets the static result type of the lambda, without the boxing
+	 * conversions.
+	 *
+	 * @param lambda
+	 *            the lambda.
+	 * @return the result type.
+	 */
+	static Class<?> getResultType(LambdaExpression<?> lambda) {
+		return unbox(ExpressionReducer.reduce(lambda.getBody()))
+				.getResultType();
+	}
+
+	private static Expression unbox(Expression e) {
+		while (e.getExpressionType() == ExpressionType.Convert) {
+			Expression operand = ((UnaryExpression) e).getFirst();
+			// keep the primitive conversions, which may change the value
+			if (e.getResultType().isPrimitive()
+					&& operand.getResultType().isPrimitive())
+				break;
+			e = operand;
+		}
+		return e;
+	}
+
+	/**
+	 * Gets the getter invocation on the lambda parameter.
+	 *
+	 * @param lambda
+	 *            the lambda.
+	 * @return the getter invocation, or {@code null} if the lambda is not a
+	 *         getter.
+	 */
+	static MemberExpression getGetter(LambdaExpression<?> lambda) {
+		Expression body = unbox(ExpressionReducer.reduce(lambda.getBody()));
+		if (!(body instanceof MemberExpression))
+			return null;
+
+		MemberExpression m = (MemberExpression) body;
+		Expression instance = m.getInstance();
+		if (instance == null
+				|| instance.getExpressionType() != ExpressionType.Parameter
+				|| ((ParameterExpression) instance).getIndex() != 0
+				|| !m.getArguments().isEmpty())
+			return null;
+		return m;
+	}
+
+	/**
+	 * Creates a {@code long} reader of a public getter.
+	 *
+	 * @param lambda
+	 *            the lambda.
+	 * @return the reader, or {@code null} if the lambda is not a public getter
+	 *         of an integral type.
+	 */
+	static ToLongFunction<Object> getLongGetter(LambdaExpression<?> lambda) {
+		MethodHandle h = getHandle(lambda, Long.TYPE);
+		if (h == null)
+			return null;
+
+		return e -> {
+			try {
+				return (long) h.invokeExact(e);
+			} catch (RuntimeException | Error t) {
+				throw t;
+			} catch (Throwable t) {
+				throw new RuntimeException(t);
+			}
+		};
+	}
+
+	/**
+	 * Creates a {@code double} reader of a public getter.
+	 *
+	 * @param lambda
+	 *            the lambda.
+	 * @return the reader, or {@code null} if the lambda is not a public getter
+	 *         of a primitive numeric type.
+	 */
+	static ToDoubleFunction<Object> getDoubleGetter(LambdaExpression<?> lambda) {
+		MethodHandle h = getHandle(lambda, Double.TYPE);
+		if (h == null)
+			return null;
+
+		return e -> {
+			try {
+				return (double) h.invokeExact(e);
+			} catch (RuntimeException | Error t) {
+				throw t;
+			} catch (Throwable t) {
+				throw new RuntimeException(t);
+			}
+		};
+	}
+
+	/**
+	 * Creates a {@code long} reader of the lambda, reading a public getter
+	 * directly.
+	 *
+	 * @param lambda
+	 *            the lambda returning an integral value.
+	 * @return the reader.
+	 */
+	static ToLongFunction<Object> toLong(LambdaExpression<?> lambda) {
+		ToLongFunction<Object> getter = getLongGetter(lambda);
+		if (getter != null)
+			return getter;
+		Function<Object[], ?> f = QueryPipeline.compile(lambda);
+		return e -> ((Number) QueryPipeline.invoke(f, e)).longValue();
+	}
+
+	/**
+	 * Creates a {@code double} reader of the lambda, reading a public getter
+	 * directly.
+	 *
+	 * @param lambda
+	 *            the lambda returning a numeric value.
+	 * @return the reader.
+	 */
+	static ToDoubleFunction<Object> toDouble(LambdaExpression<?> lambda) {
+		ToDoubleFunction<Object> getter = getDoubleGetter(lambda);
+		if (getter != null)
+			return getter;
+		Function<Object[], ?> f = QueryPipeline.compile(lambda);
+		return e -> ((Number) QueryPipeline.invoke(f, e)).doubleValue();
+	}
+
+	private static boolean isIntegral(Class<?> type) {
+		return type == Integer.TYPE || type == Long.TYPE
+				|| type == Short.TYPE || type == Byte.TYPE
+				|| type == Character.TYPE;
+	}
+
+	private static MethodHandle getHandle(LambdaExpression<?> lambda,
+			Class<?> type) {
+		MemberExpression m = getGetter(lambda);
+		if (m == null)
+			return null;
+
+		Class<?> resultType = m.getResultType();
+		if (type == Long.TYPE ? !isIntegral(resultType)
+				: !resultType.isPrimitive() || resultType == Boolean.TYPE)
+			return null;
+
+		Member member = m.getMember();
+		if (!Modifier.isPublic(member.getModifiers())
+				|| !Modifier.isPublic(member.getDeclaringClass().getModifiers()))
+			return null;
+
+		MethodHandle handle;
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			if (member instanceof Method)
+				handle = lookup.unreflect((Method) member);
+			else if (member instanceof Field)
+				handle = lookup.unreflectGetter((Field) member);
+			else
+				return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+
+		return handle.asType(MethodType.methodType(type, Object.class));
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes the fused streaming stages of a query over the items pushed by a
+ * {@link Flow.Publisher}. The items are requested in batches, only while the
+ * subscriber has an unfulfilled demand and the previous batch is received.
+ * The items pass through the stages as they arrive, so a slow source delivers
+ * each result without waiting for the rest of its batch.
+ * <p>
+ * The signals of both sides are serialized by a work-in-progress counter: the
+ * thread incrementing it from zero drains the work of the others.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class PublisherExecution implements Flow.Subscriber<Object>,
+		Flow.Subscription {
+
+	private final Flow.Subscriber<Object> _downstream;
+	private final QueryPipeline.Stage[] _stages;
+	private final int _batchSize;
+
+	private final AtomicInteger _wip = new AtomicInteger();
+	private final AtomicLong _demand = new AtomicLong();
+	// the items requested and not received yet
+	private final AtomicInteger _inFlight = new AtomicInteger();
+	// the items received and not processed yet
+	private final ConcurrentLinkedQueue<Object> _items = new ConcurrentLinkedQueue<Object>();
+	private volatile Flow.Subscription _upstream;
+	private volatile boolean _upstreamDone;
+	private volatile Throwable _error;
+	private volatile boolean _cancelled;
+
+	// accessed by the draining thread only
+	private List<Object> _output = new ArrayList<Object>();
+	private int _emitted;
+	private boolean _terminated;
+
+	@SuppressWarnings("unchecked")
+	PublisherExecution(Flow.Subscriber<?> downstream,
+			QueryPipeline.Stage[] stages, int batchSize) {
+		_downstream = (Flow.Subscriber<Object>) downstream;
+		_stages = stages;
+		_batchSize = batchSize;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		_upstream = subscription;
+		_downstream.onSubscribe(this);
+	}
+
+	@Override
+	public void onNext(Object item) {
+		_items.add(item);
+		_inFlight.decrementAndGet();
+		drain();
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		_error = throwable;
+		_upstreamDone = true;
+		drain();
+	}
+
+	@Override
+	public void onComplete() {
+		_upstreamDone = true;
+		drain();
+	}
+
+	@Override
+	public void request(long n) {
+		if (n <= 0) {
+			// fails the subscription, as the specification requires
+			_upstream.cancel();
+			_error = new IllegalArgumentException("n: " + n);
+			_upstreamDone = true;
+		} else {
+			long d;
+			do {
+				d = _demand.get();
+				if (d == Long.MAX_VALUE)
+					break;
+			} while (!_demand.compareAndSet(d,
+					d + n < 0 ? Long.MAX_VALUE : d + n));
+		}
+		drain();
+	}
+
+	@Override
+	public void cancel() {
+		_cancelled = true;
+		Flow.Subscription upstream = _upstream;
+		if (upstream != null)
+			upstream.cancel();
+	}
+
+	private void drain() {
+		if (_wip.getAndIncrement() != 0)
+			return;
+
+		int missed = 1;
+		do {
+			step();
+			missed = _wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void step() {
+		while (!_terminated) {
+			if (_cancelled) {
+				_terminated = true;
+				_items.clear();
+				_output = null;
+				return;
+			}
+
+			while (_emitted < _output.size()) {
+				long d = _demand.get();
+				if (d == 0)
+					return;
+				if (d != Long.MAX_VALUE)
+					_demand.decrementAndGet();
+				Object e = _output.get(_emitted);
+				_output.set(_emitted++, null);
+				_downstream.onNext(e);
+				if (_cancelled)
+					break;
+			}
+			if (_cancelled)
+				continue;
+
+			if (QueryPipeline.isDone(_stages)) {
+				_upstream.cancel();
+				_terminated = true;
+				_downstream.onComplete();
+				return;
+			}
+
+			// read before polling, the last item is added before the flag
+			boolean done = _upstreamDone;
+			if (!_items.isEmpty()) {
+				try {
+					process();
+				} catch (Throwable t) {
+					_upstream.cancel();
+					_terminated = true;
+					_downstream.onError(t);
+					return;
+				}
+				continue;
+			}
+
+			if (done) {
+				_terminated = true;
+				Throwable error = _error;
+				if (error != null)
+					_downstream.onError(error);
+				else
+					_downstream.onComplete();
+				return;
+			}
+
+			if (_inFlight.get() == 0 && _demand.get() > 0) {
+				_inFlight.set(_batchSize);
+				_upstream.request(_batchSize);
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Passes the items received so far through the stages.
+	 */
+	private void process() {
+		_output.clear();
+		_emitted = 0;
+		for (Object e; (e = _items.poll()) != null;) {
+			if (QueryPipeline.isDone(_stages))
+				break;
+			e = QueryPipeline.apply(_stages, e);
+			if (e != QueryPipeline.SKIP)
+				_output.add(e);
+		}
+	}
+}
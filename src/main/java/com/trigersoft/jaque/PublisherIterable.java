@@ -0,0 +1,215 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Pulls the items of a {@link Flow.Publisher}. Each iterator subscribes to
+ * the publisher and blocks until the next item arrives. The items are
+ * requested in batches, once half of the previous request is consumed, so at
+ * most {@code 1.5} batches are buffered.
+ * <p>
+ * The subscription is cancelled when the iterator is closed, e.g. by the query
+ * pipeline once it needs no more items, or when the iterator is abandoned
+ * before the publisher completes. The abandoned iterators are found with the
+ * garbage collector, and cancelled when the next iterator subscribes.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class PublisherIterable implements Iterable<Object> {
+
+	private static final Object COMPLETE = new Object();
+
+	// the subscribers of the collected iterators
+	private static final ReferenceQueue<BlockingIterator> Abandoned = new ReferenceQueue<BlockingIterator>();
+	// the subscribers not terminated, reachable until enqueued
+	private static final Set<Link> Pending = Collections
+			.newSetFromMap(new ConcurrentHashMap<Link, Boolean>());
+
+	private final Flow.Publisher<?> _publisher;
+	private final int _batchSize;
+
+	PublisherIterable(Flow.Publisher<?> publisher, int batchSize) {
+		if (publisher == null)
+			throw new NullPointerException("publisher");
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batchSize");
+		_publisher = publisher;
+		_batchSize = batchSize;
+	}
+
+	Flow.Publisher<?> getPublisher() {
+		return _publisher;
+	}
+
+	int getBatchSize() {
+		return _batchSize;
+	}
+
+	@Override
+	public Iterator<Object> iterator() {
+		for (Reference<?> r; (r = Abandoned.poll()) != null;)
+			((Link) r).cancel();
+
+		BlockingIterator it = new BlockingIterator(
+				Math.max(_batchSize >> 1, 1));
+		_publisher.subscribe(it._link);
+		return it;
+	}
+
+	private final class BlockingIterator implements Iterator<Object>,
+			AutoCloseable {
+		private final Link _link;
+		private final int _refill;
+		private int _consumed;
+		private Object _next;
+
+		BlockingIterator(int refill) {
+			_link = new Link(this, _batchSize);
+			_refill = refill;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (_next == null) {
+				try {
+					_next = _link._items.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					close();
+					throw new RuntimeException(e);
+				}
+				if (_next instanceof Failure) {
+					Throwable t = ((Failure) _next)._throwable;
+					if (t instanceof RuntimeException)
+						throw (RuntimeException) t;
+					if (t instanceof Error)
+						throw (Error) t;
+					throw new RuntimeException(t);
+				}
+				if (_next != COMPLETE && ++_consumed == _refill) {
+					_consumed = 0;
+					_link.request(_refill);
+				}
+			}
+			return _next != COMPLETE;
+		}
+
+		@Override
+		public Object next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Object e = _next;
+			_next = null;
+			return e;
+		}
+
+		/**
+		 * Cancels the subscription, no more items are returned.
+		 */
+		@Override
+		public void close() {
+			_next = COMPLETE;
+			_link.cancel();
+		}
+	}
+
+	/**
+	 * The subscriber of an iterator, referencing the iterator weakly, so it is
+	 * enqueued when the iterator is abandoned.
+	 */
+	private static final class Link extends WeakReference<BlockingIterator>
+			implements Flow.Subscriber<Object> {
+		final LinkedBlockingQueue<Object> _items = new LinkedBlockingQueue<Object>();
+		private final int _batchSize;
+		private volatile Flow.Subscription _subscription;
+		private volatile boolean _cancelled;
+
+		Link(BlockingIterator it, int batchSize) {
+			super(it, Abandoned);
+			_batchSize = batchSize;
+			Pending.add(this);
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			_subscription = subscription;
+			// the iterator may be closed before
+			if (_cancelled)
+				subscription.cancel();
+			else
+				subscription.request(_batchSize);
+		}
+
+		@Override
+		public void onNext(Object item) {
+			_items.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			terminate();
+			_items.add(new Failure(throwable));
+		}
+
+		@Override
+		public void onComplete() {
+			terminate();
+			_items.add(COMPLETE);
+		}
+
+		private void terminate() {
+			clear();
+			Pending.remove(this);
+		}
+
+		void request(long n) {
+			Flow.Subscription subscription = _subscription;
+			if (subscription != null)
+				subscription.request(n);
+		}
+
+		void cancel() {
+			_cancelled = true;
+			terminate();
+			_items.clear();
+			Flow.Subscription subscription = _subscription;
+			if (subscription != null)
+				subscription.cancel();
+		}
+	}
+
+	private static final class Failure {
+		final Throwable _throwable;
+
+		Failure(Throwable throwable) {
+			_throwable = throwable;
+		}
+	}
+}
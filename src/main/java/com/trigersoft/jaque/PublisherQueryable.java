@@ -0,0 +1,116 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * A {@link Queryable} over an asynchronous {@link Flow.Publisher} source. The
+ * items are requested from the source in batches, so a slow consumer slows
+ * down the source instead of buffering it:
+ * <ul>
+ * <li>Iterating the query pulls the items, blocking until they arrive. All
+ * the operators are supported.</li>
+ * <li>{@link #publisher(Queryable)} pushes the results to a subscriber. The
+ * streaming operators of the query are fused and applied to the items as they
+ * arrive. The next batch is requested only when the subscriber demands more
+ * results.</li>
+ * </ul>
+ *
+ * @param <E>
+ *            the type of the query elements.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public final class PublisherQueryable<E> extends SimpleQueryable<E> {
+
+	/**
+	 * The number of items requested from the source at once by default.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	public PublisherQueryable(Class<E> elementType,
+			Flow.Publisher<? extends E> source) {
+		this(elementType, source, DEFAULT_BATCH_SIZE);
+	}
+
+	public PublisherQueryable(Class<E> elementType,
+			Flow.Publisher<? extends E> source, int batchSize) {
+		this(elementType, Expression.constant(new PublisherIterable(source,
+				batchSize)));
+	}
+
+	private PublisherQueryable(Class<E> elementType, Expression e) {
+		super(elementType, e);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Iterable<E> iterable() {
+		return (Iterable<E>) getExpression().accept(
+				QueryableExpressionVisitor.Instance).iterable();
+	}
+
+	/**
+	 * Creates a publisher of the query results. Each subscriber executes the
+	 * query over a new subscription to the source.
+	 *
+	 * @return the publisher of the query results.
+	 * @throws IllegalStateException
+	 *             if the query has operators, which need all the source items
+	 *             before producing a result, e.g. sorting.
+	 */
+	public Flow.Publisher<E> publisher() {
+		return publisher(this);
+	}
+
+	/**
+	 * Creates a publisher of the results of a query over a
+	 * {@link PublisherQueryable}, e.g. of a query the operators of which
+	 * return {@link Queryable}. Each subscriber executes the query over a new
+	 * subscription to the source.
+	 *
+	 * @param <T>
+	 *            the type of the query elements.
+	 * @param query
+	 *            the query.
+	 * @return the publisher of the query results.
+	 * @throws IllegalStateException
+	 *             if the query is not over a publisher, or has operators,
+	 *             which need all the source items before producing a result,
+	 *             e.g. sorting.
+	 */
+	public static <T> Flow.Publisher<T> publisher(Queryable<T> query) {
+		QueryPipeline pipeline = query.getExpression().accept(
+				QueryableExpressionVisitor.Instance);
+		Iterable<?> source = pipeline.getSource();
+		if (!(source instanceof PublisherIterable))
+			throw new IllegalStateException(
+					"Only streaming operators over a publisher can be pushed, iterate the query instead");
+
+		PublisherIterable publisherSource = (PublisherIterable) source;
+		return subscriber -> publisherSource.getPublisher().subscribe(
+				new PublisherExecution(subscriber, pipeline.stages(),
+						publisherSource.getBatchSize()));
+	}
+
+	@Override
+	public <T> Queryable<T> createQueryable(Class<T> type, Expression e) {
+		return new PublisherQueryable<T>(type, e);
+	}
+}
@@ -16,3 +16,256 @@
  */
 
 package com.trigersoft.jaque;
+
+import java.util.concurrent.ForkJoinPool;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Contains the query operators over {@link Iterable} sources. Invocations of
+ * these methods form the query expression trees of {@link Queryable}, see
+ * {@link Operation}. Each method returns a lazy {@link Iterable}, nothing is
+ * evaluated until it is iterated.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public final class Query {
+	private Query() {
+	}
+
+	/**
+	 * Filters the elements based on a predicate.
+	 *
+	 * @param <T>
+	 *            the type of the elements.
+	 * @param source
+	 *            the source sequence.
+	 * @param predicate
+	 *            a lambda to test each element for a condition.
+	 * @return the elements that satisfy the condition.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Iterable<T> where(Iterable<T> source,
+			LambdaExpression<?> predicate) {
+		return (Iterable<T>) QueryPipeline.of(source).where(predicate)
+				.iterable();
+	}
+
+	/**
+	 * Projects each element into a new form.
+	 *
+	 * @param <T>
+	 *            the type of the source elements.
+	 * @param <R>
+	 *            the type of the projected elements.
+	 * @param source
+	 *            the source sequence.
+	 * @param selector
+	 *            a lambda to apply to each element.
+	 * @return the projected elements.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T, R> Iterable<R> select(Iterable<T> source,
+			LambdaExpression<?> selector) {
+		return (Iterable<R>) QueryPipeline.of(source).select(selector)
+				.iterable();
+	}
+
+	/**
+	 * Sorts the elements in ascending order according to a key.
+	 *
+	 * @param <T>
+	 *            the type of the elements.
+	 * @param source
+	 *            the source sequence.
+	 * @param keySelector
+	 *            a lambda to extract a {@link Comparable} key from an element.
+	 * @return the sorted elements.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Iterable<T> orderBy(Iterable<T> source,
+			LambdaExpression<?> keySelector) {
+		return (Iterable<T>) QueryPipeline.of(source)
+				.orderBy(keySelector, false).iterable();
+	}
+
+	/**
+	 * Sorts the elements in descending order according to a key.
+	 *
+	 * @param <T>
+	 *            the type of the elements.
+	 * @param source
+	 *            the source sequence.
+	 * @param keySelector
+	 *            a lambda to extract a {@link Comparable} key from an element.
+	 * @return the sorted elements.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Iterable<T> orderByDescending(Iterable<T> source,
+			LambdaExpression<?> keySelector) {
+		return (Iterable<T>) QueryPipeline.of(source)
+				.orderBy(keySelector, true).iterable();
+	}
+
+	/**
+	 * Performs a subsequent ordering of the elements in ascending order
+	 * according to a key. Applies only to {@link #orderBy(Iterable,
+	 * LambdaExpression)} or another subsequent ordering directly preceding it
+	 * in a query expression tree.
+	 *
+	 * @param <T>
+	 *            the type of the elements.
+	 * @param source
+	 *            the sorted sequence.
+	 * @param keySelector
+	 *            a lambda to extract a {@link Comparable} key from an element.
+	 * @return the sorted elements.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Iterable<T> thenBy(Iterable<T> source,
+			LambdaExpression<?> keySelector) {
+		return (Iterable<T>) QueryPipeline.of(source)
+				.thenBy(keySelector, false).iterable();
+	}
+
+	/**
+	 * Performs a subsequent ordering of the elements in descending order
+	 * according to a key, see {@link #thenBy(Iterable, LambdaExpression)}.
+	 *
+	 * @param <T>
+	 *            the type of the elements.
+	 * @param source
+	 *            the sorted sequence.
+	 * @param keySelector
+	 *            a lambda to extract a {@link Comparable} key from an element.
+	 * @return the sorted elements.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Iterable<T> thenByDescending(Iterable<T> source,
+			LambdaExpression<?> keySelector) {
+		return (Iterable<T>) QueryPipeline.of(source)
+				.thenBy(keySelector, true).iterable();
+	}
+
+	/**
+	 * Groups the elements according to a key.
+	 *
+	 * @param <T>
+	 *            the type of the elements.
+	 * @param <K>
+	 *            the type of the key.
+	 * @param source
+	 *            the source sequence.
+	 * @param keySelector
+	 *            a lambda to extract a key from an element.
+	 * @return the groups in the order their keys are first encountered.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T, K> Iterable<Grouping<K, T>> groupBy(Iterable<T> source,
+			LambdaExpression<?> keySelector) {
+		return (Iterable<Grouping<K, T>>) QueryPipeline.of(source)
+				.groupBy(keySelector).iterable();
+	}
+
+	/**
+	 * Returns a specified number of elements from the start of the sequence.
+	 *
+	 * @param <T>
+	 *            the type of the elements.
+	 * @param source
+	 *            the source sequence.
+	 * @param count
+	 *            the number of elements to return.
+	 * @return at most {@code count} elements.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Iterable<T> take(Iterable<T> source, int count) {
+		return (Iterable<T>) QueryPipeline.of(source).take(count).iterable();
+	}
+
+	/**
+	 * Returns distinct elements, according to {@link Object#equals(Object)}.
+	 *
+	 * @param <T>
+	 *            the type of the elements.
+	 * @param source
+	 *            the source sequence.
+	 * @return distinct elements.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Iterable<T> distinct(Iterable<T> source) {
+		return (Iterable<T>) QueryPipeline.of(source).distinct().iterable();
+	}
+
+	/**
+	 * Correlates the elements of two sequences based on matching keys. The
+	 * results are returned in the order of the outer elements, then of the
+	 * inner elements. The elements with {@code null} keys are not matched.
+	 *
+	 * @param <T>
+	 *            the type of the outer elements.
+	 * @param <I>
+	 *            the type of the inner elements.
+	 * @param <R>
+	 *            the type of the results.
+	 * @param source
+	 *            the outer sequence.
+	 * @param inner
+	 *            the inner sequence.
+	 * @param outerKey
+	 *            a lambda to extract the key from an outer element.
+	 * @param innerKey
+	 *            a lambda to extract the key from an inner element.
+	 * @param resultSelector
+	 *            a lambda to create a result from two matching elements.
+	 * @return the results for each pair of the matching elements.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T, I, R> Iterable<R> join(Iterable<T> source,
+			Iterable<I> inner, LambdaExpression<?> outerKey,
+			LambdaExpression<?> innerKey, LambdaExpression<?> resultSelector) {
+		return (Iterable<R>) QueryPipeline.of(source)
+				.join(inner, outerKey, innerKey, resultSelector).iterable();
+	}
+
+	/**
+	 * Computes aggregates over the elements of each group. The groups
+	 * directly produced by {@link #groupBy(Iterable, LambdaExpression)} are
+	 * not created, their elements are accumulated as they are read.
+	 *
+	 * @param <T>
+	 *            the type of the grouped elements.
+	 * @param <K>
+	 *            the type of the key.
+	 * @param source
+	 *            the groups.
+	 * @param aggregates
+	 *            the aggregates to compute.
+	 * @return the aggregate results of each group, in the order of the groups.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T, K> Iterable<AggregateResult<K>> aggregate(
+			Iterable<Grouping<K, T>> source, Aggregate<?>[] aggregates) {
+		return (Iterable<AggregateResult<K>>) QueryPipeline.of(source)
+				.aggregate(aggregates).iterable();
+	}
+
+	/**
+	 * Allows executing the operators which follow in parallel, when a query
+	 * expression tree is executed. The elements are returned in the source
+	 * order.
+	 *
+	 * @param <T>
+	 *            the type of the elements.
+	 * @param source
+	 *            the source sequence.
+	 * @param pool
+	 *            the pool executing the query.
+	 * @return the source sequence.
+	 */
+	public static <T> Iterable<T> parallel(Iterable<T> source, ForkJoinPool pool) {
+		if (pool == null)
+			throw new NullPointerException("pool");
+		return source;
+	}
+}
@@ -0,0 +1,796 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Builds a lazy pull pipeline executing a chain of query operators. Adjacent
+ * streaming operators are fused into a single iterator, which passes each
+ * source element through all of them before pulling the next one, so no
+ * intermediate collections are created. Adjacent predicates are fused further
+ * into a single {@link ExpressionType#LogicalAnd} expression, which is
+ * answered with index lookups when filtering an {@link IndexedCollection},
+ * with column scans when filtering a {@link ColumnarCollection}, or evaluated
+ * in the order adapting to its operands selectivity.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class QueryPipeline {
+
+	/**
+	 * Returned by a {@link Stage} to drop the current element.
+	 */
+	static final Object SKIP = new Object();
+
+	/**
+	 * The compiled lambdas by their shape, so that re-running a query with new
+	 * captured values does not compile it again.
+	 */
+	private static final PlanCache<Function<Object[], ?>> Compiled = new PlanCache<Function<Object[], ?>>(
+			LambdaExpression::compile);
+	/**
+	 * The compiled predicates by their shape. The order of the predicate
+	 * operands adapts to their selectivity, see {@link AdaptivePredicate}, and
+	 * is shared by the executions of the same shape.
+	 */
+	private static final PlanCache<Function<Object[], ?>> Predicates = new PlanCache<Function<Object[], ?>>(
+			AdaptivePredicate::compile);
+
+	private Iterable<?> _source;
+	private final List<Stage> _stages = new ArrayList<Stage>();
+	private LambdaExpression<?> _predicate;
+	private ForkJoinPool _pool;
+	// the source and the key of the last groupBy, until the groups are used
+	private Iterable<?> _groupSource;
+	private LambdaExpression<?> _groupKey;
+	// the sorting of the last orderBy, until the sorted elements are used
+	private Sorting _sorting;
+
+	private QueryPipeline(Iterable<?> source) {
+		if (source == null)
+			throw new NullPointerException("source");
+		_source = source;
+	}
+
+	static QueryPipeline of(Iterable<?> source) {
+		return new QueryPipeline(source);
+	}
+
+	/**
+	 * Applies the operator to the pipeline.
+	 *
+	 * @param op
+	 *            the operator.
+	 * @param arguments
+	 *            the operator arguments, without the source.
+	 * @return this pipeline.
+	 */
+	QueryPipeline apply(Operation op, List<Object> arguments) {
+		switch (op) {
+		case Where:
+			return where((LambdaExpression<?>) arguments.get(0));
+		case Select:
+			return select((LambdaExpression<?>) arguments.get(0));
+		case OrderBy:
+			return orderBy((LambdaExpression<?>) arguments.get(0), false);
+		case OrderByDescending:
+			return orderBy((LambdaExpression<?>) arguments.get(0), true);
+		case ThenBy:
+			return thenBy((LambdaExpression<?>) arguments.get(0), false);
+		case ThenByDescending:
+			return thenBy((LambdaExpression<?>) arguments.get(0), true);
+		case GroupBy:
+			return groupBy((LambdaExpression<?>) arguments.get(0));
+		case Take:
+			return take((Integer) arguments.get(0));
+		case Distinct:
+			return distinct();
+		case Join:
+			return join((Iterable<?>) arguments.get(0),
+					(LambdaExpression<?>) arguments.get(1),
+					(LambdaExpression<?>) arguments.get(2),
+					(LambdaExpression<?>) arguments.get(3));
+		case Aggregate:
+			return aggregate((Aggregate<?>[]) arguments.get(0));
+		case Parallel:
+			return parallel((ForkJoinPool) arguments.get(0));
+		default:
+			throw new IllegalArgumentException(op.toString());
+		}
+	}
+
+	QueryPipeline where(LambdaExpression<?> predicate) {
+		if (_predicate == null)
+			_predicate = predicate;
+		else
+			_predicate = Expression.lambda(Boolean.TYPE, Expression
+					.logicalAnd(_predicate.getBody(), predicate.getBody()),
+					_predicate.getParamTypes());
+		return this;
+	}
+
+	QueryPipeline select(LambdaExpression<?> selector) {
+		addStage(new SelectStage(compile(selector), cost(selector)));
+		return this;
+	}
+
+	QueryPipeline take(int count) {
+		if (count < 0)
+			throw new IllegalArgumentException("count");
+		if (isSorted()) {
+			// the first sorted elements are selected without sorting the rest
+			_sorting.limit(count);
+			_sorting = null;
+			return this;
+		}
+		addStage(new TakeStage(count));
+		return this;
+	}
+
+	QueryPipeline distinct() {
+		addStage(new DistinctStage());
+		return this;
+	}
+
+	/**
+	 * Joins the pipeline elements with the inner elements having an equal
+	 * key, see {@link HashJoin}.
+	 *
+	 * @return this pipeline.
+	 */
+	QueryPipeline join(Iterable<?> inner, LambdaExpression<?> outerKey,
+			LambdaExpression<?> innerKey, LambdaExpression<?> resultSelector) {
+		if (inner == null)
+			throw new NullPointerException("inner");
+		setSource(new HashJoin(iterable(), inner, outerKey, innerKey,
+				resultSelector));
+		return this;
+	}
+
+	/**
+	 * Computes the aggregates of the groups, see {@link Aggregation}. Directly
+	 * following a {@link #groupBy(LambdaExpression)}, the elements are
+	 * accumulated without creating the groups.
+	 *
+	 * @param aggregates
+	 *            the aggregates.
+	 * @return this pipeline.
+	 */
+	QueryPipeline aggregate(Aggregate<?>[] aggregates) {
+		if (_groupKey != null && _predicate == null && _stages.isEmpty())
+			setSource(new Aggregation(_groupSource, _groupKey, aggregates,
+					_pool));
+		else
+			setSource(new Aggregation(iterable(), null, aggregates, null));
+		return this;
+	}
+
+	/**
+	 * Allows executing the leading stateless stages in parallel, see
+	 * {@link ParallelExecution}.
+	 *
+	 * @param pool
+	 *            the pool to execute on.
+	 * @return this pipeline.
+	 */
+	QueryPipeline parallel(ForkJoinPool pool) {
+		flushPredicate();
+		_pool = pool;
+		return this;
+	}
+
+	/**
+	 * Sorts the pipeline elements, see {@link Sorting}.
+	 *
+	 * @return this pipeline.
+	 */
+	QueryPipeline orderBy(LambdaExpression<?> keySelector, boolean descending) {
+		Sorting sorting = new Sorting(iterable(), keySelector, descending);
+		setSource(sorting);
+		_sorting = sorting;
+		return this;
+	}
+
+	/**
+	 * Adds a key to the sorting directly preceding.
+	 *
+	 * @return this pipeline.
+	 */
+	QueryPipeline thenBy(LambdaExpression<?> keySelector, boolean descending) {
+		if (!isSorted())
+			throw new IllegalStateException(
+					"thenBy must directly follow orderBy or thenBy");
+		_sorting.thenBy(keySelector, descending);
+		return this;
+	}
+
+	private boolean isSorted() {
+		return _sorting != null && _predicate == null && _stages.isEmpty();
+	}
+
+	QueryPipeline groupBy(LambdaExpression<?> keySelector) {
+		final Function<Object[], ?> key = compile(keySelector);
+		Iterable<?> source = iterable();
+		barrier(source, s -> {
+			QueryStageEvent event = beginStage("group", s);
+			Map<Object, Group> groups = new LinkedHashMap<Object, Group>();
+			for (Object e : s) {
+				Object k = invoke(key, e);
+				Group g = groups.get(k);
+				if (g == null) {
+					g = new Group(k);
+					groups.put(k, g);
+				}
+				g.add(e);
+			}
+			endStage(event, groups.size());
+			return groups.values();
+		});
+		_groupSource = source;
+		_groupKey = keySelector;
+		return this;
+	}
+
+	/**
+	 * Creates the lazy {@link Iterable} executing the pipeline.
+	 *
+	 * @return the lazy {@link Iterable} executing the pipeline.
+	 */
+	Iterable<?> iterable() {
+		flushPredicate();
+		if (_stages.isEmpty())
+			return _source;
+
+		Stage[] stages = _stages.toArray(new Stage[_stages.size()]);
+		if (_pool != null) {
+			int stateless = 0;
+			while (stateless < stages.length && stages[stateless].isStateless())
+				stateless++;
+
+			// the parallel stages run over the whole source on the first
+			// pull, which a short-circuiting stage would not need
+			boolean shortCircuiting = false;
+			for (int i = stateless; i < stages.length; i++)
+				shortCircuiting |= stages[i].isShortCircuiting();
+
+			Stage[] parallel = Arrays.copyOf(stages, stateless);
+			if (stateless > 0 && !shortCircuiting
+					&& ParallelExecution.isParallel(_source, parallel, _pool)) {
+				Iterable<?> source = new ParallelExecution.ParallelIterable(
+						_source, parallel, _pool);
+				if (stateless == stages.length)
+					return source;
+				return new FusedIterable(source, Arrays.copyOfRange(stages,
+						stateless, stages.length));
+			}
+		}
+
+		return new FusedIterable(_source, stages);
+	}
+
+	/**
+	 * Gets the source of the streaming stages, see {@link #stages()}.
+	 *
+	 * @return the source of the streaming stages.
+	 */
+	Iterable<?> getSource() {
+		flushPredicate();
+		return _source;
+	}
+
+	/**
+	 * Creates the streaming stages for a new execution, which pushes the
+	 * elements of {@link #getSource()} through them with
+	 * {@link #apply(Stage[], Object)}.
+	 *
+	 * @return the streaming stages.
+	 */
+	Stage[] stages() {
+		flushPredicate();
+		Stage[] stages = new Stage[_stages.size()];
+		for (int i = 0; i < stages.length; i++)
+			stages[i] = _stages.get(i).start();
+		return stages;
+	}
+
+	/**
+	 * Passes an element through the stages.
+	 *
+	 * @param stages
+	 *            the stages.
+	 * @param e
+	 *            the element.
+	 * @return the result, or {@link #SKIP} if a stage dropped the element.
+	 */
+	static Object apply(Stage[] stages, Object e) {
+		for (Stage stage : stages) {
+			e = stage.apply(e);
+			if (e == SKIP)
+				break;
+		}
+		return e;
+	}
+
+	/**
+	 * Indicates whether any of the stages will not pass further elements.
+	 *
+	 * @param stages
+	 *            the stages.
+	 * @return {@code true} if the source should not be pulled anymore.
+	 */
+	static boolean isDone(Stage[] stages) {
+		for (Stage stage : stages)
+			if (stage.isDone())
+				return true;
+		return false;
+	}
+
+	private void addStage(Stage stage) {
+		flushPredicate();
+		_stages.add(stage);
+	}
+
+	private void flushPredicate() {
+		if (_predicate == null)
+			return;
+
+		LambdaExpression<?> predicate = _predicate;
+		_predicate = null;
+		if (_stages.isEmpty()
+				&& (_source instanceof IndexedCollection<?> || _source instanceof ColumnarCollection<?>)) {
+			QueryStageEvent event = beginStage("plan", _source);
+			IndexPlanner.Plan plan = _source instanceof IndexedCollection<?> ? IndexPlanner
+					.plan((IndexedCollection<?>) _source, predicate)
+					: ColumnScan.plan((ColumnarCollection<?>) _source,
+							predicate);
+			if (plan == null) {
+				// no plan, all the rows are scanned
+				endStage(event, ((Collection<?>) _source).size());
+			} else {
+				_source = plan.getRows();
+				endStage(event,
+						_source instanceof Collection<?> ? ((Collection<?>) _source)
+								.size() : -1);
+				predicate = plan.getResidual();
+				if (predicate == null)
+					return;
+			}
+		}
+
+		_stages.add(new WhereStage(compile(predicate, Predicates),
+				cost(predicate)));
+	}
+
+	private QueryPipeline barrier(
+			Function<Iterable<?>, Collection<?>> materializer) {
+		return barrier(iterable(), materializer);
+	}
+
+	private QueryPipeline barrier(Iterable<?> source,
+			Function<Iterable<?>, Collection<?>> materializer) {
+		setSource(new BarrierIterable(source, materializer));
+		return this;
+	}
+
+	private void setSource(Iterable<?> source) {
+		_source = source;
+		_stages.clear();
+		_groupKey = null;
+		_groupSource = null;
+		_sorting = null;
+	}
+
+	/**
+	 * Compiles the lambda, reusing the compiled shape of a lambda differing
+	 * only by the captured values.
+	 *
+	 * @param lambda
+	 *            the lambda.
+	 * @return the compiled lambda.
+	 */
+	static Function<Object[], ?> compile(LambdaExpression<?> lambda) {
+		return compile(lambda, Compiled);
+	}
+
+	private static Function<Object[], ?> compile(LambdaExpression<?> lambda,
+			PlanCache<Function<Object[], ?>> cache) {
+		ParameterizedLambda p = ParameterizedLambda.of(lambda);
+		Function<Object[], ?> f = cache.get(p);
+		if (p.getValues().isEmpty())
+			return f;
+		return args -> f.apply(p.bind(args));
+	}
+
+	private static int cost(LambdaExpression<?> lambda) {
+		return ParallelExecution.countNodes(lambda.getBody());
+	}
+
+	/**
+	 * Starts the {@link QueryStageEvent} of a stage, if the events are
+	 * enabled.
+	 *
+	 * @param stage
+	 *            the stage name.
+	 * @param source
+	 *            the source of the stage.
+	 * @return the started event, or {@code null}.
+	 */
+	static QueryStageEvent beginStage(String stage, Object source) {
+		if (!Events.isEnabled())
+			return null;
+
+		QueryStageEvent event = new QueryStageEvent();
+		if (!event.isEnabled())
+			return null;
+		event.stage = stage;
+		event.source = source.getClass();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Commits the event of a stage started with
+	 * {@link #beginStage(String, Object)}.
+	 *
+	 * @param event
+	 *            the event, or {@code null}.
+	 * @param rows
+	 *            the number of the rows the stage produced, or -1.
+	 */
+	static void endStage(QueryStageEvent event, long rows) {
+		if (event == null)
+			return;
+
+		event.end();
+		event.rows = rows;
+		event.commit();
+	}
+
+	static Object invoke(Function<Object[], ?> f, Object e) {
+		return f.apply(new Object[] { e });
+	}
+
+	static List<Object> toList(Iterable<?> source) {
+		List<Object> list = source instanceof Collection<?> ? new ArrayList<Object>(
+				((Collection<?>) source).size()) : new ArrayList<Object>();
+		for (Object e : source)
+			list.add(e);
+		return list;
+	}
+
+	/**
+	 * A single streaming operator of a fused pipeline.
+	 */
+	static abstract class Stage {
+		/**
+		 * Processes an element.
+		 *
+		 * @param e
+		 *            the element.
+		 * @return the element to pass to the next stage, or {@link #SKIP} to
+		 *         drop it.
+		 */
+		abstract Object apply(Object e);
+
+		/**
+		 * Indicates whether this stage will not pass any further elements.
+		 *
+		 * @return {@code true} if the pipeline can stop pulling the source.
+		 */
+		boolean isDone() {
+			return false;
+		}
+
+		/**
+		 * Indicates whether this stage may stop the pipeline before the source
+		 * is exhausted, see {@link #isDone()}.
+		 *
+		 * @return {@code true} if this stage is short-circuiting.
+		 */
+		boolean isShortCircuiting() {
+			return false;
+		}
+
+		/**
+		 * Gets the stage to be used by a new iteration. Stateful stages return
+		 * a fresh copy.
+		 *
+		 * @return the stage to be used by a new iteration.
+		 */
+		Stage start() {
+			return this;
+		}
+
+		/**
+		 * Indicates whether this stage processes each element independently,
+		 * so may run in parallel.
+		 *
+		 * @return {@code true} if this stage is stateless.
+		 */
+		boolean isStateless() {
+			return false;
+		}
+
+		/**
+		 * Estimates the cost of processing an element.
+		 *
+		 * @return the number of expression nodes evaluated per element.
+		 */
+		int getCost() {
+			return 1;
+		}
+	}
+
+	private static final class WhereStage extends Stage {
+		private final Function<Object[], ?> _predicate;
+		private final int _cost;
+
+		WhereStage(Function<Object[], ?> predicate, int cost) {
+			_predicate = predicate;
+			_cost = cost;
+		}
+
+		@Override
+		boolean isStateless() {
+			return true;
+		}
+
+		@Override
+		int getCost() {
+			return _cost;
+		}
+
+		@Override
+		Object apply(Object e) {
+			return (Boolean) invoke(_predicate, e) ? e : SKIP;
+		}
+	}
+
+	private static final class SelectStage extends Stage {
+		private final Function<Object[], ?> _selector;
+		private final int _cost;
+
+		SelectStage(Function<Object[], ?> selector, int cost) {
+			_selector = selector;
+			_cost = cost;
+		}
+
+		@Override
+		boolean isStateless() {
+			return true;
+		}
+
+		@Override
+		int getCost() {
+			return _cost;
+		}
+
+		@Override
+		Object apply(Object e) {
+			return invoke(_selector, e);
+		}
+	}
+
+	private static final class TakeStage extends Stage {
+		private final int _count;
+		private int _remaining;
+
+		TakeStage(int count) {
+			_count = count;
+			_remaining = count;
+		}
+
+		@Override
+		Object apply(Object e) {
+			_remaining--;
+			return e;
+		}
+
+		@Override
+		boolean isDone() {
+			return _remaining <= 0;
+		}
+
+		@Override
+		boolean isShortCircuiting() {
+			return true;
+		}
+
+		@Override
+		Stage start() {
+			return new TakeStage(_count);
+		}
+	}
+
+	private static final class DistinctStage extends Stage {
+		private final HashSet<Object> _seen = new HashSet<Object>();
+
+		@Override
+		Object apply(Object e) {
+			return _seen.add(e) ? e : SKIP;
+		}
+
+		@Override
+		Stage start() {
+			return new DistinctStage();
+		}
+	}
+
+	private static final class FusedIterable implements Iterable<Object> {
+		private final Iterable<?> _source;
+		private final Stage[] _stages;
+
+		FusedIterable(Iterable<?> source, Stage[] stages) {
+			_source = source;
+			_stages = stages;
+		}
+
+		@Override
+		public Iterator<Object> iterator() {
+			Stage[] stages = new Stage[_stages.length];
+			for (int i = 0; i < stages.length; i++)
+				stages[i] = _stages[i].start();
+			QueryStageEvent event = beginStage("stream", _source);
+			return new FusedIterator(_source.iterator(), stages, event);
+		}
+	}
+
+	private static final class FusedIterator implements Iterator<Object> {
+		private final Iterator<?> _source;
+		private final Stage[] _stages;
+		private Object _next = SKIP;
+		private QueryStageEvent _event;
+		private long _rows;
+
+		FusedIterator(Iterator<?> source, Stage[] stages, QueryStageEvent event) {
+			_source = source;
+			_stages = stages;
+			_event = event;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (_next != SKIP)
+				return true;
+
+			for (;;) {
+				if (isDone(_stages) || !_source.hasNext()) {
+					close(_source);
+					endStage(_event, _rows);
+					_event = null;
+					return false;
+				}
+
+				Object e = apply(_stages, _source.next());
+				if (e != SKIP) {
+					_next = e;
+					_rows++;
+					// e.g. the last item taken
+					if (isDone(_stages))
+						close(_source);
+					return true;
+				}
+			}
+		}
+
+		@Override
+		public Object next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Object e = _next;
+			_next = SKIP;
+			return e;
+		}
+	}
+
+	/**
+	 * Releases a source, which needs no more items, e.g. cancels the
+	 * subscription of a {@link PublisherIterable}.
+	 */
+	private static void close(Iterator<?> source) {
+		if (source instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) source).close();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Materializes the upstream pipeline on the first pull, e.g. for sorting.
+	 */
+	private static final class BarrierIterable implements Iterable<Object> {
+		private final Iterable<?> _source;
+		private final Function<Iterable<?>, Collection<?>> _materializer;
+
+		BarrierIterable(Iterable<?> source,
+				Function<Iterable<?>, Collection<?>> materializer) {
+			_source = source;
+			_materializer = materializer;
+		}
+
+		@Override
+		public Iterator<Object> iterator() {
+			return new Iterator<Object>() {
+				private Iterator<?> _result;
+
+				private Iterator<?> result() {
+					if (_result == null)
+						_result = _materializer.apply(_source).iterator();
+					return _result;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return result().hasNext();
+				}
+
+				@Override
+				public Object next() {
+					return result().next();
+				}
+			};
+		}
+	}
+
+	private static final class Group implements Grouping<Object, Object> {
+		private final Object _key;
+		private final List<Object> _elements = new ArrayList<Object>();
+
+		Group(Object key) {
+			_key = key;
+		}
+
+		void add(Object e) {
+			_elements.add(e);
+		}
+
+		@Override
+		public Object getKey() {
+			return _key;
+		}
+
+		@Override
+		public Iterator<Object> iterator() {
+			return Collections.unmodifiableList(_elements).iterator();
+		}
+
+		@Override
+		public String toString() {
+			return _key + "=" + Arrays.toString(_elements.toArray());
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted by the stages of a query execution, see
+ * {@link QueryPipeline#beginStage(String, Object)}. Created only if
+ * {@link com.trigersoft.jaque.expression.Events#isEnabled()}.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+@Name("com.trigersoft.jaque.QueryStage")
+@Label("Query Stage")
+@Category("Jaque")
+@Description("Executes a stage of a query")
+final class QueryStageEvent extends Event {
+
+	@Label("Stage")
+	@Description("plan, group, sort, aggregate, join or stream")
+	String stage;
+
+	@Label("Source")
+	Class<?> source;
+
+	@Label("Rows")
+	@Description("The number of the rows the stage produced, or -1 if not known")
+	long rows;
+}
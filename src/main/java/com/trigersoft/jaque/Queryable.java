@@ -17,16 +17,193 @@
 
 package com.trigersoft.jaque;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
 import com.trigersoft.jaque.expression.*;
 
-/*public*/ interface Queryable<S> extends Iterable<S> {
+/**
+ * Provides functionality to evaluate queries against a specific data source.
+ * The query is represented by an expression tree, built by the operator
+ * methods of this interface, and executed by the {@link QueryableFactory}
+ * which created it.
+ *
+ * @param <S>
+ *            the type of the query elements.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public interface Queryable<S> extends Iterable<S> {
+	/**
+	 * Gets the type of the elements returned when the query is executed.
+	 *
+	 * @return the type of the query elements.
+	 */
 	Class<S> getElementType();
 
+	/**
+	 * Gets the expression tree of this query. The tree consists of calls to the
+	 * {@link Query} operator methods, which source is the root data source.
+	 *
+	 * @return the expression tree of this query.
+	 */
 	Expression getExpression();
 
+	/**
+	 * Gets the factory which creates and executes the queries of this data
+	 * source.
+	 *
+	 * @return the factory of this query.
+	 */
 	QueryableFactory getFactory();
 
+	/**
+	 * Executes the query lazily.
+	 *
+	 * @return the query results.
+	 */
 	Iterable<S> iterable();
 
+	/**
+	 * Executes the query and returns its only element.
+	 *
+	 * @return the single element of the query results.
+	 * @throws java.util.NoSuchElementException
+	 *             if the query results are empty.
+	 * @throws IllegalStateException
+	 *             if the query results contain more than one element.
+	 */
 	S single();
+
+	/**
+	 * Filters the elements based on a predicate.
+	 *
+	 * @param predicate
+	 *            a lambda to test each element for a condition.
+	 * @return a query that contains the elements that satisfy the condition.
+	 */
+	Queryable<S> where(Predicate<? super S> predicate);
+
+	/**
+	 * Projects each element into a new form.
+	 *
+	 * @param <R>
+	 *            the type of the projected elements.
+	 * @param selector
+	 *            a lambda to apply to each element.
+	 * @return a query that contains the projected elements.
+	 */
+	<R> Queryable<R> select(Function<? super S, ? extends R> selector);
+
+	/**
+	 * Sorts the elements in ascending order according to a key.
+	 *
+	 * @param <K>
+	 *            the type of the key.
+	 * @param keySelector
+	 *            a lambda to extract a key from an element.
+	 * @return a query which elements are sorted according to a key, which may
+	 *         be further sorted with
+	 *         {@link OrderedQueryable#thenBy(Function)}.
+	 */
+	<K extends Comparable<? super K>> OrderedQueryable<S> orderBy(
+			Function<? super S, K> keySelector);
+
+	/**
+	 * Sorts the elements in descending order according to a key.
+	 *
+	 * @param <K>
+	 *            the type of the key.
+	 * @param keySelector
+	 *            a lambda to extract a key from an element.
+	 * @return a query which elements are sorted in descending order according
+	 *         to a key, which may be further sorted with
+	 *         {@link OrderedQueryable#thenBy(Function)}.
+	 */
+	<K extends Comparable<? super K>> OrderedQueryable<S> orderByDescending(
+			Function<? super S, K> keySelector);
+
+	/**
+	 * Groups the elements according to a key. The groups are returned in the
+	 * order their keys are first encountered.
+	 *
+	 * @param <K>
+	 *            the type of the key.
+	 * @param keySelector
+	 *            a lambda to extract a key from an element.
+	 * @return a query of groups, each one containing the elements sharing the
+	 *         same key, which may be aggregated with
+	 *         {@link GroupedQueryable#aggregate(Aggregate...)}.
+	 */
+	<K> GroupedQueryable<K, S> groupBy(Function<? super S, ? extends K> keySelector);
+
+	/**
+	 * Returns a specified number of elements from the start of the sequence.
+	 *
+	 * @param count
+	 *            the number of elements to return.
+	 * @return a query that contains at most {@code count} elements. Directly
+	 *         following a sorting, only the first elements are kept while
+	 *         sorting.
+	 */
+	Queryable<S> take(int count);
+
+	/**
+	 * Returns distinct elements, according to {@link Object#equals(Object)}.
+	 *
+	 * @return a query that contains distinct elements.
+	 */
+	Queryable<S> distinct();
+
+	/**
+	 * Correlates the elements with the elements of another sequence based on
+	 * matching keys. A hash table is built over the smaller sequence, keyed by
+	 * primitive values when both keys are getters of the same integral type.
+	 * The results are returned in the order of the elements of this query,
+	 * then of the inner elements. The elements with {@code null} keys are not
+	 * matched.
+	 *
+	 * @param <I>
+	 *            the type of the inner elements.
+	 * @param <K>
+	 *            the type of the key.
+	 * @param <R>
+	 *            the type of the results.
+	 * @param inner
+	 *            the sequence to join with.
+	 * @param outerKey
+	 *            a lambda to extract the key from an element of this query.
+	 * @param innerKey
+	 *            a lambda to extract the key from an inner element.
+	 * @param resultSelector
+	 *            a lambda to create a result from two matching elements.
+	 * @return a query that contains the results for each pair of the matching
+	 *         elements.
+	 */
+	<I, K, R> Queryable<R> join(Iterable<I> inner,
+			Function<? super S, ? extends K> outerKey,
+			Function<? super I, ? extends K> innerKey,
+			BiFunction<? super S, ? super I, ? extends R> resultSelector);
+
+	/**
+	 * Allows executing the operators which follow in parallel on the
+	 * {@link ForkJoinPool#commonPool() common pool}, see
+	 * {@link #parallel(ForkJoinPool)}.
+	 *
+	 * @return a query executed in parallel when profitable.
+	 */
+	Queryable<S> parallel();
+
+	/**
+	 * Allows executing the operators which follow in parallel. Whether the
+	 * execution is actually parallel is decided by the source size and the
+	 * lambdas complexity. The elements are returned in the source order.
+	 *
+	 * @param pool
+	 *            the pool executing the query.
+	 * @return a query executed in parallel when profitable.
+	 */
+	Queryable<S> parallel(ForkJoinPool pool);
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Translates a query expression tree into a {@link QueryPipeline}. Invocations
+ * of the {@link Query} operators are applied to the pipeline, any other
+ * expression is evaluated to get the source {@link Iterable}.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class QueryableExpressionVisitor implements
+		ExpressionVisitor<QueryPipeline> {
+
+	static final QueryableExpressionVisitor Instance = new QueryableExpressionVisitor();
+
+	private QueryableExpressionVisitor() {
+	}
+
+	/**
+	 * Gets the constant arguments of a {@link Query} operator invocation,
+	 * excluding the source.
+	 *
+	 * @param e
+	 *            the operator invocation.
+	 * @return the operator arguments.
+	 */
+	static List<Object> getArguments(MemberExpression e) {
+		List<Expression> args = e.getArguments();
+		if (args.size() == 1)
+			return Collections.emptyList();
+		List<Object> values = new ArrayList<Object>(args.size() - 1);
+		for (int i = 1; i < args.size(); i++)
+			values.add(evaluate(args.get(i)));
+		return values;
+	}
+
+	/**
+	 * Evaluates an expression, which does not depend on parameters.
+	 *
+	 * @param e
+	 *            the expression.
+	 * @return the expression value.
+	 */
+	static Object evaluate(Expression e) {
+		if (e.getExpressionType() == ExpressionType.Constant)
+			return ((ConstantExpression) e).getValue();
+
+		return Expression.lambda(e.getResultType(), e, Collections.emptyList())
+				.compile().apply(null);
+	}
+
+	private QueryPipeline source(Expression e) {
+		Object source = evaluate(e);
+		if (source instanceof Queryable<?>)
+			return ((Queryable<?>) source).getExpression().accept(this);
+
+		return QueryPipeline.of((Iterable<?>) source);
+	}
+
+	@Override
+	public QueryPipeline visit(MemberExpression e) {
+		Operation op = Operation.of(e.getMember());
+		if (op == null)
+			return source(e);
+
+		return e.getArguments().get(0).accept(this)
+				.apply(op, getArguments(e));
+	}
+
+	@Override
+	public QueryPipeline visit(ConstantExpression e) {
+		Object value = e.getValue();
+		if (value instanceof SimpleQueryable<?>
+				&& ((SimpleQueryable<?>) value).getExpression() == e)
+			throw new IllegalArgumentException("The query has no source");
+
+		return source(e);
+	}
+
+	@Override
+	public QueryPipeline visit(BinaryExpression e) {
+		return source(e);
+	}
+
+	@Override
+	public QueryPipeline visit(ThisExpression e) {
+		return source(e);
+	}
+
+	@Override
+	public QueryPipeline visit(ParameterExpression e) {
+		throw new IllegalArgumentException(e.toString());
+	}
+
+	@Override
+	public QueryPipeline visit(UnaryExpression e) {
+		return source(e);
+	}
+
+	@Override
+	public QueryPipeline visit(LambdaInvocationExpression e) {
+		return source(e);
+	}
+}
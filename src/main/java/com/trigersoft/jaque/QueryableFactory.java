@@ -19,6 +19,22 @@ package com.trigersoft.jaque;
 
 import com.trigersoft.jaque.expression.*;
 
-/*public*/ interface QueryableFactory {
+/**
+ * Creates {@link Queryable} objects for a specific data source.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public interface QueryableFactory {
+	/**
+	 * Creates a {@link Queryable} representing the query expression tree.
+	 *
+	 * @param <S>
+	 *            the type of the query elements.
+	 * @param type
+	 *            the type of the query elements.
+	 * @param e
+	 *            the query expression tree.
+	 * @return a {@link Queryable} representing the query.
+	 */
 	<S> Queryable<S> createQueryable(Class<S> type, Expression e);
 }
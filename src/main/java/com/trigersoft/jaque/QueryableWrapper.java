@@ -0,0 +1,133 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Delegates the {@link Queryable} operators to another {@link Queryable}, to
+ * be extended with the operators of a specific query kind.
+ *
+ * @param <S>
+ *            the type of the query elements.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+abstract class QueryableWrapper<S> implements Queryable<S> {
+
+	private final Queryable<S> _queryable;
+
+	QueryableWrapper(Queryable<S> queryable) {
+		_queryable = queryable;
+	}
+
+	@Override
+	public Class<S> getElementType() {
+		return _queryable.getElementType();
+	}
+
+	@Override
+	public Expression getExpression() {
+		return _queryable.getExpression();
+	}
+
+	@Override
+	public QueryableFactory getFactory() {
+		return _queryable.getFactory();
+	}
+
+	@Override
+	public Iterable<S> iterable() {
+		return _queryable.iterable();
+	}
+
+	@Override
+	public Iterator<S> iterator() {
+		return _queryable.iterator();
+	}
+
+	@Override
+	public S single() {
+		return _queryable.single();
+	}
+
+	@Override
+	public Queryable<S> where(
+			Predicate<? super S> predicate) {
+		return _queryable.where(predicate);
+	}
+
+	@Override
+	public <R> Queryable<R> select(
+			Function<? super S, ? extends R> selector) {
+		return _queryable.select(selector);
+	}
+
+	@Override
+	public <K extends Comparable<? super K>> OrderedQueryable<S> orderBy(
+			Function<? super S, K> keySelector) {
+		return _queryable.orderBy(keySelector);
+	}
+
+	@Override
+	public <K extends Comparable<? super K>> OrderedQueryable<S> orderByDescending(
+			Function<? super S, K> keySelector) {
+		return _queryable.orderByDescending(keySelector);
+	}
+
+	@Override
+	public <K> GroupedQueryable<K, S> groupBy(
+			Function<? super S, ? extends K> keySelector) {
+		return _queryable.groupBy(keySelector);
+	}
+
+	@Override
+	public Queryable<S> take(int count) {
+		return _queryable.take(count);
+	}
+
+	@Override
+	public Queryable<S> distinct() {
+		return _queryable.distinct();
+	}
+
+	@Override
+	public <I, K, R> Queryable<R> join(Iterable<I> inner,
+			Function<? super S, ? extends K> outerKey,
+			Function<? super I, ? extends K> innerKey,
+			BiFunction<? super S, ? super I, ? extends R> resultSelector) {
+		return _queryable.join(inner, outerKey, innerKey, resultSelector);
+	}
+
+	@Override
+	public Queryable<S> parallel() {
+		return _queryable.parallel();
+	}
+
+	@Override
+	public Queryable<S> parallel(ForkJoinPool pool) {
+		return _queryable.parallel(pool);
+	}
+}
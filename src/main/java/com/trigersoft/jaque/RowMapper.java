@@ -0,0 +1,43 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Creates an element from the current row of a {@link ResultSet}.
+ *
+ * @param <E>
+ *            the type of the element.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+@FunctionalInterface
+public interface RowMapper<E> {
+	/**
+	 * Creates an element from the current row.
+	 *
+	 * @param rs
+	 *            the result set positioned at the row.
+	 * @return the element.
+	 * @throws SQLException
+	 *             if reading the row fails.
+	 */
+	E map(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.function.Function;
+
+/**
+ * Adds the subsequent orderings to a {@link Queryable} of sorted elements
+ * created by a {@link QueryableFactory}. Only the sorted queries are wrapped,
+ * so the subsequent orderings are not available on the other ones.
+ *
+ * @param <S>
+ *            the type of the query elements.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class SimpleOrderedQueryable<S> extends QueryableWrapper<S> implements
+		OrderedQueryable<S> {
+
+	SimpleOrderedQueryable(Queryable<S> sorted) {
+		super(sorted);
+	}
+
+	@Override
+	public <K extends Comparable<? super K>> OrderedQueryable<S> thenBy(
+			Function<? super S, K> keySelector) {
+		return new SimpleOrderedQueryable<S>(getFactory().createQueryable(
+				getElementType(),
+				Operation.ThenBy.apply(getExpression(),
+						SimpleQueryable.quote(keySelector))));
+	}
+
+	@Override
+	public <K extends Comparable<? super K>> OrderedQueryable<S> thenByDescending(
+			Function<? super S, K> keySelector) {
+		return new SimpleOrderedQueryable<S>(getFactory().createQueryable(
+				getElementType(),
+				Operation.ThenByDescending.apply(getExpression(),
+						SimpleQueryable.quote(keySelector))));
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Provides the base class for {@link Queryable} implementations, which build
+ * the query expression trees and leave their execution to the derived class.
+ *
+ * @param <E>
+ *            the type of the query elements.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public abstract class SimpleQueryable<E> implements Queryable<E>,
+		QueryableFactory {
+
+	private final Class<E> _elementType;
+	private final Expression _e;
+
+	protected SimpleQueryable(Class<E> elementType, Expression e) {
+		_elementType = elementType;
+		_e = e != null ? e : Expression.constant(this);
+	}
+
+	@Override
+	public Class<E> getElementType() {
+		return _elementType;
+	}
+
+	@Override
+	public Expression getExpression() {
+		return _e;
+	}
+
+	@Override
+	public QueryableFactory getFactory() {
+		return this;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return iterable().iterator();
+	}
+
+	@Override
+	public E single() {
+		Iterator<E> it = iterator();
+		if (!it.hasNext())
+			throw new NoSuchElementException();
+		E e = it.next();
+		if (it.hasNext())
+			throw new IllegalStateException("More than one element");
+		return e;
+	}
+
+	@Override
+	public Queryable<E> where(Predicate<? super E> predicate) {
+		return createQueryable(getElementType(),
+				Operation.Where.apply(getExpression(), quote(predicate)));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <R> Queryable<R> select(Function<? super E, ? extends R> selector) {
+		LambdaExpression<?> lambda = LambdaExpression.parse(selector);
+		return createQueryable((Class<R>) getResultType(lambda),
+				Operation.Select.apply(getExpression(), quote(lambda)));
+	}
+
+	@Override
+	public <K extends Comparable<? super K>> OrderedQueryable<E> orderBy(
+			Function<? super E, K> keySelector) {
+		return new SimpleOrderedQueryable<E>(createQueryable(getElementType(),
+				Operation.OrderBy.apply(getExpression(), quote(keySelector))));
+	}
+
+	@Override
+	public <K extends Comparable<? super K>> OrderedQueryable<E> orderByDescending(
+			Function<? super E, K> keySelector) {
+		return new SimpleOrderedQueryable<E>(createQueryable(getElementType(),
+				Operation.OrderByDescending.apply(getExpression(),
+						quote(keySelector))));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <K> GroupedQueryable<K, E> groupBy(
+			Function<? super E, ? extends K> keySelector) {
+		return new GroupedQueryable<K, E>(createQueryable(
+				(Class<Grouping<K, E>>) (Class<?>) Grouping.class,
+				Operation.GroupBy.apply(getExpression(), quote(keySelector))));
+	}
+
+	@Override
+	public Queryable<E> take(int count) {
+		return createQueryable(getElementType(), Operation.Take.apply(
+				getExpression(), Expression.constant(count, Integer.TYPE)));
+	}
+
+	@Override
+	public Queryable<E> distinct() {
+		return createQueryable(getElementType(),
+				Operation.Distinct.apply(getExpression()));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <I, K, R> Queryable<R> join(Iterable<I> inner,
+			Function<? super E, ? extends K> outerKey,
+			Function<? super I, ? extends K> innerKey,
+			BiFunction<? super E, ? super I, ? extends R> resultSelector) {
+		if (inner == null)
+			throw new NullPointerException("inner");
+		LambdaExpression<?> lambda = LambdaExpression.parse(resultSelector);
+		return createQueryable((Class<R>) getResultType(lambda),
+				Operation.Join.apply(getExpression(),
+						Expression.constant(inner, Iterable.class),
+						quote(outerKey), quote(innerKey), quote(lambda)));
+	}
+
+	@Override
+	public Queryable<E> parallel() {
+		return parallel(ForkJoinPool.commonPool());
+	}
+
+	@Override
+	public Queryable<E> parallel(ForkJoinPool pool) {
+		return createQueryable(getElementType(), Operation.Parallel.apply(
+				getExpression(), Expression.constant(pool)));
+	}
+
+	/**
+	 * Parses the lambda and wraps it with a {@link ConstantExpression}, to be
+	 * passed as an operator argument.
+	 *
+	 * @param lambda
+	 *            the lambda.
+	 * @return a {@link ConstantExpression} holding the parsed lambda.
+	 */
+	protected static ConstantExpression quote(Object lambda) {
+		return quote(LambdaExpression.parse(lambda));
+	}
+
+	/**
+	 * Wraps the parsed lambda with a {@link ConstantExpression}, to be passed
+	 * as an operator argument.
+	 *
+	 * @param lambda
+	 *            the parsed lambda.
+	 * @return a {@link ConstantExpression} holding the parsed lambda.
+	 */
+	protected static ConstantExpression quote(LambdaExpression<?> lambda) {
+		return Expression.constant(lambda, LambdaExpression.class);
+	}
+
+	/**
+	 * Gets the boxed result type of the lambda body, without conversions.
+	 *
+	 * @param lambda
+	 *            the lambda.
+	 * @return the boxed result type.
+	 */
+	static Class<?> getResultType(LambdaExpression<?> lambda) {
+		Expression body = lambda.getBody();
+		while (body.getExpressionType() == ExpressionType.Convert)
+			body = ((UnaryExpression) body).getFirst();
+
+		Class<?> type = body.getResultType();
+		if (!type.isPrimitive())
+			return type;
+		if (type == Integer.TYPE)
+			return Integer.class;
+		if (type == Long.TYPE)
+			return Long.class;
+		if (type == Double.TYPE)
+			return Double.class;
+		if (type == Boolean.TYPE)
+			return Boolean.class;
+		if (type == Float.TYPE)
+			return Float.class;
+		if (type == Character.TYPE)
+			return Character.class;
+		if (type == Byte.TYPE)
+			return Byte.class;
+		if (type == Short.TYPE)
+			return Short.class;
+		return Object.class;
+	}
+}
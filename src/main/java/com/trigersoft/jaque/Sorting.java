@@ -0,0 +1,411 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Sorts the elements by one or more keys. Each key is extracted once per
+ * element into an array, of {@code long} or {@code double} values when the
+ * key has a primitive numeric type, and the elements are sorted by their
+ * indices, so the key lambdas are not invoked by the comparisons. The sort is
+ * stable.
+ * <p>
+ * When only the first elements are requested, see {@link #limit(int)}, they
+ * are selected with a bounded heap, which holds the keys of at most that
+ * many elements.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class Sorting implements Iterable<Object> {
+
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	private final Iterable<?> _source;
+	private final List<LambdaExpression<?>> _keys = new ArrayList<LambdaExpression<?>>();
+	private final List<Boolean> _descending = new ArrayList<Boolean>();
+	private int _limit = Integer.MAX_VALUE;
+
+	Sorting(Iterable<?> source, LambdaExpression<?> key, boolean descending) {
+		_source = source;
+		thenBy(key, descending);
+	}
+
+	/**
+	 * Adds a key to sort the elements with equal preceding keys.
+	 *
+	 * @param key
+	 *            the key selector.
+	 * @param descending
+	 *            whether to sort in descending order.
+	 */
+	void thenBy(LambdaExpression<?> key, boolean descending) {
+		_keys.add(key);
+		_descending.add(descending);
+	}
+
+	/**
+	 * Limits the number of the sorted elements to return.
+	 *
+	 * @param count
+	 *            the number of the first sorted elements to return.
+	 */
+	void limit(int count) {
+		_limit = Math.min(_limit, count);
+	}
+
+	@Override
+	public Iterator<Object> iterator() {
+		if (_limit == 0)
+			return Collections.emptyIterator();
+
+		Key[] keys = new Key[_keys.size()];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = Key.of(_keys.get(i), _descending.get(i));
+
+		if (_limit == Integer.MAX_VALUE
+				|| (_source instanceof Collection<?> && ((Collection<?>) _source)
+						.size() <= _limit))
+			return sort(keys);
+		return top(keys);
+	}
+
+	private Iterator<Object> sort(Key[] keys) {
+		QueryStageEvent event = QueryPipeline.beginStage("sort", _source);
+		List<Object> rows = QueryPipeline.toList(_source);
+		int size = rows.size();
+		for (Key key : keys) {
+			key.ensureCapacity(size);
+			for (int i = 0; i < size; i++)
+				key.set(i, rows.get(i));
+		}
+
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		sort(order, size, keys, null);
+		QueryPipeline.endStage(event, Math.min(size, _limit));
+
+		return iterator(rows, order, Math.min(size, _limit));
+	}
+
+	/**
+	 * Selects the first elements with a heap of the element slots, having the
+	 * last selected element on top. The element being read is extracted into
+	 * the slot following the selected ones.
+	 */
+	private Iterator<Object> top(Key[] keys) {
+		QueryStageEvent event = QueryPipeline.beginStage("sort", _source);
+		int limit = _limit;
+		int capacity = Math.min(limit, 1 << 4) + 1;
+		for (Key key : keys)
+			key.ensureCapacity(capacity);
+		Object[] rows = new Object[capacity];
+		int[] seq = new int[capacity];
+		int[] heap = new int[capacity];
+		int size = 0;
+		int count = 0;
+
+		for (Object e : _source) {
+			int slot = size;
+			if (slot == capacity - 1 && size < limit) {
+				capacity = (int) Math.min((long) capacity << 1, (long) limit + 1);
+				for (Key key : keys)
+					key.ensureCapacity(capacity);
+				rows = Arrays.copyOf(rows, capacity);
+				seq = Arrays.copyOf(seq, capacity);
+				heap = Arrays.copyOf(heap, capacity);
+			}
+
+			for (Key key : keys)
+				key.set(slot, e);
+			rows[slot] = e;
+			seq[slot] = count++;
+
+			if (size < limit) {
+				heap[size] = slot;
+				siftUp(heap, size++, keys, seq);
+				continue;
+			}
+
+			// an equal element read later is not selected
+			int root = heap[0];
+			if (compare(keys, slot, root) >= 0)
+				continue;
+			for (Key key : keys)
+				key.copy(slot, root);
+			rows[root] = e;
+			seq[root] = seq[slot];
+			siftDown(heap, size, keys, seq);
+		}
+
+		sort(heap, size, keys, seq);
+		QueryPipeline.endStage(event, size);
+		return iterator(Arrays.asList(rows), heap, size);
+	}
+
+	private static Iterator<Object> iterator(final List<Object> rows,
+			final int[] order, final int size) {
+		return new Iterator<Object>() {
+			private int _i;
+
+			@Override
+			public boolean hasNext() {
+				return _i < size;
+			}
+
+			@Override
+			public Object next() {
+				if (_i >= size)
+					throw new NoSuchElementException();
+				return rows.get(order[_i++]);
+			}
+		};
+	}
+
+	private static int compare(Key[] keys, int a, int b) {
+		for (Key key : keys) {
+			int c = key.compare(a, b);
+			if (c != 0)
+				return c;
+		}
+		return 0;
+	}
+
+	private static int compare(Key[] keys, int a, int b, int[] seq) {
+		int c = compare(keys, a, b);
+		if (c != 0 || seq == null)
+			return c;
+		return Integer.compare(seq[a], seq[b]);
+	}
+
+	private static void siftUp(int[] heap, int i, Key[] keys, int[] seq) {
+		int slot = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (compare(keys, heap[parent], slot, seq) >= 0)
+				break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = slot;
+	}
+
+	private static void siftDown(int[] heap, int size, Key[] keys, int[] seq) {
+		int slot = heap[0];
+		int i = 0;
+		for (int child; (child = (i << 1) + 1) < size; i = child) {
+			if (child + 1 < size
+					&& compare(keys, heap[child + 1], heap[child], seq) > 0)
+				child++;
+			if (compare(keys, slot, heap[child], seq) >= 0)
+				break;
+			heap[i] = heap[child];
+		}
+		heap[i] = slot;
+	}
+
+	/**
+	 * Sorts the slots with a stable merge sort.
+	 */
+	private static void sort(int[] slots, int size, Key[] keys, int[] seq) {
+		int[] buffer = new int[size];
+		mergeSort(slots, buffer, 0, size, keys, seq);
+	}
+
+	private static void mergeSort(int[] a, int[] buffer, int from, int to,
+			Key[] keys, int[] seq) {
+		if (to - from <= INSERTION_SORT_THRESHOLD) {
+			for (int i = from + 1; i < to; i++) {
+				int slot = a[i];
+				int j = i;
+				for (; j > from && compare(keys, a[j - 1], slot, seq) > 0; j--)
+					a[j] = a[j - 1];
+				a[j] = slot;
+			}
+			return;
+		}
+
+		int middle = (from + to) >>> 1;
+		mergeSort(a, buffer, from, middle, keys, seq);
+		mergeSort(a, buffer, middle, to, keys, seq);
+		if (compare(keys, a[middle - 1], a[middle], seq) <= 0)
+			return;
+
+		System.arraycopy(a, from, buffer, from, to - from);
+		for (int i = from, l = from, r = middle; i < to; i++) {
+			if (r >= to
+					|| (l < middle && compare(keys, buffer[l], buffer[r], seq) <= 0))
+				a[i] = buffer[l++];
+			else
+				a[i] = buffer[r++];
+		}
+	}
+
+	/**
+	 * The extracted values of a key, by the element slot.
+	 */
+	private static abstract class Key {
+		final boolean _descending;
+
+		Key(boolean descending) {
+			_descending = descending;
+		}
+
+		static Key of(LambdaExpression<?> key, boolean descending) {
+			Class<?> type = PrimitiveGetters.getResultType(key);
+			if (type == Double.TYPE || type == Float.TYPE)
+				return new DoubleKey(PrimitiveGetters.toDouble(key), descending);
+			if (type.isPrimitive() && type != Boolean.TYPE)
+				return new LongKey(PrimitiveGetters.toLong(key), descending);
+			return new ObjectKey(QueryPipeline.compile(key), descending);
+		}
+
+		abstract void ensureCapacity(int capacity);
+
+		abstract void set(int slot, Object e);
+
+		abstract void copy(int from, int to);
+
+		final int compare(int a, int b) {
+			int c = compareValues(a, b);
+			return _descending ? -c : c;
+		}
+
+		abstract int compareValues(int a, int b);
+	}
+
+	private static final class LongKey extends Key {
+		private final ToLongFunction<Object> _key;
+		private long[] _values = new long[0];
+
+		LongKey(ToLongFunction<Object> key, boolean descending) {
+			super(descending);
+			_key = key;
+		}
+
+		@Override
+		void ensureCapacity(int capacity) {
+			if (_values.length < capacity)
+				_values = Arrays.copyOf(_values, capacity);
+		}
+
+		@Override
+		void set(int slot, Object e) {
+			_values[slot] = _key.applyAsLong(e);
+		}
+
+		@Override
+		void copy(int from, int to) {
+			_values[to] = _values[from];
+		}
+
+		@Override
+		int compareValues(int a, int b) {
+			return Long.compare(_values[a], _values[b]);
+		}
+	}
+
+	private static final class DoubleKey extends Key {
+		private final ToDoubleFunction<Object> _key;
+		private double[] _values = new double[0];
+
+		DoubleKey(ToDoubleFunction<Object> key, boolean descending) {
+			super(descending);
+			_key = key;
+		}
+
+		@Override
+		void ensureCapacity(int capacity) {
+			if (_values.length < capacity)
+				_values = Arrays.copyOf(_values, capacity);
+		}
+
+		@Override
+		void set(int slot, Object e) {
+			_values[slot] = _key.applyAsDouble(e);
+		}
+
+		@Override
+		void copy(int from, int to) {
+			_values[to] = _values[from];
+		}
+
+		@Override
+		int compareValues(int a, int b) {
+			return Double.compare(_values[a], _values[b]);
+		}
+	}
+
+	private static final class ObjectKey extends Key {
+		private final Function<Object[], ?> _key;
+		private Comparable<Object>[] _values = newArray(0);
+
+		ObjectKey(Function<Object[], ?> key, boolean descending) {
+			super(descending);
+			_key = key;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private static Comparable<Object>[] newArray(int length) {
+			return new Comparable[length];
+		}
+
+		@Override
+		void ensureCapacity(int capacity) {
+			if (_values.length < capacity)
+				_values = Arrays.copyOf(_values, capacity);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		void set(int slot, Object e) {
+			_values[slot] = (Comparable<Object>) QueryPipeline.invoke(_key, e);
+		}
+
+		@Override
+		void copy(int from, int to) {
+			_values[to] = _values[from];
+		}
+
+		// nulls first, as Comparator.nullsFirst
+		@Override
+		int compareValues(int a, int b) {
+			Comparable<Object> x = _values[a];
+			Comparable<Object> y = _values[b];
+			if (x == null)
+				return y == null ? 0 : -1;
+			if (y == null)
+				return 1;
+			return x.compareTo(y);
+		}
+	}
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.beans.Introspector;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * A {@link Queryable} over a database table. The leading {@code where} and
+ * {@code select} operators are translated to SQL and executed by the database,
+ * the rest of the query is executed in memory over the rows returned:
+ *
+ * <pre>
+ * Queryable&lt;Customer&gt; customers = new SqlQueryable&lt;Customer&gt;(Customer.class,
+ * 		dataSource, &quot;CUSTOMERS&quot;, rs -&gt; new Customer(...));
+ * ...
+ * customers.where(c -&gt; c.getCity().startsWith(prefix)).select(Customer::getName);
+ * // SELECT name FROM CUSTOMERS WHERE (city LIKE ? ESCAPE '\')
+ * </pre>
+ *
+ * The getters are mapped to the columns named after the properties, unless
+ * specified otherwise. The SQL text is cached per lambda shape, so queries
+ * differing only by the captured values produce the same statement text,
+ * reusable as a {@link PreparedStatement}. The rows are read in full on each
+ * iteration and the connection is closed.
+ *
+ * @param <E>
+ *            the type of the query elements.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+public final class SqlQueryable<E> extends SimpleQueryable<E> {
+
+	private final Table _table;
+
+	/**
+	 * Creates a query over the table, mapping the getters to the columns named
+	 * after the properties.
+	 *
+	 * @param elementType
+	 *            the type of the elements.
+	 * @param dataSource
+	 *            the database.
+	 * @param table
+	 *            the table name.
+	 * @param mapper
+	 *            creates the elements from the rows.
+	 */
+	public SqlQueryable(Class<E> elementType, DataSource dataSource,
+			String table, RowMapper<? extends E> mapper) {
+		this(elementType, dataSource, table, mapper,
+				SqlQueryable::getPropertyName);
+	}
+
+	/**
+	 * Creates a query over the table.
+	 *
+	 * @param elementType
+	 *            the type of the elements.
+	 * @param dataSource
+	 *            the database.
+	 * @param table
+	 *            the table name.
+	 * @param mapper
+	 *            creates the elements from the rows.
+	 * @param columns
+	 *            maps the getters to the column names, returns {@code null}
+	 *            for the unmapped ones.
+	 */
+	public SqlQueryable(Class<E> elementType, DataSource dataSource,
+			String table, RowMapper<? extends E> mapper,
+			Function<Member, String> columns) {
+		super(elementType, null);
+		if (dataSource == null)
+			throw new NullPointerException("dataSource");
+		if (table == null)
+			throw new NullPointerException("table");
+		if (mapper == null)
+			throw new NullPointerException("mapper");
+		if (columns == null)
+			throw new NullPointerException("columns");
+		_table = new Table(dataSource, table, mapper, columns);
+	}
+
+	private SqlQueryable(Class<E> elementType, Expression e, Table table) {
+		super(elementType, e);
+		_table = table;
+	}
+
+	@Override
+	public <S> Queryable<S> createQueryable(Class<S> type, Expression e) {
+		return new SqlQueryable<S>(type, e, _table);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Iterable<E> iterable() {
+		Statement s = prepare();
+		QueryPipeline pipeline = QueryPipeline.of(new ResultIterable(
+				_table._dataSource, s._sql, s._values, s._mapper));
+		for (MemberExpression op : s._rest)
+			pipeline.apply(Operation.of(op.getMember()),
+					QueryableExpressionVisitor.getArguments(op));
+		return (Iterable<E>) pipeline.iterable();
+	}
+
+	/**
+	 * Gets the SQL text executed by this query.
+	 *
+	 * @return the SQL text.
+	 */
+	String getSql() {
+		return prepare()._sql;
+	}
+
+	private Statement prepare() {
+		List<MemberExpression> ops = new ArrayList<MemberExpression>();
+		Expression e = getExpression();
+		while (e instanceof MemberExpression) {
+			MemberExpression m = (MemberExpression) e;
+			if (Operation.of(m.getMember()) == null)
+				break;
+			ops.add(0, m);
+			e = m.getArguments().get(0);
+		}
+
+		if (e.getExpressionType() != ExpressionType.Constant
+				|| !(((ConstantExpression) e).getValue() instanceof SqlQueryable<?>))
+			throw new IllegalArgumentException("The query has no source: " + e);
+
+		List<ParameterizedLambda> wheres = new ArrayList<ParameterizedLambda>();
+		List<SqlTranslator.Fragment> whereFragments = new ArrayList<SqlTranslator.Fragment>();
+		ParameterizedLambda select = null;
+		SqlTranslator.Fragment selectFragment = null;
+
+		int translated = 0;
+		for (MemberExpression op : ops) {
+			Operation operation = Operation.of(op.getMember());
+			if (select != null
+					|| (operation != Operation.Where && operation != Operation.Select))
+				break;
+
+			LambdaExpression<?> lambda = (LambdaExpression<?>) QueryableExpressionVisitor
+					.getArguments(op).get(0);
+			ParameterizedLambda p = ParameterizedLambda.of(lambda);
+			SqlTranslator.Fragment fragment = (operation == Operation.Where ? _table._predicates
+					: _table._selectors).get(p);
+			// the rest is executed in memory
+			if (fragment == SqlTranslator.UNSUPPORTED)
+				break;
+
+			if (operation == Operation.Where) {
+				whereFragments.add(fragment);
+				wheres.add(p);
+			} else {
+				selectFragment = fragment;
+				select = p;
+			}
+			translated++;
+		}
+
+		StringBuilder sql = new StringBuilder("SELECT ");
+		List<Object> values = new ArrayList<Object>();
+		RowMapper<?> mapper;
+		if (select != null) {
+			sql.append(selectFragment.getSql());
+			selectFragment.bind(select, values);
+			Class<?> type = SimpleQueryable.getResultType(select.getShape());
+			mapper = rs -> rs.getObject(1, type);
+		} else {
+			sql.append('*');
+			mapper = _table._mapper;
+		}
+
+		sql.append(" FROM ").append(_table._name);
+		for (int i = 0; i < wheres.size(); i++) {
+			sql.append(i == 0 ? " WHERE " : " AND ");
+			SqlTranslator.Fragment where = whereFragments.get(i);
+			sql.append(where.getSql());
+			where.bind(wheres.get(i), values);
+		}
+
+		return new Statement(sql.toString(), values, mapper, ops.subList(
+				translated, ops.size()));
+	}
+
+	/**
+	 * Gets the property name of a getter, e.g. {@code city} for
+	 * {@code getCity()}, or the field name.
+	 */
+	private static String getPropertyName(Member member) {
+		if (member instanceof Field)
+			return member.getName();
+		if (!(member instanceof Method)
+				|| ((Method) member).getParameterCount() > 0)
+			return null;
+
+		String name = member.getName();
+		if (name.startsWith("get") && name.length() > 3)
+			return Introspector.decapitalize(name.substring(3));
+		if (name.startsWith("is") && name.length() > 2)
+			return Introspector.decapitalize(name.substring(2));
+		return null;
+	}
+
+	/**
+	 * The table binding, shared by the queries created from the same
+	 * {@link SqlQueryable}.
+	 */
+	private static final class Table {
+		private final DataSource _dataSource;
+		private final String _name;
+		private final RowMapper<?> _mapper;
+		private final PlanCache<SqlTranslator.Fragment> _predicates;
+		private final PlanCache<SqlTranslator.Fragment> _selectors;
+
+		Table(DataSource dataSource, String name, RowMapper<?> mapper,
+				Function<Member, String> columns) {
+			_dataSource = dataSource;
+			_name = name;
+			_mapper = mapper;
+			_predicates = new PlanCache<SqlTranslator.Fragment>(
+					shape -> SqlTranslator.tryTranslate(shape, true, columns));
+			_selectors = new PlanCache<SqlTranslator.Fragment>(
+					shape -> SqlTranslator.tryTranslate(shape, false, columns));
+		}
+	}
+
+	private static final class Statement {
+		private final String _sql;
+		private final List<Object> _values;
+		private final RowMapper<?> _mapper;
+		private final List<MemberExpression> _rest;
+
+		Statement(String sql, List<Object> values, RowMapper<?> mapper,
+				List<MemberExpression> rest) {
+			_sql = sql;
+			_values = values;
+			_mapper = mapper;
+			_rest = rest;
+		}
+	}
+
+	private static final class ResultIterable implements Iterable<Object> {
+		private final DataSource _dataSource;
+		private final String _sql;
+		private final List<Object> _values;
+		private final RowMapper<?> _mapper;
+
+		ResultIterable(DataSource dataSource, String sql, List<Object> values,
+				RowMapper<?> mapper) {
+			_dataSource = dataSource;
+			_sql = sql;
+			_values = values;
+			_mapper = mapper;
+		}
+
+		@Override
+		public Iterator<Object> iterator() {
+			List<Object> rows = new ArrayList<Object>();
+			try (Connection c = _dataSource.getConnection();
+					PreparedStatement ps = c.prepareStatement(_sql)) {
+				for (int i = 0; i < _values.size(); i++)
+					ps.setObject(i + 1, _values.get(i));
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next())
+						rows.add(_mapper.map(rs));
+				}
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+			return rows.iterator();
+		}
+	}
+}
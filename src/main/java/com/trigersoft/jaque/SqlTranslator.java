@@ -0,0 +1,410 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import com.trigersoft.jaque.expression.*;
+
+/**
+ * Translates the {@link ParameterizedLambda#getShape() shape} of a predicate or
+ * a selector into an SQL fragment. The getters of the lambda parameter are
+ * mapped to columns and the captured values to {@code ?} bind parameters.
+ * <p>
+ * Supports {@code &&}, {@code ||}, {@code !}, comparisons, {@code isNull},
+ * arithmetic, conditionals and {@link String#equals(Object)},
+ * {@link String#startsWith(String)} and {@link String#contains(CharSequence)}
+ * of a captured value. Anything else throws {@link IllegalArgumentException}.
+ * </p>
+ * <p>
+ * The inequalities compare NULL as {@link java.util.Objects#equals(Object, Object)}
+ * does, i.e. {@code IS DISTINCT FROM}, so the rows having NULL are kept, as
+ * in memory.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class SqlTranslator implements ExpressionVisitor<StringBuilder> {
+
+	/**
+	 * The bind parameter is passed as is.
+	 */
+	static final int BIND_VALUE = 0;
+	/**
+	 * The bind parameter is a LIKE pattern matching the strings starting with
+	 * the value.
+	 */
+	static final int BIND_PREFIX = 1;
+	/**
+	 * The bind parameter is a LIKE pattern matching the strings containing the
+	 * value.
+	 */
+	static final int BIND_CONTAINS = 2;
+
+	/**
+	 * Returned by {@link #tryTranslate(LambdaExpression, boolean, Function)}
+	 * for the lambdas, which cannot be translated.
+	 */
+	static final Fragment UNSUPPORTED = new Fragment(null, null, null);
+
+	private static final char ESCAPE = '\\';
+
+	private final Function<Member, String> _columns;
+	private final StringBuilder _sql = new StringBuilder();
+	private final List<int[]> _binds = new ArrayList<int[]>();
+	private boolean _predicate;
+
+	private SqlTranslator(Function<Member, String> columns) {
+		_columns = columns;
+	}
+
+	/**
+	 * Translates the shape of a single parameter lambda.
+	 *
+	 * @param shape
+	 *            the shape.
+	 * @param predicate
+	 *            whether the lambda is a predicate.
+	 * @param columns
+	 *            maps the getters to the column names.
+	 * @return the translated fragment.
+	 */
+	static Fragment translate(LambdaExpression<?> shape, boolean predicate,
+			Function<Member, String> columns) {
+		SqlTranslator t = new SqlTranslator(columns);
+		t.translate(shape.getBody(), predicate);
+		int[] parameters = new int[t._binds.size()];
+		int[] kinds = new int[parameters.length];
+		for (int i = 0; i < parameters.length; i++) {
+			parameters[i] = t._binds.get(i)[0];
+			kinds[i] = t._binds.get(i)[1];
+		}
+		return new Fragment(t._sql.toString(), parameters, kinds);
+	}
+
+	/**
+	 * Translates the shape of a single parameter lambda, if possible.
+	 *
+	 * @return the translated fragment, or {@link #UNSUPPORTED}.
+	 */
+	static Fragment tryTranslate(LambdaExpression<?> shape, boolean predicate,
+			Function<Member, String> columns) {
+		try {
+			return translate(shape, predicate, columns);
+		} catch (IllegalArgumentException iae) {
+			return UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * An SQL fragment and the bind parameters it expects.
+	 */
+	static final class Fragment {
+		private final String _sql;
+		private final int[] _parameters;
+		private final int[] _kinds;
+
+		Fragment(String sql, int[] parameters, int[] kinds) {
+			_sql = sql;
+			_parameters = parameters;
+			_kinds = kinds;
+		}
+
+		String getSql() {
+			return _sql;
+		}
+
+		/**
+		 * Appends the bind values of the lambda to the statement values.
+		 *
+		 * @param lambda
+		 *            the parameterized lambda having the fragment shape.
+		 * @param values
+		 *            the statement values.
+		 */
+		void bind(ParameterizedLambda lambda, List<Object> values) {
+			List<Object> captured = lambda.getValues();
+			for (int i = 0; i < _parameters.length; i++) {
+				Object value = captured.get(_parameters[i]
+						- lambda.getParameterCount());
+				switch (_kinds[i]) {
+				case BIND_PREFIX:
+					value = escape(value) + '%';
+					break;
+				case BIND_CONTAINS:
+					value = '%' + escape(value) + '%';
+					break;
+				}
+				values.add(value);
+			}
+		}
+
+		private static String escape(Object value) {
+			String s = value.toString();
+			StringBuilder b = new StringBuilder(s.length());
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c == '%' || c == '_' || c == ESCAPE)
+					b.append(ESCAPE);
+				b.append(c);
+			}
+			return b.toString();
+		}
+
+		@Override
+		public String toString() {
+			return _sql;
+		}
+	}
+
+	private StringBuilder translate(Expression e, boolean predicate) {
+		boolean saved = _predicate;
+		_predicate = predicate;
+		e.accept(this);
+		_predicate = saved;
+		return _sql;
+	}
+
+	private static IllegalArgumentException unsupported(Expression e) {
+		return new IllegalArgumentException("Cannot translate to SQL: " + e);
+	}
+
+	private static boolean isNull(Expression e) {
+		return e.getExpressionType() == ExpressionType.Constant
+				&& ((ConstantExpression) e).getValue() == null;
+	}
+
+	private StringBuilder binary(String op, Expression first,
+			Expression second, boolean predicate) {
+		_sql.append('(');
+		translate(first, predicate);
+		_sql.append(op);
+		translate(second, predicate);
+		return _sql.append(')');
+	}
+
+	private StringBuilder isNull(Expression e, boolean not) {
+		_sql.append('(');
+		translate(e, false);
+		return _sql.append(not ? " IS NOT NULL)" : " IS NULL)");
+	}
+
+	private StringBuilder equal(Expression first, Expression second, boolean not) {
+		if (isNull(second))
+			return isNull(first, not);
+		if (isNull(first))
+			return isNull(second, not);
+		// a NULL is different from any value, as in Objects.equals
+		return binary(not ? " IS DISTINCT FROM " : " = ", first, second,
+				false);
+	}
+
+	/**
+	 * Translates the negation of a predicate. The negation is pushed down to
+	 * the comparisons, so NOT does not drop the rows, which a comparison with
+	 * NULL does not match.
+	 */
+	private StringBuilder not(Expression e) {
+		switch (e.getExpressionType()) {
+		case ExpressionType.LogicalNot:
+			return translate(((UnaryExpression) e).getFirst(), true);
+		case ExpressionType.LogicalAnd:
+		case ExpressionType.LogicalOr:
+			BinaryExpression b = (BinaryExpression) e;
+			_sql.append('(');
+			not(b.getFirst());
+			_sql.append(e.getExpressionType() == ExpressionType.LogicalAnd ? " OR "
+					: " AND ");
+			not(b.getSecond());
+			return _sql.append(')');
+		case ExpressionType.Equal:
+			b = (BinaryExpression) e;
+			return equal(b.getFirst(), b.getSecond(), true);
+		case ExpressionType.NotEqual:
+			b = (BinaryExpression) e;
+			if (isNull(b.getFirst()) || isNull(b.getSecond()))
+				return equal(b.getFirst(), b.getSecond(), false);
+			return binary(" IS NOT DISTINCT FROM ", b.getFirst(),
+					b.getSecond(), false);
+		case ExpressionType.MethodAccess:
+			MemberExpression m = (MemberExpression) e;
+			if (isEquals(m))
+				return equal(m.getInstance(), m.getArguments().get(0), true);
+			break;
+		}
+
+		_sql.append("(NOT ");
+		translate(e, true);
+		return _sql.append(')');
+	}
+
+	private static boolean isEquals(MemberExpression e) {
+		Expression instance = e.getInstance();
+		return instance != null && instance.getResultType() == String.class
+				&& e.getArguments().size() == 1
+				&& e.getMember().getName().equals("equals");
+	}
+
+	@Override
+	public StringBuilder visit(BinaryExpression e) {
+		Expression first = e.getFirst();
+		Expression second = e.getSecond();
+		switch (e.getExpressionType()) {
+		case ExpressionType.LogicalAnd:
+			return binary(" AND ", first, second, true);
+		case ExpressionType.LogicalOr:
+			return binary(" OR ", first, second, true);
+		case ExpressionType.Equal:
+			return equal(first, second, false);
+		case ExpressionType.NotEqual:
+			return equal(first, second, true);
+		case ExpressionType.GreaterThan:
+			return binary(" > ", first, second, false);
+		case ExpressionType.GreaterThanOrEqual:
+			return binary(" >= ", first, second, false);
+		case ExpressionType.LessThan:
+			return binary(" < ", first, second, false);
+		case ExpressionType.LessThanOrEqual:
+			return binary(" <= ", first, second, false);
+		case ExpressionType.Add:
+			return binary(" + ", first, second, false);
+		case ExpressionType.Subtract:
+			return binary(" - ", first, second, false);
+		case ExpressionType.Multiply:
+			return binary(" * ", first, second, false);
+		case ExpressionType.Divide:
+			return binary(" / ", first, second, false);
+		case ExpressionType.Modulo:
+			_sql.append("MOD(");
+			translate(first, false);
+			_sql.append(", ");
+			translate(second, false);
+			return _sql.append(')');
+		case ExpressionType.Conditional:
+			_sql.append("CASE WHEN ");
+			translate(e.getOperator(), true);
+			_sql.append(" THEN ");
+			translate(first, false);
+			_sql.append(" ELSE ");
+			translate(second, false);
+			return _sql.append(" END");
+		default:
+			throw unsupported(e);
+		}
+	}
+
+	@Override
+	public StringBuilder visit(UnaryExpression e) {
+		switch (e.getExpressionType()) {
+		case ExpressionType.Convert:
+			return translate(e.getFirst(), _predicate);
+		case ExpressionType.IsNull:
+			return isNull(e.getFirst(), false);
+		case ExpressionType.LogicalNot:
+			return not(e.getFirst());
+		case ExpressionType.Negate:
+			_sql.append("(-");
+			translate(e.getFirst(), false);
+			return _sql.append(')');
+		default:
+			throw unsupported(e);
+		}
+	}
+
+	@Override
+	public StringBuilder visit(MemberExpression e) {
+		Expression instance = e.getInstance();
+		if (instance != null
+				&& instance.getExpressionType() == ExpressionType.Parameter
+				&& ((ParameterExpression) instance).getIndex() == 0) {
+			String column = _columns.apply(e.getMember());
+			if (column == null || !e.getArguments().isEmpty())
+				throw unsupported(e);
+
+			if (_predicate && e.getResultType() == Boolean.TYPE)
+				return _sql.append('(').append(column).append(" = TRUE)");
+			return _sql.append(column);
+		}
+
+		if (instance == null || instance.getResultType() != String.class
+				|| e.getArguments().size() != 1)
+			throw unsupported(e);
+
+		Expression arg = e.getArguments().get(0);
+		switch (e.getMember().getName()) {
+		case "equals":
+			return equal(instance, arg, false);
+		case "startsWith":
+			return like(instance, arg, BIND_PREFIX, e);
+		case "contains":
+			return like(instance, arg, BIND_CONTAINS, e);
+		default:
+			throw unsupported(e);
+		}
+	}
+
+	private StringBuilder like(Expression instance, Expression pattern,
+			int kind, Expression e) {
+		if (pattern.getExpressionType() != ExpressionType.Parameter
+				|| ((ParameterExpression) pattern).getIndex() == 0)
+			throw unsupported(e);
+
+		_sql.append('(');
+		translate(instance, false);
+		_sql.append(" LIKE ");
+		bind((ParameterExpression) pattern, kind);
+		return _sql.append(" ESCAPE '").append(ESCAPE).append("')");
+	}
+
+	private StringBuilder bind(ParameterExpression e, int kind) {
+		_binds.add(new int[] { e.getIndex(), kind });
+		return _sql.append('?');
+	}
+
+	@Override
+	public StringBuilder visit(ParameterExpression e) {
+		// the row itself cannot be translated
+		if (e.getIndex() == 0)
+			throw unsupported(e);
+		return bind(e, BIND_VALUE);
+	}
+
+	@Override
+	public StringBuilder visit(ConstantExpression e) {
+		Object value = e.getValue();
+		if (value == null)
+			return _sql.append("NULL");
+		if (value instanceof Boolean)
+			return _sql.append((Boolean) value ? "TRUE" : "FALSE");
+		throw unsupported(e);
+	}
+
+	@Override
+	public StringBuilder visit(ThisExpression e) {
+		throw unsupported(e);
+	}
+
+	@Override
+	public StringBuilder visit(LambdaInvocationExpression e) {
+		throw unsupported(e);
+	}
+}
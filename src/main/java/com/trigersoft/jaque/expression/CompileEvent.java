@@ -17,32 +17,28 @@
 
 package com.trigersoft.jaque.expression;
 
-/*
- public abstract class SimpleQueryable<E> implements Queryable<E>,
- QueryableFactory {
-
- private final Class<E> _elementType;
- private final Expression _e;
-
- protected SimpleQueryable(Class<E> elementType, Expression e) {
- _elementType = elementType;
- _e = e != null ? e : Expression.constant(this);
- }
-
- public Class<E> getElementType() {
- return _elementType;
- }
-
- public Expression getExpression() {
- return _e;
- }
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted by {@link LambdaExpression#compile()}. Created only if
+ * {@link Events#isEnabled()}.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
 
- public QueryableFactory getFactory() {
- return this;
- }
+@Name("com.trigersoft.jaque.Compile")
+@Label("Lambda Compile")
+@Category("Jaque")
+@Description("Compiles an expression tree to a function")
+final class CompileEvent extends Event {
 
- public Iterator<E> iterator() {
- return iterable().iterator();
- }
- }*/
+	@Label("Expression")
+	String expression;
 
+	@Label("Result Type")
+	Class<?> resultType;
+}
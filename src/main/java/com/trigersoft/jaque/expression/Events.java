@@ -0,0 +1,55 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+/**
+ * Reports whether the JDK Flight Recorder events of jaque can be emitted. The
+ * events are defined in the {@code Jaque} category, e.g.
+ * {@code com.trigersoft.jaque.Parse} and {@code com.trigersoft.jaque.Compile},
+ * and are recorded by the recordings enabling them, as any other event. When
+ * the running JDK has no Flight Recorder, e.g. before 8u262, the events are
+ * not created at all.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+public final class Events {
+
+	private static final boolean Available = isAvailable();
+
+	private Events() {
+	}
+
+	/**
+	 * Indicates whether the Flight Recorder events can be emitted.
+	 *
+	 * @return {@code true} if the running JDK has the Flight Recorder.
+	 */
+	public static boolean isEnabled() {
+		return Available;
+	}
+
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event", false, Events.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+}
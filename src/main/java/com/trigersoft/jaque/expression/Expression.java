@@ -638,7 +638,7 @@ public abstract class Expression {
 	 *         specified value.
 	 */
 	public static ConstantExpression constant(Object value, Class<?> resultType) {
-		return new ConstantExpression(resultType, value);
+		return Interner.constant(value, resultType);
 	}
 
 
@@ -686,7 +686,7 @@ public abstract class Expression {
 	 *         methods set to the specified values.
 	 */
 	public static ParameterExpression parameter(Class<?> resultType, int index) {
-		return new ParameterExpression(resultType, index);
+		return Interner.parameter(resultType, index);
 	}
 
 	/**
@@ -1021,7 +1021,7 @@ public abstract class Expression {
 	public static Expression invoke(Expression instance, Method method,
 			Expression... arguments) {
 		return invoke(instance, method,
-				Collections.unmodifiableList(Arrays.asList(arguments)));
+				Arrays.asList(arguments));
 	}
 
 	/**
@@ -1060,7 +1060,7 @@ public abstract class Expression {
 		}
 		
 		return new MemberExpression(ExpressionType.MethodAccess, instance, method, method.getReturnType(),
-				Arrays.asList(method.getParameterTypes()), arguments);
+				Interner.types(method.getParameterTypes()), arguments);
 	}
 
 
@@ -1079,7 +1079,7 @@ public abstract class Expression {
 	public static InvocationExpression newInstance(Constructor<?> method,
 			Expression... arguments) {
 		return newInstance(method,
-				Collections.unmodifiableList(Arrays.asList(arguments)));
+				Arrays.asList(arguments));
 	}
 
 	/**
@@ -1096,7 +1096,7 @@ public abstract class Expression {
 	public static InvocationExpression newInstance(Constructor<?> method,
 			List<Expression> arguments) {
 		return new MemberExpression(ExpressionType.New, null, method, method.getDeclaringClass(),
-				Arrays.asList(method.getParameterTypes()), arguments);
+				Interner.types(method.getParameterTypes()), arguments);
 	}
 
 	/**
@@ -1182,7 +1182,8 @@ public abstract class Expression {
 	}
 
 	/**
-	 * Get a method declaration recursively starting with the given class.
+	 * Get a method declaration recursively starting with the given class,
+	 * then a public method of its interfaces, e.g. a default method.
 	 * 
 	 * @param clazz
 	 *            Class which is the start of the search
@@ -1194,7 +1195,7 @@ public abstract class Expression {
 	 * @throws NoSuchMethodException
 	 *             if a matching method is not found.
 	 */
-	private static Method getDeclaredMethod(Class<?> clazz, String name,
+	static Method getDeclaredMethod(Class<?> clazz, String name,
 			Class<?>[] parameterTypes) throws NoSuchMethodException {
 		Class<?> tmpClass = clazz;
 
@@ -1203,8 +1204,13 @@ public abstract class Expression {
 				return tmpClass.getDeclaredMethod(name, parameterTypes);
 			} catch (NoSuchMethodException e) {
 				tmpClass = tmpClass.getSuperclass();
-				if (tmpClass == null)
-					throw e;
+				if (tmpClass == null) {
+					try {
+						return clazz.getMethod(name, parameterTypes);
+					} catch (NoSuchMethodException nsme) {
+						throw e;
+					}
+				}
 			}
 		}
 	}
@@ -0,0 +1,266 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.trigersoft.jaque.expression;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Rebuilds the chains of an associative operator as balanced trees, so the
+ * depth of the compiled expression grows logarithmically with the length of
+ * the chain. The chains are {@code &&}, {@code ||} and the {@code int} or
+ * {@code long} additions, which are associative with overflow as well; the
+ * floating point additions are not, so they are not rebuilt. The operands
+ * keep their order, so the short-circuit evaluation is not changed.
+ * <p>
+ * The chains of conditionals testing an {@code int} key for constant values,
+ * as a parsed {@code switch}, are rebuilt as a binary search on the key. The
+ * search evaluates the key a different number of times, so the key must be
+ * free of side effects, e.g. a parameter or a getter.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+public final class ExpressionBalancer extends IterativeExpressionVisitor {
+
+	private static final ExpressionBalancer Instance = new ExpressionBalancer();
+
+	// shorter chains cannot become shallower
+	private static final int MIN_OPERANDS = 4;
+
+	private ExpressionBalancer() {
+	}
+
+	/**
+	 * Balances the associative chains of the expression.
+	 *
+	 * @param e
+	 *            the expression to balance.
+	 * @return the balanced expression.
+	 */
+	public static Expression balance(Expression e) {
+		return Instance.transform(e);
+	}
+
+	private static boolean isChain(Expression e) {
+		switch (e.getExpressionType()) {
+		case ExpressionType.LogicalAnd:
+		case ExpressionType.LogicalOr:
+			return true;
+		case ExpressionType.Add:
+			Class<?> type = e.getResultType();
+			return type == Integer.TYPE || type == Long.TYPE;
+		default:
+			return false;
+		}
+	}
+
+	// the whole chain is visited by visit(BinaryExpression)
+	@Override
+	protected boolean visitChildren(Expression e) {
+		return !isChain(e) && Switch.of(e) == null;
+	}
+
+	@Override
+	public Expression visit(BinaryExpression e) {
+		if (!isChain(e)) {
+			Switch s = Switch.of(e);
+			return s != null ? build(s) : e;
+		}
+
+		int expressionType = e.getExpressionType();
+		Class<?> resultType = e.getResultType();
+		List<Expression> operands = new ArrayList<Expression>();
+		boolean changed = false;
+		ArrayDeque<Expression> stack = new ArrayDeque<Expression>();
+		stack.push(e);
+		while (!stack.isEmpty()) {
+			Expression x = stack.pop();
+			if (x.getExpressionType() == expressionType
+					&& x.getResultType() == resultType) {
+				BinaryExpression b = (BinaryExpression) x;
+				stack.push(b.getSecond());
+				stack.push(b.getFirst());
+				continue;
+			}
+
+			Expression operand = transform(x);
+			changed |= operand != x;
+			operands.add(operand);
+		}
+
+		if (!changed && operands.size() < MIN_OPERANDS)
+			return e;
+		return build(expressionType, operands, 0, operands.size());
+	}
+
+	private Expression build(Switch s) {
+		Map<Expression, Expression> transformed = new IdentityHashMap<Expression, Expression>();
+		int[] keys = new int[s._cases.size()];
+		Expression[] bodies = new Expression[keys.length];
+		int i = 0;
+		for (Map.Entry<Integer, Expression> c : s._cases.entrySet()) {
+			Expression body = transformed.get(c.getValue());
+			if (body == null) {
+				body = transform(c.getValue());
+				transformed.put(c.getValue(), body);
+			}
+			keys[i] = c.getKey();
+			bodies[i++] = body;
+		}
+
+		return build(s._key, keys, bodies, transform(s._default), 0,
+				keys.length);
+	}
+
+	private static Expression build(Expression key, int[] keys,
+			Expression[] bodies, Expression dflt, int from, int to) {
+		if (to - from == 1)
+			return Expression.condition(Expression.equal(key,
+					Expression.constant(keys[from], Integer.TYPE)),
+					bodies[from], dflt);
+		int middle = (from + to) >>> 1;
+		return Expression.condition(Expression.lessThan(key,
+				Expression.constant(keys[middle], Integer.TYPE)),
+				build(key, keys, bodies, dflt, from, middle),
+				build(key, keys, bodies, dflt, middle, to));
+	}
+
+	private static Expression build(int expressionType,
+			List<Expression> operands, int from, int to) {
+		if (to - from == 1)
+			return operands.get(from);
+		int middle = (from + to) >>> 1;
+		return Expression.binary(expressionType,
+				build(expressionType, operands, from, middle),
+				build(expressionType, operands, middle, to));
+	}
+
+	/**
+	 * The cases of a chain of conditionals testing a key for constant values.
+	 */
+	private static final class Switch {
+		final Expression _key;
+		// the first case of a value is taken, by the value
+		final Map<Integer, Expression> _cases = new TreeMap<Integer, Expression>();
+		Expression _default;
+
+		private Switch(Expression key) {
+			_key = key;
+		}
+
+		/**
+		 * Collects the chain starting from the expression.
+		 *
+		 * @return the chain, or {@code null} if it is too short to rebuild.
+		 */
+		static Switch of(Expression e) {
+			Case c = Case.of(e);
+			if (c == null || !SideEffects.isFree(c._key))
+				return null;
+
+			Switch s = new Switch(c._key);
+			do {
+				for (Integer value : c._values)
+					if (!s._cases.containsKey(value))
+						s._cases.put(value, select(c._match, c._key, value));
+				e = c._rest;
+			} while ((c = Case.of(e)) != null && c._key.equals(s._key));
+
+			if (s._cases.size() < MIN_OPERANDS)
+				return null;
+			s._default = e;
+			return s;
+		}
+
+		// selects the case of a value in a nested chain of the key
+		private static Expression select(Expression e, Expression key,
+				Integer value) {
+			Case c;
+			while ((c = Case.of(e)) != null && c._key.equals(key))
+				e = c._values.contains(value) ? c._match : c._rest;
+			return e;
+		}
+	}
+
+	/**
+	 * A conditional testing whether a key equals any of the values, e.g.
+	 * {@code k == 1 || k == 2 ? a : b}, or none of them, e.g.
+	 * {@code k != 1 && k != 2 ? b : a}.
+	 */
+	private static final class Case {
+		Expression _key;
+		final List<Integer> _values = new ArrayList<Integer>();
+		Expression _match;
+		Expression _rest;
+
+		static Case of(Expression e) {
+			if (e.getExpressionType() != ExpressionType.Conditional)
+				return null;
+
+			BinaryExpression conditional = (BinaryExpression) e;
+			Expression test = conditional.getOperator();
+			int testType = test.getExpressionType();
+			boolean equal = testType == ExpressionType.Equal
+					|| testType == ExpressionType.LogicalOr;
+			int comparison = equal ? ExpressionType.Equal
+					: ExpressionType.NotEqual;
+			int junction = equal ? ExpressionType.LogicalOr
+					: ExpressionType.LogicalAnd;
+
+			Case c = new Case();
+			ArrayDeque<Expression> stack = new ArrayDeque<Expression>();
+			stack.push(test);
+			while (!stack.isEmpty()) {
+				Expression x = stack.pop();
+				if (x.getExpressionType() == junction) {
+					BinaryExpression b = (BinaryExpression) x;
+					stack.push(b.getSecond());
+					stack.push(b.getFirst());
+					continue;
+				}
+
+				if (x.getExpressionType() != comparison)
+					return null;
+				BinaryExpression b = (BinaryExpression) x;
+				Expression value = b.getSecond();
+				if (value.getExpressionType() != ExpressionType.Constant
+						|| value.getResultType() != Integer.TYPE)
+					return null;
+				if (c._key == null)
+					c._key = b.getFirst();
+				else if (!c._key.equals(b.getFirst()))
+					return null;
+				c._values.add((Integer) ((ConstantExpression) value)
+						.getValue());
+			}
+
+			c._match = equal ? conditional.getFirst() : conditional
+					.getSecond();
+			c._rest = equal ? conditional.getSecond() : conditional
+					.getFirst();
+			return c;
+		}
+	}
+}
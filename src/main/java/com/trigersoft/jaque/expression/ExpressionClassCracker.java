@@ -15,6 +15,7 @@
 
 package com.trigersoft.jaque.expression;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -31,38 +32,60 @@ import java.util.Collections;
 import java.util.List;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
 class ExpressionClassCracker {
 
 	private static final String DUMP_FOLDER_SYSTEM_PROPERTY = "jdk.internal.lambda.dumpProxyClasses";
+	// since Java 21 the proxy classes are dumped to a fixed folder instead
+	private static final String DUMP_SYSTEM_PROPERTY = "jdk.invoke.LambdaMetafactory.dumpProxyClassFiles";
+	private static final String DUMP_FOLDER = "DUMP_LAMBDA_PROXY_CLASS_FILES";
 	private static final URLClassLoader lambdaClassLoader;
 	private static final String lambdaClassLoaderCreationError;
 
+	private long _bytesDecoded;
+
 	static {
+		List<String> folderPaths = new ArrayList<>(2);
 		String folderPath = System.getProperty(DUMP_FOLDER_SYSTEM_PROPERTY);
-		if (folderPath == null) {
-			lambdaClassLoaderCreationError = "Ensure that the '" + DUMP_FOLDER_SYSTEM_PROPERTY
-					+ "' system property is properly set.";
-			lambdaClassLoader = null;
-		} else {
-			File folder = new File(folderPath);
+		if (folderPath != null)
+			folderPaths.add(folderPath);
+		if (Boolean.getBoolean(DUMP_SYSTEM_PROPERTY))
+			folderPaths.add(new File(System.getProperty("user.dir"), DUMP_FOLDER).getPath());
+
+		List<URL> folderURLs = new ArrayList<>(2);
+		String error = null;
+		for (String path : folderPaths) {
+			File folder = new File(path);
 			if (!folder.isDirectory()) {
-				lambdaClassLoaderCreationError = "Ensure that the '" + DUMP_FOLDER_SYSTEM_PROPERTY
-						+ "' system property is properly set (" + folderPath + " does not exist).";
-				lambdaClassLoader = null;
-			} else {
-				URL folderURL;
-				try {
-					folderURL = folder.toURI().toURL();
-				} catch (MalformedURLException mue) {
-					throw new RuntimeException(mue);
-				}
-
-				lambdaClassLoaderCreationError = null;
-				lambdaClassLoader = new URLClassLoader(new URL[] { folderURL });
+				error = "Ensure that the '" + DUMP_FOLDER_SYSTEM_PROPERTY + "' or '" + DUMP_SYSTEM_PROPERTY
+						+ "' system property is properly set (" + path + " does not exist).";
+				continue;
+			}
+			try {
+				folderURLs.add(folder.toURI().toURL());
+			} catch (MalformedURLException mue) {
+				throw new RuntimeException(mue);
 			}
 		}
+
+		if (folderURLs.isEmpty()) {
+			lambdaClassLoaderCreationError = error != null ? error
+					: "Ensure that the '" + DUMP_FOLDER_SYSTEM_PROPERTY + "' or '" + DUMP_SYSTEM_PROPERTY
+							+ "' system property is properly set.";
+			lambdaClassLoader = null;
+		} else {
+			lambdaClassLoaderCreationError = null;
+			lambdaClassLoader = new URLClassLoader(folderURLs.toArray(new URL[folderURLs.size()]));
+		}
+	}
+
+	/**
+	 * Gets the size of the class files decoded by this cracker.
+	 */
+	long getBytesDecoded() {
+		return _bytesDecoded;
 	}
 
 	LambdaExpression<?> lambda(Object lambda) {
@@ -73,13 +96,8 @@ class ExpressionClassCracker {
 		if (lambda instanceof Serializable) {
 			SerializedLambda extracted = SerializedLambda.extractLambda((Serializable) lambda);
 
-			ExpressionClassVisitor actualVisitor = parseClass(lambdaClass.getClassLoader(),
-					classFilePath(extracted.implClass), lambda, extracted.implMethodName,
-					extracted.implMethodSignature);
-			Object[] capturedArgs = extracted.capturedArgs;
-
-			return createLambda(actualVisitor, capturedArgs);
-
+			return lambda(lambda, extracted.implClass, extracted.implMethodName, extracted.implMethodSignature,
+					extracted.capturedArgs);
 		}
 
 		ExpressionClassVisitor lambdaVisitor = parseFromFileSystem(lambda, lambdaClass);
@@ -117,6 +135,68 @@ class ExpressionClassCracker {
 				Arrays.asList(lambdaVisitor.getParameterTypes()));
 	}
 
+	/**
+	 * Parses the implementation method of a lambda and binds it to the
+	 * captured values.
+	 */
+	LambdaExpression<?> lambda(Object lambda, String implClass, String implMethodName, String implMethodSignature,
+			Object[] capturedArgs) {
+		ExpressionClassVisitor actualVisitor = parseClass(lambda.getClass().getClassLoader(), classFilePath(implClass),
+				lambda, implMethodName, implMethodSignature);
+
+		return createLambda(actualVisitor, capturedArgs);
+	}
+
+	/**
+	 * Binds the parsed body of a serializable lambda to the values captured by
+	 * another instance of the same lambda class.
+	 */
+	static Expression bindCapturedArgs(Expression body, Serializable lambda) {
+		return bindCapturedArgs(body, lambda, true);
+	}
+
+	/**
+	 * Replaces the captured args of a serializable lambda with {@code null}s,
+	 * so that the expression does not reference them.
+	 */
+	static Expression unbindCapturedArgs(Expression body) {
+		return bindCapturedArgs(body, null, false);
+	}
+
+	private static Expression bindCapturedArgs(Expression body, Serializable lambda, boolean bind) {
+		Expression e = body;
+		Class<?> convertTo = null;
+		if (e.getExpressionType() == ExpressionType.Convert) {
+			convertTo = e.getResultType();
+			e = ((UnaryExpression) e).getFirst();
+		}
+
+		if (!(e instanceof LambdaInvocationExpression))
+			return body;
+
+		LambdaInvocationExpression invocation = (LambdaInvocationExpression) e;
+		List<Expression> args = invocation.getArguments();
+		// the captured args are passed first
+		if (args.isEmpty() || args.get(0).getExpressionType() != ExpressionType.Constant)
+			return body;
+
+		Object[] capturedArgs;
+		if (bind)
+			capturedArgs = SerializedLambda.extractLambda(lambda).capturedArgs;
+		else {
+			int count = 0;
+			while (count < args.size() && args.get(count).getExpressionType() == ExpressionType.Constant)
+				count++;
+			capturedArgs = new Object[count];
+		}
+		List<Expression> bound = new ArrayList<>(args);
+		for (int i = 0; i < capturedArgs.length; i++)
+			bound.set(i, Expression.constant(capturedArgs[i], invocation.getParameterTypes().get(i)));
+
+		Expression result = Expression.invokeLambda(invocation.getParameterTypes(), invocation.getInstance(), bound);
+		return convertTo != null ? Expression.convert(result, convertTo) : result;
+	}
+
 	private LambdaExpression<?> createLambda(ExpressionClassVisitor actualVisitor, Object[] capturedArgs) {
 		ArrayList<Expression> args = new ArrayList<>();
 		for (int i = 0; i < capturedArgs.length; i++) {
@@ -166,8 +246,15 @@ class ExpressionClassCracker {
 
 	private String lambdaClassFilePath(Class<?> lambdaClass) {
 		String lambdaClassName = lambdaClass.getName();
-		String className = lambdaClassName.substring(0, lambdaClassName.lastIndexOf('/'));
-		return classFilePath(className);
+		int suffix = lambdaClassName.lastIndexOf('/');
+		String className = lambdaClassName.substring(0, suffix);
+		String path = classFilePath(className);
+		if (lambdaClassLoader.getResource(path) != null)
+			return path;
+
+		// the hidden classes of Java 21 are dumped with their suffix, e.g.
+		// Foo$$Lambda.0x0000000801001800.class
+		return className.replace('.', '/') + "." + lambdaClassName.substring(suffix + 1) + ".class";
 	}
 
 	private String classFilePath(String className) {
@@ -193,7 +280,9 @@ class ExpressionClassCracker {
 		ExpressionClassVisitor visitor = new ExpressionClassVisitor(lambda, method, methodDescriptor);
 		try {
 			try (InputStream classStream = getResourceAsStream(classLoader, classFilePath)) {
-				ClassReader reader = new ClassReader(classStream);
+				byte[] classFile = readClass(classStream);
+				_bytesDecoded += classFile.length;
+				ClassReader reader = new ClassReader(classFile);
 				reader.accept(visitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
 				return visitor;
 			}
@@ -202,6 +291,80 @@ class ExpressionClassCracker {
 		}
 	}
 
+	/**
+	 * Reads a class file. The reader rejects the class files newer than Java
+	 * 8, as the lambda classes of the newer JDKs. Their code is read the same,
+	 * and the rest of their features are the attributes, which the reader
+	 * skips, or the constants, which the reader does not know. Hence their
+	 * version is lowered, unless the constant pool holds an unknown constant,
+	 * e.g. a {@code CONSTANT_Dynamic}, which is rejected.
+	 */
+	static byte[] readClass(InputStream classStream) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n; (n = classStream.read(buffer)) > 0;)
+			out.write(buffer, 0, n);
+		byte[] b = out.toByteArray();
+
+		// u4 magic, u2 minor_version, u2 major_version
+		if (b.length > 8 && readUnsignedShort(b, 6) > Opcodes.V1_8) {
+			checkConstantPool(b);
+			b[4] = 0;
+			b[5] = 0;
+			b[6] = (byte) (Opcodes.V1_8 >>> 8);
+			b[7] = (byte) Opcodes.V1_8;
+		}
+		return b;
+	}
+
+	/**
+	 * Checks that the constant pool holds only the constants known to the
+	 * reader, i.e. those of the Java 8 class files.
+	 */
+	private static void checkConstantPool(byte[] b) {
+		// u2 constant_pool_count, cp_info constant_pool[constant_pool_count-1]
+		int count = readUnsignedShort(b, 8);
+		int offset = 10;
+		for (int i = 1; i < count; i++) {
+			int tag = b[offset] & 0xFF;
+			switch (tag) {
+			case 1: // Utf8
+				offset += 3 + readUnsignedShort(b, offset + 1);
+				break;
+			case 7: // Class
+			case 8: // String
+			case 16: // MethodType
+				offset += 3;
+				break;
+			case 15: // MethodHandle
+				offset += 4;
+				break;
+			case 3: // Integer
+			case 4: // Float
+			case 9: // Fieldref
+			case 10: // Methodref
+			case 11: // InterfaceMethodref
+			case 12: // NameAndType
+			case 18: // InvokeDynamic
+				offset += 5;
+				break;
+			case 5: // Long
+			case 6: // Double
+				offset += 9;
+				i++;
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported constant pool tag "
+						+ tag + " in a class file of version "
+						+ readUnsignedShort(b, 6));
+			}
+		}
+	}
+
+	private static int readUnsignedShort(byte[] b, int offset) {
+		return (b[offset] & 0xFF) << 8 | (b[offset + 1] & 0xFF);
+	}
+
 	private InputStream getResourceAsStream(ClassLoader classLoader, String path) throws FileNotFoundException {
 		InputStream stream = classLoader.getResourceAsStream(path);
 		if (stream == null)
@@ -18,13 +18,19 @@
 package com.trigersoft.jaque.expression;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Member;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.Attribute;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -48,6 +54,7 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 	private ExpressionStack _exprStack;
 
 	private final HashMap<Label, List<ExpressionStack>> _branches = new HashMap<Label, List<ExpressionStack>>();
+	private final HashMap<Label, Switch> _switches = new HashMap<Label, Switch>();
 
 	private final ExpressionClassVisitor _classVisitor;
 	private final Class<?>[] _argTypes;
@@ -100,15 +107,79 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 	}
 
 	private void branch(Label label, Expression test) {
+		_exprStack = branch(_exprStack, label, test);
+	}
+
+	private ExpressionStack branch(ExpressionStack stack, Label label,
+			Expression test) {
 		List<ExpressionStack> bl = getBranchUsers(label);
 
 		ExpressionStack.BranchExpression br = new ExpressionStack.BranchExpression(
-				_exprStack, test, label);
-		_exprStack.push(br);
+				stack, test, label);
+		stack.push(br);
 
 		ExpressionStack left = br.getFalse();
 		bl.add(left);
-		_exprStack = br.getTrue();
+		return br.getTrue();
+	}
+
+	private void switchInsn(Label dflt, int[] keys, Label[] labels) {
+		// the key is tested by each case
+		Expression key = TypeConverter.convert(_exprStack.pop(), Integer.TYPE);
+		if (!SideEffects.isFree(key))
+			throw new IllegalArgumentException(
+					"Not a lambda expression. Switch key has side effects: "
+							+ key);
+		Switch s = new Switch(key, dflt, _exprStack);
+		for (int i = 0; i < keys.length; i++)
+			s.add(labels[i], keys[i]);
+
+		for (Label label : s.getLabels())
+			_switches.put(label, s);
+
+		_exprStack = null;
+	}
+
+	/**
+	 * Branches a case from the switch stack, so the cases are branched in the
+	 * order of their code, as if the switch was an if-else chain. The last
+	 * case takes the switch stack itself.
+	 */
+	private void caseLabel(Switch s, Label label) {
+		if (_exprStack != null)
+			throw notLambda(Opcodes.TABLESWITCH); // fall through
+
+		List<Integer> keys = s.remove(label);
+		ExpressionStack stack = s.getStack();
+		if (s.getLabels().isEmpty()) {
+			getBranchUsers(label).add(stack);
+			return;
+		}
+
+		// the test holds for the remaining cases
+		Expression test = null;
+		if (label == s.getDefault()) {
+			for (List<Integer> remaining : s.getKeys())
+				for (Integer key : remaining)
+					test = or(test,
+							Expression.equal(s.getKey(), Expression
+									.constant(key, Integer.TYPE)));
+		} else {
+			for (Integer key : keys)
+				test = and(test,
+						Expression.notEqual(s.getKey(), Expression
+								.constant(key, Integer.TYPE)));
+		}
+
+		s.setStack(branch(stack, label, test));
+	}
+
+	private static Expression or(Expression first, Expression second) {
+		return first != null ? Expression.logicalOr(first, second) : second;
+	}
+
+	private static Expression and(Expression first, Expression second) {
+		return first != null ? Expression.logicalAnd(first, second) : second;
 	}
 
 	private void pushZeroConstantOrReduce() {
@@ -209,8 +280,14 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 	}
 
 	@Override
-	public void visitIincInsn(int arg0, int arg1) {
-		throw notLambda(Opcodes.IINC);
+	public void visitIincInsn(int var, int increment) {
+		if (_me != null)
+			var--;
+		Expression value = _exprStack.getLocal(var);
+		if (value == null)
+			value = Expression.parameter(Integer.TYPE, var);
+		_exprStack.setLocal(var, Expression.add(value,
+				Expression.constant(increment, Integer.TYPE)));
 	}
 
 	@Override
@@ -554,6 +631,13 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 				ExpressionStack parentStack = firstB.getParent();
 				parentStack.pop(); // branch
 
+				mergeLocals(parentStack, firstB.getTest(), firstB.getTrue(),
+						firstB.getFalse());
+
+				// a statement, e.g. an assignment, leaves no value
+				if (first.size() == 0 && second.size() == 0)
+					return parentStack;
+
 				Expression right = firstB.getTrue().pop();
 				Expression left = firstB.getFalse().pop();
 				assert right.getResultType() == left.getResultType();
@@ -601,6 +685,7 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 
 					parentStack.add(be);
 
+					mergeLocals(first, null, first, second);
 					return first;
 				}
 			}
@@ -643,12 +728,40 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 
 			parentStack.add(be);
 
+			mergeLocals(older, null, older, younger);
 			return older;
 		}
 
 		return null;
 	}
 
+	/**
+	 * Sets the local variables of the paths merging into the target. A
+	 * variable stored on one path only cannot be loaded after the merge. A
+	 * variable stored differently on the paths becomes a conditional, if the
+	 * paths are chosen by a test.
+	 */
+	private static void mergeLocals(ExpressionStack target, Expression test,
+			ExpressionStack ifTrue, ExpressionStack ifFalse) {
+		Map<Integer, Expression> falseLocals = ifFalse.getLocals();
+		Map<Integer, Expression> merged = new HashMap<Integer, Expression>();
+		for (Map.Entry<Integer, Expression> local : ifTrue.getLocals()
+				.entrySet()) {
+			Expression other = falseLocals.get(local.getKey());
+			if (other == null)
+				continue;
+
+			Expression value = local.getValue();
+			if (value != other) {
+				if (test == null)
+					throw notLambda(Opcodes.ISTORE);
+				value = Expression.condition(test, value, other);
+			}
+			merged.put(local.getKey(), value);
+		}
+		target.setLocals(merged);
+	}
+
 	private static ExpressionStack reduce(List<ExpressionStack> bl) {
 		int index = bl.size() - 1;
 		ExpressionStack second = bl.remove(index--);
@@ -669,6 +782,10 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 
 	@Override
 	public void visitLabel(Label label) {
+		Switch s = _switches.remove(label);
+		if (s != null)
+			caseLabel(s, label);
+
 		List<ExpressionStack> bl = _branches.get(label);
 		_branches.remove(label);
 
@@ -701,12 +818,12 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 	@Override
 	public void visitLocalVariable(String name, String desc, String signature,
 			Label start, Label end, int index) {
-		throw notLambda(-1);
+		// debug information, the locals are tracked by their stores
 	}
 
 	@Override
 	public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
-		throw notLambda(Opcodes.LOOKUPSWITCH);
+		switchInsn(dflt, keys, labels);
 	}
 
 	@Override
@@ -758,7 +875,6 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 			break;
 
 		case Opcodes.INVOKESTATIC:
-		case Opcodes.INVOKEDYNAMIC:
 			try {
 				e = Expression.invoke(
 						_classVisitor.getClass(Type.getObjectType(owner)),
@@ -775,6 +891,139 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 		_exprStack.push(e);
 	}
 
+	@Override
+	public void visitInvokeDynamicInsn(String name, String desc, Handle bsm,
+			Object... bsmArgs) {
+		switch (bsm.getOwner()) {
+		case "java/lang/invoke/LambdaMetafactory":
+			nestedLambda(name, desc, (Handle) bsmArgs[1]);
+			break;
+		case "java/lang/invoke/StringConcatFactory":
+			concat(desc,
+					bsm.getName().equals("makeConcatWithConstants") ? bsmArgs
+							: null);
+			break;
+		default:
+			throw notLambda(Opcodes.INVOKEDYNAMIC);
+		}
+	}
+
+	/**
+	 * Creates a nested lambda as {@link NestedLambda#create()} on the
+	 * {@link NestedLambda} capturing the values on the stack.
+	 */
+	private void nestedLambda(String name, String desc, Handle implementation) {
+		Type[] capturedTypes = Type.getArgumentTypes(desc);
+		Expression[] captured = new Expression[capturedTypes.length];
+		for (int i = capturedTypes.length - 1; i >= 0; i--)
+			captured[i] = TypeConverter.convert(_exprStack.pop(),
+					Object.class);
+
+		Class<?> type = _classVisitor.getClass(Type.getReturnType(desc));
+		Expression e = Expression.constant(new NestedLambda(type, name,
+				getMember(implementation)), NestedLambda.class);
+		try {
+			for (Expression value : captured)
+				e = Expression.invoke(e, "capture",
+						new Class<?>[] { Object.class }, value);
+			e = Expression.invoke(e, "create", new Class<?>[0]);
+		} catch (NoSuchMethodException nsme) {
+			throw new RuntimeException(nsme);
+		}
+
+		_exprStack.push(Expression.convert(e, type));
+	}
+
+	private Member getMember(Handle handle) {
+		Class<?> owner = _classVisitor.getClass(Type.getObjectType(handle
+				.getOwner()));
+		Type[] argsTypes = Type.getArgumentTypes(handle.getDesc());
+		Class<?>[] parameterTypes = new Class<?>[argsTypes.length];
+		for (int i = 0; i < argsTypes.length; i++)
+			parameterTypes[i] = _classVisitor.getClass(argsTypes[i]);
+
+		try {
+			if (handle.getTag() == Opcodes.H_NEWINVOKESPECIAL)
+				return owner.getDeclaredConstructor(parameterTypes);
+
+			return Expression.getDeclaredMethod(owner, handle.getName(),
+					parameterTypes);
+		} catch (NoSuchMethodException nsme) {
+			throw new RuntimeException(nsme);
+		}
+	}
+
+	/**
+	 * Concatenates the strings as {@link String#concat(String)} of
+	 * {@link String#valueOf(Object)}s. The recipe of makeConcatWithConstants
+	 * has the arguments marked with \1 and the constants with \2.
+	 */
+	private void concat(String desc, Object[] recipe) {
+		Type[] argsTypes = Type.getArgumentTypes(desc);
+		Expression[] args = new Expression[argsTypes.length];
+		for (int i = argsTypes.length - 1; i >= 0; i--)
+			args[i] = _exprStack.pop();
+
+		Expression e = null;
+		StringBuilder literal = new StringBuilder();
+		int arg = 0;
+		int constant = 1;
+		int length = recipe != null ? ((String) recipe[0]).length()
+				: args.length;
+		for (int i = 0; i < length; i++) {
+			char c = recipe != null ? ((String) recipe[0]).charAt(i) : '\1';
+			switch (c) {
+			case '\1':
+				e = concat(e, literal);
+				e = concat(e, valueOf(args[arg++]));
+				break;
+			case '\2':
+				literal.append(recipe[constant++]);
+				break;
+			default:
+				literal.append(c);
+				break;
+			}
+		}
+
+		e = concat(e, literal);
+		_exprStack.push(e != null ? e : Expression.constant("", String.class));
+	}
+
+	private static Expression concat(Expression first, StringBuilder literal) {
+		if (literal.length() == 0)
+			return first;
+		Expression second = Expression.constant(literal.toString(),
+				String.class);
+		literal.setLength(0);
+		return concat(first, second);
+	}
+
+	private static Expression concat(Expression first, Expression second) {
+		if (first == null)
+			return second;
+		try {
+			return Expression.invoke(first, "concat",
+					new Class<?>[] { String.class }, second);
+		} catch (NoSuchMethodException nsme) {
+			throw new RuntimeException(nsme);
+		}
+	}
+
+	private static Expression valueOf(Expression e) {
+		Class<?> type = e.getResultType();
+		if (type == Byte.TYPE || type == Short.TYPE)
+			type = Integer.TYPE;
+		else if (!type.isPrimitive())
+			type = Object.class;
+		try {
+			return Expression.invoke(String.class, "valueOf",
+					new Class<?>[] { type }, TypeConverter.convert(e, type));
+		} catch (NoSuchMethodException nsme) {
+			throw new RuntimeException(nsme);
+		}
+	}
+
 	// @Overrides
 	@Override
 	public void visitMultiANewArrayInsn(String desc, int dims) {
@@ -790,7 +1039,10 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 	@Override
 	public void visitTableSwitchInsn(int min, int max, Label dflt,
 			Label... labels) {
-		throw notLambda(Opcodes.TABLESWITCH);
+		int[] keys = new int[labels.length];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = min + i;
+		switchInsn(dflt, keys, labels);
 	}
 
 	@Override
@@ -833,6 +1085,13 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 			}
 			var--;
 		}
+		if (opcode >= Opcodes.ILOAD && opcode <= Opcodes.ALOAD) {
+			Expression local = _exprStack.getLocal(var);
+			if (local != null) {
+				_exprStack.push(local);
+				return;
+			}
+		}
 		Class<?> type;
 		switch (opcode) {
 		case Opcodes.ISTORE:
@@ -840,6 +1099,16 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 		case Opcodes.FSTORE:
 		case Opcodes.DSTORE:
 		case Opcodes.ASTORE:
+			// the stored expression is substituted at the loads, so must
+			// give the same outcome when evaluated at each, or at none
+			Expression value = _exprStack.pop();
+			if (!SideEffects.isFree(value))
+				throw new IllegalArgumentException(
+						"Not a lambda expression. Local variable " + var
+								+ " stores an expression with side effects: "
+								+ value);
+			_exprStack.setLocal(var, value);
+			return;
 		case Opcodes.RET:
 		default:
 			throw notLambda(opcode);
@@ -886,4 +1155,62 @@ final class ExpressionMethodVisitor extends MethodVisitor {
 				+ opcodeName + " is illegal.");
 	}
 
+
+	/**
+	 * A switch, which cases are not branched yet.
+	 */
+	private static final class Switch {
+		private final Expression _key;
+		private final Label _default;
+		// the keys of the cases, by their labels
+		private final Map<Label, List<Integer>> _cases = new LinkedHashMap<Label, List<Integer>>();
+		private ExpressionStack _stack;
+
+		Switch(Expression key, Label dflt, ExpressionStack stack) {
+			_key = key;
+			_default = dflt;
+			_stack = stack;
+			_cases.put(dflt, new ArrayList<Integer>());
+		}
+
+		void add(Label label, int key) {
+			// a case of the default label is the default
+			if (label == _default)
+				return;
+			List<Integer> keys = _cases.get(label);
+			if (keys == null) {
+				keys = new ArrayList<Integer>();
+				_cases.put(label, keys);
+			}
+			keys.add(key);
+		}
+
+		List<Integer> remove(Label label) {
+			return _cases.remove(label);
+		}
+
+		Expression getKey() {
+			return _key;
+		}
+
+		Label getDefault() {
+			return _default;
+		}
+
+		Set<Label> getLabels() {
+			return _cases.keySet();
+		}
+
+		Collection<List<Integer>> getKeys() {
+			return _cases.values();
+		}
+
+		ExpressionStack getStack() {
+			return _stack;
+		}
+
+		void setStack(ExpressionStack stack) {
+			_stack = stack;
+		}
+	}
 }
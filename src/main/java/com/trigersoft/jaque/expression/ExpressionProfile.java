@@ -0,0 +1,286 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.trigersoft.jaque.expression;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Profiles the evaluation of a compiled lambda expression, see
+ * {@link LambdaExpression#profile(int)}. Each node of the expression tree
+ * counts its invocations, and every n-th invocation of a node is timed and
+ * its result recorded, so the overhead is bounded while the distribution
+ * remains representative.
+ * <p>
+ * {@link #toString()} renders the tree, a node per line, annotated with the
+ * invocation count, the estimated time including the child nodes, its share
+ * of the root time and the distribution of the sampled results, e.g.
+ * </p>
+ *
+ * <pre>
+ * ((P0.getData() &gt; 4) &amp;&amp; (P0.getData() &lt; 15))  calls=100 time=0.120ms (100.0%) results={true=10.0%, false=90.0%}
+ *   (P0.getData() &gt; 4)  calls=100 time=0.060ms (50.0%) results={true=95.0%, false=5.0%}
+ *   ...
+ * </pre>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+public final class ExpressionProfile {
+
+	/**
+	 * The default sampling interval.
+	 */
+	public static final int DEFAULT_SAMPLING = 16;
+
+	private static final int MAX_VALUES = 8;
+
+	private final Function<Object[], ?> _function;
+	private final Node _root;
+
+	ExpressionProfile(Expression body, int samplingInterval) {
+		if (samplingInterval < 1)
+			throw new IllegalArgumentException("samplingInterval: "
+					+ samplingInterval);
+
+		Profiler profiler = new Profiler(samplingInterval);
+		_function = body.accept(profiler);
+		_root = profiler._root;
+		// the compilation may evaluate constants
+		reset();
+	}
+
+	/**
+	 * Gets the profiled function.
+	 *
+	 * @return {@link Function} that represents the lambda expression and
+	 *         updates this profile.
+	 */
+	public Function<Object[], ?> getFunction() {
+		return _function;
+	}
+
+	/**
+	 * Gets the number of the invocations of the expression.
+	 *
+	 * @return the number of the invocations of the root node.
+	 */
+	public long getInvocations() {
+		return _root._count.get();
+	}
+
+	/**
+	 * Clears the collected statistics.
+	 */
+	public void reset() {
+		_root.reset();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		_root.append(b, 0, _root.getNanos());
+		return b.toString();
+	}
+
+	/**
+	 * The statistics of an expression node.
+	 */
+	private static final class Node {
+		private final Expression _expression;
+		private final int _interval;
+		private final List<Node> _children = new ArrayList<Node>();
+		private final AtomicLong _count = new AtomicLong();
+
+		// guarded by this
+		private long _samples;
+		private long _nanos;
+		private final Map<Object, long[]> _values = new LinkedHashMap<Object, long[]>();
+		private long _others;
+		private double _min;
+		private double _max;
+
+		Node(Expression expression, int interval) {
+			_expression = expression;
+			_interval = interval;
+		}
+
+		Function<Object[], ?> wrap(Function<Object[], ?> f) {
+			return t -> {
+				if (_count.getAndIncrement() % _interval != 0)
+					return f.apply(t);
+
+				long start = System.nanoTime();
+				Object result = f.apply(t);
+				sample(System.nanoTime() - start, result);
+				return result;
+			};
+		}
+
+		private synchronized void sample(long nanos, Object result) {
+			if (result instanceof Number) {
+				double v = ((Number) result).doubleValue();
+				if (_samples == 0 || v < _min)
+					_min = v;
+				if (_samples == 0 || v > _max)
+					_max = v;
+			}
+			_samples++;
+			_nanos += nanos;
+
+			long[] count = _values.get(result);
+			if (count == null) {
+				if (_values.size() >= MAX_VALUES) {
+					_others++;
+					return;
+				}
+				count = new long[1];
+				_values.put(result, count);
+			}
+			count[0]++;
+		}
+
+		/**
+		 * Estimates the time of all the invocations.
+		 */
+		synchronized long getNanos() {
+			return _samples == 0 ? 0 : (long) ((double) _nanos
+					* _count.get() / _samples);
+		}
+
+		synchronized void reset() {
+			_count.set(0);
+			_samples = 0;
+			_nanos = 0;
+			_values.clear();
+			_others = 0;
+			for (Node child : _children)
+				child.reset();
+		}
+
+		void append(StringBuilder b, int depth, long total) {
+			for (int i = 0; i < depth; i++)
+				b.append("  ");
+			b.append(_expression).append("  ");
+			synchronized (this) {
+				long nanos = getNanos();
+				b.append(String.format(Locale.ROOT,
+						"calls=%d time=%.3fms (%.1f%%)", _count.get(),
+						nanos / 1e6, total == 0 ? 0d : nanos * 100d / total));
+				if (_samples > 0) {
+					b.append(" results={");
+					String separator = "";
+					for (Map.Entry<Object, long[]> e : _values.entrySet()) {
+						b.append(separator).append(e.getKey()).append('=')
+								.append(percent(e.getValue()[0]));
+						separator = ", ";
+					}
+					if (_others > 0)
+						b.append(separator).append("others=")
+								.append(percent(_others));
+					b.append('}');
+					if (_others > 0 && _max > _min)
+						b.append(String.format(Locale.ROOT,
+								" range=[%s, %s]", _min, _max));
+				}
+			}
+			b.append('\n');
+			for (Node child : _children)
+				child.append(b, depth + 1, total);
+		}
+
+		private String percent(long count) {
+			return String.format(Locale.ROOT, "%.1f%%", count * 100d
+					/ _samples);
+		}
+	}
+
+	/**
+	 * Compiles the nodes with the {@link Interpreter}, wrapping each one with
+	 * its {@link Node}.
+	 */
+	private static final class Profiler extends Interpreter {
+		private final int _interval;
+		private final Deque<Node> _path = new ArrayDeque<Node>();
+		Node _root;
+
+		Profiler(int interval) {
+			_interval = interval;
+		}
+
+		private Node enter(Expression e) {
+			Node node = new Node(e, _interval);
+			Node parent = _path.peek();
+			if (parent != null)
+				parent._children.add(node);
+			else
+				_root = node;
+			_path.push(node);
+			return node;
+		}
+
+		private Function<Object[], ?> exit(Node node, Function<Object[], ?> f) {
+			_path.pop();
+			return node.wrap(f);
+		}
+
+		@Override
+		public Function<Object[], ?> visit(BinaryExpression e) {
+			return exit(enter(e), super.visit(e));
+		}
+
+		@Override
+		public Function<Object[], ?> visit(ConstantExpression e) {
+			return exit(enter(e), super.visit(e));
+		}
+
+		@Override
+		public Function<Object[], ?> visit(MemberExpression e) {
+			return exit(enter(e), super.visit(e));
+		}
+
+		@Override
+		public Function<Object[], ?> visit(ParameterExpression e) {
+			return exit(enter(e), super.visit(e));
+		}
+
+		@Override
+		public Function<Object[], ?> visit(UnaryExpression e) {
+			return exit(enter(e), super.visit(e));
+		}
+
+		@Override
+		public Function<Object[], ?> visit(ThisExpression e) {
+			return exit(enter(e), super.visit(e));
+		}
+
+		@Override
+		public Function<Object[], ?> visit(
+				LambdaInvocationExpression e) {
+			return exit(enter(e), super.visit(e));
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reduces a parsed expression to a form convenient for analysis:
+ * <ul>
+ * <li>{@link LambdaInvocationExpression}s are inlined, i.e. the invoked lambda
+ * parameters are replaced with the invocation arguments.</li>
+ * <li>Boolean conversions of {@code test ? 1 : 0} conditionals, which the
+ * compiler emits for boolean results, are replaced with {@code test} (or
+ * {@code !test}).</li>
+ * </ul>
+ * The reduced expression evaluates to the same result as the original one.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+public final class ExpressionReducer {
+
+	private static final RewriteEngine Engine = new RewriteEngine().add(
+			ExpressionType.Invoke, ExpressionReducer::inline).add(
+			ExpressionType.Convert, ExpressionReducer::reduceConvert);
+
+	private ExpressionReducer() {
+	}
+
+	/**
+	 * Reduces the expression.
+	 *
+	 * @param e
+	 *            the expression to reduce.
+	 * @return the reduced expression.
+	 */
+	public static Expression reduce(Expression e) {
+		return Engine.rewrite(e);
+	}
+
+	private static Expression inline(Expression e) {
+		LambdaInvocationExpression invocation = (LambdaInvocationExpression) e;
+		return new ParameterReplacer(invocation.getParameterTypes(),
+				invocation.getArguments()).transform(invocation.getInstance());
+	}
+
+	private static Expression reduceConvert(Expression e) {
+		UnaryExpression convert = (UnaryExpression) e;
+		Expression operand = convert.getFirst();
+		if (convert.getResultType() == Boolean.TYPE
+				&& operand.getExpressionType() == ExpressionType.Conditional) {
+			BinaryExpression c = (BinaryExpression) operand;
+			Object ifTrue = getConstantValue(c.getFirst());
+			Object ifFalse = getConstantValue(c.getSecond());
+			if (isInt(ifTrue, 1) && isInt(ifFalse, 0))
+				return c.getOperator();
+			if (isInt(ifTrue, 0) && isInt(ifFalse, 1))
+				return Expression.logicalNot(c.getOperator());
+		}
+
+		return null;
+	}
+
+	private static Object getConstantValue(Expression e) {
+		return e.getExpressionType() == ExpressionType.Constant ? ((ConstantExpression) e)
+				.getValue() : null;
+	}
+
+	private static boolean isInt(Object value, int expected) {
+		return value instanceof Integer && (Integer) value == expected;
+	}
+
+	private static final class ParameterReplacer extends
+			IterativeExpressionVisitor {
+		private final List<Class<?>> _paramTypes;
+		private final List<Expression> _arguments;
+
+		ParameterReplacer(List<Class<?>> paramTypes, List<Expression> arguments) {
+			_paramTypes = paramTypes;
+			_arguments = arguments;
+		}
+
+		@Override
+		public Expression visit(ParameterExpression e) {
+			Expression arg = _arguments.get(e.getIndex());
+			Class<?> type = _paramTypes.get(e.getIndex());
+			return arg.getResultType() == type ? arg : Expression.convert(arg,
+					type);
+		}
+
+		// the target has its own parameters
+		@Override
+		protected boolean visitChildren(Expression e) {
+			return !(e instanceof LambdaInvocationExpression);
+		}
+
+		@Override
+		public Expression visit(LambdaInvocationExpression e) {
+			List<Expression> original = e.getArguments();
+			List<Expression> arguments = new ArrayList<Expression>(
+					original.size());
+			boolean changed = false;
+			for (Expression arg : original) {
+				Expression visited = transform(arg);
+				changed |= visited != arg;
+				arguments.add(visited);
+			}
+			if (changed)
+				return Expression.invokeLambda(e.getParameterTypes(),
+						e.getInstance(), arguments);
+			return e;
+		}
+	}
+}
@@ -18,6 +18,8 @@
 package com.trigersoft.jaque.expression;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.objectweb.asm.Label;
 
@@ -30,6 +32,8 @@ final class ExpressionStack extends ArrayList<Expression> {
 
 	private BranchExpression _parent;
 	private boolean _reduced;
+	// the expressions stored to the local variables on this path
+	private Map<Integer, Expression> _locals;
 
 	ExpressionStack() {
 		this(null);
@@ -37,6 +41,24 @@ final class ExpressionStack extends ArrayList<Expression> {
 
 	ExpressionStack(BranchExpression parent) {
 		_parent = parent;
+		_locals = parent != null ? new HashMap<Integer, Expression>(parent
+				.getParent()._locals) : new HashMap<Integer, Expression>();
+	}
+
+	Expression getLocal(int index) {
+		return _locals.get(index);
+	}
+
+	void setLocal(int index, Expression value) {
+		_locals.put(index, value);
+	}
+
+	Map<Integer, Expression> getLocals() {
+		return _locals;
+	}
+
+	void setLocals(Map<Integer, Expression> locals) {
+		_locals = locals;
 	}
 
 	BranchExpression getParent() {
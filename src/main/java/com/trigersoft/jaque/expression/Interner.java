@@ -0,0 +1,217 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.trigersoft.jaque.expression;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.WeakHashMap;
+
+/**
+ * Shares the immutable parts of the expression trees, so the cached trees
+ * do not hold many copies of them: the parameters, the small constants
+ * pushed by the dedicated opcodes and the parameter type lists of the
+ * members are interned, and the argument lists are stored in arrays of the
+ * exact size.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class Interner {
+
+	private static final int PARAMETERS = 8;
+
+	// the constants from -1 to 5 by their index + 1, per result type
+	private static final int SMALL_MIN = -1;
+	private static final int SMALL_MAX = 5;
+
+	private static final ClassValue<ParameterExpression[]> _parameters = new ClassValue<ParameterExpression[]>() {
+		@Override
+		protected ParameterExpression[] computeValue(Class<?> type) {
+			ParameterExpression[] parameters = new ParameterExpression[PARAMETERS];
+			for (int i = 0; i < parameters.length; i++)
+				parameters[i] = new ParameterExpression(type, i);
+			return parameters;
+		}
+	};
+
+	private static final Map<Class<?>, ConstantExpression[]> _constants = new HashMap<Class<?>, ConstantExpression[]>();
+
+	private static final Map<List<Class<?>>, WeakReference<List<Class<?>>>> _types = Collections
+			.synchronizedMap(new WeakHashMap<List<Class<?>>, WeakReference<List<Class<?>>>>());
+
+	static {
+		for (int i = SMALL_MIN; i <= SMALL_MAX; i++) {
+			addConstant(Integer.TYPE, i);
+			addConstant(Integer.class, i);
+			addConstant(Long.TYPE, (long) i);
+			addConstant(Long.class, (long) i);
+			addConstant(Short.TYPE, (short) i);
+			addConstant(Short.class, (short) i);
+			addConstant(Byte.TYPE, (byte) i);
+			addConstant(Byte.class, (byte) i);
+		}
+		for (int i = 0; i <= 2; i++) {
+			addConstant(Double.TYPE, (double) i);
+			addConstant(Double.class, (double) i);
+			addConstant(Float.TYPE, (float) i);
+			addConstant(Float.class, (float) i);
+		}
+		addConstant(Boolean.TYPE, false);
+		addConstant(Boolean.TYPE, true);
+		addConstant(Boolean.class, false);
+		addConstant(Boolean.class, true);
+	}
+
+	private Interner() {
+	}
+
+	private static void addConstant(Class<?> type, Object value) {
+		ConstantExpression[] constants = _constants.get(type);
+		if (constants == null) {
+			constants = new ConstantExpression[SMALL_MAX - SMALL_MIN + 1];
+			_constants.put(type, constants);
+		}
+		constants[slot(value)] = new ConstantExpression(type, value);
+	}
+
+	private static int slot(Object value) {
+		if (value instanceof Boolean)
+			return ((Boolean) value ? 1 : 0) - SMALL_MIN;
+		if (!(value instanceof Number))
+			return -1;
+		double d = ((Number) value).doubleValue();
+		if (d < SMALL_MIN || d > SMALL_MAX || d != (int) d)
+			return -1;
+		return (int) d - SMALL_MIN;
+	}
+
+	/**
+	 * Gets the shared parameter, if the index is small.
+	 */
+	static ParameterExpression parameter(Class<?> type, int index) {
+		if (index >= 0 && index < PARAMETERS)
+			return _parameters.get(type)[index];
+		return new ParameterExpression(type, index);
+	}
+
+	/**
+	 * Gets the shared constant, if the value is a small number or a boolean.
+	 * The value must be equal, so e.g. an {@code Integer} does not match a
+	 * {@code Long} and {@code -0.0} does not match {@code 0.0}.
+	 */
+	static ConstantExpression constant(Object value, Class<?> type) {
+		ConstantExpression[] constants = _constants.get(type);
+		if (constants != null) {
+			int slot = slot(value);
+			if (slot >= 0) {
+				ConstantExpression c = constants[slot];
+				if (c != null && c.getValue().equals(value))
+					return c;
+			}
+		}
+		return new ConstantExpression(type, value);
+	}
+
+	/**
+	 * Gets the shared list of the types. The array is not copied, so it must
+	 * not be modified afterwards.
+	 */
+	static List<Class<?>> types(Class<?>... types) {
+		if (types.length == 0)
+			return Collections.emptyList();
+		return intern(new Types(types));
+	}
+
+	/**
+	 * Gets the shared list equal to the types.
+	 */
+	static List<Class<?>> types(List<Class<?>> types) {
+		if (types instanceof Types)
+			return types;
+		if (types.isEmpty())
+			return Collections.emptyList();
+		return intern(new Types(types.toArray(new Class<?>[types.size()])));
+	}
+
+	private static List<Class<?>> intern(Types types) {
+		WeakReference<List<Class<?>>> ref = _types.get(types);
+		List<Class<?>> interned = ref != null ? ref.get() : null;
+		if (interned != null)
+			return interned;
+
+		_types.put(types, new WeakReference<List<Class<?>>>(types));
+		return types;
+	}
+
+	/**
+	 * Copies the arguments into an immutable list backed by an array of the
+	 * exact size.
+	 */
+	static List<Expression> arguments(List<Expression> arguments) {
+		if (arguments instanceof Arguments)
+			return arguments;
+		if (arguments.isEmpty())
+			return Collections.emptyList();
+		return new Arguments(arguments.toArray(new Expression[arguments
+				.size()]));
+	}
+
+	private static final class Types extends AbstractList<Class<?>> implements
+			RandomAccess {
+		private final Class<?>[] _types;
+
+		Types(Class<?>[] types) {
+			_types = types;
+		}
+
+		@Override
+		public Class<?> get(int index) {
+			return _types[index];
+		}
+
+		@Override
+		public int size() {
+			return _types.length;
+		}
+	}
+
+	private static final class Arguments extends AbstractList<Expression>
+			implements RandomAccess {
+		private final Expression[] _arguments;
+
+		Arguments(Expression[] arguments) {
+			_arguments = arguments;
+		}
+
+		@Override
+		public Expression get(int index) {
+			return _arguments[index];
+		}
+
+		@Override
+		public int size() {
+			return _arguments.length;
+		}
+	}
+}
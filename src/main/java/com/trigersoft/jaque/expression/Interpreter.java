@@ -17,13 +17,8 @@
 
 package com.trigersoft.jaque.expression;
 
-import static com.trigersoft.jaque.function.Functions.add;
 import static com.trigersoft.jaque.function.Functions.and;
-import static com.trigersoft.jaque.function.Functions.bitwiseAnd;
-import static com.trigersoft.jaque.function.Functions.bitwiseNot;
-import static com.trigersoft.jaque.function.Functions.bitwiseOr;
 import static com.trigersoft.jaque.function.Functions.constant;
-import static com.trigersoft.jaque.function.Functions.divide;
 import static com.trigersoft.jaque.function.Functions.equal;
 import static com.trigersoft.jaque.function.Functions.greaterThan;
 import static com.trigersoft.jaque.function.Functions.greaterThanOrEqual;
@@ -31,15 +26,8 @@ import static com.trigersoft.jaque.function.Functions.iif;
 import static com.trigersoft.jaque.function.Functions.instanceOf;
 import static com.trigersoft.jaque.function.Functions.lessThan;
 import static com.trigersoft.jaque.function.Functions.lessThanOrEqual;
-import static com.trigersoft.jaque.function.Functions.modulo;
-import static com.trigersoft.jaque.function.Functions.multiply;
-import static com.trigersoft.jaque.function.Functions.negate;
 import static com.trigersoft.jaque.function.Functions.not;
 import static com.trigersoft.jaque.function.Functions.or;
-import static com.trigersoft.jaque.function.Functions.shiftLeft;
-import static com.trigersoft.jaque.function.Functions.shiftRight;
-import static com.trigersoft.jaque.function.Functions.subtract;
-import static com.trigersoft.jaque.function.Functions.xor;
 import static java.util.stream.Collectors.toList;
 
 import java.lang.reflect.Array;
@@ -56,15 +44,19 @@ import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
+import com.trigersoft.jaque.function.math.BinaryOperator;
+import com.trigersoft.jaque.function.math.PrimitiveOperators;
+import com.trigersoft.jaque.function.math.UnaryOperator;
+
 /**
  * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
  */
 
-final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
+class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
 
 	static final Interpreter Instance = new Interpreter();
 
-	private Interpreter() {
+	Interpreter() {
 	}
 
 	private Function<Object[], ?> normalize(BiFunction<Object[], Object[], ?> source) {
@@ -79,6 +71,25 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
 		return pp -> source.test(pp);
 	}
 
+	/**
+	 * Evaluates the operator with the implementation selected by the operand
+	 * types.
+	 */
+	private static Function<Object[], ?> arithmetic(BinaryOperator operator,
+			BinaryExpression e, Function<Object[], ?> first,
+			Function<Object[], ?> second) {
+		BiFunction<Number, Number, Number> f = PrimitiveOperators.get(operator,
+				e.getFirst().getResultType(), e.getSecond().getResultType());
+		return t -> f.apply((Number) first.apply(t), (Number) second.apply(t));
+	}
+
+	private static Function<Object[], ?> arithmetic(UnaryOperator operator,
+			UnaryExpression e, Function<Object[], ?> first) {
+		Function<Number, Number> f = PrimitiveOperators.get(operator, e
+				.getFirst().getResultType());
+		return t -> f.apply((Number) first.apply(t));
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public Function<Object[], ?> visit(BinaryExpression e) {
@@ -86,9 +97,9 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
 		final Function<Object[], ?> second = e.getSecond().accept(this);
 		switch (e.getExpressionType()) {
 		case ExpressionType.Add:
-			return normalize(add((Function<Object[], Number>) first, (Function<Object[], Number>) second));
+			return arithmetic(BinaryOperator.Add, e, first, second);
 		case ExpressionType.BitwiseAnd:
-			return normalize(bitwiseAnd((Function<Object[], Number>) first, (Function<Object[], Number>) second));
+			return arithmetic(BinaryOperator.And, e, first, second);
 		case ExpressionType.LogicalAnd:
 			return normalize(and((Function<Object[], Boolean>) first, (Function<Object[], Boolean>) second));
 		case ExpressionType.ArrayIndex:
@@ -106,39 +117,39 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
 		case ExpressionType.Conditional:
 			return iif((Function<Object[], Boolean>) e.getOperator().accept(this), first, second);
 		case ExpressionType.Divide:
-			return normalize(divide((Function<Object[], Number>) first, (Function<Object[], Number>) second));
+			return arithmetic(BinaryOperator.Divide, e, first, second);
 		case ExpressionType.Equal:
 			return normalize(equal(first, second));
 		case ExpressionType.ExclusiveOr:
-			return normalize(xor((Function<Object[], Number>) first, (Function<Object[], Number>) second));
+			return arithmetic(BinaryOperator.Xor, e, first, second);
 		case ExpressionType.GreaterThan:
 			return normalize(greaterThan((Function<Object[], Number>) first, (Function<Object[], Number>) second));
 		case ExpressionType.GreaterThanOrEqual:
 			return normalize(
 					greaterThanOrEqual((Function<Object[], Number>) first, (Function<Object[], Number>) second));
 		case ExpressionType.LeftShift:
-			return normalize(shiftLeft((Function<Object[], Number>) first, (Function<Object[], Number>) second));
+			return arithmetic(BinaryOperator.ShiftLeft, e, first, second);
 		case ExpressionType.LessThan:
 			return normalize(lessThan((Function<Object[], Number>) first, (Function<Object[], Number>) second));
 		case ExpressionType.LessThanOrEqual:
 			return normalize(lessThanOrEqual((Function<Object[], Number>) first, (Function<Object[], Number>) second));
 		case ExpressionType.Modulo:
-			return normalize(modulo((Function<Object[], Number>) first, (Function<Object[], Number>) second));
+			return arithmetic(BinaryOperator.Modulo, e, first, second);
 		case ExpressionType.Multiply:
-			return normalize(multiply((Function<Object[], Number>) first, (Function<Object[], Number>) second));
+			return arithmetic(BinaryOperator.Multiply, e, first, second);
 		case ExpressionType.NotEqual:
 			return normalize(equal(first, second).negate());
 		case ExpressionType.BitwiseOr:
-			return normalize(bitwiseOr((Function<Object[], Number>) first, (Function<Object[], Number>) second));
+			return arithmetic(BinaryOperator.Or, e, first, second);
 		case ExpressionType.LogicalOr:
 			return normalize(or((Function<Object[], Boolean>) first, (Function<Object[], Boolean>) second));
 		// case ExpressionType.Power:
 		// return power((Function<Number, Object[]>) first,
 		// (Function<Number, Object[]>) second);
 		case ExpressionType.RightShift:
-			return normalize(shiftRight((Function<Object[], Number>) first, (Function<Object[], Number>) second));
+			return arithmetic(BinaryOperator.ShiftRight, e, first, second);
 		case ExpressionType.Subtract:
-			return normalize(subtract((Function<Object[], Number>) first, (Function<Object[], Number>) second));
+			return arithmetic(BinaryOperator.Subtract, e, first, second);
 		case ExpressionType.InstanceOf:
 			return normalize(instanceOf(first, (Class<?>) second.apply(null)));
 		default:
@@ -217,7 +228,7 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
 		case ExpressionType.ArrayLength:
 			return t -> Array.getLength(first.apply(t));
 		case ExpressionType.BitwiseNot:
-			return (Function<Object[], ?>) bitwiseNot((Function<Object[], Number>) first);
+			return arithmetic(UnaryOperator.Not, e, first);
 		case ExpressionType.Convert:
 			final Class<?> to = e.getResultType();
 			if (to.equals(Boolean.TYPE) && e.getFirst().getResultType().equals(Integer.TYPE)) {
@@ -269,7 +280,7 @@ final class Interpreter implements ExpressionVisitor<Function<Object[], ?>> {
 		case ExpressionType.LogicalNot:
 			return normalize(not((Function<Object[], Boolean>) first));
 		case ExpressionType.Negate:
-			return (Function<Object[], ?>) negate((Function<Object[], Number>) first);
+			return arithmetic(UnaryOperator.Negate, e, first);
 		default:
 			throw new IllegalArgumentException(ExpressionType.toString(e.getExpressionType()));
 		}
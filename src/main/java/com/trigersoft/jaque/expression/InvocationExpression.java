@@ -36,9 +36,8 @@ public abstract class InvocationExpression extends Expression {
 			List<Class<?>> paramTypes, List<Expression> arguments) {
 		super(expressionType, resultType);
 		this._instance = _instance;
-		_paramTypes = paramTypes;
-		_arguments = arguments;
-		
+		_paramTypes = Interner.types(paramTypes);
+		_arguments = Interner.arguments(arguments);
 
 		if (paramTypes.size()!=arguments.size()){
 			throw new IllegalArgumentException("Number of parameter does not match the number of arguments");
@@ -0,0 +1,212 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.trigersoft.jaque.expression;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Expression visitor rebuilding the visited expression as
+ * {@link SimpleExpressionVisitor} does, but traversing the nested expressions
+ * with an explicit stack, so the depth of the tree is not limited by the
+ * thread stack, e.g. for long generated {@code &&} chains.
+ * <p>
+ * The nested expressions are visited first, in the same order as by
+ * {@link SimpleExpressionVisitor}. Then the expression is re-created if any of
+ * them changed, and passed to the matching {@code visit} method, so the
+ * {@code visit} methods receive the expression with the visited nested
+ * expressions and must not visit them again. By default they return the
+ * expression as is.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+public abstract class IterativeExpressionVisitor implements
+		ExpressionVisitor<Expression> {
+
+	private static final Expression[] NONE = new Expression[0];
+
+	/**
+	 * Visits the expression and all the nested expressions.
+	 *
+	 * @param e
+	 *            the expression to visit.
+	 * @return the visited expression.
+	 */
+	public final Expression transform(Expression e) {
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(new Frame(e, visitChildren(e) ? children(e) : NONE));
+
+		for (;;) {
+			Frame frame = stack.peek();
+			if (frame._next < frame._children.length) {
+				Expression child = frame._children[frame._next];
+				if (child == null)
+					frame._next++;
+				else
+					stack.push(new Frame(child,
+							visitChildren(child) ? children(child) : NONE));
+				continue;
+			}
+
+			stack.pop();
+			Expression visited = visit(frame._expression, frame.rebuild());
+			Frame parent = stack.peek();
+			if (parent == null)
+				return visited;
+			parent._visited[parent._next++] = visited;
+		}
+	}
+
+	/**
+	 * Determines whether to visit the nested expressions. If not, the
+	 * expression is passed to the {@code visit} method as is.
+	 *
+	 * @param e
+	 *            the expression about to be visited.
+	 * @return {@code true} by default.
+	 */
+	protected boolean visitChildren(Expression e) {
+		return true;
+	}
+
+	/**
+	 * Visits the expression, once its nested expressions are visited.
+	 *
+	 * @param original
+	 *            the expression as it was before visiting the nested
+	 *            expressions.
+	 * @param e
+	 *            the expression with the visited nested expressions, or the
+	 *            original one if none changed.
+	 * @return the result of the matching {@code visit} method by default.
+	 */
+	protected Expression visit(Expression original, Expression e) {
+		return e.accept(this);
+	}
+
+	/**
+	 * Gets the nested expressions in the order they are visited. The absent
+	 * instance or operator is {@code null}.
+	 */
+	private static Expression[] children(Expression e) {
+		if (e instanceof BinaryExpression) {
+			BinaryExpression b = (BinaryExpression) e;
+			return new Expression[] { b.getFirst(), b.getSecond(),
+					b.getOperator() };
+		}
+		if (e instanceof UnaryExpression)
+			return new Expression[] { ((UnaryExpression) e).getFirst() };
+		if (e instanceof InvocationExpression) {
+			InvocationExpression i = (InvocationExpression) e;
+			List<Expression> arguments = i.getArguments();
+			Expression[] children = new Expression[arguments.size() + 1];
+			children[0] = i.getInstance();
+			for (int j = 0; j < arguments.size(); j++)
+				children[j + 1] = arguments.get(j);
+			return children;
+		}
+		return NONE;
+	}
+
+	private static final class Frame {
+		final Expression _expression;
+		final Expression[] _children;
+		final Expression[] _visited;
+		int _next;
+
+		Frame(Expression expression, Expression[] children) {
+			_expression = expression;
+			_children = children;
+			_visited = children.length == 0 ? NONE
+					: new Expression[children.length];
+		}
+
+		Expression rebuild() {
+			if (isSame(_children, _visited))
+				return _expression;
+
+			Expression e = _expression;
+			if (e instanceof BinaryExpression)
+				return Expression.binary(e.getExpressionType(), _visited[2],
+						_visited[0], _visited[1]);
+			if (e instanceof UnaryExpression)
+				return Expression.unary(e.getExpressionType(),
+						e.getResultType(), _visited[0]);
+
+			List<Expression> arguments = _visited.length == 1 ? Collections
+					.<Expression> emptyList() : Arrays.asList(_visited)
+					.subList(1, _visited.length);
+			if (e instanceof MemberExpression) {
+				MemberExpression m = (MemberExpression) e;
+				return Expression.member(m.getExpressionType(), _visited[0],
+						m.getMember(), m.getResultType(),
+						m.getParameterTypes(), arguments);
+			}
+			return Expression.invokeLambda(
+					((InvocationExpression) e).getParameterTypes(),
+					_visited[0], arguments);
+		}
+
+		private static boolean isSame(Expression[] a, Expression[] b) {
+			for (int i = 0; i < a.length; i++)
+				if (a[i] != b[i])
+					return false;
+			return true;
+		}
+	}
+
+	@Override
+	public Expression visit(BinaryExpression e) {
+		return e;
+	}
+
+	@Override
+	public Expression visit(ThisExpression e) {
+		return e;
+	}
+
+	@Override
+	public Expression visit(ConstantExpression e) {
+		return e;
+	}
+
+	@Override
+	public Expression visit(MemberExpression e) {
+		return e;
+	}
+
+	@Override
+	public Expression visit(ParameterExpression e) {
+		return e;
+	}
+
+	@Override
+	public Expression visit(UnaryExpression e) {
+		return e;
+	}
+
+	@Override
+	public Expression visit(LambdaInvocationExpression e) {
+		return e;
+	}
+}
@@ -17,13 +17,14 @@
 
 package com.trigersoft.jaque.expression;
 
-import java.lang.ref.WeakReference;
+import java.io.Serializable;
 import java.lang.reflect.Member;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 
 /**
@@ -45,14 +46,16 @@ public final class LambdaExpression<F>  {
 	private final List<Class<?>> _paramTypes;
 	private final Class<?> resultType;
 
-	private static final Map<Class<?>, WeakReference<LambdaExpression<?>>> _cache = Collections
-			.synchronizedMap(new WeakHashMap<Class<?>, WeakReference<LambdaExpression<?>>>());
+	private static final ParseCache _cache = new ParseCache();
+
+	// the lambda classes being decoded, to be joined by the concurrent misses
+	private static final ConcurrentHashMap<Class<?>, CompletableFuture<LambdaExpression<?>>> _parsing = new ConcurrentHashMap<Class<?>, CompletableFuture<LambdaExpression<?>>>();
 
 	LambdaExpression(Class<?> resultType, Expression body,
 			List<Class<?>> paramTypes) {
 
 		this.resultType = resultType;
-		_paramTypes = paramTypes;
+		_paramTypes = Interner.types(paramTypes);
 		_body = body;
 	}
 
@@ -67,6 +70,9 @@ public final class LambdaExpression<F>  {
 
 	/**
 	 * Creates {@link LambdaExpression} representing the lambda expression tree.
+	 * The tree is cached by the lambda class, see {@link #getParseCache()},
+	 * and the concurrent parses of a lambda class missing the cache wait for
+	 * a single one to decode it.
 	 * 
 	 * @param <T>
 	 *            the type of lambda to parse
@@ -76,26 +82,183 @@ public final class LambdaExpression<F>  {
 	 * 
 	 * @return {@link LambdaExpression} representing the lambda expression tree.
 	 */
-	@SuppressWarnings("unchecked")
 	public static <T> LambdaExpression<T> parse(T lambda) {
+		if (!Events.isEnabled())
+			return parse(lambda, null);
+
+		ParseEvent event = new ParseEvent();
+		if (!event.isEnabled())
+			return parse(lambda, null);
+		event.begin();
+		LambdaExpression<T> lambdaE = parse(lambda, event);
+		event.lambdaClass = lambda.getClass();
+		event.commit();
+		return lambdaE;
+	}
 
-		LambdaExpression<T> lambdaE;
-		WeakReference<LambdaExpression<?>> wlambda = _cache.get(lambda
-				.getClass());
-		if (wlambda != null) {
-			lambdaE = (LambdaExpression<T>) wlambda.get();
-			if (lambdaE != null)
-				return (LambdaExpression<T>) Expression.lambda(lambdaE.getResultType(),
-						lambdaE.getBody().accept(new InstanceReplacer(lambda)), lambdaE.getParamTypes());
+	@SuppressWarnings("unchecked")
+	private static <T> LambdaExpression<T> parse(T lambda, ParseEvent event) {
+
+		NestedLambda nested = NestedLambda.of(lambda);
+		if (nested != null) {
+			if (event != null)
+				event.cache = ParseEvent.NESTED;
+			return (LambdaExpression<T>) nested.getLambda();
 		}
 
-		ExpressionClassCracker cracker = new ExpressionClassCracker();
-		lambdaE = (LambdaExpression<T>) cracker.lambda(lambda);
+		Class<?> lambdaClass = lambda.getClass();
+		LambdaExpression<?> cached = _cache.get(lambdaClass);
+		if (cached != null) {
+			if (event != null)
+				event.cache = ParseEvent.HIT;
+			return bind(cached, lambda);
+		}
 
-		_cache.put(lambda.getClass(), new WeakReference<LambdaExpression<?>>(
-				lambdaE));
+		CompletableFuture<LambdaExpression<?>> parsing = new CompletableFuture<LambdaExpression<?>>();
+		CompletableFuture<LambdaExpression<?>> inFlight = _parsing.putIfAbsent(lambdaClass, parsing);
+		if (inFlight != null) {
+			if (event != null)
+				event.cache = ParseEvent.JOINED;
+			return bind(join(inFlight), lambda);
+		}
 
-		return lambdaE;
+		return decode(lambda, parsing, event);
+	}
+
+	/**
+	 * Decodes the lambda class, caches its expression and completes the
+	 * in-flight parse registered by the caller.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> LambdaExpression<T> decode(T lambda,
+			CompletableFuture<LambdaExpression<?>> parsing, ParseEvent event) {
+		Class<?> lambdaClass = lambda.getClass();
+		try {
+			// cached by a parse completed since the miss
+			LambdaExpression<?> cached = _cache.peek(lambdaClass);
+			if (cached != null) {
+				if (event != null)
+					event.cache = ParseEvent.HIT;
+				parsing.complete(cached);
+				return bind(cached, lambda);
+			}
+
+			ExpressionClassCracker cracker = new ExpressionClassCracker();
+			LambdaExpression<T> lambdaE = (LambdaExpression<T>) cracker.lambda(lambda);
+			if (event != null) {
+				event.cache = ParseEvent.MISS;
+				event.bytesDecoded = cracker.getBytesDecoded();
+			}
+
+			// the cached tree must not pin the lambda and its captured values
+			Expression body = new InstanceReplacer(null).transform(lambdaE.getBody());
+			if (lambda instanceof Serializable)
+				body = ExpressionClassCracker.unbindCapturedArgs(body);
+			cached = Expression.lambda(lambdaE.getResultType(), body, lambdaE.getParamTypes());
+			_cache.put(lambdaClass, cached);
+			parsing.complete(cached);
+
+			return lambdaE;
+		} catch (RuntimeException | Error e) {
+			parsing.completeExceptionally(e);
+			throw e;
+		} finally {
+			_parsing.remove(lambdaClass, parsing);
+		}
+	}
+
+	/**
+	 * Creates {@link LambdaExpression} representing the lambda expression tree
+	 * without blocking on the decoding of the lambda class. The cache is
+	 * checked synchronously, see {@link #getParseCache()}. On a miss, the
+	 * lambda class is decoded by the executor, unless it is being decoded
+	 * already, in which case that parse is joined.
+	 * 
+	 * @param <T>
+	 *            the type of lambda to parse
+	 * 
+	 * @param lambda
+	 *            - the lambda
+	 * @param executor
+	 *            - the executor to decode the lambda class with, usually a
+	 *            bounded one. If it rejects the task, the returned future
+	 *            completes exceptionally.
+	 * 
+	 * @return {@link CompletableFuture} of {@link LambdaExpression}
+	 *         representing the lambda expression tree.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> CompletableFuture<LambdaExpression<T>> parseAsync(T lambda, Executor executor) {
+		if (executor == null)
+			throw new NullPointerException("executor");
+
+		NestedLambda nested = NestedLambda.of(lambda);
+		if (nested != null)
+			return CompletableFuture.completedFuture((LambdaExpression<T>) nested.getLambda());
+
+		Class<?> lambdaClass = lambda.getClass();
+		LambdaExpression<?> cached = _cache.get(lambdaClass);
+		if (cached != null)
+			return CompletableFuture.completedFuture(bind(cached, lambda));
+
+		CompletableFuture<LambdaExpression<?>> parsing = new CompletableFuture<LambdaExpression<?>>();
+		CompletableFuture<LambdaExpression<?>> inFlight = _parsing.putIfAbsent(lambdaClass, parsing);
+		if (inFlight == null) {
+			inFlight = parsing;
+			try {
+				executor.execute(() -> {
+					try {
+						decode(lambda, parsing, null);
+					} catch (RuntimeException | Error e) {
+						// completes the future
+					}
+				});
+			} catch (RuntimeException e) {
+				parsing.completeExceptionally(e);
+				_parsing.remove(lambdaClass, parsing);
+			}
+		}
+
+		return inFlight.thenApply(c -> bind(c, lambda));
+	}
+
+	/**
+	 * Binds the cached expression to the lambda instance and its captured
+	 * values.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> LambdaExpression<T> bind(LambdaExpression<?> cached, T lambda) {
+		Expression body = new InstanceReplacer(lambda).transform(cached.getBody());
+		if (lambda instanceof Serializable)
+			body = ExpressionClassCracker.bindCapturedArgs(body, (Serializable) lambda);
+		return (LambdaExpression<T>) Expression.lambda(cached.getResultType(), body,
+				cached.getParamTypes());
+	}
+
+	/**
+	 * Waits for the parse of another thread, rethrowing its failure.
+	 */
+	private static LambdaExpression<?> join(CompletableFuture<LambdaExpression<?>> parsing) {
+		try {
+			return parsing.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the cache of the parsed lambda expressions, e.g. to configure its
+	 * maximum weight or to monitor its statistics.
+	 * 
+	 * @return the {@link ParseCache}.
+	 */
+	public static ParseCache getParseCache() {
+		return _cache;
 	}
 
 	/**
@@ -104,10 +267,49 @@ public final class LambdaExpression<F>  {
 	 * @return {@link Function} that represents the lambda expression.
 	 */
 	public Function<Object[], ?> compile() {
-		final Function<Object[], ?> f = _body.accept(Interpreter.Instance);
+		if (!Events.isEnabled())
+			return ExpressionBalancer.balance(_body).accept(Interpreter.Instance);
+
+		CompileEvent event = new CompileEvent();
+		if (!event.isEnabled())
+			return ExpressionBalancer.balance(_body).accept(Interpreter.Instance);
+		event.begin();
+		final Function<Object[], ?> f = ExpressionBalancer.balance(_body)
+				.accept(Interpreter.Instance);
+		event.end();
+		if (event.shouldCommit()) {
+			event.expression = toString();
+			event.resultType = resultType;
+			event.commit();
+		}
 		return f;
 	}
 
+	/**
+	 * Produces a profiled {@link Function} that represents the lambda
+	 * expression, with the {@link ExpressionProfile#DEFAULT_SAMPLING default}
+	 * sampling interval.
+	 * 
+	 * @return {@link ExpressionProfile} of the lambda expression.
+	 */
+	public ExpressionProfile profile() {
+		return profile(ExpressionProfile.DEFAULT_SAMPLING);
+	}
+
+	/**
+	 * Produces a profiled {@link Function} that represents the lambda
+	 * expression. Each node of the expression counts its invocations and
+	 * times every {@code samplingInterval}-th one.
+	 * 
+	 * @param samplingInterval
+	 *            the number of the invocations of a node per a timed one.
+	 * @return {@link ExpressionProfile} of the lambda expression.
+	 */
+	public ExpressionProfile profile(int samplingInterval) {
+		return new ExpressionProfile(ExpressionBalancer.balance(_body),
+				samplingInterval);
+	}
+
 	@Override
 	public int hashCode() {
 		return Objects.hash(_body,resultType,_paramTypes);
@@ -117,8 +319,6 @@ public final class LambdaExpression<F>  {
 	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
-		if (!super.equals(obj))
-			return false;
 		if (!(obj instanceof LambdaExpression))
 			return false;
 		final LambdaExpression<?> other = (LambdaExpression<?>) obj;
@@ -159,7 +359,7 @@ public final class LambdaExpression<F>  {
 		return resultType;
 	}
 
-	private static class InstanceReplacer extends SimpleExpressionVisitor{
+	private static class InstanceReplacer extends IterativeExpressionVisitor{
 
 		private Object newThis;
 		public InstanceReplacer( Object newThis) {
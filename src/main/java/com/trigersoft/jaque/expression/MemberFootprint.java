@@ -0,0 +1,196 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Describes the members a lambda accesses on its parameters, e.g. to fetch or
+ * project only those properties, or to invalidate the cached results when they
+ * change.
+ * <p>
+ * The accesses are reported as property paths, i.e. the chains of members
+ * accessed starting from a parameter: for {@code c -> c.getAddress().getCity()}
+ * the path is {@code [getAddress, getCity]}. Only the longest chains are
+ * reported, unless a shorter one is used on its own too, e.g. compared with
+ * {@code null}. An empty path means the parameter itself is used, e.g. passed
+ * to a method, so any of its members may be accessed.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+public final class MemberFootprint {
+
+	private static final Map<Class<?>, MemberFootprint> _cache = Collections
+			.synchronizedMap(new WeakHashMap<Class<?>, MemberFootprint>());
+
+	private final List<Set<List<Member>>> _paths;
+	private final Set<Member> _members;
+
+	private MemberFootprint(List<Set<List<Member>>> paths) {
+		Set<Member> members = new LinkedHashSet<Member>();
+		for (int i = 0; i < paths.size(); i++) {
+			Set<List<Member>> p = paths.get(i);
+			for (List<Member> path : p)
+				members.addAll(path);
+			paths.set(i, Collections.unmodifiableSet(p));
+		}
+
+		_paths = Collections.unmodifiableList(paths);
+		_members = Collections.unmodifiableSet(members);
+	}
+
+	/**
+	 * Gets the footprint of a lambda. The footprint is derived from the code
+	 * of the lambda class, so it is the same for all the lambdas of the class,
+	 * and is cached per class.
+	 *
+	 * @param lambda
+	 *            the lambda.
+	 * @return the footprint.
+	 */
+	public static MemberFootprint of(Object lambda) {
+		Class<?> type = lambda.getClass();
+		MemberFootprint footprint = _cache.get(type);
+		if (footprint != null)
+			return footprint;
+
+		footprint = of(LambdaExpression.parse(lambda));
+		_cache.put(type, footprint);
+		return footprint;
+	}
+
+	/**
+	 * Analyzes a parsed lambda.
+	 *
+	 * @param lambda
+	 *            the lambda expression.
+	 * @return the footprint.
+	 */
+	public static MemberFootprint of(LambdaExpression<?> lambda) {
+		int count = lambda.getParamTypes().size();
+		List<Set<List<Member>>> paths = new ArrayList<Set<List<Member>>>(count);
+		for (int i = 0; i < count; i++)
+			paths.add(new LinkedHashSet<List<Member>>());
+
+		ExpressionReducer.reduce(lambda.getBody()).accept(new Analyzer(paths));
+		return new MemberFootprint(paths);
+	}
+
+	/**
+	 * Gets the members accessed on the values reachable from the parameters.
+	 *
+	 * @return the members, in the order first accessed.
+	 */
+	public Set<Member> getMembers() {
+		return _members;
+	}
+
+	/**
+	 * Gets the property paths accessed on the first parameter.
+	 *
+	 * @return the property paths.
+	 */
+	public Set<List<Member>> getPaths() {
+		return getPaths(0);
+	}
+
+	/**
+	 * Gets the property paths accessed on a parameter.
+	 *
+	 * @param parameter
+	 *            the parameter index.
+	 * @return the property paths.
+	 */
+	public Set<List<Member>> getPaths(int parameter) {
+		return _paths.get(parameter);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < _paths.size(); i++) {
+			for (List<Member> path : _paths.get(i)) {
+				if (b.length() > 0)
+					b.append(", ");
+				b.append('P').append(i);
+				for (Member m : path)
+					b.append('.').append(m.getName()).append(
+							m instanceof Method ? "()" : "");
+			}
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Collects the longest member chains starting from a parameter. The
+	 * instances of a chain are not visited, so a parameter is visited only
+	 * when it is used on its own.
+	 */
+	private static final class Analyzer extends SimpleExpressionVisitor {
+		private final List<Set<List<Member>>> _paths;
+
+		Analyzer(List<Set<List<Member>>> paths) {
+			_paths = paths;
+		}
+
+		@Override
+		public Expression visit(ParameterExpression e) {
+			_paths.get(e.getIndex()).add(Collections.<Member> emptyList());
+			return e;
+		}
+
+		@Override
+		public Expression visit(MemberExpression e) {
+			List<MemberExpression> chain = new ArrayList<MemberExpression>();
+			Expression instance = e;
+			for (;;) {
+				while (instance != null
+						&& instance.getExpressionType() == ExpressionType.Convert)
+					instance = ((UnaryExpression) instance).getFirst();
+				if (!(instance instanceof MemberExpression))
+					break;
+				MemberExpression m = (MemberExpression) instance;
+				chain.add(m);
+				instance = m.getInstance();
+			}
+
+			if (!(instance instanceof ParameterExpression))
+				return super.visit(e);
+
+			List<Member> path = new ArrayList<Member>(chain.size());
+			for (int i = chain.size() - 1; i >= 0; i--) {
+				MemberExpression m = chain.get(i);
+				path.add(m.getMember());
+				visitExpressionList(m.getArguments());
+			}
+			_paths.get(((ParameterExpression) instance).getIndex()).add(
+					Collections.unmodifiableList(path));
+			return e;
+		}
+	}
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.objectweb.asm.Type;
+
+/**
+ * Creates the instances of a lambda nested in a parsed lambda, e.g. of the
+ * predicate in {@code c -> c.getOrders().stream().anyMatch(o -> o.isOpen())}.
+ * The creation of a nested lambda is parsed as an invocation of
+ * {@link #create()} on a constant {@link NestedLambda}, following an
+ * invocation of {@link #capture(Object)} for each captured value. The created
+ * instances are proxies invoking the implementation method, or the interface
+ * implementation of a default method, and can be parsed with
+ * {@link LambdaExpression#parse(Object)} as well.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+public final class NestedLambda {
+
+	private static final Object[] NO_ARGS = new Object[0];
+
+	// InvocationHandler.invokeDefault, since Java 16
+	private static final Method InvokeDefault = getMethod(
+			InvocationHandler.class, "invokeDefault", Object.class,
+			Method.class, Object[].class);
+	// MethodHandles.privateLookupIn, since Java 9
+	private static final Method PrivateLookupIn = getMethod(
+			MethodHandles.class, "privateLookupIn", Class.class,
+			MethodHandles.Lookup.class);
+	// the Lookup constructor with the private access to a class, in Java 8
+	private static final Constructor<MethodHandles.Lookup> PrivateLookup = getPrivateLookup();
+
+	private static Method getMethod(Class<?> type, String name,
+			Class<?>... parameterTypes) {
+		try {
+			return type.getMethod(name, parameterTypes);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static Constructor<MethodHandles.Lookup> getPrivateLookup() {
+		if (PrivateLookupIn != null)
+			return null;
+		try {
+			Constructor<MethodHandles.Lookup> c = MethodHandles.Lookup.class
+					.getDeclaredConstructor(Class.class, Integer.TYPE);
+			c.setAccessible(true);
+			return c;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private final Class<?> _type;
+	private final String _method;
+	private final Member _implementation;
+	private final Object[] _captured;
+
+	NestedLambda(Class<?> type, String method, Member implementation) {
+		this(type, method, implementation, NO_ARGS);
+		((AccessibleObject) implementation).setAccessible(true);
+	}
+
+	private NestedLambda(Class<?> type, String method, Member implementation,
+			Object[] captured) {
+		_type = type;
+		_method = method;
+		_implementation = implementation;
+		_captured = captured;
+	}
+
+	/**
+	 * Gets the nested lambda of a created instance.
+	 *
+	 * @param lambda
+	 *            the instance.
+	 * @return the nested lambda, or {@code null} if the instance was not
+	 *         created by a {@link NestedLambda}.
+	 */
+	static NestedLambda of(Object lambda) {
+		if (!Proxy.isProxyClass(lambda.getClass()))
+			return null;
+		InvocationHandler handler = Proxy.getInvocationHandler(lambda);
+		return handler instanceof Handler ? ((Handler) handler).getLambda()
+				: null;
+	}
+
+	/**
+	 * Gets the functional interface of the lambda.
+	 *
+	 * @return the functional interface.
+	 */
+	public Class<?> getType() {
+		return _type;
+	}
+
+	/**
+	 * Gets the method or constructor implementing the lambda.
+	 *
+	 * @return the implementation method or constructor.
+	 */
+	public Member getImplementation() {
+		return _implementation;
+	}
+
+	/**
+	 * Gets the captured values, which are passed first to the implementation.
+	 *
+	 * @return the captured values.
+	 */
+	public List<Object> getCapturedArgs() {
+		return Collections.unmodifiableList(Arrays.asList(_captured));
+	}
+
+	/**
+	 * Captures the next value.
+	 *
+	 * @param value
+	 *            the value.
+	 * @return the nested lambda capturing the value.
+	 */
+	public NestedLambda capture(Object value) {
+		Object[] captured = Arrays.copyOf(_captured, _captured.length + 1);
+		captured[_captured.length] = value;
+		return new NestedLambda(_type, _method, _implementation, captured);
+	}
+
+	/**
+	 * Creates an instance of the lambda bound to the captured values.
+	 *
+	 * @return the instance.
+	 */
+	public Object create() {
+		return Proxy.newProxyInstance(_implementation.getDeclaringClass()
+				.getClassLoader(), new Class<?>[] { _type }, new Handler());
+	}
+
+	/**
+	 * Parses the lambda bound to the captured values.
+	 *
+	 * @return the lambda expression.
+	 */
+	public LambdaExpression<?> getLambda() {
+		Class<?> implClass = _implementation.getDeclaringClass();
+		if (_implementation instanceof Method
+				&& _implementation.isSynthetic())
+			return new ExpressionClassCracker().lambda(create(),
+					implClass.getName(), _implementation.getName(),
+					Type.getMethodDescriptor((Method) _implementation),
+					_captured);
+
+		// a method reference
+		List<Class<?>> types = new ArrayList<Class<?>>();
+		if (_implementation instanceof Method
+				&& !Modifier.isStatic(_implementation.getModifiers()))
+			types.add(implClass);
+		types.addAll(Arrays.asList(_implementation instanceof Method ? ((Method) _implementation)
+				.getParameterTypes() : ((Constructor<?>) _implementation)
+				.getParameterTypes()));
+
+		List<Class<?>> paramTypes = types.subList(_captured.length,
+				types.size());
+		List<Expression> args = new ArrayList<Expression>(types.size());
+		for (int i = 0; i < types.size(); i++)
+			args.add(i < _captured.length ? Expression.constant(_captured[i],
+					types.get(i)) : Expression.parameter(types.get(i), i
+					- _captured.length));
+
+		Expression body;
+		if (_implementation instanceof Constructor<?>)
+			body = Expression.newInstance((Constructor<?>) _implementation,
+					args);
+		else if (Modifier.isStatic(_implementation.getModifiers()))
+			body = Expression.invoke(null, (Method) _implementation, args);
+		else
+			body = Expression.invoke(args.get(0), (Method) _implementation,
+					args.subList(1, args.size()));
+
+		return Expression.lambda(body.getResultType(), body, paramTypes);
+	}
+
+	private Object invoke(Object[] args) throws Throwable {
+		Object[] all = args == null ? _captured : concat(_captured, args);
+		try {
+			if (_implementation instanceof Constructor<?>)
+				return ((Constructor<?>) _implementation).newInstance(all);
+
+			Method m = (Method) _implementation;
+			if (Modifier.isStatic(m.getModifiers()))
+				return m.invoke(null, all);
+			return m.invoke(all[0], Arrays.copyOfRange(all, 1, all.length));
+		} catch (InvocationTargetException ite) {
+			throw ite.getCause();
+		}
+	}
+
+	/**
+	 * Invokes the interface implementation of a default method, e.g.
+	 * {@code Predicate.negate()}, on the proxy.
+	 */
+	private static Object invokeDefault(Object proxy, Method method,
+			Object[] args) throws Throwable {
+		Class<?> type = method.getDeclaringClass();
+		MethodHandles.Lookup lookup;
+		try {
+			if (InvokeDefault != null)
+				return InvokeDefault.invoke(null, proxy, method, args);
+
+			if (PrivateLookupIn != null)
+				lookup = (MethodHandles.Lookup) PrivateLookupIn.invoke(null,
+						type, MethodHandles.lookup());
+			else if (PrivateLookup != null)
+				lookup = PrivateLookup.newInstance(type,
+						MethodHandles.Lookup.PRIVATE);
+			else
+				throw new UnsupportedOperationException(method.toString());
+		} catch (InvocationTargetException ite) {
+			throw ite.getCause();
+		}
+
+		return lookup.unreflectSpecial(method, type).bindTo(proxy)
+				.invokeWithArguments(args == null ? NO_ARGS : args);
+	}
+
+	private static Object[] concat(Object[] first, Object[] second) {
+		if (first.length == 0)
+			return second;
+		Object[] all = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, all, first.length, second.length);
+		return all;
+	}
+
+	// the functional method may return a wider primitive type
+	private static Object widen(Object value, Class<?> type) {
+		if (value == null || !type.isPrimitive() || type == Boolean.TYPE
+				|| type == Character.TYPE)
+			return value;
+		if (value instanceof Character)
+			value = (int) (Character) value;
+		Number n = (Number) value;
+		if (type == Long.TYPE)
+			return n.longValue();
+		if (type == Double.TYPE)
+			return n.doubleValue();
+		if (type == Float.TYPE)
+			return n.floatValue();
+		if (type == Integer.TYPE)
+			return n.intValue();
+		if (type == Short.TYPE)
+			return n.shortValue();
+		return n.byteValue();
+	}
+
+	@Override
+	public String toString() {
+		return _type.getName() + "(" + _implementation.getName()
+				+ Arrays.toString(_captured) + ")";
+	}
+
+	private final class Handler implements InvocationHandler {
+
+		NestedLambda getLambda() {
+			return NestedLambda.this;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			if (method.getName().equals(_method) && !method.isDefault())
+				return widen(NestedLambda.this.invoke(args),
+						method.getReturnType());
+
+			if (method.getDeclaringClass() == Object.class) {
+				switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				default:
+					return NestedLambda.this.toString();
+				}
+			}
+
+			if (method.isDefault())
+				return invokeDefault(proxy, method, args);
+
+			throw new UnsupportedOperationException(method.toString());
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Separates a lambda expression into its shape and the captured values, like
+ * a prepared statement and its bind parameters.
+ * <p>
+ * The lambda is {@link ExpressionReducer reduced}, then the captured values -
+ * {@link ConstantExpression}s, {@link ThisExpression}s and the fields read from
+ * them - are replaced with {@link ParameterExpression}s following the lambda
+ * parameters. Lambdas differing only by the captured values have equal shapes,
+ * hence whatever is derived from the shape may be cached, see
+ * {@link PlanCache}.
+ * </p>
+ * <p>
+ * {@code null} and {@link Class} constants are kept in the shape, since they
+ * usually determine the plan, e.g. {@code IS NULL} vs {@code = ?}. The
+ * constants of the nested {@link LambdaExpression}s are kept as well, hence
+ * such shapes are not {@link #isCacheable() cacheable}.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+public final class ParameterizedLambda {
+
+	private final LambdaExpression<?> _shape;
+	private final int _parameterCount;
+	private final Object[] _values;
+	private final boolean _cacheable;
+
+	private ParameterizedLambda(LambdaExpression<?> shape, int parameterCount,
+			Object[] values, boolean cacheable) {
+		_shape = shape;
+		_parameterCount = parameterCount;
+		_values = values;
+		_cacheable = cacheable;
+	}
+
+	/**
+	 * Parameterizes the lambda expression.
+	 *
+	 * @param lambda
+	 *            the lambda expression.
+	 * @return the {@link ParameterizedLambda}.
+	 */
+	public static ParameterizedLambda of(LambdaExpression<?> lambda) {
+		List<Class<?>> paramTypes = lambda.getParamTypes();
+		Lifter lifter = new Lifter(paramTypes);
+		Expression body = ExpressionReducer.reduce(lambda.getBody()).accept(
+				lifter);
+
+		return new ParameterizedLambda(Expression.lambda(
+				lambda.getResultType(), body,
+				Collections.unmodifiableList(lifter._types)),
+				paramTypes.size(), lifter._values.toArray(), lifter._cacheable);
+	}
+
+	/**
+	 * Gets the shape, i.e. the lambda expression taking the original
+	 * parameters followed by the captured values. Shapes are equal for lambdas
+	 * differing only by the captured values.
+	 *
+	 * @return the shape.
+	 */
+	public LambdaExpression<?> getShape() {
+		return _shape;
+	}
+
+	/**
+	 * Tells whether the shape may be cached. A shape is not cacheable if it
+	 * keeps a nested {@link LambdaExpression} containing captured values,
+	 * since the lambdas differing by these values would have a distinct
+	 * shape each.
+	 *
+	 * @return {@code true} if the shape may be cached.
+	 */
+	public boolean isCacheable() {
+		return _cacheable;
+	}
+
+	/**
+	 * Gets the number of the original lambda parameters.
+	 *
+	 * @return the number of the original lambda parameters.
+	 */
+	public int getParameterCount() {
+		return _parameterCount;
+	}
+
+	/**
+	 * Gets the captured values, in the order of their parameters.
+	 *
+	 * @return the captured values.
+	 */
+	public List<Object> getValues() {
+		return Collections.unmodifiableList(Arrays.asList(_values));
+	}
+
+	/**
+	 * Appends the captured values to the lambda arguments, producing the
+	 * arguments for the shape.
+	 *
+	 * @param args
+	 *            the lambda arguments.
+	 * @return the shape arguments.
+	 */
+	public Object[] bind(Object[] args) {
+		if (_values.length == 0)
+			return args;
+
+		Object[] bound = new Object[_parameterCount + _values.length];
+		if (args != null)
+			System.arraycopy(args, 0, bound, 0, _parameterCount);
+		System.arraycopy(_values, 0, bound, _parameterCount, _values.length);
+		return bound;
+	}
+
+	@Override
+	public String toString() {
+		return _shape + Arrays.toString(_values);
+	}
+
+	private static final class Lifter extends SimpleExpressionVisitor {
+		private final List<Class<?>> _types;
+		private final List<Object> _values = new ArrayList<Object>();
+		private boolean _cacheable = true;
+
+		Lifter(List<Class<?>> paramTypes) {
+			_types = new ArrayList<Class<?>>(paramTypes);
+		}
+
+		private Expression lift(Expression e, Object value) {
+			if (value == null || value instanceof Class<?>)
+				return Expression.constant(value, e.getResultType());
+
+			_values.add(value);
+			_types.add(e.getResultType());
+			return Expression.parameter(e.getResultType(), _types.size() - 1);
+		}
+
+		@Override
+		public Expression visit(ConstantExpression e) {
+			Object value = e.getValue();
+			if (!(value instanceof LambdaExpression<?>))
+				return lift(e, value);
+
+			if (_cacheable && captures((LambdaExpression<?>) value))
+				_cacheable = false;
+			return e;
+		}
+
+		@Override
+		public Expression visit(ThisExpression e) {
+			return lift(e, e.getValue());
+		}
+
+		@Override
+		public Expression visit(MemberExpression e) {
+			if (isCaptured(e))
+				return lift(e, Expression
+						.lambda(e.getResultType(), e, Collections.emptyList())
+						.compile().apply(null));
+
+			return super.visit(e);
+		}
+
+		/**
+		 * Tells whether a nested lambda contains the values, which would be
+		 * captured at the top level.
+		 */
+		private static boolean captures(LambdaExpression<?> lambda) {
+			boolean[] captures = { false };
+			new IterativeExpressionVisitor() {
+				@Override
+				protected Expression visit(Expression original, Expression e) {
+					if (!captures[0] && isCaptured(e))
+						captures[0] = !(e instanceof ConstantExpression)
+								|| !(((ConstantExpression) e).getValue() instanceof Class<?>);
+					return e;
+				}
+			}.transform(lambda.getBody());
+			return captures[0];
+		}
+
+		/**
+		 * Captured values are constants, instances and the instance fields
+		 * read from them. Static fields may change, hence are not captured.
+		 */
+		private static boolean isCaptured(Expression e) {
+			switch (e.getExpressionType()) {
+			case ExpressionType.Constant:
+				return ((ConstantExpression) e).getValue() != null;
+			case ExpressionType.This:
+				return true;
+			case ExpressionType.FieldAccess:
+				MemberExpression m = (MemberExpression) e;
+				return m.getInstance() != null
+						&& !Modifier.isStatic(m.getMember().getModifiers())
+						&& isCaptured(m.getInstance());
+			default:
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.trigersoft.jaque.expression;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Caches the parsed lambda expressions by the lambda class, see
+ * {@link LambdaExpression#getParseCache()}. The cache holds the expressions
+ * up to a maximum weight, which is the estimated size of the cached trees in
+ * bytes, see {@link #weigh(LambdaExpression)}. The cached trees do not
+ * reference the lambda instances nor their captured values, which are bound
+ * again on each hit.
+ * <p>
+ * An expression is attached to its lambda class with a {@link ClassValue},
+ * and the cache references the lambda classes weakly, so the cache does not
+ * prevent unloading them, together with their expressions, e.g. on a
+ * redeploy.
+ * </p>
+ * <p>
+ * The eviction is frequency-aware, following the segmented LRU policy: a new
+ * expression enters the probation segment, and is promoted to the protected
+ * segment when hit. The protected segment holds up to 80% of the maximum
+ * weight, demoting its least recently used expressions back to probation.
+ * The least recently used expression on probation is evicted first, so a
+ * burst of lambdas used once does not flush the frequently used ones. The
+ * plan caches of the queries follow the same policy, see
+ * {@link PlanCache}.
+ * </p>
+ * <p>
+ * The maximum weight defaults to the
+ * {@value #MAXIMUM_WEIGHT_SYSTEM_PROPERTY} system property, or to
+ * {@link #DEFAULT_MAXIMUM_WEIGHT}. The cache is thread safe.
+ * </p>
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+public final class ParseCache {
+
+	/**
+	 * The system property setting the default maximum weight.
+	 */
+	public static final String MAXIMUM_WEIGHT_SYSTEM_PROPERTY = "jaque.parseCache.maximumWeight";
+
+	/**
+	 * The default maximum weight, 16 MB.
+	 */
+	public static final long DEFAULT_MAXIMUM_WEIGHT = 16L << 20;
+
+	// the estimated sizes of the nodes, including the object headers
+	private static final int NODE_BYTES = 32;
+	private static final int LIST_BYTES = 32;
+	private static final int REFERENCE_BYTES = 8;
+
+	private final SegmentedLru<Entry> _entries;
+	// the entries of the unloaded lambda classes
+	private final ReferenceQueue<Class<?>> _unloaded = new ReferenceQueue<Class<?>>();
+
+	private final ClassValue<Slot> _slots = new ClassValue<Slot>() {
+		@Override
+		protected Slot computeValue(Class<?> type) {
+			return new Slot();
+		}
+	};
+
+	private long _hits;
+	private long _misses;
+	private long _loads;
+
+	ParseCache() {
+		this(Long.getLong(MAXIMUM_WEIGHT_SYSTEM_PROPERTY, DEFAULT_MAXIMUM_WEIGHT));
+	}
+
+	ParseCache(long maximumWeight) {
+		_entries = new SegmentedLru<Entry>(maximumWeight);
+	}
+
+	/**
+	 * Gets the cached expression of a lambda class, counting a hit or a miss.
+	 *
+	 * @param lambdaClass
+	 *            the lambda class.
+	 * @return the cached expression, or {@code null}.
+	 */
+	synchronized LambdaExpression<?> get(Class<?> lambdaClass) {
+		purge();
+		Slot slot = _slots.get(lambdaClass);
+		Entry entry = slot._entry;
+		if (entry == null) {
+			_misses++;
+			return null;
+		}
+
+		_entries.touch(entry);
+		_hits++;
+		return slot._lambda;
+	}
+
+	/**
+	 * Gets the cached expression of a lambda class, without counting a hit or
+	 * a miss.
+	 *
+	 * @param lambdaClass
+	 *            the lambda class.
+	 * @return the cached expression, or {@code null}.
+	 */
+	synchronized LambdaExpression<?> peek(Class<?> lambdaClass) {
+		return _slots.get(lambdaClass)._lambda;
+	}
+
+	/**
+	 * Caches the expression of a lambda class, evicting the expressions over
+	 * the maximum weight. An expression heavier than the maximum weight is
+	 * not cached.
+	 *
+	 * @param lambdaClass
+	 *            the lambda class.
+	 * @param lambda
+	 *            the expression, not referencing the lambda instance.
+	 */
+	void put(Class<?> lambdaClass, LambdaExpression<?> lambda) {
+		if (getMaximumWeight() == 0)
+			return;
+
+		// outside of the lock
+		long weight = weigh(lambda);
+
+		synchronized (this) {
+			if (_entries.getMaximumWeight() == 0)
+				return;
+			_loads++;
+			if (weight > _entries.getMaximumWeight())
+				return;
+
+			purge();
+			Slot slot = _slots.get(lambdaClass);
+			if (slot._entry != null)
+				_entries.remove(slot._entry);
+
+			Entry entry = new Entry(lambdaClass, _unloaded);
+			slot._entry = entry;
+			slot._lambda = lambda;
+			detach(_entries.add(entry, weight));
+		}
+	}
+
+	private void detach(Iterable<Entry> entries) {
+		for (Entry entry : entries)
+			detach(entry);
+	}
+
+	/**
+	 * Detaches the expression from the lambda class, unless it is unloaded.
+	 */
+	private void detach(Entry entry) {
+		Class<?> lambdaClass = entry.get();
+		if (lambdaClass != null)
+			_slots.remove(lambdaClass);
+	}
+
+	/**
+	 * Removes the entries of the unloaded lambda classes.
+	 */
+	private void purge() {
+		for (Reference<?> r; (r = _unloaded.poll()) != null;)
+			_entries.remove((Entry) r);
+	}
+
+	/**
+	 * Estimates the size of an expression tree in bytes. The nested
+	 * expressions shared with other trees are counted in each one.
+	 *
+	 * @param lambda
+	 *            the lambda expression.
+	 * @return the estimated size.
+	 */
+	public static long weigh(LambdaExpression<?> lambda) {
+		long[] weight = { NODE_BYTES + LIST_BYTES
+				+ REFERENCE_BYTES * lambda.getParamTypes().size() };
+		new IterativeExpressionVisitor() {
+			@Override
+			protected Expression visit(Expression original, Expression e) {
+				weight[0] += NODE_BYTES;
+				if (e instanceof InvocationExpression)
+					weight[0] += LIST_BYTES + REFERENCE_BYTES
+							* ((InvocationExpression) e).getArguments().size();
+				return e;
+			}
+		}.transform(lambda.getBody());
+		return weight[0];
+	}
+
+	/**
+	 * Gets the maximum weight.
+	 *
+	 * @return the maximum estimated size of the cached trees in bytes.
+	 */
+	public synchronized long getMaximumWeight() {
+		return _entries.getMaximumWeight();
+	}
+
+	/**
+	 * Sets the maximum weight, evicting the expressions over it.
+	 *
+	 * @param maximumWeight
+	 *            the maximum estimated size of the cached trees in bytes, 0
+	 *            disables the cache.
+	 */
+	public synchronized void setMaximumWeight(long maximumWeight) {
+		purge();
+		detach(_entries.setMaximumWeight(maximumWeight));
+	}
+
+	/**
+	 * Gets the number of the cached expressions.
+	 *
+	 * @return the number of the cached expressions.
+	 */
+	public synchronized int size() {
+		purge();
+		return _entries.size();
+	}
+
+	/**
+	 * Gets the weight of the cached expressions.
+	 *
+	 * @return the estimated size of the cached trees in bytes.
+	 */
+	public synchronized long getWeight() {
+		purge();
+		return _entries.getWeight();
+	}
+
+	/**
+	 * Gets the number of the parses answered from the cache.
+	 *
+	 * @return the number of the hits.
+	 */
+	public synchronized long getHitCount() {
+		return _hits;
+	}
+
+	/**
+	 * Gets the number of the parses which decoded the lambda class.
+	 *
+	 * @return the number of the misses.
+	 */
+	public synchronized long getMissCount() {
+		return _misses;
+	}
+
+	/**
+	 * Gets the number of the lambda classes decoded while the cache was
+	 * enabled, i.e. its maximum weight was not 0. The concurrent misses of
+	 * the same lambda class wait for a single decode, so may be counted
+	 * more than once by {@link #getMissCount()}, but once here.
+	 *
+	 * @return the number of the decoded lambda classes.
+	 */
+	public synchronized long getLoadCount() {
+		return _loads;
+	}
+
+	/**
+	 * Gets the ratio of the parses answered from the cache.
+	 *
+	 * @return the hit rate, 1 if there were no parses.
+	 */
+	public synchronized double getHitRate() {
+		long requests = _hits + _misses;
+		return requests == 0 ? 1d : (double) _hits / requests;
+	}
+
+	/**
+	 * Gets the number of the evicted expressions.
+	 *
+	 * @return the number of the evictions.
+	 */
+	public synchronized long getEvictionCount() {
+		return _entries.getEvictionCount();
+	}
+
+	/**
+	 * Gets the weight of the evicted expressions.
+	 *
+	 * @return the estimated size of the evicted trees in bytes.
+	 */
+	public synchronized long getEvictionWeight() {
+		return _entries.getEvictionWeight();
+	}
+
+	/**
+	 * Removes all the cached expressions. The statistics are kept.
+	 */
+	public synchronized void clear() {
+		detach(_entries.clear());
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ParseCache[size=" + size() + ", weight=" + _entries.getWeight()
+				+ "/" + _entries.getMaximumWeight() + ", hitRate="
+				+ getHitRate() + ", evictions=" + _entries.getEvictionCount()
+				+ "]";
+	}
+
+	/**
+	 * The key of a cached expression, referencing the lambda class weakly. The entries are compared by identity.
+	 */
+	private static final class Entry extends WeakReference<Class<?>> {
+		Entry(Class<?> lambdaClass, ReferenceQueue<Class<?>> unloaded) {
+			super(lambdaClass, unloaded);
+		}
+	}
+
+	/**
+	 * The cached expression attached to the lambda class, referenced by the
+	 * class only. Guarded by the cache.
+	 */
+	private static final class Slot {
+		Entry _entry;
+		LambdaExpression<?> _lambda;
+	}
+}
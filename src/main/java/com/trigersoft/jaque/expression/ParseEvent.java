@@ -0,0 +1,56 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted by {@link LambdaExpression#parse(Object)}. Created only if
+ * {@link Events#isEnabled()}.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+@Name("com.trigersoft.jaque.Parse")
+@Label("Lambda Parse")
+@Category("Jaque")
+@Description("Parses a lambda to an expression tree")
+final class ParseEvent extends Event {
+
+	static final String HIT = "hit";
+	static final String MISS = "miss";
+	static final String NESTED = "nested";
+	static final String JOINED = "joined";
+
+	@Label("Lambda Class")
+	Class<?> lambdaClass;
+
+	@Label("Cache")
+	@Description("hit if the parsed class was cached, miss if its code was decoded, joined if another thread decoded it, nested for a nested lambda")
+	String cache;
+
+	@Label("Bytes Decoded")
+	@Description("The size of the class files decoded")
+	@DataAmount
+	long bytesDecoded;
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import java.util.HashMap;
+import java.util.function.Function;
+
+/**
+ * Caches the plans derived from lambda expressions by their
+ * {@link ParameterizedLambda#getShape() shape}, so that a lambda differing only
+ * by the captured values reuses the plan and only binds the new values.
+ * <p>
+ * The cache holds the plans up to a maximum weight, which is the estimated
+ * size of the cached shapes in bytes, see {@link ParseCache#weigh}, evicting
+ * by the policy of the {@link ParseCache}. The shapes which are not
+ * {@link ParameterizedLambda#isCacheable() cacheable} are planned on each
+ * request, and {@code null} plans are not cached.
+ * </p>
+ * <p>
+ * The maximum weight defaults to the
+ * {@value #MAXIMUM_WEIGHT_SYSTEM_PROPERTY} system property, or to
+ * {@link #DEFAULT_MAXIMUM_WEIGHT}. The cache is thread safe. The plans are
+ * created outside of the lock, so concurrent requests of a new shape may
+ * create it more than once, but the first cached plan is returned to all of
+ * them afterwards.
+ * </p>
+ *
+ * @param <P>
+ *            the type of the plan.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+public final class PlanCache<P> {
+
+	/**
+	 * The system property setting the default maximum weight.
+	 */
+	public static final String MAXIMUM_WEIGHT_SYSTEM_PROPERTY = "jaque.planCache.maximumWeight";
+
+	/**
+	 * The default maximum weight, 4 MB.
+	 */
+	public static final long DEFAULT_MAXIMUM_WEIGHT = 4L << 20;
+
+	private final HashMap<LambdaExpression<?>, P> _plans = new HashMap<LambdaExpression<?>, P>();
+	private final SegmentedLru<LambdaExpression<?>> _shapes;
+	private final Function<? super LambdaExpression<?>, ? extends P> _planner;
+
+	/**
+	 * Creates a plan cache of the default maximum weight.
+	 *
+	 * @param planner
+	 *            creates the plan of a shape, once per cached shape.
+	 */
+	public PlanCache(Function<? super LambdaExpression<?>, ? extends P> planner) {
+		this(planner, Long.getLong(MAXIMUM_WEIGHT_SYSTEM_PROPERTY,
+				DEFAULT_MAXIMUM_WEIGHT));
+	}
+
+	/**
+	 * Creates a plan cache.
+	 *
+	 * @param planner
+	 *            creates the plan of a shape, once per cached shape.
+	 * @param maximumWeight
+	 *            the maximum estimated size of the cached shapes in bytes, 0
+	 *            disables the cache.
+	 */
+	public PlanCache(Function<? super LambdaExpression<?>, ? extends P> planner,
+			long maximumWeight) {
+		if (planner == null)
+			throw new NullPointerException("planner");
+		_planner = planner;
+		_shapes = new SegmentedLru<LambdaExpression<?>>(maximumWeight);
+	}
+
+	/**
+	 * Gets the plan of the lambda shape, creating it on the first request.
+	 *
+	 * @param lambda
+	 *            the parameterized lambda.
+	 * @return the plan.
+	 */
+	public P get(ParameterizedLambda lambda) {
+		LambdaExpression<?> shape = lambda.getShape();
+		if (!lambda.isCacheable())
+			return _planner.apply(shape);
+
+		synchronized (this) {
+			if (_shapes.touch(shape))
+				return _plans.get(shape);
+		}
+
+		// outside of the lock
+		P plan = _planner.apply(shape);
+		if (plan == null)
+			return null;
+		long weight = ParseCache.weigh(shape);
+
+		synchronized (this) {
+			P cached = _plans.get(shape);
+			if (cached != null)
+				return cached;
+			_plans.put(shape, plan);
+			for (LambdaExpression<?> evicted : _shapes.add(shape, weight))
+				_plans.remove(evicted);
+		}
+		return plan;
+	}
+
+	/**
+	 * Gets the maximum weight.
+	 *
+	 * @return the maximum estimated size of the cached shapes in bytes.
+	 */
+	public synchronized long getMaximumWeight() {
+		return _shapes.getMaximumWeight();
+	}
+
+	/**
+	 * Sets the maximum weight, evicting the plans over it.
+	 *
+	 * @param maximumWeight
+	 *            the maximum estimated size of the cached shapes in bytes, 0
+	 *            disables the cache.
+	 */
+	public synchronized void setMaximumWeight(long maximumWeight) {
+		for (LambdaExpression<?> evicted : _shapes
+				.setMaximumWeight(maximumWeight))
+			_plans.remove(evicted);
+	}
+
+	/**
+	 * Gets the number of the cached plans.
+	 *
+	 * @return the number of the cached plans.
+	 */
+	public synchronized int size() {
+		return _shapes.size();
+	}
+
+	/**
+	 * Gets the weight of the cached plans.
+	 *
+	 * @return the estimated size of the cached shapes in bytes.
+	 */
+	public synchronized long getWeight() {
+		return _shapes.getWeight();
+	}
+
+	/**
+	 * Gets the number of the evicted plans.
+	 *
+	 * @return the number of the evictions.
+	 */
+	public synchronized long getEvictionCount() {
+		return _shapes.getEvictionCount();
+	}
+
+	/**
+	 * Removes all the cached plans.
+	 */
+	public synchronized void clear() {
+		_shapes.clear();
+		_plans.clear();
+	}
+}
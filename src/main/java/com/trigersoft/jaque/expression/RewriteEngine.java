@@ -0,0 +1,156 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.trigersoft.jaque.expression;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites expressions with a set of rules, applying all of them in a single
+ * bottom-up traversal instead of a traversal per rule. A rule is registered
+ * for the {@link ExpressionType} of the expressions it matches, so only the
+ * rules of its type are tried on an expression.
+ * <p>
+ * Each expression is visited once its nested expressions are rewritten. The
+ * rules of its type are tried in the order added and the replacement of the
+ * first matching rule is rewritten in turn, so the result is a fixpoint, i.e.
+ * no rule matches any of its nodes. The results are memoized per node
+ * instance, so a shared node is rewritten once per {@link #rewrite(Expression)
+ * rewrite}, as is a replacement reusing the rewritten nodes.
+ * </p>
+ * The engine can be used concurrently once the rules are added.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+public final class RewriteEngine {
+
+	/**
+	 * Rewrites the expressions of a single {@link ExpressionType}.
+	 */
+	@FunctionalInterface
+	public interface Rule {
+		/**
+		 * Rewrites the expression, which nested expressions are already
+		 * rewritten.
+		 *
+		 * @param e
+		 *            the expression of the rule's type.
+		 * @return the replacement, or {@code null} or {@code e} if the rule
+		 *         does not match.
+		 */
+		Expression rewrite(Expression e);
+	}
+
+	// a replacement rewritten that many times is assumed to cycle
+	private static final int MAX_DEPTH = 256;
+
+	private final List<List<Rule>> _rules = new ArrayList<List<Rule>>();
+
+	/**
+	 * Adds a rule.
+	 *
+	 * @param expressionType
+	 *            the {@link ExpressionType} of the expressions the rule
+	 *            matches.
+	 * @param rule
+	 *            the rule.
+	 * @return this engine.
+	 */
+	public RewriteEngine add(int expressionType, Rule rule) {
+		if (expressionType < 0)
+			throw new IllegalArgumentException("expressionType: "
+					+ expressionType);
+		while (_rules.size() <= expressionType)
+			_rules.add(null);
+		List<Rule> rules = _rules.get(expressionType);
+		if (rules == null) {
+			rules = new ArrayList<Rule>();
+			_rules.set(expressionType, rules);
+		}
+		rules.add(rule);
+		return this;
+	}
+
+	/**
+	 * Rewrites the expression.
+	 *
+	 * @param e
+	 *            the expression to rewrite.
+	 * @return the rewritten expression.
+	 * @throws IllegalStateException
+	 *             if the rules do not converge.
+	 */
+	public Expression rewrite(Expression e) {
+		return new Pass().transform(e);
+	}
+
+	private List<Rule> getRules(int expressionType) {
+		return expressionType < _rules.size() ? _rules.get(expressionType)
+				: null;
+	}
+
+	private final class Pass extends IterativeExpressionVisitor {
+		// the rewritten nodes, and the results mapped to themselves
+		private final Map<Expression, Expression> _memo = new IdentityHashMap<Expression, Expression>();
+		private int _depth;
+
+		@Override
+		protected boolean visitChildren(Expression e) {
+			return !_memo.containsKey(e);
+		}
+
+		@Override
+		protected Expression visit(Expression original, Expression e) {
+			Expression result = _memo.get(original);
+			if (result != null)
+				return result;
+
+			result = apply(e);
+			_memo.put(original, result);
+			_memo.put(e, result);
+			_memo.put(result, result);
+			return result;
+		}
+
+		private Expression apply(Expression e) {
+			List<Rule> rules = getRules(e.getExpressionType());
+			if (rules == null)
+				return e;
+
+			for (Rule rule : rules) {
+				Expression replacement = rule.rewrite(e);
+				if (replacement == null || replacement == e)
+					continue;
+
+				if (++_depth > MAX_DEPTH)
+					throw new IllegalStateException(
+							"The rules do not converge: " + replacement);
+				try {
+					return transform(replacement);
+				} finally {
+					_depth--;
+				}
+			}
+			return e;
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.trigersoft.jaque.expression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the weights and the eviction order of the keys of a cache bounded
+ * by weight, following the segmented LRU policy: a new key enters the
+ * probation segment, and is promoted to the protected segment when hit. The
+ * protected segment holds up to 80% of the maximum weight, demoting its least
+ * recently used keys back to probation. The least recently used key on
+ * probation is evicted first, so a burst of keys used once does not flush
+ * the frequently used ones.
+ * <p>
+ * The values are held by the cache. The tracker is not thread safe.
+ * </p>
+ *
+ * @param <K>
+ *            the type of the keys.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class SegmentedLru<K> {
+
+	private static final int PROTECTED_PERCENT = 80;
+
+	// the weights by key, both in the access order, the least recently used
+	// first
+	private final LinkedHashMap<K, Long> _probation = new LinkedHashMap<K, Long>(
+			16, 0.75f, true);
+	private final LinkedHashMap<K, Long> _protected = new LinkedHashMap<K, Long>(
+			16, 0.75f, true);
+
+	private long _maximumWeight;
+	private long _weight;
+	private long _protectedWeight;
+	private long _evictions;
+	private long _evictedWeight;
+
+	SegmentedLru(long maximumWeight) {
+		setMaximumWeight(maximumWeight);
+	}
+
+	/**
+	 * Records a hit of the key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return {@code false} if the key is not tracked.
+	 */
+	boolean touch(K key) {
+		if (_protected.get(key) != null)
+			return true;
+
+		Long weight = _probation.remove(key);
+		if (weight == null)
+			return false;
+
+		_protected.put(key, weight);
+		_protectedWeight += weight;
+		demote();
+		return true;
+	}
+
+	/**
+	 * Adds a key, which is not tracked, evicting the keys over the maximum
+	 * weight. A key heavier than the maximum weight is not added.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param weight
+	 *            the weight of the key.
+	 * @return the evicted keys, or the key itself if it was not added.
+	 */
+	List<K> add(K key, long weight) {
+		if (weight > _maximumWeight)
+			return Collections.singletonList(key);
+
+		_probation.put(key, weight);
+		_weight += weight;
+		return evict();
+	}
+
+	/**
+	 * Removes a key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return {@code true} if the key was tracked.
+	 */
+	boolean remove(K key) {
+		Long weight = _probation.remove(key);
+		if (weight == null) {
+			weight = _protected.remove(key);
+			if (weight == null)
+				return false;
+			_protectedWeight -= weight;
+		}
+		_weight -= weight;
+		return true;
+	}
+
+	/**
+	 * Removes all the keys.
+	 *
+	 * @return the removed keys.
+	 */
+	List<K> clear() {
+		List<K> keys = new ArrayList<K>(_probation.keySet());
+		keys.addAll(_protected.keySet());
+		_probation.clear();
+		_protected.clear();
+		_weight = 0;
+		_protectedWeight = 0;
+		return keys;
+	}
+
+	private void demote() {
+		long maximum = _maximumWeight / 100 * PROTECTED_PERCENT;
+		Iterator<Map.Entry<K, Long>> it = _protected.entrySet().iterator();
+		while (_protectedWeight > maximum && _protected.size() > 1) {
+			Map.Entry<K, Long> eldest = it.next();
+			it.remove();
+			_protectedWeight -= eldest.getValue();
+			_probation.put(eldest.getKey(), eldest.getValue());
+		}
+	}
+
+	private List<K> evict() {
+		List<K> evicted = Collections.emptyList();
+		while (_weight > _maximumWeight) {
+			Map.Entry<K, Long> eldest = (_probation.isEmpty() ? _protected
+					: _probation).entrySet().iterator().next();
+			K key = eldest.getKey();
+			long weight = eldest.getValue();
+			remove(key);
+			if (evicted.isEmpty())
+				evicted = new ArrayList<K>();
+			evicted.add(key);
+			_evictions++;
+			_evictedWeight += weight;
+		}
+		return evicted;
+	}
+
+	long getMaximumWeight() {
+		return _maximumWeight;
+	}
+
+	/**
+	 * Sets the maximum weight, evicting the keys over it.
+	 *
+	 * @param maximumWeight
+	 *            the maximum weight.
+	 * @return the evicted keys.
+	 */
+	List<K> setMaximumWeight(long maximumWeight) {
+		if (maximumWeight < 0)
+			throw new IllegalArgumentException("maximumWeight: "
+					+ maximumWeight);
+		_maximumWeight = maximumWeight;
+		demote();
+		return evict();
+	}
+
+	int size() {
+		return _probation.size() + _protected.size();
+	}
+
+	long getWeight() {
+		return _weight;
+	}
+
+	long getEvictionCount() {
+		return _evictions;
+	}
+
+	long getEvictionWeight() {
+		return _evictedWeight;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Tells the expressions which may be evaluated any number of times, including
+ * none, without changing the outcome: the parameters, the constants, the
+ * operators over them, and the reads of fields and getters.
+ *
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+final class SideEffects {
+
+	// the classes whose methods do not modify their arguments or any state
+	private static final Set<Class<?>> PureTypes = new HashSet<Class<?>>(
+			Arrays.<Class<?>> asList(String.class, Boolean.class,
+					Character.class, Byte.class, Short.class, Integer.class,
+					Long.class, Float.class, Double.class, BigInteger.class,
+					BigDecimal.class, Math.class, Objects.class));
+
+	private SideEffects() {
+	}
+
+	/**
+	 * Checks whether the expression is free of side effects, i.e. may be
+	 * evaluated more than once, or not at all.
+	 *
+	 * @param e
+	 *            the expression.
+	 * @return {@code true} if the expression has no side effects.
+	 */
+	static boolean isFree(Expression e) {
+		boolean[] free = { true };
+		e.accept(new SimpleExpressionVisitor() {
+			@Override
+			public Expression visit(MemberExpression e) {
+				if (e.getExpressionType() == ExpressionType.New
+						|| !isPure(e.getMember()))
+					free[0] = false;
+				return free[0] ? super.visit(e) : e;
+			}
+
+			@Override
+			public Expression visit(LambdaInvocationExpression e) {
+				free[0] = false;
+				return e;
+			}
+		});
+		return free[0];
+	}
+
+	private static boolean isPure(Member member) {
+		if (!(member instanceof Method))
+			return true;
+
+		Method m = (Method) member;
+		if (PureTypes.contains(m.getDeclaringClass()))
+			return true;
+
+		String name = m.getName();
+		return !Modifier.isStatic(m.getModifiers())
+				&& m.getParameterCount() == 0 && m.getReturnType() != Void.TYPE
+				&& (name.startsWith("get") || name.startsWith("is"));
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.function.math;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Provides the primitive implementations of the {@link BinaryOperator}s and
+ * {@link UnaryOperator}s, and selects them by the static types of the
+ * operands, so the operand types are not tested on each evaluation.
+ * <p>
+ * The operands of the primitive types and their wrappers are promoted as
+ * Java does: {@code byte}, {@code short} and {@code int} to {@code int}, then
+ * to {@code long}, {@code float} and {@code double}, by the wider of the two
+ * operands, or by the left one for the shifts. In particular the integral
+ * division yields the integral quotient. Any other operands, e.g.
+ * {@link java.math.BigInteger} or {@link java.math.BigDecimal}, are evaluated
+ * with {@link BinaryOperator#eval(Number, Number)} and
+ * {@link UnaryOperator#eval(Number)}, as are the {@code null} values of the
+ * wrapper types.
+ * </p>
+ * 
+ * @author <a href="mailto://kostat@trigersoft.com">Konstantin Triger</a>
+ */
+
+public final class PrimitiveOperators {
+
+	private static final int NONE = -1;
+	private static final int INT = 0;
+	private static final int LONG = 1;
+	private static final int FLOAT = 2;
+	private static final int DOUBLE = 3;
+
+	// the binary numeric promotion of (left, right)
+	private static final int[][] PROMOTION = { { INT, LONG, FLOAT, DOUBLE },
+			{ LONG, LONG, FLOAT, DOUBLE }, { FLOAT, FLOAT, FLOAT, DOUBLE },
+			{ DOUBLE, DOUBLE, DOUBLE, DOUBLE } };
+
+	private static final Map<BinaryOperator, IntBinaryOperator> _intBinary = new EnumMap<BinaryOperator, IntBinaryOperator>(
+			BinaryOperator.class);
+	private static final Map<BinaryOperator, LongBinaryOperator> _longBinary = new EnumMap<BinaryOperator, LongBinaryOperator>(
+			BinaryOperator.class);
+	private static final Map<BinaryOperator, DoubleBinaryOperator> _doubleBinary = new EnumMap<BinaryOperator, DoubleBinaryOperator>(
+			BinaryOperator.class);
+	private static final Map<UnaryOperator, IntUnaryOperator> _intUnary = new EnumMap<UnaryOperator, IntUnaryOperator>(
+			UnaryOperator.class);
+	private static final Map<UnaryOperator, LongUnaryOperator> _longUnary = new EnumMap<UnaryOperator, LongUnaryOperator>(
+			UnaryOperator.class);
+	private static final Map<UnaryOperator, DoubleUnaryOperator> _doubleUnary = new EnumMap<UnaryOperator, DoubleUnaryOperator>(
+			UnaryOperator.class);
+
+	static {
+		_intBinary.put(BinaryOperator.Add, (l, r) -> l + r);
+		_intBinary.put(BinaryOperator.Subtract, (l, r) -> l - r);
+		_intBinary.put(BinaryOperator.Multiply, (l, r) -> l * r);
+		_intBinary.put(BinaryOperator.Divide, (l, r) -> l / r);
+		_intBinary.put(BinaryOperator.Modulo, (l, r) -> l % r);
+		_intBinary.put(BinaryOperator.And, (l, r) -> l & r);
+		_intBinary.put(BinaryOperator.Or, (l, r) -> l | r);
+		_intBinary.put(BinaryOperator.Xor, (l, r) -> l ^ r);
+		_intBinary.put(BinaryOperator.ShiftLeft, (l, r) -> l << r);
+		_intBinary.put(BinaryOperator.ShiftRight, (l, r) -> l >> r);
+
+		_longBinary.put(BinaryOperator.Add, (l, r) -> l + r);
+		_longBinary.put(BinaryOperator.Subtract, (l, r) -> l - r);
+		_longBinary.put(BinaryOperator.Multiply, (l, r) -> l * r);
+		_longBinary.put(BinaryOperator.Divide, (l, r) -> l / r);
+		_longBinary.put(BinaryOperator.Modulo, (l, r) -> l % r);
+		_longBinary.put(BinaryOperator.And, (l, r) -> l & r);
+		_longBinary.put(BinaryOperator.Or, (l, r) -> l | r);
+		_longBinary.put(BinaryOperator.Xor, (l, r) -> l ^ r);
+		_longBinary.put(BinaryOperator.ShiftLeft, (l, r) -> l << r);
+		_longBinary.put(BinaryOperator.ShiftRight, (l, r) -> l >> r);
+
+		_doubleBinary.put(BinaryOperator.Add, (l, r) -> l + r);
+		_doubleBinary.put(BinaryOperator.Subtract, (l, r) -> l - r);
+		_doubleBinary.put(BinaryOperator.Multiply, (l, r) -> l * r);
+		_doubleBinary.put(BinaryOperator.Divide, (l, r) -> l / r);
+		_doubleBinary.put(BinaryOperator.Modulo, (l, r) -> l % r);
+		_doubleBinary.put(BinaryOperator.Power, Math::pow);
+
+		_intUnary.put(UnaryOperator.Abs, Math::abs);
+		_intUnary.put(UnaryOperator.Negate, v -> -v);
+		_intUnary.put(UnaryOperator.Not, v -> ~v);
+
+		_longUnary.put(UnaryOperator.Abs, Math::abs);
+		_longUnary.put(UnaryOperator.Negate, v -> -v);
+		_longUnary.put(UnaryOperator.Not, v -> ~v);
+
+		_doubleUnary.put(UnaryOperator.Abs, Math::abs);
+		_doubleUnary.put(UnaryOperator.Negate, v -> -v);
+	}
+
+	private PrimitiveOperators() {
+	}
+
+	private static int kind(Class<?> type) {
+		if (type == Integer.TYPE || type == Integer.class || type == Short.TYPE
+				|| type == Short.class || type == Byte.TYPE
+				|| type == Byte.class)
+			return INT;
+		if (type == Long.TYPE || type == Long.class)
+			return LONG;
+		if (type == Float.TYPE || type == Float.class)
+			return FLOAT;
+		if (type == Double.TYPE || type == Double.class)
+			return DOUBLE;
+		return NONE;
+	}
+
+	/**
+	 * Gets the {@code int} implementation of the operator.
+	 * 
+	 * @param operator
+	 *            the operator.
+	 * @return the implementation, or {@code null} if the operator is not
+	 *         defined for {@code int}s.
+	 */
+	public static IntBinaryOperator getInt(BinaryOperator operator) {
+		return _intBinary.get(operator);
+	}
+
+	/**
+	 * Gets the {@code long} implementation of the operator. The right operand
+	 * of the shifts is the shift distance.
+	 * 
+	 * @param operator
+	 *            the operator.
+	 * @return the implementation, or {@code null} if the operator is not
+	 *         defined for {@code long}s.
+	 */
+	public static LongBinaryOperator getLong(BinaryOperator operator) {
+		return _longBinary.get(operator);
+	}
+
+	/**
+	 * Gets the {@code double} implementation of the operator.
+	 * 
+	 * @param operator
+	 *            the operator.
+	 * @return the implementation, or {@code null} if the operator is not
+	 *         defined for {@code double}s, e.g. the bitwise ones.
+	 */
+	public static DoubleBinaryOperator getDouble(BinaryOperator operator) {
+		return _doubleBinary.get(operator);
+	}
+
+	/**
+	 * Gets the {@code int} implementation of the operator.
+	 * 
+	 * @param operator
+	 *            the operator.
+	 * @return the implementation.
+	 */
+	public static IntUnaryOperator getInt(UnaryOperator operator) {
+		return _intUnary.get(operator);
+	}
+
+	/**
+	 * Gets the {@code long} implementation of the operator.
+	 * 
+	 * @param operator
+	 *            the operator.
+	 * @return the implementation.
+	 */
+	public static LongUnaryOperator getLong(UnaryOperator operator) {
+		return _longUnary.get(operator);
+	}
+
+	/**
+	 * Gets the {@code double} implementation of the operator.
+	 * 
+	 * @param operator
+	 *            the operator.
+	 * @return the implementation, or {@code null} for {@link UnaryOperator#Not}.
+	 */
+	public static DoubleUnaryOperator getDouble(UnaryOperator operator) {
+		return _doubleUnary.get(operator);
+	}
+
+	/**
+	 * Selects the implementation of the operator for the operands of the
+	 * specified static types.
+	 * 
+	 * @param operator
+	 *            the operator.
+	 * @param left
+	 *            the type of the left operand.
+	 * @param right
+	 *            the type of the right operand.
+	 * @return the implementation.
+	 */
+	public static BiFunction<Number, Number, Number> get(
+			BinaryOperator operator, Class<?> left, Class<?> right) {
+		int l = kind(left);
+		int r = kind(right);
+		if (l == NONE || r == NONE)
+			return operator::eval;
+
+		boolean shift = operator == BinaryOperator.ShiftLeft
+				|| operator == BinaryOperator.ShiftRight;
+		int kind = shift ? l : PROMOTION[l][r];
+		boolean nullable = !left.isPrimitive() || !right.isPrimitive();
+
+		BiFunction<Number, Number, Number> f;
+		switch (kind) {
+		case INT:
+			IntBinaryOperator i = getInt(operator);
+			f = i == null ? null : (x, y) -> i.applyAsInt(x.intValue(),
+					y.intValue());
+			break;
+		case LONG:
+			LongBinaryOperator lo = getLong(operator);
+			f = lo == null ? null : shift ? (x, y) -> lo.applyAsLong(
+					x.longValue(), y.intValue()) : (x, y) -> lo.applyAsLong(
+					x.longValue(), y.longValue());
+			break;
+		case FLOAT:
+			// exact, as double has more than twice the float precision
+			DoubleBinaryOperator fl = getDouble(operator);
+			f = fl == null || operator == BinaryOperator.Power ? null : (x,
+					y) -> (float) fl.applyAsDouble(x.floatValue(),
+					y.floatValue());
+			break;
+		default:
+			DoubleBinaryOperator d = getDouble(operator);
+			f = d == null ? null : (x, y) -> d.applyAsDouble(x.doubleValue(),
+					y.doubleValue());
+			break;
+		}
+
+		if (f == null)
+			return operator::eval;
+		if (!nullable)
+			return f;
+		BiFunction<Number, Number, Number> primitive = f;
+		return (x, y) -> x == null || y == null ? operator.eval(x, y)
+				: primitive.apply(x, y);
+	}
+
+	/**
+	 * Selects the implementation of the operator for the operand of the
+	 * specified static type.
+	 * 
+	 * @param operator
+	 *            the operator.
+	 * @param type
+	 *            the type of the operand.
+	 * @return the implementation.
+	 */
+	public static Function<Number, Number> get(UnaryOperator operator,
+			Class<?> type) {
+		Function<Number, Number> f;
+		switch (kind(type)) {
+		case INT:
+			// abs keeps the narrower type
+			if (operator == UnaryOperator.Abs && type != Integer.TYPE
+					&& type != Integer.class)
+				return operator::eval;
+			IntUnaryOperator i = getInt(operator);
+			f = x -> i.applyAsInt(x.intValue());
+			break;
+		case LONG:
+			LongUnaryOperator l = getLong(operator);
+			f = x -> l.applyAsLong(x.longValue());
+			break;
+		case FLOAT:
+			DoubleUnaryOperator fl = getDouble(operator);
+			if (fl == null)
+				return operator::eval;
+			f = x -> (float) fl.applyAsDouble(x.floatValue());
+			break;
+		case DOUBLE:
+			DoubleUnaryOperator d = getDouble(operator);
+			if (d == null)
+				return operator::eval;
+			f = x -> d.applyAsDouble(x.doubleValue());
+			break;
+		default:
+			return operator::eval;
+		}
+
+		if (type.isPrimitive())
+			return f;
+		Function<Number, Number> primitive = f;
+		return x -> x == null ? operator.eval(x) : primitive.apply(x);
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import com.trigersoft.jaque.expression.Expression;
+import com.trigersoft.jaque.expression.ExpressionReducer;
+import com.trigersoft.jaque.expression.LambdaExpression;
+import com.trigersoft.jaque.expression.ParameterizedLambda;
+
+public class AdaptivePredicateTest {
+
+	public static boolean audit(String name) {
+		return true;
+	}
+
+	private static Person person(String name) {
+		Person p = new Person();
+		p.setName(name);
+		return p;
+	}
+
+	private static List<Person> people(int count) {
+		List<Person> people = new ArrayList<Person>();
+		for (int i = 0; i < count; i++)
+			people.add(person(i % 100 == 0 ? "a" : i % 10 == 0 ? null
+					: "name" + i));
+		return people;
+	}
+
+	private static int run(Predicate<Person> predicate, List<Person> people,
+			Function<Object[], ?> f) {
+		ParameterizedLambda p = ParameterizedLambda.of(LambdaExpression
+				.parse(predicate));
+		int matches = 0;
+		for (int i = 0; i < 20; i++)
+			for (Person person : people) {
+				boolean expected = predicate.test(person);
+				assertEquals(expected, f.apply(p.bind(new Object[] { person })));
+				if (expected)
+					matches++;
+			}
+		return matches;
+	}
+
+	private static Function<Object[], ?> compile(Predicate<Person> predicate) {
+		return AdaptivePredicate.compile(ParameterizedLambda.of(
+				LambdaExpression.parse(predicate)).getShape());
+	}
+
+	@Test
+	public void testSelectiveOperandMovesFirst() {
+		List<Person> people = people(10000);
+		Predicate<Person> predicate = p -> p.getName() != null
+				&& p.getName().trim().toUpperCase().length() > 0
+				&& p.getName().length() == 1;
+		Function<Object[], ?> f = compile(predicate);
+		assertTrue(f instanceof AdaptivePredicate);
+
+		assertEquals(20 * 100, run(predicate, people, f));
+		// the null check stays first
+		assertEquals(Arrays.asList(0, 2, 1),
+				toList(((AdaptivePredicate) f).getOrder()));
+	}
+
+	@Test
+	public void testOr() {
+		List<Person> people = people(10000);
+		Predicate<Person> predicate = p -> p.getName() == null
+				|| p.getName().trim().length() == 0
+				|| p.getName().length() > 1;
+		Function<Object[], ?> f = compile(predicate);
+		assertTrue(f instanceof AdaptivePredicate);
+
+		run(predicate, people, f);
+		assertEquals(Arrays.asList(0, 2, 1),
+				toList(((AdaptivePredicate) f).getOrder()));
+	}
+
+	@Test
+	public void testPinned() {
+		assertFalse(compile(p -> p.getName().length() > 3) instanceof AdaptivePredicate);
+		// the operands are separated by a call with unknown side effects
+		assertFalse(compile(p -> p.getName().length() > 3
+				&& audit(p.getName()) && p.getName().length() < 10) instanceof AdaptivePredicate);
+
+		assertFalse(AdaptivePredicate.isMovable(reduce(p -> p.getName() != null)));
+		// the receivers may be null
+		assertFalse(AdaptivePredicate.isMovable(reduce(p -> p.getName().isEmpty())));
+		assertTrue(AdaptivePredicate.isMovable(reduce(p -> "a".isEmpty())));
+	}
+
+	@Test
+	public void testGuardThenUse() {
+		// the second operand throws unless guarded by the first one
+		assertFalse(compile(p -> p.getName().length() > 3
+				&& p.getName().substring(3).equals("e")) instanceof AdaptivePredicate);
+		assertFalse(compile(p -> p.getName() != null
+				&& !p.getName().isEmpty() && p.getName().codePointAt(0) == 97) instanceof AdaptivePredicate);
+		assertFalse(compile(p -> p.getName() != null
+				&& p.getName().matches("\\d+")
+				&& Integer.parseInt(p.getName()) > 5) instanceof AdaptivePredicate);
+
+		List<Person> people = new ArrayList<Person>();
+		for (int i = 0; i < 1000; i++)
+			people.add(person(i % 2 == 0 ? "ab" : i % 3 == 0 ? "abce" : "abcd"));
+		Predicate<Person> predicate = p -> p.getName().length() > 3
+				&& p.getName().substring(3).equals("e");
+		Function<Object[], ?> f = AdaptivePredicate.compile(ParameterizedLambda
+				.of(LambdaExpression.parse(predicate)).getShape());
+		assertEquals(20 * 167, run(predicate, people, f));
+	}
+
+	private static Expression reduce(Predicate<Person> predicate) {
+		return ExpressionReducer.reduce(LambdaExpression.parse(predicate)
+				.getBody());
+	}
+
+	private static List<Integer> toList(int[] order) {
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i : order)
+			list.add(i);
+		return list;
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import static com.trigersoft.jaque.TestSupport.Pool;
+import static com.trigersoft.jaque.TestSupport.Threads;
+import static com.trigersoft.jaque.TestSupport.customers;
+import static com.trigersoft.jaque.TestSupport.record;
+import static com.trigersoft.jaque.TestSupport.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.trigersoft.jaque.expression.LambdaExpression;
+
+public class AggregateTest {
+
+	/**
+	 * Computes count, sum, min, max and average of the customers by the last
+	 * digit.
+	 */
+	private static Map<Integer, long[]> expected(List<Customer> customers) {
+		Map<Integer, long[]> expected = new LinkedHashMap<Integer, long[]>();
+		for (Customer c : customers) {
+			long[] a = expected.get(c.getData() % 10);
+			if (a == null) {
+				a = new long[] { 0, 0, Long.MAX_VALUE, Long.MIN_VALUE };
+				expected.put(c.getData() % 10, a);
+			}
+			a[0]++;
+			a[1] += c.getData();
+			a[2] = Math.min(a[2], c.getData());
+			a[3] = Math.max(a[3], c.getData());
+		}
+		return expected;
+	}
+
+	private static void check(Map<Integer, long[]> expected,
+			List<AggregateResult<Integer>> actual) {
+		assertEquals(expected.size(), actual.size());
+		int i = 0;
+		for (Map.Entry<Integer, long[]> entry : expected.entrySet()) {
+			AggregateResult<Integer> r = actual.get(i++);
+			long[] a = entry.getValue();
+			assertEquals(entry.getKey(), r.getKey());
+			assertEquals(5, r.size());
+			assertEquals(a[0], r.get(0));
+			assertEquals(a[1], r.get(1));
+			assertEquals((int) a[2], r.get(2));
+			assertEquals((int) a[3], r.get(3));
+			assertEquals((double) a[1] / a[0], (Double) r.get(4), 1e-9);
+		}
+	}
+
+	@Test
+	public void testAggregate() {
+		List<Customer> customers = customers(1000);
+		Queryable<AggregateResult<Integer>> q = new IterableQueryable<Customer>(
+				Customer.class, customers).groupBy(c -> c.getData() % 10)
+				.aggregate(Aggregate.count(), Aggregate.sum(Customer::getData),
+						Aggregate.min(Customer::getData),
+						Aggregate.max(Customer::getData),
+						Aggregate.average(Customer::getData));
+
+		check(expected(customers), toList(q));
+	}
+
+	@Test
+	public void testTypes() {
+		List<Customer> customers = new ArrayList<Customer>();
+		for (int i = 1; i <= 4; i++)
+			customers.add(new Customer(i));
+		AggregateResult<Boolean> r = new IterableQueryable<Customer>(
+				Customer.class, customers)
+				.groupBy(c -> c.getData() > 0)
+				.aggregate(Aggregate.sum(c -> c.getData() / 2.0),
+						Aggregate.max(c -> (long) c.getData() * 3),
+						Aggregate.min(c -> c.getData() - 0.5)).single();
+
+		assertEquals(true, r.getKey());
+		assertEquals(5.0, r.get(0));
+		assertEquals(12L, r.get(1));
+		assertEquals(0.5, r.get(2));
+	}
+
+	@Test
+	public void testGroupsAggregate() {
+		List<Customer> customers = customers(1000);
+		Function<Customer, Integer> key = c -> c.getData() % 10;
+		Iterable<AggregateResult<Integer>> results = Query.aggregate(
+				Query.<Customer, Integer> groupBy(customers,
+						LambdaExpression.parse(key)),
+				new Aggregate<?>[] { Aggregate.count(),
+						Aggregate.<Customer> sum(Customer::getData),
+						Aggregate.<Customer> min(Customer::getData),
+						Aggregate.<Customer> max(Customer::getData),
+						Aggregate.<Customer> average(Customer::getData) });
+
+		check(expected(customers), toList(results));
+	}
+
+	@Test
+	public void testAfterSelect() {
+		List<Customer> customers = customers(1000);
+		List<AggregateResult<Integer>> results = toList(new IterableQueryable<Customer>(
+				Customer.class, customers).where(c -> c.getData() > 990)
+				.groupBy(c -> c.getData() % 2).where(g -> g.getKey() == 0)
+				.select(g -> g).groupBy(g -> g.getKey())
+				.aggregate(Aggregate.count()));
+
+		assertEquals(1, results.size());
+		assertEquals(0, (int) results.get(0).getKey());
+		assertEquals(1L, results.get(0).get(0));
+	}
+
+	@Test
+	public void testEmpty() {
+		List<AggregateResult<Integer>> results = toList(new IterableQueryable<Customer>(
+				Customer.class, new ArrayList<Customer>()).groupBy(
+				c -> c.getData()).aggregate(Aggregate.max(Customer::getData)));
+
+		assertTrue(results.isEmpty());
+	}
+
+	@Test
+	public void testParallel() {
+		List<Customer> customers = customers(200000);
+		Threads.clear();
+		List<AggregateResult<Integer>> results = toList(new IterableQueryable<Customer>(
+				Customer.class, customers).parallel(Pool)
+				.groupBy(c -> record(c.getData() % 10))
+				.aggregate(Aggregate.count(), Aggregate.sum(Customer::getData),
+						Aggregate.min(Customer::getData),
+						Aggregate.max(Customer::getData),
+						Aggregate.average(Customer::getData)));
+
+		check(expected(customers), results);
+		assertTrue(Threads.size() > 1);
+	}
+
+	public static class Item {
+		private final BigDecimal _price;
+		private final Integer _quantity;
+		private final BigInteger _serial;
+
+		public Item(String price, Integer quantity, long serial) {
+			_price = price != null ? new BigDecimal(price) : null;
+			_quantity = quantity;
+			_serial = BigInteger.valueOf(serial).shiftLeft(64);
+		}
+
+		public BigDecimal getPrice() {
+			return _price;
+		}
+
+		public Integer getQuantity() {
+			return _quantity;
+		}
+
+		public BigInteger getSerial() {
+			return _serial;
+		}
+	}
+
+	@Test
+	public void testBoxedValues() {
+		List<Item> items = Arrays.asList(new Item("0.1", 2, 1), new Item(
+				"12345678901234567890.1", null, 2), new Item(null, 5, 3),
+				new Item("0.2", null, 4));
+		AggregateResult<Boolean> r = new IterableQueryable<Item>(Item.class,
+				items)
+				.groupBy(i -> true)
+				.aggregate(Aggregate.sum(Item::getPrice),
+						Aggregate.min(Item::getPrice),
+						Aggregate.max(Item::getPrice),
+						Aggregate.average(Item::getPrice),
+						Aggregate.sum(Item::getQuantity),
+						Aggregate.min(Item::getQuantity),
+						Aggregate.average(Item::getQuantity),
+						Aggregate.sum(Item::getSerial),
+						Aggregate.max(Item::getSerial), Aggregate.count())
+				.single();
+
+		// exact and skipping the nulls
+		assertEquals(new BigDecimal("12345678901234567890.4"), r.get(0));
+		assertEquals(new BigDecimal("0.1"), r.get(1));
+		assertEquals(new BigDecimal("12345678901234567890.1"), r.get(2));
+		assertEquals(0, new BigDecimal("4115226300411522630.133333333333333")
+				.compareTo((BigDecimal) r.get(3)));
+		assertEquals(7L, r.get(4));
+		assertEquals(2, r.get(5));
+		assertEquals(3.5, r.get(6));
+		assertEquals(BigInteger.valueOf(10).shiftLeft(64), r.get(7));
+		assertEquals(BigInteger.valueOf(4).shiftLeft(64), r.get(8));
+		assertEquals(4L, r.get(9));
+	}
+}
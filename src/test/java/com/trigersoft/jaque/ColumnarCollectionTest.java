@@ -0,0 +1,163 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import com.trigersoft.jaque.expression.LambdaExpression;
+
+public class ColumnarCollectionTest {
+
+	public static class Reading {
+		private final long _id;
+		private final int _age;
+		private final double _score;
+		private final String _name;
+
+		public Reading(long id, int age, double score, String name) {
+			_id = id;
+			_age = age;
+			_score = score;
+			_name = name;
+		}
+
+		public long getId() {
+			return _id;
+		}
+
+		public int getAge() {
+			return _age;
+		}
+
+		public double getScore() {
+			return _score;
+		}
+
+		public String getName() {
+			return _name;
+		}
+
+		@Override
+		public String toString() {
+			return _id + ":" + _age + ":" + _score + ":" + _name;
+		}
+	}
+
+	private static ColumnarCollection<Reading> readings(int count) {
+		ColumnarCollection<Reading> readings = new ColumnarCollection<Reading>();
+		for (int i = 0; i < count; i++)
+			readings.add(new Reading(i * 1000000007L, i % 90, (i % 100) / 100.0,
+					i % 7 == 0 ? null : "r" + i));
+		return readings.addIntColumn(Reading::getAge)
+				.addLongColumn(Reading::getId)
+				.addDoubleColumn(Reading::getScore);
+	}
+
+	private static List<Reading> filter(Iterable<Reading> source,
+			Predicate<Reading> predicate) {
+		List<Reading> list = new ArrayList<Reading>();
+		for (Reading r : source)
+			if (predicate.test(r))
+				list.add(r);
+		return list;
+	}
+
+	private static List<Reading> query(ColumnarCollection<Reading> source,
+			Predicate<Reading> predicate) {
+		List<Reading> list = new ArrayList<Reading>();
+		for (Reading r : new IterableQueryable<Reading>(Reading.class, source)
+				.where(predicate))
+			list.add(r);
+		return list;
+	}
+
+	private static IndexPlanner.Plan plan(ColumnarCollection<Reading> source,
+			Predicate<Reading> predicate) {
+		return ColumnScan.plan(source, LambdaExpression.parse(predicate));
+	}
+
+	@Test
+	public void testColumnScan() {
+		ColumnarCollection<Reading> readings = readings(1000);
+		int age = 30;
+		Predicate<Reading> p = r -> r.getAge() > age && r.getScore() < 0.5;
+
+		IndexPlanner.Plan plan = plan(readings, p);
+		assertNotNull(plan);
+		assertNull(plan.getResidual());
+		assertEquals(filter(readings, p), query(readings, p));
+	}
+
+	@Test
+	public void testCombinations() {
+		ColumnarCollection<Reading> readings = readings(1000);
+		List<Predicate<Reading>> predicates = new ArrayList<Predicate<Reading>>();
+		predicates.add(r -> r.getAge() == 3 || r.getScore() >= 0.95);
+		predicates.add(r -> !(r.getAge() <= 80) && r.getAge() != 85);
+		predicates.add(r -> r.getAge() > 30.5 && 10L > r.getAge());
+		predicates.add(r -> r.getId() > 500000000000L && r.getScore() != 0.5);
+		predicates.add(r -> r.getAge() < Integer.MIN_VALUE
+				|| r.getAge() >= Integer.MAX_VALUE);
+
+		for (Predicate<Reading> p : predicates) {
+			assertNull(plan(readings, p).getResidual());
+			assertEquals(filter(readings, p), query(readings, p));
+		}
+	}
+
+	@Test
+	public void testObjectFallback() {
+		ColumnarCollection<Reading> readings = readings(1000);
+		Predicate<Reading> p = r -> r.getName() != null
+				&& r.getName().endsWith("1") && r.getAge() >= 20;
+
+		assertNotNull(plan(readings, p).getResidual());
+		assertEquals(filter(readings, p), query(readings, p));
+
+		Predicate<Reading> unstored = r -> r.getName() != null;
+		assertNull(plan(readings, unstored));
+		assertEquals(filter(readings, unstored), query(readings, unstored));
+	}
+
+	@Test
+	public void testAdd() {
+		ColumnarCollection<Reading> readings = readings(10);
+		Predicate<Reading> p = r -> r.getAge() >= 5;
+		assertEquals(5, query(readings, p).size());
+
+		readings.add(new Reading(1, 50, 0, "new"));
+		assertEquals(6, query(readings, p).size());
+		assertEquals(11, readings.size());
+
+		readings.clear();
+		assertEquals(0, query(readings, p).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotAGetter() {
+		new ColumnarCollection<Reading>().addIntColumn(r -> r.getAge() + 1);
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.trigersoft.jaque.expression.Events;
+import com.trigersoft.jaque.expression.LambdaExpression;
+
+public class EventsTest {
+
+	@Before
+	public void setUp() {
+		Assume.assumeTrue(Events.isEnabled());
+	}
+
+	private static List<RecordedEvent> record(Runnable action, String... names)
+			throws IOException {
+		Path file = Files.createTempFile("jaque", ".jfr");
+		try (Recording r = new Recording()) {
+			for (String name : names)
+				r.enable(name).withoutThreshold();
+			r.start();
+			action.run();
+			r.stop();
+			r.dump(file);
+			return RecordingFile.readAllEvents(file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static List<RecordedEvent> filter(List<RecordedEvent> events,
+			String name) {
+		List<RecordedEvent> list = new ArrayList<RecordedEvent>();
+		for (RecordedEvent e : events)
+			if (e.getEventType().getName().equals(name))
+				list.add(e);
+		return list;
+	}
+
+	@Test
+	public void testParse() throws IOException {
+		List<RecordedEvent> events = record(() -> {
+			for (int i = 0; i < 2; i++) {
+				Function<String, Integer> f = s -> s.length() + 1;
+				LambdaExpression.parse(f).compile();
+			}
+		}, "com.trigersoft.jaque.Parse", "com.trigersoft.jaque.Compile");
+
+		List<RecordedEvent> parses = filter(events,
+				"com.trigersoft.jaque.Parse");
+		assertEquals(2, parses.size());
+		assertEquals("miss", parses.get(0).getString("cache"));
+		assertTrue(parses.get(0).getLong("bytesDecoded") > 0);
+		assertEquals("hit", parses.get(1).getString("cache"));
+		assertEquals(0, parses.get(1).getLong("bytesDecoded"));
+		assertTrue(parses.get(0).getClass("lambdaClass").getName()
+				.startsWith(getClass().getName()));
+
+		List<RecordedEvent> compiles = filter(events,
+				"com.trigersoft.jaque.Compile");
+		assertEquals(2, compiles.size());
+		assertEquals(Object.class.getName(),
+				compiles.get(0).getClass("resultType").getName());
+		assertTrue(compiles.get(0).getString("expression").contains("length"));
+	}
+
+	@Test
+	public void testQueryStages() throws IOException {
+		List<Integer> source = Arrays.asList(5, 3, 8, 1, 9, 2);
+		List<RecordedEvent> events = record(() -> {
+			for (Object e : new IterableQueryable<Integer>(Integer.class,
+					source).where(i -> i > 2).orderBy(i -> i))
+				e.hashCode();
+		}, "com.trigersoft.jaque.QueryStage");
+
+		List<String> stages = new ArrayList<String>();
+		for (RecordedEvent e : filter(events,
+				"com.trigersoft.jaque.QueryStage")) {
+			stages.add(e.getString("stage"));
+			if (e.getString("stage").equals("sort"))
+				assertEquals(4, e.getLong("rows"));
+		}
+		assertTrue(stages.toString(), stages.contains("sort"));
+		assertTrue(stages.toString(), stages.contains("stream"));
+	}
+
+	@Test
+	public void testPlanStage() throws IOException {
+		List<Customer> customers = Arrays.asList(new Customer(5),
+				new Customer(3), new Customer(8), new Customer(9));
+		IndexedCollection<Customer> indexed = new IndexedCollection<Customer>(
+				customers).addSortedIndex(Customer::getData);
+		List<RecordedEvent> events = record(() -> {
+			// planned, not planned and not plannable
+			new IterableQueryable<Customer>(Customer.class, indexed).where(
+					c -> c.getData() > 4).iterator();
+			new IterableQueryable<Customer>(Customer.class, indexed).where(
+					c -> c.getData() + 1 > 4).iterator();
+			new IterableQueryable<Customer>(Customer.class, customers).where(
+					c -> c.getData() > 4).iterator();
+		}, "com.trigersoft.jaque.QueryStage");
+
+		List<Long> rows = new ArrayList<Long>();
+		for (RecordedEvent e : filter(events,
+				"com.trigersoft.jaque.QueryStage"))
+			if (e.getString("stage").equals("plan"))
+				rows.add(e.getLong("rows"));
+		// the rows found by the indexes are not counted
+		assertEquals(Arrays.asList(-1L, 4L), rows);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import static com.trigersoft.jaque.TestSupport.customersOf;
+import static com.trigersoft.jaque.TestSupport.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.trigersoft.jaque.expression.LambdaExpression;
+
+public class HashJoinTest {
+
+	public static class Order {
+		private final int _customer;
+		private final String _item;
+
+		public Order(int customer, String item) {
+			_customer = customer;
+			_item = item;
+		}
+
+		public int getCustomer() {
+			return _customer;
+		}
+
+		public Integer getBoxedCustomer() {
+			return _customer == 0 ? null : _customer;
+		}
+
+		public String getItem() {
+			return _item;
+		}
+	}
+
+	private static List<Order> orders() {
+		return Arrays.asList(new Order(2, "b1"), new Order(1, "a1"),
+				new Order(2, "b2"), new Order(4, "d1"), new Order(0, "z"));
+	}
+
+	@Test
+	public void testPrimitiveKeys() {
+		Queryable<String> q = new IterableQueryable<Customer>(Customer.class,
+				customersOf(1, 2, 3, 0)).join(orders(), Customer::getData,
+				Order::getCustomer, (c, o) -> c.getData() + o.getItem());
+
+		assertEquals(Arrays.asList("1a1", "2b1", "2b2", "0z"), toList(q));
+		assertTrue(new HashJoin(customersOf(), orders(),
+				LambdaExpression.parse((Function<Customer, Integer>) Customer::getData),
+				LambdaExpression.parse((Function<Order, Integer>) Order::getCustomer),
+				LambdaExpression.parse((BiFunction<Customer, Order, Order>) (c, o) -> o))
+				.isPrimitive());
+	}
+
+	@Test
+	public void testOuterSmaller() {
+		// the table is built over the outer side, the order is the same
+		Queryable<String> q = new IterableQueryable<Customer>(Customer.class,
+				customersOf(2, 1)).join(orders(), Customer::getData,
+				Order::getCustomer, (c, o) -> c.getData() + o.getItem());
+
+		assertEquals(Arrays.asList("2b1", "2b2", "1a1"), toList(q));
+	}
+
+	@Test
+	public void testObjectKeys() {
+		Queryable<String> q = new IterableQueryable<Customer>(Customer.class,
+				customersOf(1, 2, 3, 0)).join(orders(), c -> c.getData() * 1,
+				Order::getBoxedCustomer, (c, o) -> o.getItem());
+
+		// null keys do not match
+		assertEquals(Arrays.asList("a1", "b1", "b2"), toList(q));
+		assertFalse(new HashJoin(customersOf(), orders(),
+				LambdaExpression.parse((Function<Customer, Integer>) Customer::getData),
+				LambdaExpression.parse((Function<Order, Integer>) Order::getBoxedCustomer),
+				LambdaExpression.parse((BiFunction<Customer, Order, Order>) (c, o) -> o))
+				.isPrimitive());
+	}
+
+	@Test
+	public void testJoinAfterWhere() {
+		Iterable<Order> inner = new IterableQueryable<Order>(Order.class,
+				orders()).where(o -> o.getItem().endsWith("1"));
+		Queryable<String> q = new IterableQueryable<Customer>(Customer.class,
+				customersOf(1, 2, 3, 4)).where(c -> c.getData() > 1)
+				.join(inner, Customer::getData, Order::getCustomer,
+						(c, o) -> o.getItem()).take(5);
+
+		assertEquals(Arrays.asList("b1", "d1"), toList(q));
+	}
+}
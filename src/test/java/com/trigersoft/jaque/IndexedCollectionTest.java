@@ -0,0 +1,239 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class IndexedCollectionTest {
+
+	public static class Resident {
+		private final String _city;
+		private final int _age;
+		private final Integer _rooms;
+		private int _scoreCalls;
+
+		public Resident(String city, int age, Integer rooms) {
+			_city = city;
+			_age = age;
+			_rooms = rooms;
+		}
+
+		public String getCity() {
+			return _city;
+		}
+
+		public int getAge() {
+			return _age;
+		}
+
+		public Integer getRooms() {
+			return _rooms;
+		}
+
+		public int getScore() {
+			_scoreCalls++;
+			return _age % 10;
+		}
+
+		@Override
+		public String toString() {
+			return _city + ":" + _age;
+		}
+	}
+
+	private static final Resident[] RESIDENTS = {
+			new Resident("Paris", 25, 2), new Resident("London", 35, 3),
+			new Resident("Paris", 45, null), new Resident("Rome", 30, 1),
+			new Resident("London", 52, 4), new Resident("Paris", 33, 3) };
+
+	private static IndexedCollection<Resident> residents() {
+		return new IndexedCollection<Resident>(Arrays.asList(RESIDENTS))
+				.addHashIndex(Resident::getCity)
+				.addSortedIndex(Resident::getAge)
+				.addSortedIndex(Resident::getRooms);
+	}
+
+	private static Queryable<Resident> query(IndexedCollection<Resident> c) {
+		return new IterableQueryable<Resident>(Resident.class, c);
+	}
+
+	private static List<Integer> ages(Iterable<Resident> it) {
+		List<Integer> list = new ArrayList<Integer>();
+		for (Resident r : it)
+			list.add(r.getAge());
+		return list;
+	}
+
+	@Test
+	public void testHashLookup() {
+		for (Resident r : RESIDENTS)
+			r._scoreCalls = 0;
+
+		Queryable<Resident> q = query(residents()).where(
+				r -> r.getCity().equals("Paris") && r.getScore() > 3);
+		assertEquals(Arrays.asList(25, 45), ages(q));
+
+		// the residual predicate is evaluated on the looked up rows only
+		int calls = 0;
+		for (Resident r : RESIDENTS)
+			calls += r._scoreCalls;
+		assertEquals(3, calls);
+
+		assertEquals(Arrays.asList(35, 52),
+				ages(query(residents()).where(r -> "London".equals(r.getCity()))));
+	}
+
+	@Test
+	public void testSortedRange() {
+		IndexedCollection<Resident> c = residents();
+		assertEquals(Arrays.asList(35, 45, 33),
+				ages(query(c).where(r -> r.getAge() > 30 && r.getAge() <= 45)));
+		assertEquals(Arrays.asList(45, 52),
+				ages(query(c).where(r -> 40 < r.getAge())));
+		assertEquals(Arrays.asList(35, 45, 52, 33),
+				ages(query(c).where(r -> r.getAge() >= 30.5)));
+		assertEquals(Arrays.asList(52),
+				ages(query(c).where(r -> r.getRooms() > 3)));
+		assertEquals(Arrays.asList(45),
+				ages(query(c).where(r -> r.getRooms() == null)));
+	}
+
+	@Test
+	public void testIntersectUnion() {
+		IndexedCollection<Resident> c = residents();
+		assertEquals(Arrays.asList(45, 33), ages(query(c).where(
+				r -> r.getCity() == "Paris" && r.getAge() > 30)));
+		assertEquals(Arrays.asList(25, 45, 30, 52, 33), ages(query(c).where(
+				r -> r.getCity() == "Paris" || r.getAge() < 31 || r.getAge() > 50)));
+		// not answerable by the indexes
+		assertEquals(Arrays.asList(35, 30, 52), ages(query(c).where(
+				r -> r.getCity() != "Paris")));
+	}
+
+	@Test
+	public void testCapturedValues() {
+		String city = "London";
+		int min = 40;
+		assertEquals(Arrays.asList(52), ages(query(residents()).where(
+				r -> r.getCity().equals(city) && r.getAge() > min)));
+	}
+
+	@Test
+	public void testUpdates() {
+		IndexedCollection<Resident> c = residents();
+		Queryable<Resident> q = query(c).where(r -> r.getCity() == "Paris");
+		assertEquals(Arrays.asList(25, 45, 33), ages(q));
+
+		for (Iterator<Resident> it = c.iterator(); it.hasNext();)
+			if (it.next().getAge() < 40)
+				it.remove();
+		assertEquals(2, c.size());
+		assertEquals(Arrays.asList(45), ages(q));
+
+		c.add(new Resident("Paris", 60, 5));
+		assertEquals(3, c.size());
+		assertEquals(Arrays.asList(45, 52, 60), ages(c));
+		assertEquals(Arrays.asList(45, 60), ages(q));
+		assertEquals(Arrays.asList(60),
+				ages(query(c).where(r -> r.getRooms() >= 5)));
+	}
+
+	public static class Reading {
+		private final int _id;
+		private final double _value;
+
+		public Reading(int id, double value) {
+			_id = id;
+			_value = value;
+		}
+
+		public int getId() {
+			return _id;
+		}
+
+		public double getValue() {
+			return _value;
+		}
+	}
+
+	private static final Reading[] READINGS = { new Reading(1, 1.5),
+			new Reading(2, Double.NaN), new Reading(3, -0.0),
+			new Reading(4, 0.0), new Reading(5, -2) };
+
+	private static List<Integer> ids(Queryable<Reading> q) {
+		List<Integer> list = new ArrayList<Integer>();
+		for (Reading r : q)
+			list.add(r.getId());
+		return list;
+	}
+
+	@Test
+	public void testFloatingPointKeys() {
+		IndexedCollection<Reading> sorted = new IndexedCollection<Reading>(
+				Arrays.asList(READINGS)).addSortedIndex(Reading::getValue);
+		IndexedCollection<Reading> hashed = new IndexedCollection<Reading>(
+				Arrays.asList(READINGS)).addHashIndex(Reading::getValue);
+
+		Double negativeZero = -0.0;
+		Double nan = Double.NaN;
+		for (IndexedCollection<Reading> c : Arrays.asList(sorted, hashed)) {
+			Queryable<Reading> q = new IterableQueryable<Reading>(
+					Reading.class, c);
+			assertEquals(Arrays.asList(3, 4),
+					ids(q.where(r -> r.getValue() == 0.0)));
+			assertEquals(Arrays.asList(3, 4),
+					ids(q.where(r -> r.getValue() == negativeZero)));
+			assertEquals(Arrays.asList(),
+					ids(q.where(r -> r.getValue() == nan)));
+			// not answerable by the indexes
+			assertEquals(Arrays.asList(2, 3, 4, 5),
+					ids(q.where(r -> r.getValue() != 1.5)));
+		}
+
+		Queryable<Reading> q = new IterableQueryable<Reading>(Reading.class,
+				sorted);
+		assertEquals(Arrays.asList(1), ids(q.where(r -> r.getValue() > 0.0)));
+		assertEquals(Arrays.asList(1, 3, 4),
+				ids(q.where(r -> r.getValue() >= negativeZero)));
+		assertEquals(Arrays.asList(5), ids(q.where(r -> r.getValue() < 0.0)));
+		assertEquals(Arrays.asList(3, 4, 5),
+				ids(q.where(r -> r.getValue() <= 0)));
+		assertEquals(Arrays.asList(),
+				ids(q.where(r -> r.getValue() > nan || r.getValue() <= nan)));
+
+		for (Iterator<Reading> it = sorted.iterator(); it.hasNext();)
+			if (it.next().getId() % 2 == 0)
+				it.remove();
+		assertEquals(Arrays.asList(3),
+				ids(q.where(r -> r.getValue() == 0.0)));
+		assertEquals(Arrays.asList(1, 3, 5),
+				ids(q.where(r -> r.getValue() != 2)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotGetter() {
+		new IndexedCollection<Resident>().addHashIndex(r -> r.getAge() + 1);
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import static com.trigersoft.jaque.TestSupport.Pool;
+import static com.trigersoft.jaque.TestSupport.Threads;
+import static com.trigersoft.jaque.TestSupport.customers;
+import static com.trigersoft.jaque.TestSupport.record;
+import static com.trigersoft.jaque.TestSupport.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelQueryTest {
+
+	private static final AtomicInteger Calls = new AtomicInteger();
+
+	@Before
+	public void reset() {
+		Threads.clear();
+	}
+
+	public static int count(int x) {
+		Calls.incrementAndGet();
+		return record(x);
+	}
+
+	private static List<Integer> expected(List<Customer> customers) {
+		List<Integer> expected = new ArrayList<Integer>();
+		for (Customer c : customers)
+			if (c.getData() % 3 == 0 && c.getData() > 100)
+				expected.add(c.getData() * 2);
+		return expected;
+	}
+
+	@Test
+	public void testOrderedParallel() {
+		List<Customer> customers = customers(200000);
+		Queryable<Integer> q = new IterableQueryable<Customer>(Customer.class,
+				customers).parallel(Pool)
+				.where(c -> c.getData() % 3 == 0 && c.getData() > 100)
+				.select(c -> record(c.getData()) * 2);
+
+		assertEquals(expected(customers), toList(q));
+		assertTrue(Threads.size() > 1);
+		assertTrue(!Threads.contains(Thread.currentThread()));
+	}
+
+	@Test
+	public void testSmallSourceIsSequential() {
+		List<Customer> customers = customers(100);
+		Queryable<Integer> q = new IterableQueryable<Customer>(Customer.class,
+				customers).parallel(Pool)
+				.where(c -> c.getData() % 3 == 0 && c.getData() > 100)
+				.select(c -> record(c.getData()) * 2);
+
+		assertEquals(expected(customers), toList(q));
+		assertEquals(1, Threads.size());
+		assertTrue(Threads.contains(Thread.currentThread()));
+	}
+
+	@Test
+	public void testStatefulOperators() {
+		List<Customer> customers = customers(200000);
+		List<Integer> expected = expected(customers).subList(0, 10);
+		Queryable<Integer> q = new IterableQueryable<Customer>(Customer.class,
+				customers).parallel(Pool)
+				.where(c -> c.getData() % 3 == 0 && c.getData() > 100)
+				.select(c -> record(c.getData()) * 2).take(10);
+		assertEquals(expected, toList(q));
+
+		Queryable<Integer> distinct = new IterableQueryable<Customer>(
+				Customer.class, customers).parallel(Pool)
+				.select(c -> c.getData()).distinct().orderBy(x -> x);
+		List<Integer> all = toList(distinct);
+		assertEquals(1000, all.size());
+		assertEquals(Integer.valueOf(0), all.get(0));
+		assertEquals(Integer.valueOf(999), all.get(999));
+	}
+
+	@Test
+	public void testTakeIsLazy() {
+		List<Customer> customers = customers(200000);
+		Calls.set(0);
+		Queryable<Customer> q = new IterableQueryable<Customer>(
+				Customer.class, customers).parallel(Pool)
+				.where(c -> count(c.getData()) % 3 == 0).take(10);
+
+		assertEquals(10, toList(q).size());
+		// the predicate is not evaluated over the whole source
+		assertTrue(Integer.toString(Calls.get()), Calls.get() < 100);
+		assertEquals(1, Threads.size());
+	}
+
+	@Test
+	public void testCostModel() {
+		assertTrue(!ParallelExecution.isParallel(1000000, 10, 1));
+		assertTrue(!ParallelExecution.isParallel(100, 10, 4));
+		assertTrue(ParallelExecution.isParallel(100000, 10, 4));
+	}
+}
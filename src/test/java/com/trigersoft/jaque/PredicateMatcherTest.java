@@ -0,0 +1,173 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import com.trigersoft.jaque.IndexedCollectionTest.Resident;
+
+public class PredicateMatcherTest {
+
+	private static int Calls;
+
+	public static boolean count(int x) {
+		Calls++;
+		return x >= 0;
+	}
+
+	private static final String[] Cities = { "Paris", "Rome", "Oslo", null };
+
+	private static List<Predicate<Resident>> predicates(int count) {
+		List<Predicate<Resident>> predicates = new ArrayList<Predicate<Resident>>();
+		for (int i = 0; i < count; i++) {
+			int age = i % 100;
+			String city = Cities[i % 3];
+			switch (i % 6) {
+			case 0:
+				predicates.add(r -> r.getAge() == age);
+				break;
+			case 1:
+				predicates.add(r -> city.equals(r.getCity()) && r.getAge() > age);
+				break;
+			case 2:
+				predicates.add(r -> age <= r.getAge() && r.getAge() < age + 10);
+				break;
+			case 3:
+				predicates.add(r -> r.getCity() == null || r.getAge() == age);
+				break;
+			case 4:
+				predicates.add(r -> r.getRooms() != null && r.getRooms() >= age % 7);
+				break;
+			default:
+				predicates.add(r -> (long) r.getAge() <= age * 2L
+						&& !city.equals(r.getCity()));
+				break;
+			}
+		}
+		return predicates;
+	}
+
+	@Test
+	public void testMatch() {
+		List<Predicate<Resident>> predicates = predicates(3000);
+		PredicateMatcher<Resident> matcher = new PredicateMatcher<Resident>();
+		for (int i = 0; i < predicates.size(); i++)
+			assertEquals(i, matcher.add(predicates.get(i)));
+
+		Random random = new Random(7);
+		for (int i = 0; i < 500; i++) {
+			Resident r = new Resident(Cities[random.nextInt(4)],
+					random.nextInt(120), random.nextBoolean() ? null : random
+							.nextInt(10));
+			BitSet expected = new BitSet();
+			for (int j = 0; j < predicates.size(); j++)
+				if (predicates.get(j).test(r))
+					expected.set(j);
+			assertEquals(expected, matcher.match(r));
+		}
+	}
+
+	@Test
+	public void testCandidates() {
+		PredicateMatcher<Resident> matcher = new PredicateMatcher<Resident>();
+		for (int i = 0; i < 1000; i++) {
+			int age = i;
+			matcher.add(r -> r.getAge() == age && count(age));
+		}
+
+		Calls = 0;
+		BitSet matched = matcher.match(new Resident("Paris", 5, null));
+		assertEquals(1, Calls);
+		assertEquals(1, matched.cardinality());
+		assertTrue(matched.get(5));
+	}
+
+	@Test
+	public void testSharedConjuncts() {
+		PredicateMatcher<Resident> matcher = new PredicateMatcher<Resident>();
+		for (int i = 0; i < 100; i++) {
+			int age = i;
+			matcher.add(r -> r.getAge() > age && count(1));
+			matcher.add(r -> r.getAge() < age + 100 && count(1));
+		}
+
+		Calls = 0;
+		BitSet matched = matcher.match(new Resident("Paris", 50, null));
+		assertEquals(1, Calls);
+		assertEquals(150, matched.cardinality());
+	}
+
+	@Test
+	public void testRemove() {
+		PredicateMatcher<Resident> matcher = new PredicateMatcher<Resident>();
+		int first = matcher.add(r -> r.getAge() > 10);
+		int second = matcher.add(r -> r.getAge() < 20);
+		int third = matcher.add(r -> r.getCity() != null);
+		Resident r = new Resident("Rome", 15, null);
+		assertEquals(3, matcher.match(r).cardinality());
+
+		assertTrue(matcher.remove(first));
+		assertTrue(matcher.remove(third));
+		assertTrue(!matcher.remove(third));
+		assertEquals(1, matcher.size());
+		BitSet matched = matcher.match(r);
+		assertEquals(1, matched.cardinality());
+		assertTrue(matched.get(second));
+	}
+
+	@Test
+	public void testRemoveReleasesNodes() {
+		PredicateMatcher<Resident> matcher = new PredicateMatcher<Resident>();
+		int adult = matcher.add(r -> r.getAge() >= 18);
+		for (int i = 0; i < 1000; i++) {
+			int age = i;
+			int id = matcher.add(r -> r.getAge() >= 18 && r.getAge() != age);
+			assertTrue(matcher.remove(id));
+		}
+		// the shared conjunct is kept, the removed ones are dropped
+		assertEquals(1, matcher.getNodeCount());
+		assertTrue(matcher.match(new Resident("Oslo", 20, null)).get(adult));
+
+		int rome = matcher.add(r -> "Rome".equals(r.getCity()));
+		int young = matcher.add(r -> r.getAge() < 18);
+		assertTrue(matcher.remove(adult));
+		// the freed id is recycled
+		int old = matcher.add(r -> r.getAge() > 60);
+		assertEquals(3, matcher.getNodeCount());
+
+		BitSet matched = matcher.match(new Resident("Rome", 70, null));
+		assertEquals(2, matched.cardinality());
+		assertTrue(matched.get(rome));
+		assertTrue(matched.get(old));
+		assertTrue(!matched.get(young));
+
+		assertTrue(matcher.remove(rome));
+		assertTrue(matcher.remove(young));
+		assertTrue(matcher.remove(old));
+		assertEquals(0, matcher.getNodeCount());
+	}
+}
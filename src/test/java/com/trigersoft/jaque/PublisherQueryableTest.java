@@ -0,0 +1,224 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import static com.trigersoft.jaque.TestSupport.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+public class PublisherQueryableTest {
+
+	private static final ExecutorService Executor = Executors
+			.newSingleThreadExecutor();
+
+	@AfterClass
+	public static void shutdown() {
+		Executor.shutdown();
+	}
+
+	/**
+	 * Emits the customers on the executor thread, recording the requests.
+	 */
+	private static final class ListPublisher implements
+			Flow.Publisher<Customer> {
+		final List<Customer> _items;
+		final List<Long> _requests = Collections
+				.synchronizedList(new ArrayList<Long>());
+		volatile int _emitted;
+		volatile boolean _cancelled;
+		volatile boolean _completes = true;
+
+		ListPublisher(List<Customer> items) {
+			_items = items;
+		}
+
+		@Override
+		public void subscribe(Flow.Subscriber<? super Customer> subscriber) {
+			Executor.execute(() -> subscriber
+					.onSubscribe(new Flow.Subscription() {
+						private long _demand;
+						private int _index;
+						private boolean _completed;
+
+						@Override
+						public void request(long n) {
+							_requests.add(n);
+							Executor.execute(() -> {
+								_demand += n;
+								while (_demand > 0 && _index < _items.size()
+										&& !_cancelled) {
+									_demand--;
+									_emitted++;
+									subscriber.onNext(_items.get(_index++));
+								}
+								if (_index == _items.size() && !_completed
+										&& !_cancelled && _completes) {
+									_completed = true;
+									subscriber.onComplete();
+								}
+							});
+						}
+
+						@Override
+						public void cancel() {
+							_cancelled = true;
+						}
+					}));
+		}
+	}
+
+	/**
+	 * Requests one result at a time.
+	 */
+	private static final class Collector implements Flow.Subscriber<Object> {
+		final List<Object> _results = Collections
+				.synchronizedList(new ArrayList<Object>());
+		final CountDownLatch _done = new CountDownLatch(1);
+		volatile Throwable _error;
+		private Flow.Subscription _subscription;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			_subscription = subscription;
+			subscription.request(1);
+		}
+
+		@Override
+		public void onNext(Object item) {
+			_results.add(item);
+			_subscription.request(1);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			_error = throwable;
+			_done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			_done.countDown();
+		}
+
+		List<Object> await() throws InterruptedException {
+			assertTrue(_done.await(10, TimeUnit.SECONDS));
+			return _results;
+		}
+	}
+
+	private static List<Customer> customers(int count) {
+		List<Customer> list = new ArrayList<Customer>(count);
+		for (int i = 0; i < count; i++)
+			list.add(new Customer(i));
+		return list;
+	}
+
+	@Test
+	public void testPull() {
+		ListPublisher source = new ListPublisher(customers(1000));
+		Queryable<Customer> q = new PublisherQueryable<Customer>(
+				Customer.class, source, 16);
+
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = 999; i >= 0; i -= 3)
+			expected.add(i);
+		assertEquals(expected, toList(q.where(c -> c.getData() % 3 == 0)
+				.select(c -> c.getData()).orderByDescending(x -> x)));
+		for (long n : source._requests)
+			assertTrue(n <= 16);
+	}
+
+	@Test
+	public void testPush() throws InterruptedException {
+		ListPublisher source = new ListPublisher(customers(1000));
+		Flow.Publisher<Integer> results = PublisherQueryable
+				.publisher(new PublisherQueryable<Customer>(Customer.class,
+						source, 64).where(c -> c.getData() % 2 == 0).select(
+						c -> c.getData() + 1));
+
+		Collector collector = new Collector();
+		results.subscribe(collector);
+		List<Object> expected = new ArrayList<Object>();
+		for (int i = 0; i < 1000; i += 2)
+			expected.add(i + 1);
+		assertEquals(expected, collector.await());
+
+		// a batch is requested once the previous one is delivered
+		for (long n : source._requests)
+			assertEquals(64L, n);
+		assertEquals(16, source._requests.size());
+	}
+
+	@Test
+	public void testPushTake() throws InterruptedException {
+		ListPublisher source = new ListPublisher(customers(1000));
+		Flow.Publisher<Customer> results = PublisherQueryable
+				.publisher(new PublisherQueryable<Customer>(Customer.class,
+						source, 10).where(c -> c.getData() > 100).take(5));
+
+		Collector collector = new Collector();
+		results.subscribe(collector);
+		assertEquals(5, collector.await().size());
+		assertTrue(source._cancelled);
+		assertTrue(source._emitted <= 120);
+	}
+
+	@Test
+	public void testPushPartialBatch() throws InterruptedException {
+		// a slow source, sending less than a batch
+		ListPublisher source = new ListPublisher(customers(3));
+		source._completes = false;
+		Collector collector = new Collector();
+		PublisherQueryable.publisher(
+				new PublisherQueryable<Customer>(Customer.class, source, 64)
+						.select(c -> c.getData())).subscribe(collector);
+
+		for (int i = 0; i < 1000 && collector._results.size() < 3; i++)
+			Thread.sleep(10);
+		assertEquals(Arrays.<Object> asList(0, 1, 2), collector._results);
+	}
+
+	@Test
+	public void testPullTakeCancels() {
+		ListPublisher source = new ListPublisher(customers(1000));
+		Queryable<Customer> q = new PublisherQueryable<Customer>(
+				Customer.class, source, 16);
+
+		assertEquals(1, toList(q.where(c -> c.getData() > 100).take(1)).size());
+		assertTrue(source._cancelled);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testPushBarrier() {
+		PublisherQueryable<Customer> q = new PublisherQueryable<Customer>(
+				Customer.class, new ListPublisher(customers(10)));
+		PublisherQueryable.publisher(q.orderBy(c -> c.getData()));
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import static com.trigersoft.jaque.TestSupport.customersOf;
+import static com.trigersoft.jaque.TestSupport.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.trigersoft.jaque.expression.MemberExpression;
+
+public class QueryableTest {
+
+	@Test
+	public void testWhereSelect() {
+		Queryable<Customer> q = new IterableQueryable<Customer>(Customer.class,
+				customersOf(5, 12, 3, 20, 7));
+
+		Queryable<Integer> r = q.where(c -> c.getData() > 4)
+				.where(c -> c.getData() < 15).select(c -> c.getData() * 2);
+
+		assertEquals(Arrays.asList(10, 24, 14), toList(r));
+		// the query can be executed again
+		assertEquals(Arrays.asList(10, 24, 14), toList(r));
+	}
+
+	@Test
+	public void testExpressionTree() {
+		Queryable<Customer> q = new IterableQueryable<Customer>(Customer.class,
+				customersOf(1));
+		Queryable<Customer> r = q.where(c -> c.getData() > 4).take(3);
+
+		MemberExpression take = (MemberExpression) r.getExpression();
+		assertSame(Operation.Take, Operation.of(take.getMember()));
+		MemberExpression where = (MemberExpression) take.getArguments().get(0);
+		assertSame(Operation.Where, Operation.of(where.getMember()));
+		assertSame(q.getExpression(), where.getArguments().get(0));
+	}
+
+	@Test
+	public void testLazyTake() {
+		AtomicInteger pulled = new AtomicInteger();
+		Iterable<Integer> source = () -> new Iterator<Integer>() {
+			private int _i;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public Integer next() {
+				pulled.incrementAndGet();
+				return _i++;
+			}
+		};
+
+		Queryable<Integer> q = new IterableQueryable<Integer>(Integer.class,
+				source).where(i -> i % 2 == 0).take(3);
+
+		assertEquals(0, pulled.get());
+		assertEquals(Arrays.asList(0, 2, 4), toList(q));
+		assertEquals(5, pulled.get());
+	}
+
+	@Test
+	public void testOrderByDistinct() {
+		Queryable<Integer> q = new IterableQueryable<Integer>(Integer.class,
+				Arrays.asList(5, 3, 5, 9, 1, 3));
+
+		assertEquals(Arrays.asList(1, 3, 5, 9),
+				toList(q.distinct().orderBy(i -> i)));
+		assertEquals(Arrays.asList(9, 5, 5),
+				toList(q.orderByDescending(i -> i).take(3)));
+	}
+
+	@Test
+	public void testGroupBy() {
+		Queryable<Integer> q = new IterableQueryable<Integer>(Integer.class,
+				Arrays.asList(1, 2, 3, 4, 5, 6, 7));
+
+		List<Grouping<Integer, Integer>> groups = toList(q.groupBy(i -> i % 3));
+		assertEquals(3, groups.size());
+		assertEquals(Integer.valueOf(1), groups.get(0).getKey());
+		assertEquals(Arrays.asList(1, 4, 7), toList(groups.get(0)));
+		assertEquals(Arrays.asList(3, 6), toList(groups.get(2)));
+	}
+
+	@Test
+	public void testSingle() {
+		Queryable<Integer> q = new IterableQueryable<Integer>(Integer.class,
+				Arrays.asList(1, 2, 3));
+
+		assertEquals(Integer.valueOf(2), q.where(i -> i == 2).single());
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import static com.trigersoft.jaque.TestSupport.customers;
+import static com.trigersoft.jaque.TestSupport.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SortingTest {
+
+	private static final AtomicInteger Calls = new AtomicInteger();
+
+	public static int count(int x) {
+		Calls.incrementAndGet();
+		return x;
+	}
+
+	private static final Comparator<Customer> Expected = Comparator
+			.<Customer> comparingInt(c -> c.getData() % 10)
+			.thenComparing(Comparator.comparing(
+					(Customer c) -> Integer.toString(c.getData() % 7))
+					.reversed()).thenComparingDouble(c -> c.getData() / 3.0);
+
+	private static Queryable<Customer> query(Iterable<Customer> customers) {
+		return new IterableQueryable<Customer>(Customer.class, customers)
+				.orderBy(c -> c.getData() % 10)
+				.thenByDescending(c -> Integer.toString(c.getData() % 7))
+				.thenBy(c -> c.getData() / 3.0);
+	}
+
+	@Test
+	public void testThenBy() {
+		List<Customer> customers = customers(1000);
+		List<Customer> expected = new ArrayList<Customer>(customers);
+		expected.sort(Expected);
+
+		assertEquals(expected, toList(query(customers)));
+	}
+
+	@Test
+	public void testStable() {
+		List<Customer> customers = customers(1000);
+		List<Customer> sorted = toList(new IterableQueryable<Customer>(
+				Customer.class, customers).orderByDescending(c -> c
+				.getData() % 3));
+
+		List<Customer> expected = new ArrayList<Customer>(customers);
+		expected.sort(Comparator.<Customer> comparingInt(
+				c -> c.getData() % 3).reversed());
+		// the same elements are equal, so check the identities
+		for (int i = 0; i < expected.size(); i++)
+			assertTrue(expected.get(i) == sorted.get(i));
+	}
+
+	@Test
+	public void testKeysExtractedOnce() {
+		List<Customer> customers = customers(1000);
+		Calls.set(0);
+		toList(new IterableQueryable<Customer>(Customer.class, customers)
+				.orderBy(c -> count(c.getData())));
+		assertEquals(1000, Calls.get());
+	}
+
+	@Test
+	public void testTop() {
+		List<Customer> customers = customers(1000);
+		List<Customer> expected = new ArrayList<Customer>(customers);
+		expected.sort(Expected);
+
+		// a source, which size is not known
+		Iterable<Customer> source = () -> customers.iterator();
+		for (int k : new int[] { 0, 1, 5, 17, 100, 999, 1000, 2000 }) {
+			List<Customer> top = toList(query(source).take(k));
+			List<Customer> prefix = expected.subList(0, Math.min(k, 1000));
+			assertEquals(prefix.size(), top.size());
+			for (int i = 0; i < prefix.size(); i++)
+				assertTrue(prefix.get(i) == top.get(i));
+			assertEquals(prefix, toList(query(customers).take(k)));
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testThenByUnsorted() {
+		Query.thenBy(customers(10), null);
+	}
+
+	@Test
+	public void testThenByOnlyAfterOrderBy() {
+		Queryable<Customer> q = new IterableQueryable<Customer>(
+				Customer.class, customers(10));
+		// where() is typed Queryable, which has no thenBy, and is not an
+		// OrderedQueryable at run time either
+		assertFalse(q instanceof OrderedQueryable<?>);
+		assertFalse(q.where(c -> c.getData() > 1) instanceof OrderedQueryable<?>);
+		for (Method m : Queryable.class.getMethods())
+			assertFalse(m.getName().startsWith("thenBy"));
+
+		OrderedQueryable<Customer> sorted = q.where(c -> c.getData() > 1)
+				.orderBy(c -> c.getData());
+		assertEquals(toList(sorted), toList(sorted.thenBy(c -> 0)));
+	}
+}
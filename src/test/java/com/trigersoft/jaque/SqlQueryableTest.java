@@ -0,0 +1,180 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.trigersoft.jaque;
+
+import static com.trigersoft.jaque.TestSupport.toList;
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SqlQueryableTest {
+
+	public static class Account {
+		private final String _name;
+		private final String _city;
+		private final int _balance;
+		private final boolean _active;
+
+		public Account(String name, String city, int balance, boolean active) {
+			_name = name;
+			_city = city;
+			_balance = balance;
+			_active = active;
+		}
+
+		public String getName() {
+			return _name;
+		}
+
+		public String getCity() {
+			return _city;
+		}
+
+		public int getBalance() {
+			return _balance;
+		}
+
+		public boolean isActive() {
+			return _active;
+		}
+	}
+
+	private static JdbcDataSource _dataSource;
+	private static final AtomicInteger _mapped = new AtomicInteger();
+
+	@BeforeClass
+	public static void setUp() throws SQLException {
+		_dataSource = new JdbcDataSource();
+		_dataSource.setURL("jdbc:h2:mem:jaque;DB_CLOSE_DELAY=-1");
+		try (Connection c = _dataSource.getConnection();
+				Statement s = c.createStatement()) {
+			s.execute("CREATE TABLE ACCOUNTS (name VARCHAR(20), city VARCHAR(20), balance INT, active BOOLEAN)");
+			s.execute("INSERT INTO ACCOUNTS VALUES ('ann', 'Paris', 100, TRUE), ('bob', 'London', 250, FALSE), "
+					+ "('cid', NULL, 40, TRUE), ('dan', 'Perth', 500, TRUE), ('eve', '50%_off', 70, FALSE)");
+		}
+	}
+
+	private static Queryable<Account> accounts() {
+		return new SqlQueryable<Account>(Account.class, _dataSource,
+				"ACCOUNTS", rs -> {
+					_mapped.incrementAndGet();
+					return new Account(rs.getString("name"), rs
+							.getString("city"), rs.getInt("balance"), rs
+							.getBoolean("active"));
+				});
+	}
+
+	private static List<String> names(Iterable<Account> it) {
+		List<String> list = new ArrayList<String>();
+		for (Account a : it)
+			list.add(a.getName());
+		return list;
+	}
+
+	private static Queryable<Account> richerThan(int min) {
+		return accounts().where(a -> a.getBalance() > min);
+	}
+
+	@Test
+	public void testWhereSelect() {
+		Queryable<String> q = richerThan(90).where(a -> a.isActive()).select(
+				a -> a.getCity());
+
+		assertEquals("SELECT city FROM ACCOUNTS WHERE (balance > ?) AND (active = TRUE)",
+				((SqlQueryable<String>) q).getSql());
+		assertEquals(Arrays.asList("Paris", "Perth"), toList(q));
+	}
+
+	@Test
+	public void testFilteringInDatabase() {
+		_mapped.set(0);
+		assertEquals(Arrays.asList("bob", "dan"), names(richerThan(200)));
+		assertEquals(2, _mapped.get());
+
+		// the same statement text for another captured value
+		assertEquals(((SqlQueryable<Account>) richerThan(200)).getSql(),
+				((SqlQueryable<Account>) richerThan(50)).getSql());
+		assertEquals(Arrays.asList("ann", "bob", "dan", "eve"),
+				names(richerThan(50)));
+	}
+
+	@Test
+	public void testStrings() {
+		String prefix = "P";
+		assertEquals(Arrays.asList("ann", "dan"), names(accounts().where(
+				a -> a.getCity().startsWith(prefix))));
+
+		String percent = "%";
+		assertEquals(Arrays.asList("eve"), names(accounts().where(
+				a -> a.getCity().contains(percent))));
+
+		String city = "London";
+		assertEquals(Arrays.asList("bob"), names(accounts().where(
+				a -> a.getCity().equals(city))));
+	}
+
+	@Test
+	public void testNullsAndLogic() {
+		assertEquals(Arrays.asList("cid"), names(accounts().where(
+				a -> a.getCity() == null)));
+		assertEquals(Arrays.asList("ann", "cid", "dan"), names(accounts()
+				.where(a -> a.getCity() == null || a.getBalance() < 150
+						&& !a.getName().equals("eve") || a.getBalance() > 400)));
+	}
+
+	@Test
+	public void testNotEqualKeepsNulls() {
+		// a NULL city is different from Paris, as in memory
+		String paris = "Paris";
+		List<String> others = Arrays.asList("bob", "cid", "dan", "eve");
+		Queryable<Account> q = accounts().where(a -> a.getCity() != paris);
+		assertEquals("SELECT * FROM ACCOUNTS WHERE (city IS DISTINCT FROM ?)",
+				((SqlQueryable<Account>) q).getSql());
+		assertEquals(others, names(q));
+		assertEquals(others, names(accounts().where(
+				a -> !paris.equals(a.getCity()))));
+		assertEquals(others, names(accounts().where(
+				a -> !(a.getCity().equals(paris) && a.isActive()))));
+		assertEquals(Arrays.asList("ann"), names(accounts().where(
+				a -> !(a.getCity() != paris))));
+	}
+
+	@Test
+	public void testInMemoryRest() {
+		_mapped.set(0);
+		Queryable<Account> q = richerThan(60).where(
+				a -> a.getName().length() == 3 && !a.getName().endsWith("n"))
+				.orderByDescending(a -> a.getBalance());
+
+		// the sorted query is wrapped to add thenBy
+		assertEquals("SELECT * FROM ACCOUNTS WHERE (balance > ?)",
+				((SqlQueryable<Account>) q.getFactory().createQueryable(
+						Account.class, q.getExpression())).getSql());
+		assertEquals(Arrays.asList("bob", "eve"), names(q));
+		assertEquals(4, _mapped.get());
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The fixtures and helpers shared by the query tests.
+ */
+public final class TestSupport {
+
+	/**
+	 * The pool of the parallel queries. Its workers are daemon threads, so it
+	 * is not shut down.
+	 */
+	public static final ForkJoinPool Pool = new ForkJoinPool(4);
+
+	/**
+	 * The threads which called {@link #record(int)}.
+	 */
+	public static final Set<Thread> Threads = ConcurrentHashMap.newKeySet();
+
+	private TestSupport() {
+	}
+
+	/**
+	 * Records the calling thread in {@link #Threads}.
+	 *
+	 * @return the argument.
+	 */
+	public static int record(int x) {
+		Threads.add(Thread.currentThread());
+		return x;
+	}
+
+	public static <T> List<T> toList(Iterable<T> it) {
+		List<T> list = new ArrayList<T>();
+		for (T t : it)
+			list.add(t);
+		return list;
+	}
+
+	/**
+	 * Creates the customers having the data in {@code [0, 1000)}, scattered
+	 * with repetitions.
+	 */
+	public static List<Customer> customers(int count) {
+		List<Customer> list = new ArrayList<Customer>(count);
+		for (int i = 0; i < count; i++)
+			list.add(new Customer((i * 7919) % 1000));
+		return list;
+	}
+
+	/**
+	 * Creates the customers having the given data, in order.
+	 */
+	public static List<Customer> customersOf(int... data) {
+		List<Customer> list = new ArrayList<Customer>(data.length);
+		for (int x : data)
+			list.add(new Customer(x));
+		return list;
+	}
+}
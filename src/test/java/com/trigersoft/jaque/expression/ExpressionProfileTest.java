@@ -0,0 +1,86 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+public class ExpressionProfileTest {
+
+	private static String line(ExpressionProfile profile, String expression) {
+		for (String line : profile.toString().split("\n"))
+			if (line.trim().startsWith(expression + "  "))
+				return line;
+		throw new AssertionError(expression + " not in " + profile);
+	}
+
+	@Test
+	public void testCounts() {
+		Predicate<Integer> p = i -> i > 4 && i < 15;
+		ExpressionProfile profile = LambdaExpression.parse(p).profile(1);
+		Function<Object[], ?> f = profile.getFunction();
+		for (int i = 0; i < 20; i++)
+			assertEquals(p.test(i), f.apply(new Object[] { i }));
+
+		assertEquals(20, profile.getInvocations());
+		String root = profile.toString().split("\n")[0];
+		assertTrue(root, root.contains("calls=20 "));
+		assertTrue(root, root.contains("(100.0%)"));
+		assertTrue(root, root.contains("results={false=50.0%, true=50.0%}"));
+
+		// the second operand is evaluated only if the first one is false
+		String second = line(profile, "(((int)P0) >= 15)");
+		assertTrue(second, second.contains("calls=15 "));
+		assertTrue(second,
+				second.contains("results={false=66.7%, true=33.3%}"));
+
+		String param = line(profile, "P0");
+		assertTrue(param, param.contains("others=60.0%} range=[0.0, 19.0]"));
+	}
+
+	@Test
+	public void testSampling() {
+		Function<Integer, Integer> g = i -> i * 2;
+		ExpressionProfile profile = LambdaExpression.parse(g).profile(4);
+		Function<Object[], ?> f = profile.getFunction();
+		for (int i = 0; i < 20; i++)
+			assertEquals(i * 2, f.apply(new Object[] { i }));
+
+		assertEquals(20, profile.getInvocations());
+		// 5 of the 20 results are recorded
+		String root = profile.toString().split("\n")[0];
+		assertTrue(root, root.contains("calls=20 "));
+		assertTrue(root, root.contains("results={0=20.0%, 8=20.0%, 16=20.0%, "
+				+ "24=20.0%, 32=20.0%}"));
+
+		profile.reset();
+		assertEquals(0, profile.getInvocations());
+		assertTrue(profile.toString(), !profile.toString().contains("results"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidInterval() {
+		Function<Integer, Integer> g = i -> i + 1;
+		LambdaExpression.parse(g).profile(0);
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+public class InternerTest {
+
+	public static class Person {
+		public String getName() {
+			return null;
+		}
+
+		public boolean named(String name, int length) {
+			return false;
+		}
+	}
+
+	@Test
+	public void testParameter() {
+		assertSame(Expression.parameter(Integer.class, 0),
+				Expression.parameter(Integer.class, 0));
+		assertFalse(Expression.parameter(Integer.class, 0) == Expression
+				.parameter(Long.class, 0));
+		assertEquals(Expression.parameter(Integer.class, 100),
+				Expression.parameter(Integer.class, 100));
+	}
+
+	@Test
+	public void testConstant() {
+		assertSame(Expression.constant(1, Integer.TYPE),
+				Expression.constant(1, Integer.TYPE));
+		assertSame(Expression.constant(true, Boolean.TYPE),
+				Expression.constant(true, Boolean.TYPE));
+		assertSame(Expression.constant(0d, Double.TYPE),
+				Expression.constant(0d, Double.TYPE));
+
+		// equal values only
+		assertEquals(1L, Expression.constant(1L, Integer.TYPE).getValue());
+		assertEquals(-0d, Expression.constant(-0d, Double.TYPE).getValue());
+		assertEquals(7, Expression.constant(7, Integer.TYPE).getValue());
+		assertEquals(Integer.class, Expression.constant(1).getResultType());
+	}
+
+	@Test
+	public void testSharedAcrossParses() {
+		Predicate<Person> first = p -> p.named("a", 1);
+		Predicate<Person> second = p -> p.named("b", 1);
+
+		MemberExpression m1 = find(ExpressionReducer.reduce(LambdaExpression
+				.parse(first).getBody()));
+		MemberExpression m2 = find(ExpressionReducer.reduce(LambdaExpression
+				.parse(second).getBody()));
+
+		assertSame(m1.getParameterTypes(), m2.getParameterTypes());
+		assertEquals(Arrays.asList(String.class, Integer.TYPE),
+				m1.getParameterTypes());
+		assertSame(m1.getInstance(), m2.getInstance());
+		assertSame(m1.getArguments().get(1), m2.getArguments().get(1));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testArgumentsImmutable() {
+		Function<Person, Boolean> f = p -> p.named(p.getName(), 2);
+		List<Expression> arguments = find(
+				ExpressionReducer.reduce(LambdaExpression.parse(f).getBody()))
+				.getArguments();
+		assertEquals(2, arguments.size());
+		assertTrue(arguments.get(0) instanceof MemberExpression);
+		arguments.set(0, null);
+	}
+
+	private static MemberExpression find(Expression e) {
+		while (!(e instanceof MemberExpression))
+			e = ((UnaryExpression) e).getFirst();
+		return (MemberExpression) e;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+
+public class InvokeDynamicTest {
+
+	private static final List<String> NAMES = Arrays.asList("Ann", "Maria",
+			"Rosa", "Mia");
+
+	@Test
+	public void testNestedLambda() {
+		Function<List<String>, Boolean> f = l -> l.stream().anyMatch(
+				s -> s.length() > 4);
+		assertEquals(true,
+				LambdaExpression.parse(f).compile()
+						.apply(new Object[] { NAMES }));
+	}
+
+	@Test
+	public void testCapturingNestedLambda() {
+		BiFunction<List<String>, Integer, Long> f = (l, n) -> l.stream()
+				.filter(s -> s.length() > n).count();
+		Function<Object[], ?> le = LambdaExpression.parse(f).compile();
+		for (int n = 2; n < 6; n++)
+			assertEquals(f.apply(NAMES, n), le.apply(new Object[] { NAMES, n }));
+	}
+
+	@Test
+	public void testMethodReference() {
+		Function<List<String>, List<Integer>> f = l -> l.stream()
+				.map(String::length).collect(Collectors.toList());
+		assertEquals(f.apply(NAMES), LambdaExpression.parse(f).compile()
+				.apply(new Object[] { NAMES }));
+	}
+
+	@Test
+	public void testParseNested() {
+		Function<Integer, Predicate<String>> f = n -> s -> s.length() > n;
+		@SuppressWarnings("unchecked")
+		Predicate<String> p = (Predicate<String>) LambdaExpression.parse(f)
+				.compile().apply(new Object[] { 3 });
+		assertTrue(p.test("Maria"));
+		assertEquals(false, p.test("Mia"));
+
+		LambdaExpression<Predicate<String>> nested = LambdaExpression.parse(p);
+		assertTrue(nested.toString(), nested.toString().contains("3"));
+		assertEquals(true, nested.compile().apply(new Object[] { "Maria" }));
+		assertEquals(false, nested.compile().apply(new Object[] { "Mia" }));
+	}
+
+	@Test
+	public void testDefaultMethods() {
+		Function<Integer, Predicate<String>> f = n -> s -> s.length() > n;
+		@SuppressWarnings("unchecked")
+		Predicate<String> p = (Predicate<String>) LambdaExpression.parse(f)
+				.compile().apply(new Object[] { 3 });
+		assertTrue(p.negate().test("Mia"));
+		assertEquals(false, p.negate().test("Maria"));
+		assertTrue(p.and(s -> s.startsWith("M")).test("Maria"));
+		assertEquals(false, p.and(s -> s.startsWith("M")).test("Rosa"));
+
+		Function<Integer, Function<String, Integer>> g = n -> s -> s.length()
+				+ n;
+		@SuppressWarnings("unchecked")
+		Function<String, Integer> h = (Function<String, Integer>) LambdaExpression
+				.parse(g).compile().apply(new Object[] { 1 });
+		assertEquals(12, (int) h.andThen(x -> x * 2).apply("Maria"));
+	}
+
+	// (String name, int n) -> "name: " + name + ", n=" + n + "!", as
+	// compiled for Java 9 and newer
+	@Test
+	public void testStringConcat() {
+		Function<Object, Object> lambda = x -> x;
+		ExpressionClassVisitor classVisitor = new ExpressionClassVisitor(
+				lambda, "m", "()V");
+		ExpressionMethodVisitor v = new ExpressionMethodVisitor(classVisitor,
+				null, new Class<?>[] { String.class, Integer.TYPE });
+		v.visitCode();
+		v.visitVarInsn(Opcodes.ALOAD, 0);
+		v.visitVarInsn(Opcodes.ILOAD, 1);
+		v.visitInvokeDynamicInsn("makeConcatWithConstants",
+				"(Ljava/lang/String;I)Ljava/lang/String;", new Handle(
+						Opcodes.H_INVOKESTATIC,
+						"java/lang/invoke/StringConcatFactory",
+						"makeConcatWithConstants", "()V"),
+				"name: \u0001, n=\u0001\u0002", "!");
+		v.visitInsn(Opcodes.ARETURN);
+		v.visitEnd();
+
+		Function<Object[], ?> f = Expression.lambda(String.class,
+				classVisitor.getResult(),
+				Arrays.<Class<?>> asList(String.class, Integer.TYPE)).compile();
+		assertEquals("name: Maria, n=5!", f.apply(new Object[] { "Maria", 5 }));
+		assertEquals("name: null, n=0!", f.apply(new Object[] { null, 0 }));
+	}
+
+	private static byte[] classFile(int major, int... constantPool) {
+		byte[] b = new byte[10 + constantPool.length];
+		b[0] = (byte) 0xCA;
+		b[1] = (byte) 0xFE;
+		b[2] = (byte) 0xBA;
+		b[3] = (byte) 0xBE;
+		b[7] = (byte) major;
+		// constant_pool_count
+		b[9] = 2;
+		for (int i = 0; i < constantPool.length; i++)
+			b[10 + i] = (byte) constantPool[i];
+		return b;
+	}
+
+	@Test
+	public void testReadNewerClass() throws IOException {
+		// CONSTANT_Utf8 "a"
+		byte[] b = ExpressionClassCracker.readClass(new ByteArrayInputStream(
+				classFile(61, 1, 0, 1, 'a')));
+		assertEquals(Opcodes.V1_8, b[7]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReadDynamicConstant() throws IOException {
+		// CONSTANT_Dynamic #0:#0
+		ExpressionClassCracker.readClass(new ByteArrayInputStream(classFile(
+				55, 17, 0, 0, 0, 0)));
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+public class IterativeExpressionVisitorTest {
+
+	private static final int LENGTH = 100000;
+
+	// left deep, as generated for a long || chain
+	private static Expression chain() {
+		Expression p = Expression.parameter(Integer.TYPE, 0);
+		Expression e = Expression.equal(p, Expression.constant(0, Integer.TYPE));
+		for (int i = 1; i < LENGTH; i++)
+			e = Expression.logicalOr(e,
+					Expression.equal(p, Expression.constant(i, Integer.TYPE)));
+		return e;
+	}
+
+	private static int depth(Expression e) {
+		if (!(e instanceof BinaryExpression))
+			return 1;
+		BinaryExpression b = (BinaryExpression) e;
+		return 1 + Math.max(depth(b.getFirst()), depth(b.getSecond()));
+	}
+
+	@Test
+	public void testDeepTree() {
+		Expression chain = chain();
+		assertSame(chain, ExpressionReducer.reduce(chain));
+
+		final int[] count = new int[1];
+		Expression e = new IterativeExpressionVisitor() {
+			@Override
+			public Expression visit(ConstantExpression e) {
+				count[0]++;
+				return Expression.constant((Integer) e.getValue() + 1,
+						Integer.TYPE);
+			}
+		}.transform(chain);
+		assertEquals(LENGTH, count[0]);
+		assertEquals(ExpressionType.LogicalOr, e.getExpressionType());
+	}
+
+	@Test
+	public void testBalance() {
+		Expression balanced = ExpressionBalancer.balance(chain());
+		assertTrue(String.valueOf(depth(balanced)), depth(balanced) <= 19);
+
+		Function<Object[], ?> f = Expression.lambda(Boolean.TYPE, chain(),
+				Arrays.<Class<?>> asList(Integer.TYPE)).compile();
+		assertEquals(true, f.apply(new Object[] { 0 }));
+		assertEquals(true, f.apply(new Object[] { LENGTH - 1 }));
+		assertEquals(false, f.apply(new Object[] { LENGTH }));
+	}
+
+	@Test
+	public void testBalanceAdd() {
+		Expression p = Expression.parameter(Long.TYPE, 0);
+		Expression sum = p;
+		for (int i = 1; i < 8; i++)
+			sum = Expression.add(sum, p);
+		Expression balanced = ExpressionBalancer.balance(sum);
+		assertEquals(4, depth(balanced));
+		assertEquals(8 * 3L, Expression.lambda(Long.TYPE, sum,
+				Arrays.<Class<?>> asList(Long.TYPE)).compile()
+				.apply(new Object[] { 3L }));
+
+		// not associative
+		Expression d = Expression.parameter(Double.TYPE, 0);
+		Expression doubles = d;
+		for (int i = 1; i < 8; i++)
+			doubles = Expression.add(doubles, d);
+		assertSame(doubles, ExpressionBalancer.balance(doubles));
+	}
+
+	@Test
+	public void testBalanceSwitch() {
+		// k != 0 ? (k != 1 ? ... : "1") : "0", as a switch is parsed
+		Expression k = Expression.parameter(Integer.TYPE, 0);
+		Expression e = Expression.constant("none", String.class);
+		for (int i = 63; i >= 0; i--)
+			e = Expression.condition(
+					Expression.notEqual(k, Expression.constant(i, Integer.TYPE)),
+					e, Expression.constant(String.valueOf(i), String.class));
+
+		Expression balanced = ExpressionBalancer.balance(e);
+		assertEquals(8, depth(balanced));
+
+		Function<Object[], ?> f = Expression.lambda(String.class, e,
+				Arrays.<Class<?>> asList(Integer.TYPE)).compile();
+		for (int i = -1; i < 65; i++)
+			assertEquals(i >= 0 && i < 64 ? String.valueOf(i) : "none",
+					f.apply(new Object[] { i }));
+
+		// too short
+		Expression shorter = Expression.constant("none", String.class);
+		for (int i = 2; i >= 0; i--)
+			shorter = Expression.condition(
+					Expression.equal(k, Expression.constant(i, Integer.TYPE)),
+					Expression.constant(String.valueOf(i), String.class),
+					shorter);
+		assertSame(shorter, ExpressionBalancer.balance(shorter));
+	}
+
+	@Test
+	public void testBalanceSwitchSideEffects() throws NoSuchMethodException {
+		// the key is evaluated by each test, until one holds
+		AtomicInteger counter = new AtomicInteger();
+		Expression k = Expression.invoke(
+				Expression.constant(counter, AtomicInteger.class),
+				"incrementAndGet", new Class<?>[0]);
+		Expression e = Expression.constant("none", String.class);
+		for (int i = 7; i >= 0; i--)
+			e = Expression.condition(
+					Expression.equal(k, Expression.constant(i * 2, Integer.TYPE)),
+					Expression.constant(String.valueOf(i), String.class), e);
+
+		assertSame(e, ExpressionBalancer.balance(e));
+
+		// 1 != 0, 2 == 2
+		Function<Object[], ?> f = Expression.lambda(String.class, e,
+				Arrays.<Class<?>> asList(Integer.TYPE)).compile();
+		assertEquals("1", f.apply(new Object[] { 0 }));
+		assertEquals(2, counter.get());
+	}
+}
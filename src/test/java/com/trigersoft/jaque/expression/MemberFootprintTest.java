@@ -0,0 +1,124 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Member;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+public class MemberFootprintTest {
+
+	public static class Address {
+		public String zip;
+
+		public String getCity() {
+			return null;
+		}
+	}
+
+	public static class Contact {
+		public Address getAddress() {
+			return null;
+		}
+
+		public String getName() {
+			return null;
+		}
+
+		public int getAge() {
+			return 0;
+		}
+	}
+
+	private static Member method(Class<?> type, String name) throws Exception {
+		return type.getMethod(name);
+	}
+
+	private static List<Member> path(Member... members) {
+		return Arrays.asList(members);
+	}
+
+	@Test
+	public void testPaths() throws Exception {
+		Predicate<Contact> p = c -> c.getAddress() != null
+				&& c.getAddress().getCity().length() > 3 && c.getAge() > 18;
+		MemberFootprint f = MemberFootprint.of(p);
+
+		Member address = method(Contact.class, "getAddress");
+		Member city = method(Address.class, "getCity");
+		Member length = method(String.class, "length");
+		Member age = method(Contact.class, "getAge");
+		assertEquals(
+				new HashSet<List<Member>>(Arrays.asList(path(address),
+						path(address, city, length), path(age))),
+				f.getPaths());
+		assertEquals(new HashSet<Member>(Arrays.asList(address, city, length,
+				age)), f.getMembers());
+		assertTrue(f.toString().contains("P0.getAddress().getCity().length()"));
+	}
+
+	@Test
+	public void testFieldsAndArguments() throws Exception {
+		BiFunction<Contact, Address, Boolean> f = (c, a) -> Objects.equals(
+				c.getAddress().zip, a.getCity().substring(c.getAge()));
+		MemberFootprint footprint = MemberFootprint.of(f);
+
+		Member address = method(Contact.class, "getAddress");
+		Member zip = Address.class.getField("zip");
+		assertTrue(footprint.getPaths(0).contains(path(address, zip)));
+		assertTrue(footprint.getPaths(0).contains(
+				path(method(Contact.class, "getAge"))));
+		assertTrue(footprint.getPaths(1).contains(
+				path(method(Address.class, "getCity"),
+						String.class.getMethod("substring", Integer.TYPE))));
+	}
+
+	@Test
+	public void testParameterUsed() {
+		Function<Contact, String> f = c -> String.valueOf(c);
+		assertEquals(Collections.singleton(Collections.emptyList()),
+				MemberFootprint.of(f).getPaths());
+	}
+
+	@Test
+	public void testCachedPerClass() {
+		Predicate<Contact> p = null;
+		MemberFootprint first = null;
+		for (int i = 0; i < 2; i++) {
+			int min = i;
+			p = c -> c.getAge() > min;
+			MemberFootprint f = MemberFootprint.of(p);
+			if (first == null)
+				first = f;
+			else
+				assertSame(first, f);
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import com.trigersoft.jaque.Customer;
+
+public class ParameterizedLambdaTest {
+
+	public interface SerializablePredicate<T> extends Predicate<T>, Serializable {
+	}
+
+	private static Predicate<Customer> greaterThan(int min) {
+		return c -> c.getData() > min;
+	}
+
+	private static SerializablePredicate<Customer> serializableGreaterThan(
+			int min) {
+		return c -> c.getData() > min;
+	}
+
+	private static Predicate<Customer> equalTo(Integer value) {
+		return c -> value == null ? c.getData() == 0 : c.getData() == value;
+	}
+
+	@Test
+	public void testCapturedValues() {
+		ParameterizedLambda p1 = ParameterizedLambda.of(LambdaExpression
+				.parse(greaterThan(3)));
+		ParameterizedLambda p2 = ParameterizedLambda.of(LambdaExpression
+				.parse(greaterThan(7)));
+
+		assertEquals(p1.getShape(), p2.getShape());
+		assertEquals(p1.getShape().hashCode(), p2.getShape().hashCode());
+		assertEquals(1, p1.getParameterCount());
+		assertEquals(Arrays.asList(3), p1.getValues());
+		assertEquals(Arrays.asList(7), p2.getValues());
+
+		Function<Object[], ?> f = p1.getShape().compile();
+		Customer c = new Customer(5);
+		assertEquals(true, f.apply(p1.bind(new Object[] { c })));
+		assertEquals(false, f.apply(p2.bind(new Object[] { c })));
+	}
+
+	@Test
+	public void testSerializableCapturedValues() {
+		ParameterizedLambda p1 = ParameterizedLambda.of(LambdaExpression
+				.parse(serializableGreaterThan(3)));
+		ParameterizedLambda p2 = ParameterizedLambda.of(LambdaExpression
+				.parse(serializableGreaterThan(7)));
+
+		assertEquals(p1.getShape(), p2.getShape());
+		assertEquals(Arrays.asList(7), p2.getValues());
+
+		Function<Object[], ?> f = p2.getShape().compile();
+		assertEquals(true, f.apply(p2.bind(new Object[] { new Customer(8) })));
+		assertEquals(false, f.apply(p2.bind(new Object[] { new Customer(5) })));
+	}
+
+	@Test
+	public void testNullIsNotLifted() {
+		ParameterizedLambda p1 = ParameterizedLambda.of(LambdaExpression
+				.parse(equalTo(null)));
+		ParameterizedLambda p2 = ParameterizedLambda.of(LambdaExpression
+				.parse(equalTo(5)));
+
+		assertFalse(p1.getShape().equals(p2.getShape()));
+		assertFalse(p1.getValues().contains(null));
+	}
+
+	@Test
+	public void testPlanCache() {
+		AtomicInteger planned = new AtomicInteger();
+		PlanCache<Function<Object[], ?>> cache = new PlanCache<Function<Object[], ?>>(
+				shape -> {
+					planned.incrementAndGet();
+					return shape.compile();
+				});
+
+		for (int i = 0; i < 10; i++) {
+			ParameterizedLambda p = ParameterizedLambda.of(LambdaExpression
+					.parse(greaterThan(i)));
+			assertEquals(i < 5, cache.get(p).apply(
+					p.bind(new Object[] { new Customer(5) })));
+		}
+
+		assertEquals(1, planned.get());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testPlanCacheEviction() {
+		Class<?>[] types = { String.class, Integer.class, Long.class,
+				Double.class, Float.class, Short.class };
+		long weight = ParseCache.weigh(isType(types[0]).getShape());
+		AtomicInteger planned = new AtomicInteger();
+		PlanCache<LambdaExpression<?>> cache = new PlanCache<LambdaExpression<?>>(
+				shape -> {
+					planned.incrementAndGet();
+					return shape;
+				}, weight * 2);
+
+		for (Class<?> type : types)
+			cache.get(isType(type));
+
+		assertEquals(2, cache.size());
+		assertEquals(weight * 2, cache.getWeight());
+		assertEquals(types.length - 2, cache.getEvictionCount());
+
+		// the last two are cached
+		cache.get(isType(types[types.length - 1]));
+		cache.get(isType(types[types.length - 2]));
+		assertEquals(types.length, planned.get());
+
+		cache.setMaximumWeight(0);
+		assertEquals(0, cache.size());
+		cache.get(isType(types[0]));
+		assertEquals(0, cache.size());
+		assertEquals(types.length + 1, planned.get());
+	}
+
+	private static ParameterizedLambda isType(Class<?> type) {
+		return ParameterizedLambda.of(Expression.lambda(Boolean.TYPE, Expression
+				.equal(Expression.parameter(Class.class, 0),
+						Expression.constant(type, Class.class)), Collections
+				.singletonList(Class.class)));
+	}
+
+	@Test
+	public void testNestedLambdaCapturesAreNotCached() {
+		AtomicInteger planned = new AtomicInteger();
+		PlanCache<LambdaExpression<?>> cache = new PlanCache<LambdaExpression<?>>(
+				shape -> {
+					planned.incrementAndGet();
+					return shape;
+				});
+
+		for (int i = 0; i < 10; i++) {
+			ParameterizedLambda p = nesting(Expression.constant(i));
+			assertFalse(p.isCacheable());
+			cache.get(p);
+		}
+
+		assertEquals(10, planned.get());
+		assertEquals(0, cache.size());
+
+		ParameterizedLambda p = nesting(Expression.constant(Integer.class,
+				Class.class));
+		assertTrue(p.isCacheable());
+		cache.get(p);
+		cache.get(p);
+		assertEquals(11, planned.get());
+		assertEquals(1, cache.size());
+	}
+
+	private static ParameterizedLambda nesting(Expression nestedBody) {
+		LambdaExpression<?> nested = Expression.lambda(
+				nestedBody.getResultType(), nestedBody,
+				Collections.emptyList());
+		return ParameterizedLambda.of(Expression.lambda(Boolean.TYPE,
+				Expression.equal(Expression.parameter(LambdaExpression.class, 0),
+						Expression.constant(nested, LambdaExpression.class)),
+				Collections.singletonList(LambdaExpression.class)));
+	}
+}
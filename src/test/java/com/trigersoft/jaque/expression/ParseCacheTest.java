@@ -0,0 +1,264 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+public class ParseCacheTest {
+
+	interface SerializableFunction<T, R> extends Function<T, R>, Serializable {
+	}
+
+	private static final Function<Integer, Integer> A = i -> i + 1;
+	private static final Function<Integer, Integer> B = i -> i + 2;
+	private static final Function<Integer, Integer> C = i -> i + 3;
+	private static final Function<Integer, Integer> D = i -> i + 4;
+
+	private static SerializableFunction<String, Boolean> startsWith(
+			String prefix) {
+		return s -> s.startsWith(prefix);
+	}
+
+	@Test
+	public void testParseStatistics() {
+		ParseCache cache = LambdaExpression.getParseCache();
+		long hits = cache.getHitCount();
+		long misses = cache.getMissCount();
+
+		for (int i = 0; i < 3; i++) {
+			Function<String, Integer> f = s -> s.length() * 3;
+			LambdaExpression.parse(f);
+		}
+
+		assertEquals(misses + 1, cache.getMissCount());
+		assertEquals(hits + 2, cache.getHitCount());
+		assertTrue(cache.getWeight() > 0);
+		assertTrue(cache.getWeight() <= cache.getMaximumWeight());
+	}
+
+	@Test
+	public void testCapturedValuesNotCached() {
+		SerializableFunction<String, Boolean> first = startsWith("first-prefix");
+		SerializableFunction<String, Boolean> second = startsWith(
+				"second-prefix");
+
+		assertTrue(LambdaExpression.parse(first).toString()
+				.contains("first-prefix"));
+		LambdaExpression<?> cached = LambdaExpression.getParseCache().get(
+				first.getClass());
+		assertNotNull(cached);
+		assertFalse(cached.toString(),
+				cached.toString().contains("first-prefix"));
+
+		LambdaExpression<?> parsed = LambdaExpression.parse(second);
+		assertTrue(parsed.toString().contains("second-prefix"));
+		assertEquals(Boolean.TRUE,
+				parsed.compile().apply(new Object[] { "second-prefix!" }));
+	}
+
+	@Test
+	public void testFrequentSurvivesScan() {
+		LambdaExpression<?> a = LambdaExpression.parse(A);
+		long weight = ParseCache.weigh(a);
+		ParseCache cache = new ParseCache(weight * 3);
+
+		cache.put(A.getClass(), a);
+		assertSame(a, cache.get(A.getClass()));
+
+		// the lambdas used once pass through the probation segment
+		for (Function<Integer, Integer> f : Arrays.asList(B, C, D, B, C, D))
+			if (cache.get(f.getClass()) == null)
+				cache.put(f.getClass(), LambdaExpression.parse(f));
+
+		assertSame(a, cache.get(A.getClass()));
+		assertEquals(3, cache.size());
+		assertEquals(weight * 3, cache.getWeight());
+		assertTrue(cache.getEvictionCount() > 0);
+		assertEquals(cache.getEvictionCount() * weight,
+				cache.getEvictionWeight());
+	}
+
+	private static WeakReference<Class<?>> cacheUnloadable(ParseCache cache,
+			LambdaExpression<?> lambda) throws Exception {
+		URL classes = ParseCacheTest.class.getProtectionDomain()
+				.getCodeSource().getLocation();
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { classes },
+				null)) {
+			Class<?> type = loader.loadClass("com.trigersoft.jaque.Person");
+			cache.put(type, lambda);
+			assertSame(lambda, cache.get(type));
+			return new WeakReference<Class<?>>(type);
+		}
+	}
+
+	@Test
+	public void testClassUnloaded() throws Exception {
+		LambdaExpression<?> a = LambdaExpression.parse(A);
+		ParseCache cache = new ParseCache(ParseCache.DEFAULT_MAXIMUM_WEIGHT);
+		cache.put(A.getClass(), a);
+		WeakReference<Class<?>> type = cacheUnloadable(cache, a);
+		assertEquals(2, cache.size());
+
+		for (int i = 0; i < 50 && (type.get() != null || cache.size() > 1); i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+
+		// the cache does not pin the class
+		assertNull(type.get());
+		assertEquals(1, cache.size());
+		assertEquals(ParseCache.weigh(a), cache.getWeight());
+		assertSame(a, cache.get(A.getClass()));
+	}
+
+	@Test
+	public void testMaximumWeight() {
+		LambdaExpression<?> a = LambdaExpression.parse(A);
+		long weight = ParseCache.weigh(a);
+		ParseCache cache = new ParseCache(weight * 2);
+
+		cache.put(A.getClass(), a);
+		cache.put(B.getClass(), LambdaExpression.parse(B));
+		cache.get(A.getClass());
+		cache.put(C.getClass(), LambdaExpression.parse(C));
+
+		// B was not hit, so evicted first
+		assertNull(cache.get(B.getClass()));
+		assertNotNull(cache.get(A.getClass()));
+		assertNotNull(cache.get(C.getClass()));
+		assertEquals(3.0 / 4, cache.getHitRate(), 0);
+
+		cache.setMaximumWeight(weight);
+		assertEquals(1, cache.size());
+
+		long loads = cache.getLoadCount();
+		cache.setMaximumWeight(0);
+		assertEquals(0, cache.size());
+		cache.put(A.getClass(), a);
+		assertEquals(0, cache.getWeight());
+		assertNull(cache.get(A.getClass()));
+		assertEquals(loads, cache.getLoadCount());
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		int threads = 16;
+		Function<String, String> f = s -> s.trim().toUpperCase();
+		ParseCache cache = LambdaExpression.getParseCache();
+		long loads = cache.getLoadCount();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			CyclicBarrier barrier = new CyclicBarrier(threads);
+			List<Future<LambdaExpression<?>>> parses = new ArrayList<Future<LambdaExpression<?>>>(
+					threads);
+			for (int i = 0; i < threads; i++)
+				parses.add(executor.submit(() -> {
+					barrier.await();
+					return LambdaExpression.parse(f);
+				}));
+
+			LambdaExpression<?> first = parses.get(0).get();
+			for (Future<LambdaExpression<?>> parse : parses)
+				assertEquals(first, parse.get());
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(loads + 1, cache.getLoadCount());
+	}
+
+	@Test
+	public void testParseAsync() throws Exception {
+		Function<String, Integer> f = s -> s.indexOf('x') + 7;
+		ParseCache cache = LambdaExpression.getParseCache();
+		long loads = cache.getLoadCount();
+
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		CompletableFuture<LambdaExpression<Function<String, Integer>>> first = LambdaExpression
+				.parseAsync(f, tasks::add);
+		// joins the parse in flight
+		CompletableFuture<LambdaExpression<Function<String, Integer>>> second = LambdaExpression
+				.parseAsync(f, r -> {
+					throw new AssertionError("not joined");
+				});
+		assertFalse(first.isDone());
+		assertFalse(second.isDone());
+		assertEquals(1, tasks.size());
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			executor.execute(tasks.get(0));
+			assertEquals(Integer.valueOf(8),
+					first.get().compile().apply(new Object[] { "ax" }));
+			assertEquals(first.get(), second.get());
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(loads + 1, cache.getLoadCount());
+
+		// answered from the cache synchronously
+		CompletableFuture<LambdaExpression<Function<String, Integer>>> third = LambdaExpression
+				.parseAsync(f, r -> {
+					throw new AssertionError("not cached");
+				});
+		assertTrue(third.isDone());
+		assertEquals(first.get(), third.get());
+	}
+
+	@Test
+	public void testParseAsyncRejected() throws Exception {
+		Function<String, Integer> f = s -> s.lastIndexOf('y') - 7;
+		CompletableFuture<LambdaExpression<Function<String, Integer>>> parse = LambdaExpression
+				.parseAsync(f, r -> {
+					throw new RejectedExecutionException();
+				});
+		try {
+			parse.get();
+			throw new AssertionError("rejected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+
+		// not in flight anymore
+		assertNotNull(LambdaExpression.parseAsync(f, Runnable::run).get());
+	}
+}
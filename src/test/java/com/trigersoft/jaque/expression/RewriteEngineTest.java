@@ -0,0 +1,121 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class RewriteEngineTest {
+
+	private static Expression foldAdd(Expression e) {
+		BinaryExpression b = (BinaryExpression) e;
+		if (b.getFirst() instanceof ConstantExpression
+				&& b.getSecond() instanceof ConstantExpression)
+			return Expression.constant(
+					(Integer) ((ConstantExpression) b.getFirst()).getValue()
+							+ (Integer) ((ConstantExpression) b.getSecond())
+									.getValue(), Integer.TYPE);
+		return null;
+	}
+
+	private static Expression doubleNegate(Expression e) {
+		Expression operand = ((UnaryExpression) e).getFirst();
+		if (operand.getExpressionType() == ExpressionType.Negate)
+			return ((UnaryExpression) operand).getFirst();
+		return null;
+	}
+
+	// x + c -> c + x, normalizes the constants to the left
+	private static Expression constantFirst(Expression e) {
+		BinaryExpression b = (BinaryExpression) e;
+		if (b.getSecond() instanceof ConstantExpression
+				&& !(b.getFirst() instanceof ConstantExpression))
+			return Expression.add(b.getSecond(), b.getFirst());
+		return null;
+	}
+
+	private static Expression c(int value) {
+		return Expression.constant(value, Integer.TYPE);
+	}
+
+	@Test
+	public void testSinglePass() {
+		final int[] calls = new int[2];
+		RewriteEngine engine = new RewriteEngine().add(ExpressionType.Add,
+				e -> {
+					calls[0]++;
+					return foldAdd(e);
+				}).add(ExpressionType.Negate, e -> {
+			calls[1]++;
+			return doubleNegate(e);
+		});
+
+		Expression p = Expression.parameter(Boolean.TYPE, 0);
+		Expression x = Expression.parameter(Integer.TYPE, 1);
+		Expression e = Expression.condition(p,
+				Expression.add(Expression.add(c(1), c(2)), c(3)),
+				Expression.negate(Expression.negate(x)));
+		BinaryExpression r = (BinaryExpression) engine.rewrite(e);
+
+		assertEquals(6, ((ConstantExpression) r.getFirst()).getValue());
+		assertSame(x, r.getSecond());
+		assertEquals(2, calls[0]);
+		assertEquals(2, calls[1]);
+	}
+
+	@Test
+	public void testFixpoint() {
+		RewriteEngine engine = new RewriteEngine().add(ExpressionType.Add,
+				RewriteEngineTest::foldAdd).add(ExpressionType.Add,
+				RewriteEngineTest::constantFirst);
+
+		// (x + 1) + 2 -> (1 + x) + 2 -> 2 + (1 + x)
+		Expression x = Expression.parameter(Integer.TYPE, 0);
+		Expression r = engine.rewrite(Expression.add(
+				Expression.add(x, c(1)), c(2)));
+		assertEquals(Expression.add(c(2), Expression.add(c(1), x)), r);
+		assertSame(r, engine.rewrite(r));
+	}
+
+	@Test
+	public void testMemoized() {
+		final int[] calls = new int[1];
+		RewriteEngine engine = new RewriteEngine().add(ExpressionType.Add,
+				e -> {
+					calls[0]++;
+					return null;
+				});
+
+		Expression x = Expression.parameter(Integer.TYPE, 0);
+		Expression shared = Expression.add(x, x);
+		Expression e = Expression.multiply(shared, shared);
+		assertSame(e, engine.rewrite(e));
+		assertEquals(1, calls[0]);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCycle() {
+		RewriteEngine engine = new RewriteEngine().add(ExpressionType.Add,
+				e -> Expression.add(((BinaryExpression) e).getSecond(),
+						((BinaryExpression) e).getFirst()));
+		engine.rewrite(Expression.add(Expression.parameter(Integer.TYPE, 0),
+				Expression.parameter(Integer.TYPE, 1)));
+	}
+}
@@ -24,6 +24,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -488,6 +489,133 @@ public class LambdaExpressionTest {
 		this.testExpression("Maria Bonita");
 	}
 
+	@Test
+	public void testLocalVariables() {
+		Predicate<Person> p = t -> {
+			String name = t.getName();
+			int length = name.length();
+			return length > 3 && name.startsWith("M");
+		};
+		LambdaExpression<Predicate<Person>> ex = LambdaExpression.parse(p);
+		// the locals are substituted
+		assertFalse(ex.toString(), ex.toString().contains("P1"));
+		Function<Object[], ?> le = ex.compile();
+
+		Person t = new Person();
+		for (String name : new String[] { "Maria", "Mia", "Rosa" }) {
+			t.setName(name);
+			assertEquals(p.test(t), le.apply(new Object[] { t }));
+		}
+	}
+
+	@Test
+	public void testLocalVariableBranches() {
+		Function<Integer, Integer> f = x -> {
+			int y;
+			if (x > 5)
+				y = x * 2;
+			else
+				y = 1;
+			int z = 0;
+			if (y > 100)
+				z = y;
+			z += 3;
+			return y + z;
+		};
+		Function<Object[], ?> le = LambdaExpression.parse(f).compile();
+		for (int x : new int[] { 0, 6, 51, 60 })
+			assertEquals(f.apply(x), le.apply(new Object[] { x }));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLocalVariableSideEffectsReadTwice() {
+		AtomicInteger c = new AtomicInteger();
+		Predicate<Integer> p = x -> {
+			int n = c.incrementAndGet();
+			return n <= 0 || n >= 10 || n == 5;
+		};
+		// substituting n would increment c at each read
+		LambdaExpression.parse(p);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLocalVariableSideEffectsNeverRead() {
+		AtomicInteger c = new AtomicInteger();
+		Predicate<Integer> p = x -> {
+			@SuppressWarnings("unused")
+			int n = c.incrementAndGet();
+			return x > 0;
+		};
+		// dropping n would not increment c
+		LambdaExpression.parse(p);
+	}
+
+	@Test
+	public void testTableSwitch() {
+		Function<Integer, String> f = x -> {
+			switch (x) {
+			case 1:
+				return "one";
+			case 2:
+			case 3:
+				return "few";
+			default:
+				return "many";
+			case 4:
+				return "four";
+			}
+		};
+		Function<Object[], ?> le = LambdaExpression.parse(f).compile();
+		for (int x = -1; x < 7; x++)
+			assertEquals(f.apply(x), le.apply(new Object[] { x }));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSwitchSideEffects() {
+		AtomicInteger c = new AtomicInteger();
+		Function<Integer, String> f = x -> {
+			switch (c.incrementAndGet()) {
+			case 1:
+				return "one";
+			case 2:
+				return "two";
+			default:
+				return "many";
+			}
+		};
+		// each case would increment c
+		LambdaExpression.parse(f);
+	}
+
+	@Test
+	public void testLookupSwitch() {
+		Function<Person, Integer> f = t -> {
+			int weight;
+			switch (t.getName().charAt(0)) {
+			case 'A':
+				weight = 1;
+				break;
+			case 'M':
+				weight = 10;
+				break;
+			case 'Z':
+			case 'z':
+				weight = 100;
+				break;
+			default:
+				weight = 0;
+			}
+			return weight + t.getName().length();
+		};
+		Function<Object[], ?> le = LambdaExpression.parse(f).compile();
+
+		Person t = new Person();
+		for (String name : new String[] { "Anna", "Maria", "Zoe", "zed", "Rosa" }) {
+			t.setName(name);
+			assertEquals(f.apply(t), le.apply(new Object[] { t }));
+		}
+	}
+
 	protected void testExpression(final String name) {
 		this.testExpression(t -> t.getName() == name, name);
 	}
@@ -0,0 +1,109 @@
+/*
+ * Copyright TrigerSoft <kostat@trigersoft.com> 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.trigersoft.jaque.function.math;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.trigersoft.jaque.expression.LambdaExpression;
+
+public class PrimitiveOperatorsTest {
+
+	private static final BinaryOperator[] INTEGRAL = { BinaryOperator.Add,
+			BinaryOperator.Subtract, BinaryOperator.Multiply,
+			BinaryOperator.Modulo, BinaryOperator.And, BinaryOperator.Or,
+			BinaryOperator.Xor, BinaryOperator.ShiftLeft,
+			BinaryOperator.ShiftRight };
+
+	private static final BinaryOperator[] FLOATING = { BinaryOperator.Add,
+			BinaryOperator.Subtract, BinaryOperator.Multiply,
+			BinaryOperator.Divide, BinaryOperator.Modulo, BinaryOperator.Power };
+
+	@Test
+	public void testSameAsEval() {
+		Random random = new Random(42);
+		for (int n = 0; n < 1000; n++) {
+			int i = random.nextInt(), j = random.nextInt(64) + 1;
+			long l = random.nextLong();
+			double d = random.nextDouble() * 1000, e = random.nextDouble() + 1;
+			for (BinaryOperator op : INTEGRAL) {
+				assertEquals(op.toString(), op.eval(i, j),
+						PrimitiveOperators.get(op, Integer.TYPE, Integer.TYPE)
+								.apply(i, j));
+				assertEquals(op.toString(), op.eval(l, (long) j),
+						PrimitiveOperators.get(op, Long.TYPE, Long.TYPE).apply(l,
+								(long) j));
+			}
+			for (BinaryOperator op : FLOATING)
+				assertEquals(op.toString(), op.eval(d, e), PrimitiveOperators
+						.get(op, Double.class, Double.TYPE).apply(d, e));
+			for (UnaryOperator op : UnaryOperator.values())
+				assertEquals(op.toString(), op.eval(l), PrimitiveOperators
+						.get(op, Long.TYPE).apply(l));
+		}
+	}
+
+	@Test
+	public void testPromotion() {
+		// the integral quotient
+		assertEquals(3, PrimitiveOperators.get(BinaryOperator.Divide,
+				Integer.TYPE, Integer.TYPE).apply(7, 2));
+		assertEquals(3.5, PrimitiveOperators.get(BinaryOperator.Divide,
+				Integer.TYPE, Double.TYPE).apply(7, 2d));
+		assertEquals(0.1f * 3f, PrimitiveOperators.get(
+				BinaryOperator.Multiply, Float.TYPE, Float.TYPE).apply(0.1f,
+				3f));
+		assertEquals(1L << 40, PrimitiveOperators.get(
+				BinaryOperator.ShiftLeft, Long.TYPE, Integer.TYPE).apply(1L,
+				40));
+		assertEquals(-5, PrimitiveOperators.get(UnaryOperator.Negate,
+				Byte.TYPE).apply((byte) 5));
+	}
+
+	@Test
+	public void testFallback() {
+		BiFunction<Number, Number, Number> add = PrimitiveOperators.get(
+				BinaryOperator.Add, BigInteger.class, Long.TYPE);
+		assertEquals(BigInteger.valueOf(3), add.apply(BigInteger.ONE, 2L));
+		assertEquals(new BigDecimal("1.5"), PrimitiveOperators.get(
+				BinaryOperator.Add, BigDecimal.class, Double.TYPE).apply(
+				BigDecimal.ONE, 0.5));
+
+		// null is added as by eval
+		assertEquals(5, PrimitiveOperators.get(BinaryOperator.Add,
+				Integer.class, Integer.class).apply(null, 5));
+	}
+
+	@Test
+	public void testCompiled() {
+		Function<Integer, Integer> half = x -> x / 2 + 1;
+		assertEquals(4, LambdaExpression.parse(half).compile()
+				.apply(new Object[] { 7 }));
+
+		Function<Long, Long> mix = x -> (x << 3) ^ -x;
+		assertEquals((5L << 3) ^ -5L, LambdaExpression.parse(mix).compile()
+				.apply(new Object[] { 5L }));
+	}
+}